@@ -5,6 +5,7 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Rect;
 
 import com.otaliastudios.cameraview.tools.Op;
 
@@ -184,4 +185,26 @@ public class CameraUtilsTest extends BaseTest {
         assertEquals(other.getWidth(), width);
         assertEquals(other.getHeight(), height);
     }
+
+    @Test
+    public void testDecodeCroppedBitmap() {
+        int width = 100, height = 200, color = Color.WHITE;
+        Bitmap source = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        source.setPixel(50, 100, color);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        source.compress(Bitmap.CompressFormat.PNG, 100, os);
+        byte[] data = os.toByteArray();
+
+        Bitmap other = CameraUtils.decodeBitmap(data, new Rect(50, 100, 70, 140), -1, -1);
+        assertNotNull(other);
+        assertEquals(20, other.getWidth());
+        assertEquals(40, other.getHeight());
+        assertEquals(color, other.getPixel(0, 0));
+        assertEquals(0, other.getPixel(1, 1));
+
+        other = CameraUtils.decodeBitmap(data, new Rect(0, 0, 100, 100), 10, 10);
+        assertNotNull(other);
+        assertEquals(10, other.getWidth());
+        assertEquals(10, other.getHeight());
+    }
 }
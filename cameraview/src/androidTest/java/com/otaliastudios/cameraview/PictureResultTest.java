@@ -7,6 +7,8 @@ import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.PictureFormat;
 import com.otaliastudios.cameraview.size.Size;
 
+import java.io.File;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
@@ -52,4 +54,20 @@ public class PictureResultTest extends BaseTest {
         assertEquals(result.isSnapshot(), isSnapshot);
         assertEquals(result.getFacing(), facing);
     }
+
+    @Test
+    public void testResult_file() {
+        File file = new File("picture.jpg");
+        stub.format = PictureFormat.JPEG;
+        stub.file = file;
+        PictureResult result = new PictureResult(stub);
+        assertEquals(result.getFile(), file);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testResult_file_getData() {
+        stub.format = PictureFormat.JPEG;
+        stub.file = new File("picture.jpg");
+        new PictureResult(stub).getData();
+    }
 }
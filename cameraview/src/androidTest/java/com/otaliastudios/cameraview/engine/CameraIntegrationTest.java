@@ -59,6 +59,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Matchers.anyBoolean;
@@ -1020,6 +1021,16 @@ public abstract class CameraIntegrationTest<E extends CameraBaseEngine> extends
         }
     }
 
+    @Test
+    public void testPictureFormat_RGBA() {
+        openSync(true);
+        try {
+            camera.setPictureFormat(PictureFormat.RGBA);
+            fail();
+        } catch (UnsupportedOperationException ignore) {}
+        assertEquals(PictureFormat.JPEG, camera.getPictureFormat());
+    }
+
     //endregion
 
     //region Frame Processing
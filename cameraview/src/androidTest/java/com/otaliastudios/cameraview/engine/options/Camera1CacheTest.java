@@ -0,0 +1,52 @@
+package com.otaliastudios.cameraview.engine.options;
+
+
+import android.hardware.Camera;
+
+import com.otaliastudios.cameraview.BaseTest;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class Camera1CacheTest extends BaseTest {
+
+    @After
+    public void tearDown() {
+        Camera1Cache.get().invalidate();
+    }
+
+    @Test
+    public void testGetCameraOptions() {
+        Camera1Cache cache = Camera1Cache.get();
+        Camera.Parameters params = mock(Camera.Parameters.class);
+        Camera1Options options = cache.getCameraOptions(params, 0, false);
+        assertSame(options, cache.getCameraOptions(params, 0, false));
+        assertNotSame(options, cache.getCameraOptions(params, 0, true));
+        assertNotSame(options, cache.getCameraOptions(params, 1, false));
+    }
+
+    @Test
+    public void testInvalidate() {
+        Camera1Cache cache = Camera1Cache.get();
+        Camera.Parameters params = mock(Camera.Parameters.class);
+        Camera1Options options = cache.getCameraOptions(params, 0, false);
+        cache.invalidate();
+        assertNotSame(options, cache.getCameraOptions(params, 0, false));
+    }
+
+    @Test
+    public void testGetNumberOfCameras() {
+        assertEquals(Camera.getNumberOfCameras(), Camera1Cache.get().getNumberOfCameras());
+    }
+}
@@ -0,0 +1,91 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.otaliastudios.cameraview.BaseTest;
+import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DirectBufferFrameManagerTest extends BaseTest {
+
+    private final static int WIDTH = 4;
+    private final static int HEIGHT = 2;
+
+    private DirectBufferFrameManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new DirectBufferFrameManager(1);
+    }
+
+    @After
+    public void tearDown() {
+        manager = null;
+    }
+
+    @Test
+    public void testSetUp() {
+        manager.setUp(ImageFormat.YUV_420_888, new Size(WIDTH, HEIGHT), new Angles());
+        assertEquals(WIDTH * HEIGHT * 3 / 2, manager.getFrameBytes());
+        Frame frame = manager.getFrame(ByteBuffer.allocateDirect(manager.getFrameBytes()), 0);
+        assertNotNull(frame);
+        assertEquals(ImageFormat.NV21, frame.getFormat());
+        assertEquals(ByteBuffer.class, frame.getDataClass());
+        frame.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetUp_wrongFormat() {
+        manager.setUp(ImageFormat.JPEG, new Size(WIDTH, HEIGHT), new Angles());
+    }
+
+    @Test
+    public void testFreeze() {
+        manager.setUp(ImageFormat.YUV_420_888, new Size(WIDTH, HEIGHT), new Angles());
+        ByteBuffer data = ByteBuffer.allocateDirect(manager.getFrameBytes());
+        data.put(0, (byte) 42);
+        Frame frame = manager.getFrame(data, 0);
+        assertNotNull(frame);
+        Frame frozen = frame.freeze();
+        ByteBuffer copy = frozen.getData();
+        assertNotSame(data, copy);
+        assertTrue(copy.isDirect());
+        assertEquals(42, copy.get(0));
+        assertEquals(data.capacity(), copy.limit());
+        frame.release();
+        frozen.release();
+    }
+
+    @Test
+    public void testFreeze_retained() {
+        manager.setMaxRetainedFrames(1);
+        manager.setUp(ImageFormat.YUV_420_888, new Size(WIDTH, HEIGHT), new Angles());
+        ByteBuffer data = ByteBuffer.allocateDirect(manager.getFrameBytes());
+        Frame frame = manager.getFrame(data, 0);
+        assertNotNull(frame);
+        Frame frozen = frame.freeze();
+        assertSame(data, frozen.getData());
+        frame.release();
+        frozen.release();
+        assertEquals(0, manager.getRetainedFrames());
+    }
+}
@@ -0,0 +1,478 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.otaliastudios.cameraview.BaseTest;
+import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class FrameDispatcherTest extends BaseTest {
+
+    private FrameManager<String> manager;
+    private List<String> released;
+    private List<String> processed;
+    private List<FrameProcessor> processors;
+    private List<Runnable> tasks;
+    private FrameDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        released = new CopyOnWriteArrayList<>();
+        processed = new CopyOnWriteArrayList<>();
+        manager = new FrameManager<String>(5, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) {
+                released.add(data);
+            }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        manager.setUp(ImageFormat.NV21, new Size(10, 10), new Angles());
+        processors = new CopyOnWriteArrayList<>();
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                processed.add((String) frame.getData());
+            }
+        });
+        // Collect the workers so that the test can run them when needed.
+        tasks = new CopyOnWriteArrayList<>();
+        dispatcher = new FrameDispatcher(processors);
+        dispatcher.setExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                tasks.add(command);
+            }
+        }, 1);
+    }
+
+    @After
+    public void tearDown() {
+        manager = null;
+        dispatcher = null;
+    }
+
+    @NonNull
+    private Frame frame(@NonNull String data) {
+        return frame(data, System.currentTimeMillis());
+    }
+
+    @NonNull
+    private Frame frame(@NonNull String data, long time) {
+        Frame frame = manager.getFrame(data, time);
+        assertNotNull(frame);
+        return frame;
+    }
+
+    private void runTasks() {
+        List<Runnable> copy = new ArrayList<>(tasks);
+        tasks.clear();
+        for (Runnable task : copy) task.run();
+    }
+
+    @Test
+    public void testNoProcessors() {
+        processors.clear();
+        dispatcher.onProcessorsChanged();
+        dispatcher.dispatch(frame("foo"));
+        assertTrue(tasks.isEmpty());
+        assertEquals(1, released.size());
+    }
+
+    @Test
+    public void testUnbounded() {
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        dispatcher.dispatch(frame("baz"));
+        assertEquals(1, tasks.size());
+        assertEquals(3, dispatcher.getPendingFrames());
+        runTasks();
+        assertEquals(3, processed.size());
+        assertEquals(3, dispatcher.getProcessedFrames());
+        assertEquals(0, dispatcher.getDroppedFrames());
+    }
+
+    @Test
+    public void testDropNewest() {
+        dispatcher.setPolicy(FrameDispatchPolicy.DROP_NEWEST);
+        dispatcher.setQueueSize(1);
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        assertEquals(1, released.size());
+        assertEquals("bar", released.get(0));
+        runTasks();
+        assertEquals(1, processed.size());
+        assertEquals("foo", processed.get(0));
+        assertEquals(1, dispatcher.getDroppedFrames());
+    }
+
+    @Test
+    public void testMetrics() {
+        FrameMetrics metrics = dispatcher.getMetrics();
+        dispatcher.setPolicy(FrameDispatchPolicy.DROP_NEWEST);
+        dispatcher.setQueueSize(1);
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        runTasks();
+        assertEquals(1, metrics.getProcessedFrames());
+        assertEquals(1, metrics.getDroppedFrames(FrameMetrics.DROP_REASON_POLICY));
+        assertEquals(1, metrics.getDispatchLatency().getCount());
+        FrameMetrics.Histogram time = metrics.getProcessingTime(processors.get(0));
+        assertNotNull(time);
+        assertEquals(1, time.getCount());
+
+        // Removed processors lose their histogram.
+        FrameProcessor processor = processors.remove(0);
+        dispatcher.onProcessorsChanged();
+        assertNull(metrics.getProcessingTime(processor));
+    }
+
+    @Test
+    public void testDropOldest() {
+        dispatcher.setPolicy(FrameDispatchPolicy.DROP_OLDEST);
+        dispatcher.setQueueSize(2);
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        dispatcher.dispatch(frame("baz"));
+        assertEquals(1, released.size());
+        assertEquals("foo", released.get(0));
+        runTasks();
+        assertEquals(2, processed.size());
+        assertEquals("bar", processed.get(0));
+        assertEquals("baz", processed.get(1));
+        assertEquals(1, dispatcher.getDroppedFrames());
+    }
+
+    @Test
+    public void testKeepLatest() {
+        dispatcher.setPolicy(FrameDispatchPolicy.KEEP_LATEST);
+        dispatcher.setQueueSize(10); // Ignored
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        dispatcher.dispatch(frame("baz"));
+        runTasks();
+        assertEquals(1, processed.size());
+        assertEquals("baz", processed.get(0));
+        assertEquals(2, dispatcher.getDroppedFrames());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        dispatcher.setPolicy(FrameDispatchPolicy.BLOCK);
+        dispatcher.setQueueSize(1);
+        dispatcher.dispatch(frame("foo"));
+        final Frame second = frame("bar");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(second);
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive());
+
+        // Running the worker should unblock the thread.
+        runTasks();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        runTasks();
+        assertEquals(2, processed.size());
+        assertEquals(0, dispatcher.getDroppedFrames());
+    }
+
+    @Test
+    public void testBlock_interrupted() throws Exception {
+        dispatcher.setPolicy(FrameDispatchPolicy.BLOCK);
+        dispatcher.setQueueSize(1);
+        dispatcher.dispatch(frame("foo"));
+        final Frame second = frame("bar");
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(second);
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive());
+
+        // The frame should be dropped and the interrupt should not be swallowed.
+        thread.interrupt();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        assertTrue(interrupted.get());
+        assertEquals(1, dispatcher.getDroppedFrames());
+        assertEquals("bar", released.get(0));
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(2);
+        processors.set(0, new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                first.countDown();
+                second.countDown();
+            }
+        });
+        // Use real executors.
+        dispatcher = new FrameDispatcher(processors);
+        dispatcher.setExecutors(1);
+        dispatcher.dispatch(frame("foo"));
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        dispatcher.release();
+        // The dispatcher can still be used.
+        dispatcher.dispatch(frame("bar"));
+        assertTrue(second.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testParallel() {
+        final List<String> other = new CopyOnWriteArrayList<>();
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                other.add((String) frame.getData());
+            }
+        });
+        dispatcher.setParallel(true);
+        dispatcher.dispatch(frame("foo"));
+        // One worker for each processor.
+        assertEquals(2, tasks.size());
+        assertEquals(2, dispatcher.getPendingFrames());
+
+        // Run the first lane only. Frame should not be released.
+        Runnable second = tasks.remove(1);
+        runTasks();
+        assertEquals(1, processed.size());
+        assertTrue(other.isEmpty());
+        assertTrue(released.isEmpty());
+
+        // Run the second lane. Now the frame should be released.
+        second.run();
+        assertEquals(1, other.size());
+        assertEquals(1, released.size());
+        assertEquals(2, dispatcher.getProcessedFrames());
+    }
+
+    @Test
+    public void testParallel_drop() {
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) { }
+        });
+        dispatcher.setParallel(true);
+        dispatcher.setPolicy(FrameDispatchPolicy.KEEP_LATEST);
+        dispatcher.dispatch(frame("foo"));
+        dispatcher.dispatch(frame("bar"));
+        // foo was dropped by both lanes, so it should be released.
+        assertEquals(1, released.size());
+        assertEquals("foo", released.get(0));
+        assertEquals(2, dispatcher.getDroppedFrames());
+        runTasks();
+        assertEquals(2, released.size());
+    }
+
+    @Test
+    public void testParallel_replaceLane() {
+        processors.add(new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) { }
+        });
+        dispatcher.setParallel(true);
+        dispatcher.dispatch(frame("foo"));
+        // New options replace the lane, but the pending frame is still processed.
+        setOptions(new FrameProcessorOptions().setFrameInterval(2));
+        runTasks();
+        assertEquals(1, processed.size());
+        assertEquals(1, released.size());
+    }
+
+    @Test
+    public void testParallel_removeProcessor() {
+        dispatcher.setParallel(true);
+        processors.clear();
+        dispatcher.onProcessorsChanged();
+        dispatcher.dispatch(frame("foo"));
+        assertTrue(tasks.isEmpty());
+        assertEquals(1, released.size());
+    }
+
+    @Test
+    public void testParallel_manyProcessors() {
+        // More processors than bits in a long. The last one skips every other frame.
+        final List<String> last = new CopyOnWriteArrayList<>();
+        for (int i = 1; i < 69; i++) {
+            processors.add(new FrameProcessor() {
+                @Override
+                public void process(@NonNull Frame frame) { }
+            });
+        }
+        FrameProcessor lastProcessor = new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                last.add((String) frame.getData());
+            }
+        };
+        processors.add(lastProcessor);
+        dispatcher.setOptions(lastProcessor, new FrameProcessorOptions().setFrameInterval(2));
+        dispatcher.onProcessorsChanged();
+        dispatcher.setParallel(true);
+        dispatcher.dispatch(frame("foo"));
+        runTasks();
+        assertEquals(1, released.size());
+        dispatcher.dispatch(frame("bar"));
+        // The last processor does not want bar, so it has one lane less.
+        assertEquals(69, tasks.size());
+        Runnable lastTask = tasks.remove(tasks.size() - 1);
+        runTasks();
+        assertEquals(1, released.size());
+        lastTask.run();
+        assertEquals(2, released.size());
+        assertEquals(1, last.size());
+        assertEquals("foo", last.get(0));
+    }
+
+    private void setOptions(@NonNull FrameProcessorOptions options) {
+        dispatcher.setOptions(processors.get(0), options);
+        dispatcher.onProcessorsChanged();
+    }
+
+    private void dispatchAndRun(@NonNull String data, long time) {
+        dispatcher.dispatch(frame(data, time));
+        runTasks();
+    }
+
+    @Test
+    public void testOptions_frameInterval() {
+        setOptions(new FrameProcessorOptions().setFrameInterval(3));
+        for (int i = 0; i < 7; i++) {
+            dispatchAndRun("frame" + i, i);
+        }
+        assertEquals(3, processed.size());
+        assertEquals("frame0", processed.get(0));
+        assertEquals("frame3", processed.get(1));
+        assertEquals("frame6", processed.get(2));
+        assertEquals(4, dispatcher.getSkippedFrames());
+    }
+
+    @Test
+    public void testOptions_maxFrameRate() {
+        setOptions(new FrameProcessorOptions().setMaxFrameRate(5));
+        // One second at 30 fps should give 5 frames.
+        for (int i = 0; i < 30; i++) {
+            dispatchAndRun("frame" + i, 10000 + i * 33);
+        }
+        assertEquals(5, processed.size());
+    }
+
+    @Test
+    public void testOptions_timeBudget() {
+        final long[] nanos = new long[]{ 0 };
+        dispatcher = new FrameDispatcher(processors) {
+            @Override
+            long nanoTime() {
+                return nanos[0];
+            }
+        };
+        dispatcher.setExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                tasks.add(command);
+            }
+        }, 1);
+        processors.set(0, new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                processed.add((String) frame.getData());
+                nanos[0] += 30 * 1000000L;
+            }
+        });
+        setOptions(new FrameProcessorOptions().setTimeBudget(50));
+        // The first two frames exceed the budget, so the others are skipped.
+        for (int i = 0; i < 5; i++) {
+            dispatchAndRun("frame" + i, 10000 + i * 33);
+        }
+        assertEquals(2, processed.size());
+        // A new window gives a new budget.
+        dispatchAndRun("late", 11500);
+        assertEquals(3, processed.size());
+    }
+
+    @Test
+    public void testOptions_gatesDoNotInterfere() {
+        // Frames skipped by the frame rate should not count for the interval.
+        setOptions(new FrameProcessorOptions().setFrameInterval(2).setMaxFrameRate(10));
+        dispatchAndRun("frame0", 0);
+        dispatchAndRun("frame1", 10);
+        dispatchAndRun("frame2", 100);
+        dispatchAndRun("frame3", 110);
+        assertEquals(2, processed.size());
+        assertEquals("frame0", processed.get(0));
+        assertEquals("frame3", processed.get(1));
+    }
+
+    @Test
+    public void testOptions_noTasksWhenSkipped() {
+        setOptions(new FrameProcessorOptions().setFrameInterval(2));
+        dispatcher.dispatch(frame("foo", 0));
+        runTasks();
+        dispatcher.dispatch(frame("bar", 1));
+        assertTrue(tasks.isEmpty());
+        assertEquals(2, released.size());
+        assertEquals("bar", released.get(1));
+    }
+
+    @Test
+    public void testOptions_multipleProcessors() {
+        final List<String> other = new CopyOnWriteArrayList<>();
+        FrameProcessor otherProcessor = new FrameProcessor() {
+            @Override
+            public void process(@NonNull Frame frame) {
+                other.add((String) frame.getData());
+            }
+        };
+        processors.add(otherProcessor);
+        dispatcher.setOptions(otherProcessor, new FrameProcessorOptions().setFrameInterval(2));
+        dispatcher.onProcessorsChanged();
+        for (int i = 0; i < 4; i++) {
+            dispatchAndRun("frame" + i, i);
+        }
+        assertEquals(4, processed.size());
+        assertEquals(2, other.size());
+    }
+}
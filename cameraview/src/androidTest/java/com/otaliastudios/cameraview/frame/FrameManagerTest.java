@@ -14,9 +14,15 @@ import com.otaliastudios.cameraview.size.Size;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -70,4 +76,108 @@ public class FrameManagerTest extends BaseTest {
         Frame second = manager.getFrame("bar", 0);
         assertNull(second);
     }
+
+    @Test
+    public void testMetrics() {
+        FrameMetrics metrics = new FrameMetrics();
+        FrameManager<String> manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        manager.setMetrics(metrics);
+        assertEquals(0, metrics.getFramesInUse());
+        manager.setUp(ImageFormat.NV21, new Size(10, 10), angles);
+        assertEquals(0, metrics.getFramesInUse());
+        Frame frame = manager.getFrame("foo", 0);
+        assertEquals(1, metrics.getFramesInUse());
+        assertNull(manager.getFrame("bar", 0));
+        assertEquals(1, metrics.getDroppedFrames(FrameMetrics.DROP_REASON_NO_FREE_FRAME));
+        //noinspection ConstantConditions
+        frame.release();
+        assertEquals(0, metrics.getFramesInUse());
+        manager.release();
+    }
+
+    @Test
+    public void testFreeze_retained() {
+        RetainingManager retaining = new RetainingManager(1);
+        retaining.setMaxRetainedFrames(1);
+        retaining.setUp(ImageFormat.NV21, new Size(10, 10), angles);
+        String data = "test data";
+        Frame frame = retaining.getFrame(data, 1000);
+        assertNotNull(frame);
+
+        // Freeze twice: the data should be shared and retained once.
+        Frame frozen1 = frame.freeze();
+        Frame frozen2 = frozen1.freeze();
+        assertSame(data, frozen1.getData());
+        assertSame(data, frozen2.getData());
+        assertEquals(0, retaining.cloned);
+        assertEquals(1, retaining.getRetainedFrames());
+
+        // Release all but the last: data should not be released.
+        frame.release();
+        frozen1.release();
+        assertTrue(retaining.released.isEmpty());
+        assertEquals(1, retaining.getRetainedFrames());
+
+        // Release the last: data goes back to the pool.
+        frozen2.release();
+        assertEquals(1, retaining.released.size());
+        assertSame(data, retaining.released.get(0));
+        assertEquals(0, retaining.getRetainedFrames());
+    }
+
+    @Test
+    public void testFreeze_retainedLimit() {
+        RetainingManager retaining = new RetainingManager(2);
+        retaining.setMaxRetainedFrames(1);
+        retaining.setUp(ImageFormat.NV21, new Size(10, 10), angles);
+        Frame frame1 = retaining.getFrame("foo", 1000);
+        Frame frame2 = retaining.getFrame("bar", 2000);
+        assertNotNull(frame1);
+        assertNotNull(frame2);
+
+        // Only the first should be retained. The second should be cloned.
+        Frame frozen1 = frame1.freeze();
+        Frame frozen2 = frame2.freeze();
+        assertEquals(1, retaining.getRetainedFrames());
+        assertEquals(1, retaining.cloned);
+        assertSame(frame1.getData(), frozen1.getData());
+        assertNotSame(frame2.getData(), frozen2.getData());
+        frame1.release();
+        frozen1.release();
+        assertEquals(0, retaining.getRetainedFrames());
+        frame2.release();
+        frozen2.release();
+    }
+
+    private static class RetainingManager extends FrameManager<String> {
+
+        private final List<String> released = new ArrayList<>();
+        private int cloned = 0;
+
+        private RetainingManager(int poolSize) {
+            super(poolSize, String.class);
+        }
+
+        @Override
+        protected void onFrameDataReleased(@NonNull String data, boolean recycled) {
+            released.add(data);
+        }
+
+        @NonNull
+        @Override
+        protected String onCloneFrameData(@NonNull String data) {
+            cloned++;
+            //noinspection StringOperationCanBeSimplified
+            return new String(data);
+        }
+    }
 }
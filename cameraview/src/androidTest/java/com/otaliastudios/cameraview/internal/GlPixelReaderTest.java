@@ -0,0 +1,244 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.otaliastudios.cameraview.BaseTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class GlPixelReaderTest extends BaseTest {
+
+    private List<Runnable> posted;
+    private WorkerHandler worker;
+    private FakeReader reader;
+    private TestCallback callback;
+
+    @Before
+    public void setUp() {
+        posted = new ArrayList<>();
+        worker = mock(WorkerHandler.class);
+        Answer<Void> post = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                posted.add((Runnable) args[args.length - 1]);
+                return null;
+            }
+        };
+        doAnswer(post).when(worker).post(any(Runnable.class));
+        doAnswer(post).when(worker).post(anyLong(), any(Runnable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                posted.remove((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(worker).remove(any(Runnable.class));
+        reader = new FakeReader(worker, true);
+        callback = new TestCallback();
+    }
+
+    private void runPosted() {
+        List<Runnable> actions = new ArrayList<>(posted);
+        posted.clear();
+        for (Runnable action : actions) action.run();
+    }
+
+    @Test
+    public void testSync() {
+        reader = new FakeReader(worker, false);
+        reader.read(2, 2, callback);
+        assertEquals(1, reader.syncReads);
+        assertEquals(0, reader.asyncReads);
+        assertEquals(1, callback.pixels);
+        assertEquals(16, callback.size);
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void testAsync_polls() {
+        reader.read(2, 2, callback);
+        assertEquals(1, reader.asyncReads);
+        assertEquals(1, posted.size());
+        assertEquals(0, callback.pixels);
+        // Fence not signaled: the job posts itself again.
+        runPosted();
+        assertEquals(1, posted.size());
+        assertEquals(0, callback.pixels);
+        // Fence signaled: the buffer is mapped and unmapped.
+        reader.signaled = true;
+        runPosted();
+        assertTrue(posted.isEmpty());
+        assertEquals(1, callback.pixels);
+        assertEquals(16, callback.size);
+        assertEquals(1, reader.deletedFences);
+        assertEquals(1, reader.unmaps);
+        assertFalse(reader.mapped);
+    }
+
+    @Test
+    public void testAsync_previousPending() {
+        TestCallback first = new TestCallback();
+        reader.read(2, 2, first);
+        reader.read(4, 4, callback);
+        // The first read was completed by waiting, and its job was removed.
+        assertEquals(1, reader.waits);
+        assertEquals(1, first.pixels);
+        assertEquals(16, first.size);
+        assertEquals(0, callback.pixels);
+        assertEquals(1, posted.size());
+        reader.signaled = true;
+        runPosted();
+        assertEquals(1, first.pixels);
+        assertEquals(1, callback.pixels);
+        assertEquals(64, callback.size);
+        assertEquals(2, reader.deletedFences);
+    }
+
+    @Test
+    public void testAsync_mapFailure() {
+        reader.failMap = true;
+        reader.signaled = true;
+        reader.read(2, 2, callback);
+        runPosted();
+        // The failure is reported instead of reading a surface that might have changed.
+        assertEquals(0, callback.pixels);
+        assertNotNull(callback.error);
+        assertEquals(0, reader.syncReads);
+        assertEquals(0, reader.unmaps);
+        assertEquals(1, reader.releasedBuffers);
+        // Next reads are synchronous.
+        TestCallback next = new TestCallback();
+        reader.read(2, 2, next);
+        assertEquals(1, reader.syncReads);
+        assertEquals(1, reader.asyncReads);
+        assertEquals(1, next.pixels);
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void testAsync_mapFailure_previousPending() {
+        reader.failMap = true;
+        TestCallback first = new TestCallback();
+        reader.read(2, 2, first);
+        reader.read(2, 2, callback);
+        assertNotNull(first.error);
+        // The second read happens synchronously, at request time.
+        assertEquals(1, reader.asyncReads);
+        assertEquals(1, reader.syncReads);
+        assertEquals(1, callback.pixels);
+        assertNull(callback.error);
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void testRelease() {
+        reader.read(2, 2, callback);
+        reader.release();
+        assertEquals(1, reader.waits);
+        assertEquals(1, callback.pixels);
+        assertTrue(posted.isEmpty());
+        assertEquals(1, reader.releasedBuffers);
+    }
+
+    private static class TestCallback implements GlPixelReader.Callback {
+
+        private int pixels;
+        private int size;
+        private Exception error;
+
+        @Override
+        public void onPixels(@NonNull ByteBuffer rgba, int width, int height) {
+            pixels++;
+            size = rgba.remaining();
+            assertEquals(width * height * 4, size);
+        }
+
+        @Override
+        public void onError(@NonNull Exception error) {
+            this.error = error;
+        }
+    }
+
+    private static class FakeReader extends GlPixelReader {
+
+        private boolean signaled;
+        private boolean failMap;
+        private boolean mapped;
+        private int syncReads;
+        private int asyncReads;
+        private int waits;
+        private int deletedFences;
+        private int unmaps;
+        private int releasedBuffers;
+        private long nextFence = 1;
+
+        private FakeReader(@NonNull WorkerHandler worker, boolean usePixelBuffer) {
+            super(worker, usePixelBuffer);
+        }
+
+        @Override
+        void readPixels(int width, int height, @NonNull ByteBuffer buffer) {
+            syncReads++;
+        }
+
+        @Override
+        long readPixelsIntoPixelBuffer(int width, int height) {
+            asyncReads++;
+            return nextFence++;
+        }
+
+        @Override
+        boolean checkFence(long fence, boolean wait) {
+            if (wait) waits++;
+            if (!wait && !signaled) return false;
+            deletedFences++;
+            return true;
+        }
+
+        @Nullable
+        @Override
+        ByteBuffer mapPixelBuffer(int size) {
+            if (failMap) return null;
+            assertFalse(mapped);
+            mapped = true;
+            return ByteBuffer.allocate(size);
+        }
+
+        @Override
+        void unmapPixelBuffer() {
+            assertTrue(mapped);
+            mapped = false;
+            unmaps++;
+        }
+
+        @Override
+        void releasePixelBuffer() {
+            releasedBuffers++;
+        }
+    }
+}
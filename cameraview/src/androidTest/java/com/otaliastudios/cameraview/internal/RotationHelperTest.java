@@ -4,6 +4,7 @@ package com.otaliastudios.cameraview.internal;
 import android.graphics.ImageFormat;
 import android.graphics.YuvImage;
 
+import androidx.annotation.NonNull;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.SmallTest;
 
@@ -14,13 +15,79 @@ import com.otaliastudios.cameraview.size.Size;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 @RunWith(AndroidJUnit4.class)
 @SmallTest
 public class RotationHelperTest extends BaseTest {
 
+    private final static int[] ROTATIONS = new int[]{ 0, 90, 180, 270 };
+
+    @NonNull
+    private static byte[] randomNV21(int width, int height) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * The previous implementation, pixel by pixel.
+     */
+    @NonNull
+    private static byte[] reference(@NonNull byte[] yuv, int width, int height, int rotation) {
+        byte[] output = new byte[yuv.length];
+        int frameSize = width * height;
+        boolean swap = rotation % 180 != 0;
+        boolean xflip = rotation % 270 != 0;
+        boolean yflip = rotation >= 180;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int yIn = j * width + i;
+                int uIn = frameSize + (j >> 1) * width + (i & ~1);
+                int wOut = swap ? height : width;
+                int hOut = swap ? width : height;
+                int iSwapped = swap ? j : i;
+                int jSwapped = swap ? i : j;
+                int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
+                int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
+                int yOut = jOut * wOut + iOut;
+                int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+                output[yOut] = yuv[yIn];
+                output[uOut] = yuv[uIn];
+                output[uOut + 1] = yuv[uIn + 1];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Mirrors an NV21 image horizontally, keeping VU pairs together.
+     */
+    @NonNull
+    private static byte[] mirror(@NonNull byte[] yuv, int width, int height) {
+        byte[] output = new byte[yuv.length];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                output[j * width + i] = yuv[j * width + width - 1 - i];
+            }
+        }
+        int frameSize = width * height;
+        for (int j = 0; j < height / 2; j++) {
+            for (int i = 0; i < width / 2; i++) {
+                int out = frameSize + j * width + i * 2;
+                int in = frameSize + j * width + (width / 2 - 1 - i) * 2;
+                output[out] = yuv[in];
+                output[out + 1] = yuv[in + 1];
+            }
+        }
+        return output;
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidRotation1() {
         RotationHelper.rotate(new byte[10], new Size(1, 1), -1);
@@ -50,4 +117,88 @@ public class RotationHelperTest extends BaseTest {
         YuvImage image = new YuvImage(output, ImageFormat.NV21, outputSize.getWidth(), outputSize.getHeight(), null);
         assertNotNull(image);
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRotation4() {
+        RotationHelper.rotate(new byte[6], new Size(2, 2), 45, false, new byte[6]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutputTooSmall() {
+        RotationHelper.rotate(new byte[6], new Size(2, 2), 90, false, new byte[5]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInPlace_invalid() {
+        byte[] data = new byte[6];
+        RotationHelper.rotate(data, new Size(2, 2), 90, false, data);
+    }
+
+    @Test
+    public void testRotate_output() {
+        // Not multiples of the tile size, to check the edges.
+        int width = 70, height = 38;
+        byte[] input = randomNV21(width, height);
+        byte[] output = new byte[input.length];
+        for (int rotation : ROTATIONS) {
+            byte[] result = RotationHelper.rotate(input, new Size(width, height),
+                    rotation, false, output);
+            assertSame(output, result);
+            assertArrayEquals("Rotation " + rotation,
+                    reference(input, width, height, rotation), output);
+        }
+    }
+
+    @Test
+    public void testRotate_mirror() {
+        int width = 70, height = 38;
+        byte[] input = randomNV21(width, height);
+        byte[] output = new byte[input.length];
+        for (int rotation : ROTATIONS) {
+            RotationHelper.rotate(input, new Size(width, height), rotation, true, output);
+            byte[] rotated = reference(input, width, height, rotation);
+            boolean swap = rotation % 180 != 0;
+            byte[] expected = mirror(rotated, swap ? height : width, swap ? width : height);
+            assertArrayEquals("Rotation " + rotation, expected, output);
+        }
+    }
+
+    @Test
+    public void testRotate_inPlace() {
+        int width = 6, height = 4;
+        byte[] input = randomNV21(width, height);
+        for (int rotation : new int[]{ 0, 180 }) {
+            for (boolean mirror : new boolean[]{ false, true }) {
+                byte[] expected = reference(input, width, height, rotation);
+                if (rotation == 0) expected = input.clone();
+                if (mirror) expected = mirror(expected, width, height);
+                byte[] data = input.clone();
+                RotationHelper.rotate(data, new Size(width, height), rotation, mirror, data);
+                assertArrayEquals("Rotation " + rotation + " mirror " + mirror,
+                        expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void testRotate_parallel() {
+        int width = 640, height = 480;
+        byte[] input = randomNV21(width, height);
+        byte[] output = new byte[input.length];
+        for (int rotation : ROTATIONS) {
+            RotationHelper.rotate(input, new Size(width, height), rotation, false, output, 4);
+            assertArrayEquals("Rotation " + rotation,
+                    reference(input, width, height, rotation), output);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testRotate_deprecated() {
+        int width = 8, height = 4;
+        byte[] input = randomNV21(width, height);
+        assertSame(input, RotationHelper.rotate(input, new Size(width, height), 0));
+        assertArrayEquals(reference(input, width, height, 90),
+                RotationHelper.rotate(input, new Size(width, height), 90));
+    }
 }
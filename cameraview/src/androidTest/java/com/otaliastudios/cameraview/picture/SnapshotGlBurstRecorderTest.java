@@ -0,0 +1,209 @@
+package com.otaliastudios.cameraview.picture;
+
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGLContext;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.otaliastudios.cameraview.BaseTest;
+import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.controls.PictureFormat;
+import com.otaliastudios.cameraview.filter.Filter;
+import com.otaliastudios.cameraview.internal.GlTextureDrawer;
+import com.otaliastudios.cameraview.preview.RendererCameraPreview;
+import com.otaliastudios.cameraview.preview.RendererFrameCallback;
+import com.otaliastudios.cameraview.size.AspectRatio;
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SnapshotGlBurstRecorderTest extends BaseTest {
+
+    private RendererCameraPreview preview;
+    private GlTextureDrawer drawer;
+    private SurfaceTexture surfaceTexture;
+    private final List<PictureResult.Stub> results
+            = Collections.synchronizedList(new ArrayList<PictureResult.Stub>());
+    private final CountDownLatch end = new CountDownLatch(1);
+    private final Exception[] endError = new Exception[1];
+    private final List<Thread> drawThreads
+            = Collections.synchronizedList(new ArrayList<Thread>());
+    private CountDownLatch drawLatch;
+    private long now;
+
+    @Before
+    public void setUp() {
+        preview = mock(RendererCameraPreview.class);
+        drawer = mock(GlTextureDrawer.class);
+        surfaceTexture = mock(SurfaceTexture.class);
+        drawLatch = null;
+        now = 1000;
+    }
+
+    private PictureResult.Stub createStub() throws Exception {
+        Constructor<PictureResult.Stub> constructor
+                = PictureResult.Stub.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        PictureResult.Stub stub = constructor.newInstance();
+        stub.size = new Size(40, 30);
+        stub.format = PictureFormat.RGBA;
+        return stub;
+    }
+
+    @NonNull
+    private SnapshotGlBurstRecorder createRecorder(int maxFrames, long interval)
+            throws Exception {
+        SnapshotGlBurstRecorder.Listener listener = new SnapshotGlBurstRecorder.Listener() {
+            @Override
+            public void onPictureBurstResult(@NonNull PictureResult.Stub result) {
+                results.add(result);
+            }
+
+            @Override
+            public void onPictureBurstEnd(@Nullable Exception error) {
+                endError[0] = error;
+                end.countDown();
+            }
+        };
+        return new SnapshotGlBurstRecorder(createStub(), listener, preview,
+                AspectRatio.of(4, 3), null, maxFrames, interval) {
+            @Override
+            long now() {
+                return now;
+            }
+
+            @NonNull
+            @Override
+            GlTextureDrawer createTextureDrawer(int textureId) {
+                return drawer;
+            }
+
+            @Override
+            void drawFrame(@NonNull EGLContext eglContext, @NonNull float[] frameTransform,
+                           int rotation, float scaleX, float scaleY, long timestampUs,
+                           @NonNull ByteBuffer buffer) {
+                drawThreads.add(Thread.currentThread());
+                if (drawLatch != null) {
+                    try {
+                        drawLatch.await();
+                    } catch (InterruptedException ignore) {}
+                }
+            }
+        };
+    }
+
+    @NonNull
+    private RendererFrameCallback start(@NonNull SnapshotGlBurstRecorder recorder) {
+        recorder.take();
+        ArgumentCaptor<RendererFrameCallback> captor
+                = ArgumentCaptor.forClass(RendererFrameCallback.class);
+        verify(preview).addRendererFrameCallback(captor.capture());
+        RendererFrameCallback callback = captor.getValue();
+        callback.onRendererTextureCreated(1);
+        return callback;
+    }
+
+    private void awaitEnd() throws InterruptedException {
+        assertTrue(end.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMaxFrames() throws Exception {
+        RendererFrameCallback callback = start(createRecorder(2, 0));
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        // Ended: this frame is ignored.
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        awaitEnd();
+        assertNull(endError[0]);
+        assertEquals(2, results.size());
+        assertEquals(2, drawThreads.size());
+        assertNotNull(results.get(0).data);
+        assertEquals(40 * 30 * 4, results.get(0).data.length);
+        verify(preview).removeRendererFrameCallback(callback);
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        SnapshotGlBurstRecorder recorder = createRecorder(0, 100);
+        RendererFrameCallback callback = start(recorder);
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        now += 50;
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        now += 50;
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        recorder.stop();
+        awaitEnd();
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testBuffersBusy() throws Exception {
+        drawLatch = new CountDownLatch(1);
+        SnapshotGlBurstRecorder recorder = createRecorder(0, 0);
+        RendererFrameCallback callback = start(recorder);
+        // The first frame blocks the readback thread, the next two wait for it.
+        // There are no buffers left for the fourth.
+        for (int i = 0; i < 4; i++) {
+            callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        }
+        drawLatch.countDown();
+        recorder.stop();
+        awaitEnd();
+        assertEquals(3, results.size());
+    }
+
+    @Test
+    public void testFilterChanged() throws Exception {
+        final Filter filter = mock(Filter.class);
+        final Filter copy = mock(Filter.class);
+        when(filter.copy()).thenReturn(copy);
+        final Thread[] filterThread = new Thread[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                filterThread[0] = Thread.currentThread();
+                return null;
+            }
+        }).when(drawer).setFilter(any(Filter.class));
+        RendererFrameCallback callback = start(createRecorder(1, 0));
+        callback.onRendererFilterChanged(filter);
+        callback.onRendererFrame(surfaceTexture, 0, 1F, 1F);
+        awaitEnd();
+        verify(drawer).setFilter(copy);
+        // The filter was set on the readback thread, which draws the frames.
+        assertNotSame(Thread.currentThread(), filterThread[0]);
+        assertSame(drawThreads.get(0), filterThread[0]);
+    }
+}
@@ -138,6 +138,25 @@ public final class CameraLogger {
         return sLevel <= messageLevel && sLoggers.size() > 0;
     }
 
+    /**
+     * Returns true if messages at the given level would be logged.
+     * The log methods accept varargs, so each call allocates an array and boxes primitives
+     * even when the level is disabled. In hot paths, calls should be wrapped in this check
+     * so that they cost nothing when logging is off:
+     *
+     * <pre>
+     * if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+     *     LOG.v("onFrame:", time);
+     * }
+     * </pre>
+     *
+     * @param level the log level
+     * @return true if messages will be logged
+     */
+    public boolean isLoggable(@LogLevel int level) {
+        return should(level);
+    }
+
     /**
      * Log to the verbose channel.
      * @param data log contents
@@ -5,27 +5,27 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
 
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.engine.mappers.Camera1Mapper;
-import com.otaliastudios.cameraview.internal.ExifHelper;
-import com.otaliastudios.cameraview.internal.WorkerHandler;
+import com.otaliastudios.cameraview.internal.BitmapDecoder;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
+import com.otaliastudios.cameraview.internal.FileChannelWriter;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
-import androidx.exifinterface.media.ExifInterface;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Static utilities for dealing with camera I/O, orientations, etc.
@@ -86,12 +86,36 @@ public class CameraUtils {
     @SuppressWarnings("WeakerAccess")
     @Nullable
     @WorkerThread
-    @SuppressLint("NewApi")
     public static File writeToFile(@NonNull final byte[] data, @NonNull File file) {
-        if (file.exists() && !file.delete()) return null;
-        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file))) {
-            stream.write(data);
-            stream.flush();
+        return writeToFile(ByteBuffer.wrap(data), file, false, false);
+    }
+
+    /**
+     * Writes the given data to the given file, synchronously, through a
+     * {@link java.nio.channels.FileChannel}.
+     *
+     * When atomic is true, data goes to a temporary file in the same directory which then
+     * replaces the target, so that the target is never left half written. When sync is true,
+     * data is forced to storage before returning. This is slower, so it should only be used
+     * for data that must survive a crash or a power loss.
+     *
+     * If any error is encountered, this returns null.
+     *
+     * @param data the data to be written, from its position to its limit
+     * @param file the file to write into
+     * @param atomic whether to write to a temporary file first
+     * @param sync whether to force data to storage
+     * @return the source file, or null if error
+     */
+    @SuppressWarnings("WeakerAccess")
+    @Nullable
+    @WorkerThread
+    public static File writeToFile(@NonNull ByteBuffer data,
+                                   @NonNull File file,
+                                   boolean atomic,
+                                   boolean sync) {
+        try {
+            new FileChannelWriter(atomic, sync).write(file, data);
             return file;
         } catch (IOException e) {
             LOG.e("writeToFile:", "could not write file.", e);
@@ -115,7 +139,7 @@ public class CameraUtils {
                                    @NonNull final File file,
                                    @NonNull final FileCallback callback) {
         final Handler ui = new Handler();
-        WorkerHandler.execute(new Runnable() {
+        CameraExecutors.io().execute(new Runnable() {
             @Override
             public void run() {
                 final File result = writeToFile(data, file);
@@ -129,6 +153,53 @@ public class CameraUtils {
         });
     }
 
+    /**
+     * Copies the given file to another file in a background thread, returning on the
+     * original thread once copying is done. If the files are the same, nothing is copied.
+     * If some error is encountered, the {@link FileCallback} will return null.
+     *
+     * @param source the file to copy
+     * @param file the file to write into
+     * @param callback a callback
+     */
+    static void copyToFile(@NonNull final File source,
+                           @NonNull final File file,
+                           @NonNull final FileCallback callback) {
+        final Handler ui = new Handler();
+        CameraExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                final File result = copyToFile(source, file);
+                ui.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFileReady(result);
+                    }
+                });
+            }
+        });
+    }
+
+    @Nullable
+    @WorkerThread
+    @SuppressLint("NewApi")
+    private static File copyToFile(@NonNull File source, @NonNull File file) {
+        if (source.getAbsoluteFile().equals(file.getAbsoluteFile())) return file;
+        if (file.exists() && !file.delete()) return null;
+        try (FileChannel input = new FileInputStream(source).getChannel();
+             FileChannel output = new FileOutputStream(file).getChannel()) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                position += input.transferTo(position, size - position, output);
+            }
+            return file;
+        } catch (IOException e) {
+            LOG.e("copyToFile:", "could not copy file.", e);
+            return null;
+        }
+    }
+
     /**
      * Decodes an input byte array and outputs a Bitmap that is ready to be displayed.
      * The difference with {@link android.graphics.BitmapFactory#decodeByteArray(byte[], int, int)}
@@ -200,20 +271,46 @@ public class CameraUtils {
                                     final int maxHeight,
                                     @NonNull final BitmapFactory.Options options,
                                     @NonNull final BitmapCallback callback) {
-        decodeBitmap(source, maxWidth, maxHeight, options, -1, callback);
+        decodeBitmap(source, null, maxWidth, maxHeight, options, -1, callback);
+    }
+
+    /**
+     * Decodes the given crop of an input byte array and outputs a Bitmap that is ready
+     * to be displayed. The crop is expressed in the coordinates of the picture after the EXIF
+     * orientation is applied. For JPEG input, the pixels outside of the crop are not decoded.
+     * This is executed in a background thread, and returns the result to the original thread.
+     *
+     * The image is also downscaled taking care of the maxWidth and maxHeight arguments.
+     *
+     * @param source a JPEG byte array
+     * @param crop the crop
+     * @param maxWidth the max allowed width
+     * @param maxHeight the max allowed height
+     * @param callback a callback to be notified
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static void decodeBitmap(@NonNull final byte[] source,
+                                    @NonNull final Rect crop,
+                                    final int maxWidth,
+                                    final int maxHeight,
+                                    @NonNull final BitmapCallback callback) {
+        decodeBitmap(source, crop, maxWidth, maxHeight, new BitmapFactory.Options(), -1,
+                callback);
     }
 
     static void decodeBitmap(@NonNull final byte[] source,
+                             @Nullable final Rect crop,
                              final int maxWidth,
                              final int maxHeight,
                              @NonNull final BitmapFactory.Options options,
                              final int rotation,
                              @NonNull final BitmapCallback callback) {
         final Handler ui = new Handler();
-        WorkerHandler.execute(new Runnable() {
+        CameraExecutors.cpu().execute(new Runnable() {
             @Override
             public void run() {
-                final Bitmap bitmap = decodeBitmap(source, maxWidth, maxHeight, options, rotation);
+                final Bitmap bitmap = BitmapDecoder.decode(source, crop, maxWidth, maxHeight,
+                        options, rotation);
                 ui.post(new Runnable() {
                     @Override
                     public void run() {
@@ -224,6 +321,51 @@ public class CameraUtils {
         });
     }
 
+    /**
+     * Like {@link #decodeBitmap(byte[], Rect, int, int, BitmapFactory.Options, int,
+     * BitmapCallback)}, but reads the source from file in the background thread.
+     */
+    static void decodeBitmap(@NonNull final File source,
+                             @Nullable final Rect crop,
+                             final int maxWidth,
+                             final int maxHeight,
+                             @NonNull final BitmapFactory.Options options,
+                             final int rotation,
+                             @NonNull final BitmapCallback callback) {
+        final Handler ui = new Handler();
+        CameraExecutors.cpu().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    byte[] data = readFile(source);
+                    bitmap = BitmapDecoder.decode(data, crop, maxWidth, maxHeight,
+                            options, rotation);
+                } catch (IOException e) {
+                    LOG.e("decodeBitmap:", "could not read file.", e);
+                }
+                final Bitmap result = bitmap;
+                ui.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBitmapReady(result);
+                    }
+                });
+            }
+        });
+    }
+
+    @NonNull
+    @WorkerThread
+    @SuppressLint("NewApi")
+    private static byte[] readFile(@NonNull File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        }
+    }
+
     /**
      * Decodes an input byte array and outputs a Bitmap that is ready to be displayed.
      * The difference with {@link android.graphics.BitmapFactory#decodeByteArray(byte[], int, int)}
@@ -263,100 +405,67 @@ public class CameraUtils {
                                       int maxWidth,
                                       int maxHeight,
                                       @NonNull BitmapFactory.Options options) {
-        return decodeBitmap(source, maxWidth, maxHeight, options, -1);
+        return BitmapDecoder.decode(source, null, maxWidth, maxHeight, options, -1);
     }
 
-    // Null means we got OOM
-    // Ignores flipping, but it should be super rare.
-    @SuppressWarnings("TryFinallyCanBeTryWithResources")
+    /**
+     * Decodes the given crop of an input byte array and outputs a Bitmap that is ready
+     * to be displayed. The crop is expressed in the coordinates of the picture after the EXIF
+     * orientation is applied. For JPEG input, the pixels outside of the crop are not decoded.
+     *
+     * The image is also downscaled taking care of the maxWidth and maxHeight arguments.
+     *
+     * @param source a JPEG byte array
+     * @param crop the crop
+     * @param maxWidth the max allowed width
+     * @param maxHeight the max allowed height
+     * @return decoded bitmap or null if error is encountered
+     */
+    @SuppressWarnings("WeakerAccess")
     @Nullable
-    private static Bitmap decodeBitmap(@NonNull byte[] source,
-                                       int maxWidth,
-                                       int maxHeight,
-                                       @NonNull BitmapFactory.Options options,
-                                       int rotation) {
-        if (maxWidth <= 0) maxWidth = Integer.MAX_VALUE;
-        if (maxHeight <= 0) maxHeight = Integer.MAX_VALUE;
-        int orientation;
-        boolean flip;
-        if (rotation == -1) {
-            InputStream stream = null;
-            try {
-                // http://sylvana.net/jpegcrop/exif_orientation.html
-                stream = new ByteArrayInputStream(source);
-                ExifInterface exif = new ExifInterface(stream);
-                int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-                        ExifInterface.ORIENTATION_NORMAL);
-                orientation = ExifHelper.getOrientation(exifOrientation);
-                flip = exifOrientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL ||
-                        exifOrientation == ExifInterface.ORIENTATION_FLIP_VERTICAL ||
-                        exifOrientation == ExifInterface.ORIENTATION_TRANSPOSE ||
-                        exifOrientation == ExifInterface.ORIENTATION_TRANSVERSE;
-                LOG.i("decodeBitmap:", "got orientation from EXIF.", orientation);
-            } catch (IOException e) {
-                LOG.e("decodeBitmap:", "could not get orientation from EXIF.", e);
-                orientation = 0;
-                flip = false;
-            } finally {
-                if (stream != null) {
-                    try {
-                        stream.close();
-                    } catch (Exception ignored) { }
-                }
-            }
-        } else {
-            orientation = rotation;
-            flip = false;
-            LOG.i("decodeBitmap:", "got orientation from constructor.", orientation);
-        }
-
-        Bitmap bitmap;
-        try {
-            if (maxWidth < Integer.MAX_VALUE || maxHeight < Integer.MAX_VALUE) {
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(source, 0, source.length, options);
-
-                int outHeight = options.outHeight;
-                int outWidth = options.outWidth;
-                if (orientation % 180 != 0) {
-                    //noinspection SuspiciousNameCombination
-                    outHeight = options.outWidth;
-                    //noinspection SuspiciousNameCombination
-                    outWidth = options.outHeight;
-                }
-
-                options.inSampleSize = computeSampleSize(outWidth, outHeight, maxWidth, maxHeight);
-                options.inJustDecodeBounds = false;
-                bitmap = BitmapFactory.decodeByteArray(source, 0, source.length, options);
-            } else {
-                bitmap = BitmapFactory.decodeByteArray(source, 0, source.length);
-            }
-
-            if (orientation != 0 || flip) {
-                Matrix matrix = new Matrix();
-                matrix.setRotate(orientation);
-                Bitmap temp = bitmap;
-                bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                        bitmap.getHeight(), matrix, true);
-                temp.recycle();
-            }
-        } catch (OutOfMemoryError e) {
-            bitmap = null;
-        }
-        return bitmap;
+    @WorkerThread
+    public static Bitmap decodeBitmap(@NonNull byte[] source,
+                                      @NonNull Rect crop,
+                                      int maxWidth,
+                                      int maxHeight) {
+        return BitmapDecoder.decode(source, crop, maxWidth, maxHeight,
+                new BitmapFactory.Options(), -1);
     }
 
-    private static int computeSampleSize(int width, int height, int maxWidth, int maxHeight) {
-        // https://developer.android.com/topic/performance/graphics/load-bitmap.html
-        int inSampleSize = 1;
-        if (height > maxHeight || width > maxWidth) {
-            while ((height / inSampleSize) >= maxHeight
-                    || (width / inSampleSize) >= maxWidth) {
-                inSampleSize *= 2;
+    /**
+     * Creates a Bitmap out of uncompressed RGBA pixels, like the ones returned by
+     * {@link com.otaliastudios.cameraview.controls.PictureFormat#RGBA} snapshots.
+     * There is no decoding involved: pixels are copied, then cropped and scaled down if needed.
+     * This is executed in a background thread, and returns the result to the original thread.
+     *
+     * @param rgba the pixels, 4 bytes each, rows from top to bottom
+     * @param width the width
+     * @param height the height
+     * @param crop the crop, or null
+     * @param maxWidth the max allowed width, or -1
+     * @param maxHeight the max allowed height, or -1
+     * @param callback a callback to be notified
+     */
+    static void rgbaToBitmap(@NonNull final byte[] rgba,
+                             final int width,
+                             final int height,
+                             @Nullable final Rect crop,
+                             final int maxWidth,
+                             final int maxHeight,
+                             @NonNull final BitmapCallback callback) {
+        final Handler ui = new Handler();
+        CameraExecutors.cpu().execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = BitmapDecoder.fromRgba(rgba, width, height, crop,
+                        maxWidth, maxHeight);
+                ui.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBitmapReady(bitmap);
+                    }
+                });
             }
-        }
-        return inSampleSize;
+        });
     }
-
-
 }
@@ -51,6 +51,7 @@ import com.otaliastudios.cameraview.engine.Camera2Engine;
 import com.otaliastudios.cameraview.engine.CameraEngine;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
+import com.otaliastudios.cameraview.engine.orchestrator.JobTracer;
 import com.otaliastudios.cameraview.filter.Filter;
 import com.otaliastudios.cameraview.filter.FilterParser;
 import com.otaliastudios.cameraview.filter.Filters;
@@ -58,7 +59,11 @@ import com.otaliastudios.cameraview.filter.NoFilter;
 import com.otaliastudios.cameraview.filter.OneParameterFilter;
 import com.otaliastudios.cameraview.filter.TwoParameterFilter;
 import com.otaliastudios.cameraview.frame.Frame;
+import com.otaliastudios.cameraview.frame.FrameDispatchPolicy;
+import com.otaliastudios.cameraview.frame.FrameDispatcher;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
 import com.otaliastudios.cameraview.frame.FrameProcessor;
+import com.otaliastudios.cameraview.frame.FrameProcessorOptions;
 import com.otaliastudios.cameraview.gesture.Gesture;
 import com.otaliastudios.cameraview.gesture.GestureAction;
 import com.otaliastudios.cameraview.gesture.GestureFinder;
@@ -66,6 +71,8 @@ import com.otaliastudios.cameraview.gesture.GestureParser;
 import com.otaliastudios.cameraview.gesture.PinchGestureFinder;
 import com.otaliastudios.cameraview.gesture.ScrollGestureFinder;
 import com.otaliastudios.cameraview.gesture.TapGestureFinder;
+import com.otaliastudios.cameraview.internal.BitmapDecoder;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
 import com.otaliastudios.cameraview.internal.GridLinesLayout;
 import com.otaliastudios.cameraview.internal.CropHelper;
 import com.otaliastudios.cameraview.internal.OrientationHelper;
@@ -93,11 +100,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.view.View.MeasureSpec.AT_MOST;
 import static android.view.View.MeasureSpec.EXACTLY;
@@ -132,12 +134,11 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     private Preview mPreview;
     private Engine mEngine;
     private Filter mPendingFilter;
-    private int mFrameProcessingExecutors;
     private int mActiveGestures;
 
     // Components
     private Handler mUiHandler;
-    private Executor mFrameProcessingExecutor;
+    private FrameDispatcher mFrameDispatcher;
     @VisibleForTesting CameraCallbacks mCameraCallbacks;
     private CameraPreview mCameraPreview;
     private OrientationHelper mOrientationHelper;
@@ -226,6 +227,10 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
                 DEFAULT_FRAME_PROCESSING_POOL_SIZE);
         int frameExecutors = a.getInteger(R.styleable.CameraView_cameraFrameProcessingExecutors,
                 DEFAULT_FRAME_PROCESSING_EXECUTORS);
+        int frameMaxRetained = a.getInteger(
+                R.styleable.CameraView_cameraFrameProcessingMaxRetainedFrames, 0);
+        boolean frameDirectBuffers = a.getBoolean(
+                R.styleable.CameraView_cameraFrameProcessingDirectBuffers, false);
 
         boolean drawHardwareOverlays = a.getBoolean(R.styleable.CameraView_cameraDrawHardwareOverlays, false);
 
@@ -239,6 +244,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
 
         // Components
         mCameraCallbacks = new CameraCallbacks();
+        mFrameDispatcher = new FrameDispatcher(mFrameProcessors);
         mUiHandler = new Handler(Looper.getMainLooper());
 
         // Gestures
@@ -278,6 +284,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setPictureMetering(pictureMetering);
         setPictureSnapshotMetering(pictureSnapshotMetering);
         setPictureFormat(controls.getPictureFormat());
+        setPictureSnapshotFormat(controls.getPictureSnapshotFormat());
         setVideoSize(sizeSelectors.getVideoSizeSelector());
         setVideoCodec(controls.getVideoCodec());
         setVideoMaxSize(videoMaxSize);
@@ -293,6 +300,8 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setFrameProcessingFormat(frameFormat);
         setFrameProcessingPoolSize(framePoolSize);
         setFrameProcessingExecutors(frameExecutors);
+        setFrameProcessingMaxRetainedFrames(frameMaxRetained);
+        setFrameProcessingDirectBuffers(frameDirectBuffers);
 
         // Apply gestures
         mapGesture(Gesture.TAP, gestures.getTapAction());
@@ -321,6 +330,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         LOG.w("doInstantiateEngine:", "instantiated. engine:",
                 mCameraEngine.getClass().getSimpleName());
         mCameraEngine.setOverlay(mOverlayLayout);
+        mCameraEngine.setFrameProcessingMetrics(mFrameDispatcher.getMetrics());
     }
 
     /**
@@ -883,6 +893,8 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         if (mInEditor) return;
         clearCameraListeners();
         clearFrameProcessors();
+        mFrameDispatcher.release();
+        BitmapDecoder.clearPool();
         mCameraEngine.destroy(true);
         if (mCameraPreview != null) mCameraPreview.onDestroy();
     }
@@ -1038,6 +1050,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setAudioCodec(oldEngine.getAudioCodec());
         setPictureSize(oldEngine.getPictureSizeSelector());
         setPictureFormat(oldEngine.getPictureFormat());
+        setPictureSnapshotFormat(oldEngine.getPictureSnapshotFormat());
         setVideoSize(oldEngine.getVideoSizeSelector());
         setVideoCodec(oldEngine.getVideoCodec());
         setVideoMaxSize(oldEngine.getVideoMaxSize());
@@ -1052,6 +1065,9 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         setFrameProcessingMaxHeight(oldEngine.getFrameProcessingMaxHeight());
         setFrameProcessingFormat(0 /* this is very engine specific, so do not pass */);
         setFrameProcessingPoolSize(oldEngine.getFrameProcessingPoolSize());
+        setFrameProcessingMaxRetainedFrames(oldEngine.getFrameProcessingMaxRetainedFrames());
+        setFrameProcessingDirectBuffers(oldEngine.getFrameProcessingDirectBuffers());
+        setJobTracer(oldEngine.getJobTracer());
         mCameraEngine.setHasFrameProcessors(!mFrameProcessors.isEmpty());
     }
 
@@ -1541,6 +1557,8 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
      * to picture snapshots taken with {@link #takePictureSnapshot()}.
      * The {@link PictureFormat#JPEG} is always supported - for other values, please check
      * the {@link CameraOptions#getSupportedPictureFormats()} value.
+     * {@link PictureFormat#RGBA} is only supported by snapshots, see
+     * {@link #setPictureSnapshotFormat(PictureFormat)}.
      *
      * @param pictureFormat new format
      */
@@ -1558,6 +1576,78 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         return mCameraEngine.getPictureFormat();
     }
 
+    /**
+     * Sets the format for pictures taken with {@link #takePictureSnapshot()} and
+     * {@link #takePictureSnapshotBurst(int, long)}. Defaults to {@link PictureFormat#JPEG}.
+     *
+     * With {@link PictureFormat#RGBA}, results contain uncompressed pixels, so there is no
+     * compression cost when taking the picture and no decoding cost in
+     * {@link PictureResult#toBitmap(BitmapCallback)}. This is recommended when the picture
+     * is going to be processed or displayed rather than saved.
+     *
+     * @param pictureFormat either {@link PictureFormat#JPEG} or {@link PictureFormat#RGBA}
+     */
+    public void setPictureSnapshotFormat(@NonNull PictureFormat pictureFormat) {
+        mCameraEngine.setPictureSnapshotFormat(pictureFormat);
+    }
+
+    /**
+     * Returns the current picture snapshot format.
+     * @see #setPictureSnapshotFormat(PictureFormat)
+     * @return the picture snapshot format
+     */
+    @NonNull
+    public PictureFormat getPictureSnapshotFormat() {
+        return mCameraEngine.getPictureSnapshotFormat();
+    }
+
+    /**
+     * Sets the executor for background I/O, like {@link PictureResult#toFile(File, FileCallback)}
+     * and {@link CameraUtils#writeToFile(byte[], File, FileCallback)}.
+     * By default, this is a pool of 2 threads, so that a slow write does not block the others.
+     *
+     * This executor is shared by all {@link CameraView}s in the process.
+     *
+     * @param executor the executor, or null to restore the default one
+     */
+    public static void setIoExecutor(@Nullable Executor executor) {
+        CameraExecutors.setIo(executor);
+    }
+
+    /**
+     * Sets the executor for background CPU work, like picture snapshot compression and
+     * {@link PictureResult#toBitmap(BitmapCallback)}. By default, this is a pool whose size
+     * depends on the number of cores, between 2 and 4 threads.
+     *
+     * This executor is shared by all {@link CameraView}s in the process.
+     *
+     * @param executor the executor, or null to restore the default one
+     */
+    public static void setCpuExecutor(@Nullable Executor executor) {
+        CameraExecutors.setCpu(executor);
+    }
+
+    /**
+     * Sets a tracer that records the timeline of the engine jobs, from opening the camera
+     * to binding the preview and tearing everything down. The timeline can be exported with
+     * {@link JobTracer#toChromeTrace()} and opened in chrome://tracing or Perfetto.
+     *
+     * @param tracer a tracer, or null to stop tracing
+     */
+    public void setJobTracer(@Nullable JobTracer tracer) {
+        mCameraEngine.setJobTracer(tracer);
+    }
+
+    /**
+     * Returns the tracer set with {@link #setJobTracer(JobTracer)}, if any.
+     *
+     * @return the tracer or null
+     */
+    @Nullable
+    public JobTracer getJobTracer() {
+        return mCameraEngine.getJobTracer();
+    }
+
 
     /**
      * Sets a capture size selector for video mode.
@@ -1728,6 +1818,24 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         mCameraEngine.takePicture(stub);
     }
 
+    /**
+     * Like {@link #takePicture()}, but writes the picture straight to the given file,
+     * on a background thread. The picture is never held in memory as a whole, which saves
+     * time and memory for large pictures, especially with {@link PictureFormat#DNG}.
+     * The result will return the file from {@link PictureResult#getFile()}, while
+     * {@link PictureResult#getData()} will not be available.
+     *
+     * Callers should ensure they have appropriate permissions to write to the file.
+     *
+     * @param file a file where the picture will be saved
+     * @see #takePicture()
+     */
+    public void takePicture(@NonNull File file) {
+        PictureResult.Stub stub = new PictureResult.Stub();
+        stub.file = file;
+        mCameraEngine.takePicture(stub);
+    }
+
     /**
      * Asks the camera to capture a snapshot of the current preview.
      * This eventually triggers {@link CameraListener#onPictureTaken(PictureResult)} if a listener
@@ -1743,6 +1851,38 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         mCameraEngine.takePictureSnapshot(stub);
     }
 
+    /**
+     * Asks the camera to capture many snapshots of the current preview, one after the other.
+     * This triggers {@link CameraListener#onPictureTaken(PictureResult)} for each picture,
+     * if a listener was registered.
+     *
+     * Compared to calling {@link #takePictureSnapshot()} many times, GL resources are kept
+     * for the whole burst and compression runs in parallel with the next capture, so the
+     * capture rate is much higher. Pictures are skipped if they can't be processed in time.
+     * This is only supported with {@link Preview#GL_SURFACE}, and snapshot metering is not
+     * performed.
+     *
+     * @param count the number of pictures, or 0 to take pictures until
+     *              {@link #stopPictureSnapshotBurst()} is called
+     * @param intervalMillis the min interval between two pictures, or 0 for no limit
+     * @see #stopPictureSnapshotBurst()
+     */
+    public void takePictureSnapshotBurst(int count, long intervalMillis) {
+        if (count < 0 || intervalMillis < 0) {
+            throw new IllegalArgumentException("Count and interval should be >= 0.");
+        }
+        PictureResult.Stub stub = new PictureResult.Stub();
+        mCameraEngine.takePictureSnapshotBurst(stub, count, intervalMillis);
+    }
+
+    /**
+     * Stops a burst started with {@link #takePictureSnapshotBurst(int, long)}.
+     * Pictures that were already captured will still be dispatched.
+     */
+    public void stopPictureSnapshotBurst() {
+        mCameraEngine.stopPictureSnapshotBurst();
+    }
+
     /**
      * Starts recording a video. Video will be written to the given file,
      * so callers should ensure they have appropriate permissions to write to the file.
@@ -2412,28 +2552,10 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         public void dispatchFrame(@NonNull final Frame frame) {
             // The getTime() below might crash if developers incorrectly release
             // frames asynchronously.
-            LOG.v("dispatchFrame:", frame.getTime(), "processors:", mFrameProcessors.size());
-            if (mFrameProcessors.isEmpty()) {
-                // Mark as released. This instance will be reused.
-                frame.release();
-            } else {
-                // Dispatch this frame to frame processors.
-                mFrameProcessingExecutor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        LOG.v("dispatchFrame: executing. Passing", frame.getTime(),
-                                "to processors.");
-                        for (FrameProcessor processor : mFrameProcessors) {
-                            try {
-                                processor.process(frame);
-                            } catch (Exception e) {
-                                LOG.w("Frame processor crashed:", e);
-                            }
-                        }
-                        frame.release();
-                    }
-                });
+            if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("dispatchFrame:", frame.getTime(), "processors:", mFrameProcessors.size());
             }
+            mFrameDispatcher.dispatch(frame);
         }
 
         @Override
@@ -2487,8 +2609,24 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
      * @param processor a frame processor.
      */
     public void addFrameProcessor(@Nullable FrameProcessor processor) {
+        addFrameProcessor(processor, null);
+    }
+
+    /**
+     * Adds a {@link FrameProcessor} instance to be notified of
+     * new frames in the preview stream. The {@link FrameProcessorOptions} can limit
+     * the frames that this processor receives, for example to a lower frame rate.
+     * Frames that no processor wants are released immediately.
+     *
+     * @param processor a frame processor.
+     * @param options the processor options
+     */
+    public void addFrameProcessor(@Nullable FrameProcessor processor,
+                                  @Nullable FrameProcessorOptions options) {
         if (processor != null) {
+            mFrameDispatcher.setOptions(processor, options);
             mFrameProcessors.add(processor);
+            mFrameDispatcher.onProcessorsChanged();
             if (mFrameProcessors.size() == 1) {
                 mCameraEngine.setHasFrameProcessors(true);
             }
@@ -2503,6 +2641,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     public void removeFrameProcessor(@Nullable FrameProcessor processor) {
         if (processor != null) {
             mFrameProcessors.remove(processor);
+            mFrameDispatcher.onProcessorsChanged();
             if (mFrameProcessors.size() == 0) {
                 mCameraEngine.setHasFrameProcessors(false);
             }
@@ -2516,6 +2655,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
     public void clearFrameProcessors() {
         boolean had = mFrameProcessors.size() > 0;
         mFrameProcessors.clear();
+        mFrameDispatcher.onProcessorsChanged();
         if (had) {
             mCameraEngine.setHasFrameProcessors(false);
         }
@@ -2606,6 +2746,54 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         return mCameraEngine.getFrameProcessingPoolSize();
     }
 
+    /**
+     * Sets the max number of frames that can be retained by {@link Frame#freeze()}.
+     * When this is bigger than 0, freezing a frame does not copy its data. Instead, the
+     * data is shared with the frozen frame and goes back to the pool only when all frames
+     * holding it have been released. Extra buffers are allocated (up to this number) to
+     * replace the ones that are retained, so the camera does not run out of them.
+     *
+     * Defaults to 0, which means that frozen frames always copy their data.
+     * Changing this value after camera initialization might have no effect on Camera2.
+     * @param maxRetainedFrames max retained frames
+     */
+    public void setFrameProcessingMaxRetainedFrames(int maxRetainedFrames) {
+        mCameraEngine.setFrameProcessingMaxRetainedFrames(maxRetainedFrames);
+    }
+
+    /**
+     * Returns the max number of frames that can be retained by {@link Frame#freeze()}.
+     * @see #setFrameProcessingMaxRetainedFrames(int)
+     * @return max retained frames
+     */
+    public int getFrameProcessingMaxRetainedFrames() {
+        return mCameraEngine.getFrameProcessingMaxRetainedFrames();
+    }
+
+    /**
+     * Sets whether Camera2 frames should be copied into pooled, direct byte buffers.
+     * When true and the frame processing format is YUV_420_888, each image is copied
+     * into a buffer with NV21 layout and closed right away, so frames hold a
+     * {@link java.nio.ByteBuffer} instead of an {@link android.media.Image}.
+     * Unlike images, these frames can be frozen.
+     *
+     * Defaults to false. Has no effect on Camera1, whose frames are already byte arrays.
+     * Changes are applied the next time the preview is started.
+     * @param directBuffers whether to use direct buffers
+     */
+    public void setFrameProcessingDirectBuffers(boolean directBuffers) {
+        mCameraEngine.setFrameProcessingDirectBuffers(directBuffers);
+    }
+
+    /**
+     * Returns whether Camera2 frames are copied into direct byte buffers.
+     * @see #setFrameProcessingDirectBuffers(boolean)
+     * @return whether direct buffers are used
+     */
+    public boolean getFrameProcessingDirectBuffers() {
+        return mCameraEngine.getFrameProcessingDirectBuffers();
+    }
+
     /**
      * Sets the thread pool size for frame processing. This means that if the processing rate
      * is slower than the preview rate, you can set this value to something bigger than 1
@@ -2621,23 +2809,7 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
         if (executors < 1) {
             throw new IllegalArgumentException("Need at least 1 executor, got " + executors);
         }
-        mFrameProcessingExecutors = executors;
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(
-                executors,
-                executors,
-                4,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(),
-                new ThreadFactory() {
-                    private final AtomicInteger mCount = new AtomicInteger(1);
-                    @Override
-                    public Thread newThread(@NonNull Runnable r) {
-                        return new Thread(r, "FrameExecutor #" + mCount.getAndIncrement());
-                    }
-                }
-        );
-        executor.allowCoreThreadTimeOut(true);
-        mFrameProcessingExecutor = executor;
+        mFrameDispatcher.setExecutors(executors);
     }
 
     /**
@@ -2646,7 +2818,105 @@ public class CameraView extends FrameLayout implements LifecycleObserver {
      * @return thread count
      */
     public int getFrameProcessingExecutors() {
-        return mFrameProcessingExecutors;
+        return mFrameDispatcher.getExecutors();
+    }
+
+    /**
+     * Sets whether each {@link FrameProcessor} should run in its own lane, with its own
+     * threads and queue, instead of running one after the other on the same thread.
+     * This way, a slow processor does not delay the others and independent processors
+     * can use separate cores. The frame is released when all processors are done with it.
+     *
+     * When enabled, {@link #setFrameProcessingExecutors(int)} and
+     * {@link #setFrameProcessingQueueSize(int)} apply to each processor, and the pool size
+     * should be increased accordingly. Defaults to false.
+     *
+     * @param parallel whether processors should run in parallel
+     */
+    public void setFrameProcessingParallel(boolean parallel) {
+        mFrameDispatcher.setParallel(parallel);
+    }
+
+    /**
+     * Returns whether frame processors run in parallel.
+     * @see #setFrameProcessingParallel(boolean)
+     * @return whether processors run in parallel
+     */
+    public boolean getFrameProcessingParallel() {
+        return mFrameDispatcher.isParallel();
+    }
+
+    /**
+     * Sets the policy that decides which frames are dropped when frame processors are
+     * slower than the camera stream and the queue set by {@link #setFrameProcessingQueueSize(int)}
+     * is full. Use {@link FrameDispatchPolicy#KEEP_LATEST} to always process the freshest frame.
+     * Defaults to {@link FrameDispatchPolicy#DROP_NEWEST}.
+     *
+     * @param policy the policy
+     */
+    public void setFrameProcessingPolicy(@NonNull FrameDispatchPolicy policy) {
+        mFrameDispatcher.setPolicy(policy);
+    }
+
+    /**
+     * Returns the current frame processing policy.
+     * @see #setFrameProcessingPolicy(FrameDispatchPolicy)
+     * @return the policy
+     */
+    @NonNull
+    public FrameDispatchPolicy getFrameProcessingPolicy() {
+        return mFrameDispatcher.getPolicy();
+    }
+
+    /**
+     * Sets the max number of frames that can wait to be processed, when all the
+     * executors are busy. When the queue is full, frames are dropped according to
+     * {@link #setFrameProcessingPolicy(FrameDispatchPolicy)}.
+     * Defaults to 0, which means that the queue is not bounded and frames are only
+     * dropped when the frame pool is exhausted.
+     *
+     * @param queueSize the queue size
+     */
+    public void setFrameProcessingQueueSize(int queueSize) {
+        mFrameDispatcher.setQueueSize(queueSize);
+    }
+
+    /**
+     * Returns the current frame processing queue size.
+     * @see #setFrameProcessingQueueSize(int)
+     * @return the queue size
+     */
+    public int getFrameProcessingQueueSize() {
+        return mFrameDispatcher.getQueueSize();
+    }
+
+    /**
+     * Returns the number of frames that were passed to frame processors.
+     * @return processed frames
+     */
+    public long getFrameProcessingProcessedFrames() {
+        return mFrameDispatcher.getProcessedFrames();
+    }
+
+    /**
+     * Returns the number of frames that were dropped because of the
+     * frame processing policy.
+     * @see #setFrameProcessingPolicy(FrameDispatchPolicy)
+     * @return dropped frames
+     */
+    public long getFrameProcessingDroppedFrames() {
+        return mFrameDispatcher.getDroppedFrames();
+    }
+
+    /**
+     * Returns the frame processing metrics, which include drops by reason, frame latency,
+     * per-processor processing time and pool occupancy. The returned object is live and
+     * stays the same for the lifetime of this view, even if the engine changes.
+     * @return the metrics
+     */
+    @NonNull
+    public FrameMetrics getFrameProcessingMetrics() {
+        return mFrameDispatcher.getMetrics();
     }
 
     //endregion
@@ -1,6 +1,7 @@
 package com.otaliastudios.cameraview;
 
 import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.location.Location;
 import android.os.Build;
 
@@ -33,7 +34,25 @@ public class PictureResult {
         public Size size;
         public Facing facing;
         public byte[] data;
+        public File file;
         public PictureFormat format;
+
+        /**
+         * Returns a new stub with the same values, except for the data.
+         * Used by bursts, which dispatch many results.
+         * @return a new stub
+         */
+        @NonNull
+        public Stub copy() {
+            Stub stub = new Stub();
+            stub.isSnapshot = isSnapshot;
+            stub.location = location;
+            stub.rotation = rotation;
+            stub.size = size;
+            stub.facing = facing;
+            stub.format = format;
+            return stub;
+        }
     }
 
     private final boolean isSnapshot;
@@ -42,6 +61,7 @@ public class PictureResult {
     private final Size size;
     private final Facing facing;
     private final byte[] data;
+    private final File file;
     private final PictureFormat format;
 
     PictureResult(@NonNull Stub builder) {
@@ -51,6 +71,7 @@ public class PictureResult {
         size = builder.size;
         facing = builder.facing;
         data = builder.data;
+        file = builder.file;
         format = builder.format;
     }
 
@@ -107,15 +128,34 @@ public class PictureResult {
 
     /**
      * Returns the raw compressed, ready to be saved to file,
-     * in the given format.
+     * in the given format. For {@link PictureFormat#RGBA}, this is the uncompressed pixels
+     * instead: 4 bytes per pixel, rows from top to bottom, with the {@link #getSize()}.
+     *
+     * Pictures taken with {@link CameraView#takePicture(File)} are written to file without
+     * being held in memory, so this throws: use {@link #getFile()} instead.
      *
      * @return the compressed data stream
      */
     @NonNull
     public byte[] getData() {
+        if (data == null && file != null) {
+            throw new IllegalStateException("This picture was written to file. "
+                    + "Use getFile() instead.");
+        }
         return data;
     }
 
+    /**
+     * Returns the file this picture was written to, if it was taken with
+     * {@link CameraView#takePicture(File)}. In this case, {@link #getData()} is not available.
+     *
+     * @return the file, or null
+     */
+    @Nullable
+    public File getFile() {
+        return file;
+    }
+
     /**
      * Returns the format for {@link #getData()}.
      *
@@ -129,21 +169,53 @@ public class PictureResult {
     /**
      * Shorthand for {@link CameraUtils#decodeBitmap(byte[], int, int, BitmapCallback)}.
      * Decodes this picture on a background thread and posts the result in the UI thread using
-     * the given callback.
+     * the given callback. For {@link PictureFormat#RGBA}, pixels are copied with no decoding.
      *
      * @param maxWidth the max. width of final bitmap
      * @param maxHeight the max. height of final bitmap
      * @param callback a callback to be notified of image decoding
      */
     public void toBitmap(int maxWidth, int maxHeight, @NonNull BitmapCallback callback) {
-        if (format == PictureFormat.JPEG) {
-            CameraUtils.decodeBitmap(getData(), maxWidth, maxHeight, new BitmapFactory.Options(),
-                    rotation, callback);
+        toBitmap(null, maxWidth, maxHeight, callback);
+    }
+
+    /**
+     * Shorthand for {@link CameraUtils#decodeBitmap(byte[], Rect, int, int, BitmapCallback)}.
+     * Decodes the given crop of this picture on a background thread and posts the result in
+     * the UI thread using the given callback. The crop is expressed in the coordinates of
+     * {@link #getSize()}. For JPEG pictures, pixels outside of the crop are not decoded.
+     *
+     * @param crop the crop, or null for the whole picture
+     * @param maxWidth the max. width of final bitmap
+     * @param maxHeight the max. height of final bitmap
+     * @param callback a callback to be notified of image decoding
+     */
+    public void toBitmap(@Nullable Rect crop,
+                         int maxWidth,
+                         int maxHeight,
+                         @NonNull BitmapCallback callback) {
+        if (crop != null && crop.isEmpty()) {
+            throw new IllegalArgumentException("Crop should not be empty: " + crop);
+        }
+        if (file != null) {
+            if (format != PictureFormat.JPEG
+                    && (format != PictureFormat.DNG || Build.VERSION.SDK_INT < 24)) {
+                throw new UnsupportedOperationException("PictureResult.toBitmap() does not "
+                        + "support this picture format: " + format);
+            }
+            CameraUtils.decodeBitmap(file, crop, maxWidth, maxHeight,
+                    new BitmapFactory.Options(), rotation, callback);
+        } else if (format == PictureFormat.RGBA) {
+            CameraUtils.rgbaToBitmap(getData(), size.getWidth(), size.getHeight(), crop,
+                    maxWidth, maxHeight, callback);
+        } else if (format == PictureFormat.JPEG) {
+            CameraUtils.decodeBitmap(getData(), crop, maxWidth, maxHeight,
+                    new BitmapFactory.Options(), rotation, callback);
         } else if (format == PictureFormat.DNG && Build.VERSION.SDK_INT >= 24) {
             // Apparently: BitmapFactory added DNG support in API 24.
             // https://github.com/aosp-mirror/platform_frameworks_base/blob/nougat-mr1-release/core/jni/android/graphics/BitmapFactory.cpp
-            CameraUtils.decodeBitmap(getData(), maxWidth, maxHeight, new BitmapFactory.Options(),
-                    rotation, callback);
+            CameraUtils.decodeBitmap(getData(), crop, maxWidth, maxHeight,
+                    new BitmapFactory.Options(), rotation, callback);
         } else {
             throw new UnsupportedOperationException("PictureResult.toBitmap() does not support "
                     + "this picture format: " + format);
@@ -164,12 +236,18 @@ public class PictureResult {
     /**
      * Shorthand for {@link CameraUtils#writeToFile(byte[], File, FileCallback)}.
      * This writes this picture to file on a background thread and posts the result in the UI
-     * thread using the given callback.
+     * thread using the given callback. For {@link PictureFormat#RGBA}, the file will contain
+     * the raw pixels, so it is up to the caller to encode them first if needed.
+     * If this picture was already written to file, it is copied.
      *
      * @param file the file to write into
      * @param callback a callback
      */
     public void toFile(@NonNull File file, @NonNull FileCallback callback) {
-        CameraUtils.writeToFile(getData(), file, callback);
+        if (this.file != null) {
+            CameraUtils.copyToFile(this.file, file, callback);
+        } else {
+            CameraUtils.writeToFile(getData(), file, callback);
+        }
     }
 }
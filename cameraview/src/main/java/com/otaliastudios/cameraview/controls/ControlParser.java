@@ -25,6 +25,7 @@ public class ControlParser {
     private int audioCodec;
     private int engine;
     private int pictureFormat;
+    private int pictureSnapshotFormat;
 
     public ControlParser(@NonNull Context context, @NonNull TypedArray array) {
         preview = array.getInteger(R.styleable.CameraView_cameraPreview, Preview.DEFAULT.value());
@@ -44,6 +45,9 @@ public class ControlParser {
         engine = array.getInteger(R.styleable.CameraView_cameraEngine, Engine.DEFAULT.value());
         pictureFormat = array.getInteger(R.styleable.CameraView_cameraPictureFormat,
                 PictureFormat.DEFAULT.value());
+        pictureSnapshotFormat = array.getInteger(
+                R.styleable.CameraView_cameraPictureSnapshotFormat,
+                PictureFormat.DEFAULT.value());
     }
 
     @NonNull
@@ -106,4 +110,9 @@ public class ControlParser {
     public PictureFormat getPictureFormat() {
         return PictureFormat.fromValue(pictureFormat);
     }
+
+    @NonNull
+    public PictureFormat getPictureSnapshotFormat() {
+        return PictureFormat.fromValue(pictureSnapshotFormat);
+    }
 }
@@ -7,10 +7,11 @@ import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.CameraView;
 
 /**
- * Format of the picture results for pictures that are taken with {@link CameraView#takePicture()}.
- * This does not apply to picture snapshots.
+ * Format of the picture results for pictures that are taken with {@link CameraView#takePicture()}
+ * or, for {@link #JPEG} and {@link #RGBA}, with {@link CameraView#takePictureSnapshot()}.
  *
  * @see CameraView#setPictureFormat(PictureFormat)
+ * @see CameraView#setPictureSnapshotFormat(PictureFormat)
  */
 public enum PictureFormat implements Control {
 
@@ -25,7 +26,16 @@ public enum PictureFormat implements Control {
      * This is only supported with the {@link Engine#CAMERA2} engine and only on
      * specific devices. Please check {@link CameraOptions#getSupportedPictureFormats()}.
      */
-    DNG(1);
+    DNG(1),
+
+    /**
+     * The picture result data will be uncompressed pixels: 4 bytes per pixel, in RGBA order,
+     * rows from top to bottom with no padding. The result rotation is already applied.
+     * This skips both compression and decoding, which is much faster when the pixels are
+     * needed anyway, but takes more memory.
+     * This is only supported by picture snapshots.
+     */
+    RGBA(2);
 
     static final PictureFormat DEFAULT = JPEG;
 
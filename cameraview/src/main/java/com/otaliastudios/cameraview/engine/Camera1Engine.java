@@ -24,7 +24,8 @@ import com.otaliastudios.cameraview.engine.mappers.Camera1Mapper;
 import com.otaliastudios.cameraview.engine.metering.Camera1MeteringTransform;
 import com.otaliastudios.cameraview.engine.offset.Axis;
 import com.otaliastudios.cameraview.engine.offset.Reference;
-import com.otaliastudios.cameraview.engine.options.Camera1Options;
+import com.otaliastudios.cameraview.engine.options.Camera1Cache;
+import com.otaliastudios.cameraview.engine.orchestrator.CameraOrchestrator;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
 import com.otaliastudios.cameraview.frame.ByteBufferFrameManager;
 import com.otaliastudios.cameraview.frame.Frame;
@@ -33,6 +34,7 @@ import com.otaliastudios.cameraview.VideoResult;
 import com.otaliastudios.cameraview.controls.Facing;
 import com.otaliastudios.cameraview.controls.Flash;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
 import com.otaliastudios.cameraview.gesture.Gesture;
 import com.otaliastudios.cameraview.controls.Hdr;
 import com.otaliastudios.cameraview.controls.Mode;
@@ -42,6 +44,7 @@ import com.otaliastudios.cameraview.metering.MeteringRegions;
 import com.otaliastudios.cameraview.metering.MeteringTransform;
 import com.otaliastudios.cameraview.picture.Full1PictureRecorder;
 import com.otaliastudios.cameraview.picture.Snapshot1PictureRecorder;
+import com.otaliastudios.cameraview.picture.SnapshotBufferPool;
 import com.otaliastudios.cameraview.picture.SnapshotGlPictureRecorder;
 import com.otaliastudios.cameraview.preview.RendererCameraPreview;
 import com.otaliastudios.cameraview.size.AspectRatio;
@@ -54,6 +57,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class Camera1Engine extends CameraBaseEngine implements
@@ -69,6 +73,9 @@ public class Camera1Engine extends CameraBaseEngine implements
     private final Camera1Mapper mMapper = Camera1Mapper.get();
     private Camera mCamera;
     @VisibleForTesting int mCameraId;
+    private final AtomicReference<Camera.PreviewCallback> mOneShotPreviewCallback
+            = new AtomicReference<>();
+    private final SnapshotBufferPool mSnapshotBufferPool = new SnapshotBufferPool(2);
 
     public Camera1Engine(@NonNull Callback callback) {
         super(callback);
@@ -135,13 +142,14 @@ public class Camera1Engine extends CameraBaseEngine implements
     @Override
     protected boolean collectCameraInfo(@NonNull Facing facing) {
         int internalFacing = mMapper.mapFacing(facing);
+        Camera1Cache cache = Camera1Cache.get();
         LOG.i("collectCameraInfo",
                 "Facing:", facing,
                 "Internal:", internalFacing,
-                "Cameras:", Camera.getNumberOfCameras());
+                "Cameras:", cache.getNumberOfCameras());
         Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
+        for (int i = 0, count = cache.getNumberOfCameras(); i < count; i++) {
+            cache.getCameraInfo(i, cameraInfo);
             if (cameraInfo.facing == internalFacing) {
                 getAngles().setSensorOffset(facing, cameraInfo.orientation);
                 mCameraId = i;
@@ -163,6 +171,7 @@ public class Camera1Engine extends CameraBaseEngine implements
             mCamera = Camera.open(mCameraId);
         } catch (Exception e) {
             LOG.e("onStartEngine:", "Failed to connect. Maybe in use by another app?");
+            Camera1Cache.get().invalidate();
             throw new CameraException(e, CameraException.REASON_FAILED_TO_CONNECT);
         }
         if (mCamera == null) {
@@ -175,7 +184,7 @@ public class Camera1Engine extends CameraBaseEngine implements
         LOG.i("onStartEngine:", "Applying default parameters.");
         try {
             Camera.Parameters params = mCamera.getParameters();
-            mCameraOptions = new Camera1Options(params, mCameraId,
+            mCameraOptions = Camera1Cache.get().getCameraOptions(params, mCameraId,
                     getAngles().flip(Reference.SENSOR, Reference.VIEW));
             applyAllParameters(params);
             mCamera.setParameters(params);
@@ -292,6 +301,9 @@ public class Camera1Engine extends CameraBaseEngine implements
             mVideoRecorder = null;
         }
         mPictureRecorder = null;
+        onStopPictureSnapshotBurst();
+        mOneShotPreviewCallback.set(null);
+        mSnapshotBufferPool.clear();
         getFrameManager().release();
         LOG.i("onStopPreview:", "Releasing preview buffers.");
         mCamera.setPreviewCallbackWithBuffer(null); // Release anything left
@@ -519,13 +531,13 @@ public class Camera1Engine extends CameraBaseEngine implements
     public void setFlash(@NonNull Flash flash) {
         final Flash old = mFlash;
         mFlash = flash;
-        mFlashTask = getOrchestrator().scheduleStateful("flash (" + flash + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+        mFlashTask = getOrchestrator().scheduleStateful("flash (" + flash + ")", "flash",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Flash>() {
             @Override
-            public void run() {
+            public void run(Flash oldFlash) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyFlash(params, old)) mCamera.setParameters(params);
+                if (applyFlash(params, oldFlash)) mCamera.setParameters(params);
             }
         });
     }
@@ -541,13 +553,13 @@ public class Camera1Engine extends CameraBaseEngine implements
 
     @Override
     public void setLocation(@Nullable Location location) {
-        final Location oldLocation = mLocation;
+        final Location old = mLocation;
         mLocation = location;
-        mLocationTask = getOrchestrator().scheduleStateful("location",
-                CameraState.ENGINE,
-                new Runnable() {
+        mLocationTask = getOrchestrator().scheduleStateful("location", "location",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Location>() {
             @Override
-            public void run() {
+            public void run(Location oldLocation) {
                 Camera.Parameters params = mCamera.getParameters();
                 if (applyLocation(params, oldLocation)) mCamera.setParameters(params);
             }
@@ -571,13 +583,13 @@ public class Camera1Engine extends CameraBaseEngine implements
         final WhiteBalance old = mWhiteBalance;
         mWhiteBalance = whiteBalance;
         mWhiteBalanceTask = getOrchestrator().scheduleStateful(
-                "white balance (" + whiteBalance + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+                "white balance (" + whiteBalance + ")", "white balance",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<WhiteBalance>() {
             @Override
-            public void run() {
+            public void run(WhiteBalance oldWhiteBalance) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyWhiteBalance(params, old)) mCamera.setParameters(params);
+                if (applyWhiteBalance(params, oldWhiteBalance)) mCamera.setParameters(params);
             }
         });
     }
@@ -600,13 +612,13 @@ public class Camera1Engine extends CameraBaseEngine implements
     public void setHdr(@NonNull Hdr hdr) {
         final Hdr old = mHdr;
         mHdr = hdr;
-        mHdrTask = getOrchestrator().scheduleStateful("hdr (" + hdr + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+        mHdrTask = getOrchestrator().scheduleStateful("hdr (" + hdr + ")", "hdr",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Hdr>() {
             @Override
-            public void run() {
+            public void run(Hdr oldHdr) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyHdr(params, old)) mCamera.setParameters(params);
+                if (applyHdr(params, oldHdr)) mCamera.setParameters(params);
             }
         });
     }
@@ -624,15 +636,13 @@ public class Camera1Engine extends CameraBaseEngine implements
     public void setZoom(final float zoom, @Nullable final PointF[] points, final boolean notify) {
         final float old = mZoomValue;
         mZoomValue = zoom;
-        // Zoom requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("zoom", ALLOWED_ZOOM_OPS);
-        mZoomTask = getOrchestrator().scheduleStateful("zoom",
-                CameraState.ENGINE,
-                new Runnable() {
+        mZoomTask = getOrchestrator().scheduleStateful("zoom", "zoom",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
+            public void run(Float oldZoom) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyZoom(params, old)) {
+                if (applyZoom(params, oldZoom)) {
                     mCamera.setParameters(params);
                     if (notify) {
                         getCallback().dispatchOnZoomChanged(mZoomValue, points);
@@ -658,16 +668,14 @@ public class Camera1Engine extends CameraBaseEngine implements
                                       @Nullable final PointF[] points, final boolean notify) {
         final float old = mExposureCorrectionValue;
         mExposureCorrectionValue = EVvalue;
-        // EV requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("exposure correction", ALLOWED_EV_OPS);
         mExposureCorrectionTask = getOrchestrator().scheduleStateful(
-                "exposure correction",
-                CameraState.ENGINE,
-                new Runnable() {
+                "exposure correction", "exposure correction",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
+            public void run(Float oldExposureCorrection) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyExposureCorrection(params, old)) {
+                if (applyExposureCorrection(params, oldExposureCorrection)) {
                     mCamera.setParameters(params);
                     if (notify) {
                         getCallback().dispatchOnExposureCorrectionChanged(mExposureCorrectionValue,
@@ -702,12 +710,12 @@ public class Camera1Engine extends CameraBaseEngine implements
         final boolean old = mPlaySounds;
         mPlaySounds = playSounds;
         mPlaySoundsTask = getOrchestrator().scheduleStateful(
-                "play sounds (" + playSounds + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+                "play sounds (" + playSounds + ")", "play sounds",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Boolean>() {
             @Override
-            public void run() {
-                applyPlaySounds(old);
+            public void run(Boolean oldPlaySounds) {
+                applyPlaySounds(oldPlaySounds);
             }
         });
     }
@@ -717,7 +725,7 @@ public class Camera1Engine extends CameraBaseEngine implements
     private boolean applyPlaySounds(boolean oldPlaySound) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(mCameraId, info);
+            Camera1Cache.get().getCameraInfo(mCameraId, info);
             if (info.canDisableShutterSound) {
                 try {
                     // this method is documented to throw on some occasions. #377
@@ -736,16 +744,18 @@ public class Camera1Engine extends CameraBaseEngine implements
 
     @Override
     public void setPreviewFrameRate(float previewFrameRate) {
-        final float old = previewFrameRate;
+        final float old = mPreviewFrameRate;
         mPreviewFrameRate = previewFrameRate;
         mPreviewFrameRateTask = getOrchestrator().scheduleStateful(
-                "preview fps (" + previewFrameRate + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+                "preview fps (" + previewFrameRate + ")", "preview fps",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
+            public void run(Float oldPreviewFrameRate) {
                 Camera.Parameters params = mCamera.getParameters();
-                if (applyPreviewFrameRate(params, old)) mCamera.setParameters(params);
+                if (applyPreviewFrameRate(params, oldPreviewFrameRate)) {
+                    mCamera.setParameters(params);
+                }
             }
         });
     }
@@ -846,12 +856,47 @@ public class Camera1Engine extends CameraBaseEngine implements
         }
     }
 
+    /**
+     * Like {@link Camera#setOneShotPreviewCallback(Camera.PreviewCallback)}, but keeps the
+     * callback buffers that were added to the camera, so that they do not have to be
+     * allocated again. The callback receives the next preview buffer instead of the
+     * frame processors, and must give it back through {@link #onBufferAvailable(byte[])}
+     * once done.
+     *
+     * @param callback the callback
+     */
+    public void setOneShotPreviewCallback(@NonNull Camera.PreviewCallback callback) {
+        mOneShotPreviewCallback.set(callback);
+    }
+
+    /**
+     * Returns the pool of scratch buffers used by picture snapshots.
+     * @return the pool
+     */
+    @NonNull
+    public SnapshotBufferPool getSnapshotBufferPool() {
+        return mSnapshotBufferPool;
+    }
+
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
         if (data == null) {
             // Seen this happen in logs.
             return;
         }
+        Camera.PreviewCallback oneShot = mOneShotPreviewCallback.getAndSet(null);
+        if (oneShot != null) {
+            oneShot.onPreviewFrame(data, camera);
+            return;
+        }
+        if (getState() != CameraState.PREVIEW) {
+            // Frames that were already posted when the preview was stopped. State changes
+            // complete on this thread, so frames that come after startPreview() are not lost.
+            LOG.i("onPreviewFrame:", "Frame received in wrong state. Dropping.");
+            FrameMetrics metrics = getFrameProcessingMetrics();
+            if (metrics != null) metrics.onFrameDropped(FrameMetrics.DROP_REASON_WRONG_STATE);
+            return;
+        }
         Frame frame = getFrameManager().getFrame(data, System.currentTimeMillis());
         if (frame != null) {
             getCallback().dispatchFrame(frame);
@@ -866,7 +911,7 @@ public class Camera1Engine extends CameraBaseEngine implements
     public void startAutoFocus(@Nullable final Gesture gesture,
                                @NonNull final MeteringRegions regions,
                                @NonNull final PointF legacyPoint) {
-        getOrchestrator().scheduleStateful("auto focus", CameraState.BIND, new Runnable() {
+        getOrchestrator().scheduleStateful("auto focus", "auto focus", CameraState.BIND, new Runnable() {
             @Override
             public void run() {
                 if (!mCameraOptions.isAutoFocusSupported()) return;
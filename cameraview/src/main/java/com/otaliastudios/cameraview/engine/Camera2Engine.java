@@ -34,6 +34,7 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.otaliastudios.cameraview.CameraException;
+import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.CameraOptions;
 import com.otaliastudios.cameraview.PictureResult;
 import com.otaliastudios.cameraview.VideoResult;
@@ -54,10 +55,13 @@ import com.otaliastudios.cameraview.engine.meter.MeterAction;
 import com.otaliastudios.cameraview.engine.meter.MeterResetAction;
 import com.otaliastudios.cameraview.engine.offset.Axis;
 import com.otaliastudios.cameraview.engine.offset.Reference;
-import com.otaliastudios.cameraview.engine.options.Camera2Options;
+import com.otaliastudios.cameraview.engine.options.Camera2Cache;
+import com.otaliastudios.cameraview.engine.orchestrator.CameraOrchestrator;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
 import com.otaliastudios.cameraview.frame.Frame;
+import com.otaliastudios.cameraview.frame.DirectBufferFrameManager;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
 import com.otaliastudios.cameraview.frame.ImageFrameManager;
 import com.otaliastudios.cameraview.gesture.Gesture;
 import com.otaliastudios.cameraview.internal.CropHelper;
@@ -87,6 +91,9 @@ public class Camera2Engine extends CameraBaseEngine implements
     private static final int FRAME_PROCESSING_FORMAT = ImageFormat.YUV_420_888;
     @VisibleForTesting static final long METER_TIMEOUT = 5000;
     private static final long METER_TIMEOUT_SHORT = 2500;
+    // Max time to wait for a frame before submitting invalidated builders anyway.
+    private static final long REPEATING_REQUEST_MAX_WAIT = 200;
+    private static final String JOB_REPEATING_REQUEST_TIMEOUT = "repeating request timeout";
 
     private final CameraManager mManager;
     private String mCameraId;
@@ -95,6 +102,8 @@ public class Camera2Engine extends CameraBaseEngine implements
     private CameraCaptureSession mSession;
     private CaptureRequest.Builder mRepeatingRequestBuilder;
     private TotalCaptureResult mLastRepeatingResult;
+    private final RepeatingRequestCoalescer mRepeatingRequestCoalescer
+            = new RepeatingRequestCoalescer(REPEATING_REQUEST_MAX_WAIT);
     private final Camera2Mapper mMapper = Camera2Mapper.get();
 
     // Frame processing
@@ -254,10 +263,14 @@ public class Camera2Engine extends CameraBaseEngine implements
 
     @EngineThread
     private void applyRepeatingRequestBuilder(boolean checkStarted, int errorReason) {
+        // Whatever happens, the builder is not dirty anymore: it is either submitted now,
+        // or it will be submitted when the preview starts.
+        mRepeatingRequestCoalescer.onApplied();
         if ((getState() == CameraState.PREVIEW && !isChangingState()) || !checkStarted) {
             try {
                 mSession.setRepeatingRequest(mRepeatingRequestBuilder.build(),
                         mRepeatingRequestCallback, null);
+                mRepeatingRequestCoalescer.onSubmitted();
             } catch (CameraAccessException e) {
                 throw new CameraException(e, errorReason);
             } catch (IllegalStateException e) {
@@ -274,6 +287,53 @@ public class Camera2Engine extends CameraBaseEngine implements
         }
     }
 
+    /**
+     * Marks the repeating request builder as changed, so that it gets applied to the preview.
+     * Unlike {@link #applyRepeatingRequestBuilder()}, this submits at most one request per
+     * frame: if a request was submitted and no frame was completed since then, the builder is
+     * applied when the next frame completes, together with all changes that were made in
+     * the meantime. This should be used by parameter setters, which can be called at a high
+     * rate, for example during zoom or exposure gestures.
+     */
+    @EngineThread
+    @SuppressWarnings("WeakerAccess")
+    protected void invalidateRepeatingRequestBuilder() {
+        boolean wasDirty = mRepeatingRequestCoalescer.isDirty();
+        if (mRepeatingRequestCoalescer.invalidate()) {
+            applyRepeatingRequestBuilder();
+        } else if (!wasDirty) {
+            // If frames stopped coming for some reason, do not wait forever.
+            getOrchestrator().scheduleStatefulDelayed(JOB_REPEATING_REQUEST_TIMEOUT,
+                    CameraState.PREVIEW,
+                    mRepeatingRequestCoalescer.getRemainingWait(),
+                    new Runnable() {
+                @Override
+                public void run() {
+                    if (mRepeatingRequestCoalescer.onTimeout()) {
+                        applyRepeatingRequestBuilder();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the number of repeating requests that were submitted to the session.
+     * @return the number of submitted requests
+     */
+    public long getRepeatingRequestsSubmitted() {
+        return mRepeatingRequestCoalescer.getSubmitted();
+    }
+
+    /**
+     * Returns the number of repeating requests that were not submitted, because
+     * {@link #invalidateRepeatingRequestBuilder()} merged them with the following ones.
+     * @return the number of saved requests
+     */
+    public long getRepeatingRequestsSaved() {
+        return mRepeatingRequestCoalescer.getSaved();
+    }
+
     private final CameraCaptureSession.CaptureCallback mRepeatingRequestCallback
             = new CameraCaptureSession.CaptureCallback() {
         @Override
@@ -303,6 +363,10 @@ public class Camera2Engine extends CameraBaseEngine implements
             for (Action action : mActions) {
                 action.onCaptureCompleted(Camera2Engine.this, request, result);
             }
+            // Now that a frame was completed, submit any change that was waiting for it.
+            if (mRepeatingRequestCoalescer.onFrameCompleted()) {
+                applyRepeatingRequestBuilder();
+            }
         }
     };
 
@@ -315,7 +379,8 @@ public class Camera2Engine extends CameraBaseEngine implements
     @Override
     protected List<Size> getPreviewStreamAvailableSizes() {
         try {
-            CameraCharacteristics characteristics = mManager.getCameraCharacteristics(mCameraId);
+            CameraCharacteristics characteristics = Camera2Cache.get()
+                    .getCameraCharacteristics(mManager, mCameraId);
             StreamConfigurationMap streamMap =
                     characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             if (streamMap == null) {
@@ -340,7 +405,8 @@ public class Camera2Engine extends CameraBaseEngine implements
     @Override
     protected List<Size> getFrameProcessingAvailableSizes() {
         try {
-            CameraCharacteristics characteristics = mManager.getCameraCharacteristics(mCameraId);
+            CameraCharacteristics characteristics = Camera2Cache.get()
+                    .getCameraCharacteristics(mManager, mCameraId);
             StreamConfigurationMap streamMap =
                     characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
             if (streamMap == null) {
@@ -369,9 +435,10 @@ public class Camera2Engine extends CameraBaseEngine implements
     @Override
     protected final boolean collectCameraInfo(@NonNull Facing facing) {
         int internalFacing = mMapper.mapFacing(facing);
+        Camera2Cache cache = Camera2Cache.get();
         String[] cameraIds = null;
         try {
-            cameraIds = mManager.getCameraIdList();
+            cameraIds = cache.getCameraIdList(mManager);
         } catch (CameraAccessException e) {
             // This should never happen, I don't see how it could crash here.
             // However, let's launch an unrecoverable exception.
@@ -382,7 +449,8 @@ public class Camera2Engine extends CameraBaseEngine implements
                 "Cameras:", cameraIds.length);
         for (String cameraId : cameraIds) {
             try {
-                CameraCharacteristics characteristics = mManager.getCameraCharacteristics(cameraId);
+                CameraCharacteristics characteristics
+                        = cache.getCameraCharacteristics(mManager, cameraId);
                 if (internalFacing == readCharacteristic(characteristics,
                         CameraCharacteristics.LENS_FACING, -99)) {
                     mCameraId = cameraId;
@@ -394,6 +462,7 @@ public class Camera2Engine extends CameraBaseEngine implements
             } catch (CameraAccessException ignore) {
                 // This specific camera has been disconnected.
                 // Keep searching in other camerIds.
+                cache.invalidate(cameraId);
             }
         }
         return false;
@@ -419,7 +488,9 @@ public class Camera2Engine extends CameraBaseEngine implements
                     // Set parameters that might have been set before the camera was opened.
                     try {
                         LOG.i("onStartEngine:", "Opened camera device.");
-                        mCameraCharacteristics = mManager.getCameraCharacteristics(mCameraId);
+                        Camera2Cache cache = Camera2Cache.get();
+                        mCameraCharacteristics = cache.getCameraCharacteristics(mManager,
+                                mCameraId);
                         boolean flip = getAngles().flip(Reference.SENSOR, Reference.VIEW);
                         int format;
                         switch (mPictureFormat) {
@@ -428,7 +499,8 @@ public class Camera2Engine extends CameraBaseEngine implements
                             default: throw new IllegalArgumentException("Unknown format:"
                                     + mPictureFormat);
                         }
-                        mCameraOptions = new Camera2Options(mManager, mCameraId, flip, format);
+                        mCameraOptions = cache.getCameraOptions(mManager, mCameraId,
+                                flip, format);
                         createRepeatingRequestBuilder(getRepeatingRequestDefaultTemplate());
                     } catch (CameraAccessException e) {
                         task.trySetException(createCameraException(e));
@@ -455,6 +527,7 @@ public class Camera2Engine extends CameraBaseEngine implements
                 @Override
                 public void onError(@NonNull CameraDevice camera, int error) {
                     if (!task.getTask().isComplete()) {
+                        Camera2Cache.get().invalidate(mCameraId);
                         task.trySetException(createCameraException(error));
                     } else {
                         // This happened while the engine is running. Throw unrecoverable exception
@@ -465,6 +538,7 @@ public class Camera2Engine extends CameraBaseEngine implements
                 }
             }, null);
         } catch (CameraAccessException e) {
+            Camera2Cache.get().invalidate(mCameraId);
             throw createCameraException(e);
         }
         return task.getTask();
@@ -563,11 +637,15 @@ public class Camera2Engine extends CameraBaseEngine implements
             // This is a design flaw in the ImageReader / sensor implementation, as they should
             // simply DROP frames written to the surface if there are no Images available.
             // Since this is not how things work, we ensure that one Image is always available here.
+            // Frozen frames can also retain Images, so we must account for them as well.
+            // When copying to direct buffers, Images are closed right away, so we need fewer.
+            int maxImages = useDirectBuffers() ? 2
+                    : getFrameProcessingPoolSize() + getFrameProcessingMaxRetainedFrames() + 1;
             mFrameProcessingReader = ImageReader.newInstance(
                     mFrameProcessingSize.getWidth(),
                     mFrameProcessingSize.getHeight(),
                     mFrameProcessingFormat,
-                    getFrameProcessingPoolSize() + 1);
+                    maxImages);
             mFrameProcessingReader.setOnImageAvailableListener(this,
                     null);
             mFrameProcessingSurface = mFrameProcessingReader.getSurface();
@@ -627,6 +705,10 @@ public class Camera2Engine extends CameraBaseEngine implements
         mPreview.setStreamSize(previewSizeForView.getWidth(), previewSizeForView.getHeight());
         mPreview.setDrawRotation(getAngles().offset(Reference.BASE, Reference.VIEW, Axis.ABSOLUTE));
         if (hasFrameProcessors()) {
+            // The manager class depends on the format and the direct buffers option,
+            // so replace it only if one of them has changed since the last preview.
+            boolean isDirect = getFrameManager() instanceof DirectBufferFrameManager;
+            if (isDirect != useDirectBuffers()) clearFrameManager();
             getFrameManager().setUp(mFrameProcessingFormat, mFrameProcessingSize, getAngles());
         }
 
@@ -682,6 +764,7 @@ public class Camera2Engine extends CameraBaseEngine implements
             mVideoRecorder = null;
         }
         mPictureRecorder = null;
+        onStopPictureSnapshotBurst();
         if (hasFrameProcessors()) {
             getFrameManager().release();
         }
@@ -707,7 +790,11 @@ public class Camera2Engine extends CameraBaseEngine implements
         }
         removeRepeatingRequestBuilderSurfaces();
         mLastRepeatingResult = null;
-        LOG.i("onStopPreview:", "Returning.");
+        mRepeatingRequestCoalescer.reset();
+        getOrchestrator().remove(JOB_REPEATING_REQUEST_TIMEOUT);
+        LOG.i("onStopPreview:", "Returning.",
+                "Repeating requests submitted:", mRepeatingRequestCoalescer.getSubmitted(),
+                "saved:", mRepeatingRequestCoalescer.getSaved());
         return Tasks.forResult(null);
     }
 
@@ -1107,19 +1194,19 @@ public class Camera2Engine extends CameraBaseEngine implements
     public void setFlash(@NonNull final Flash flash) {
         final Flash old = mFlash;
         mFlash = flash;
-        mFlashTask = getOrchestrator().scheduleStateful("flash (" + flash + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+        mFlashTask = getOrchestrator().scheduleStateful("flash (" + flash + ")", "flash",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Flash>() {
             @Override
-            public void run() {
-                boolean shouldApply = applyFlash(mRepeatingRequestBuilder, old);
+            public void run(Flash oldFlash) {
+                boolean shouldApply = applyFlash(mRepeatingRequestBuilder, oldFlash);
                 boolean needsWorkaround = getState() == CameraState.PREVIEW;
                 if (needsWorkaround) {
                     // Runtime changes to the flash value are not correctly handled by the
                     // driver. See https://stackoverflow.com/q/53003383/4288782 for example.
                     // For this reason, we go back to OFF, capture once, then go to the new one.
                     mFlash = Flash.OFF;
-                    applyFlash(mRepeatingRequestBuilder, old);
+                    applyFlash(mRepeatingRequestBuilder, oldFlash);
                     try {
                         mSession.capture(mRepeatingRequestBuilder.build(), null,
                                 null);
@@ -1127,11 +1214,11 @@ public class Camera2Engine extends CameraBaseEngine implements
                         throw createCameraException(e);
                     }
                     mFlash = flash;
-                    applyFlash(mRepeatingRequestBuilder, old);
+                    applyFlash(mRepeatingRequestBuilder, oldFlash);
                     applyRepeatingRequestBuilder();
 
                 } else if (shouldApply) {
-                    applyRepeatingRequestBuilder();
+                    invalidateRepeatingRequestBuilder();
                 }
             }
         });
@@ -1182,13 +1269,13 @@ public class Camera2Engine extends CameraBaseEngine implements
     public void setLocation(@Nullable Location location) {
         final Location old = mLocation;
         mLocation = location;
-        mLocationTask = getOrchestrator().scheduleStateful("location",
-                CameraState.ENGINE,
-                new Runnable() {
+        mLocationTask = getOrchestrator().scheduleStateful("location", "location",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Location>() {
             @Override
-            public void run() {
-                if (applyLocation(mRepeatingRequestBuilder, old)) {
-                    applyRepeatingRequestBuilder();
+            public void run(Location oldLocation) {
+                if (applyLocation(mRepeatingRequestBuilder, oldLocation)) {
+                    invalidateRepeatingRequestBuilder();
                 }
             }
         });
@@ -1208,13 +1295,13 @@ public class Camera2Engine extends CameraBaseEngine implements
         final WhiteBalance old = mWhiteBalance;
         mWhiteBalance = whiteBalance;
         mWhiteBalanceTask = getOrchestrator().scheduleStateful(
-                "white balance (" + whiteBalance + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+                "white balance (" + whiteBalance + ")", "white balance",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<WhiteBalance>() {
             @Override
-            public void run() {
-                if (applyWhiteBalance(mRepeatingRequestBuilder, old)) {
-                    applyRepeatingRequestBuilder();
+            public void run(WhiteBalance oldWhiteBalance) {
+                if (applyWhiteBalance(mRepeatingRequestBuilder, oldWhiteBalance)) {
+                    invalidateRepeatingRequestBuilder();
                 }
             }
         });
@@ -1236,13 +1323,13 @@ public class Camera2Engine extends CameraBaseEngine implements
     public void setHdr(@NonNull Hdr hdr) {
         final Hdr old = mHdr;
         mHdr = hdr;
-        mHdrTask = getOrchestrator().scheduleStateful("hdr (" + hdr + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+        mHdrTask = getOrchestrator().scheduleStateful("hdr (" + hdr + ")", "hdr",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Hdr>() {
             @Override
-            public void run() {
-                if (applyHdr(mRepeatingRequestBuilder, old)) {
-                    applyRepeatingRequestBuilder();
+            public void run(Hdr oldHdr) {
+                if (applyHdr(mRepeatingRequestBuilder, oldHdr)) {
+                    invalidateRepeatingRequestBuilder();
                 }
             }
         });
@@ -1263,16 +1350,14 @@ public class Camera2Engine extends CameraBaseEngine implements
     public void setZoom(final float zoom, final @Nullable PointF[] points, final boolean notify) {
         final float old = mZoomValue;
         mZoomValue = zoom;
-        // Zoom requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("zoom", ALLOWED_ZOOM_OPS);
         mZoomTask = getOrchestrator().scheduleStateful(
-                "zoom",
-                CameraState.ENGINE,
-                new Runnable() {
+                "zoom", "zoom",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
-                if (applyZoom(mRepeatingRequestBuilder, old)) {
-                    applyRepeatingRequestBuilder();
+            public void run(Float oldZoom) {
+                if (applyZoom(mRepeatingRequestBuilder, oldZoom)) {
+                    invalidateRepeatingRequestBuilder();
                     if (notify) {
                         getCallback().dispatchOnZoomChanged(zoom, points);
                     }
@@ -1321,16 +1406,14 @@ public class Camera2Engine extends CameraBaseEngine implements
                                       final boolean notify) {
         final float old = mExposureCorrectionValue;
         mExposureCorrectionValue = EVvalue;
-        // EV requests can be high frequency (e.g. linked to touch events), let's trim the oldest.
-        getOrchestrator().trim("exposure correction", ALLOWED_EV_OPS);
         mExposureCorrectionTask = getOrchestrator().scheduleStateful(
-                "exposure correction",
-                CameraState.ENGINE,
-                new Runnable() {
+                "exposure correction", "exposure correction",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
-                if (applyExposureCorrection(mRepeatingRequestBuilder, old)) {
-                    applyRepeatingRequestBuilder();
+            public void run(Float oldEVvalue) {
+                if (applyExposureCorrection(mRepeatingRequestBuilder, oldEVvalue)) {
+                    invalidateRepeatingRequestBuilder();
                     if (notify) {
                         getCallback().dispatchOnExposureCorrectionChanged(EVvalue, bounds, points);
                     }
@@ -1363,16 +1446,16 @@ public class Camera2Engine extends CameraBaseEngine implements
 
     @Override
     public void setPreviewFrameRate(float previewFrameRate) {
-        final float oldPreviewFrameRate = mPreviewFrameRate;
+        final float old = mPreviewFrameRate;
         mPreviewFrameRate = previewFrameRate;
         mPreviewFrameRateTask = getOrchestrator().scheduleStateful(
-                "preview fps (" + previewFrameRate + ")",
-                CameraState.ENGINE,
-                new Runnable() {
+                "preview fps (" + previewFrameRate + ")", "preview fps",
+                CameraState.ENGINE, old,
+                new CameraOrchestrator.ValueJob<Float>() {
             @Override
-            public void run() {
+            public void run(Float oldPreviewFrameRate) {
                 if (applyPreviewFrameRate(mRepeatingRequestBuilder, oldPreviewFrameRate)) {
-                    applyRepeatingRequestBuilder();
+                    invalidateRepeatingRequestBuilder();
                 }
             }
         });
@@ -1442,9 +1525,14 @@ public class Camera2Engine extends CameraBaseEngine implements
 
     @Override
     public void setPictureFormat(final @NonNull PictureFormat pictureFormat) {
+        if (pictureFormat == PictureFormat.RGBA) {
+            // Only supported by snapshots. Failing here is better than failing in restart().
+            throw new UnsupportedOperationException("Unsupported picture format: " + pictureFormat);
+        }
         if (pictureFormat != mPictureFormat) {
             mPictureFormat = pictureFormat;
             getOrchestrator().scheduleStateful("picture format (" + pictureFormat + ")",
+                    "picture format",
                     CameraState.ENGINE,
                     new Runnable() {
                 @Override
@@ -1462,13 +1550,23 @@ public class Camera2Engine extends CameraBaseEngine implements
     @NonNull
     @Override
     protected FrameManager instantiateFrameManager(int poolSize) {
+        if (useDirectBuffers()) {
+            return new DirectBufferFrameManager(poolSize);
+        }
         return new ImageFrameManager(poolSize);
     }
 
+    private boolean useDirectBuffers() {
+        return getFrameProcessingDirectBuffers()
+                && mFrameProcessingFormat == ImageFormat.YUV_420_888;
+    }
+
     @EngineThread
     @Override
     public void onImageAvailable(ImageReader reader) {
-        LOG.v("onImageAvailable:", "trying to acquire Image.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+            LOG.v("onImageAvailable:", "trying to acquire Image.");
+        }
         Image image = null;
         try {
             image = reader.acquireLatestImage();
@@ -1477,11 +1575,20 @@ public class Camera2Engine extends CameraBaseEngine implements
             LOG.w("onImageAvailable:", "failed to acquire Image!");
         } else if (getState() == CameraState.PREVIEW && !isChangingState()) {
             // After preview, the frame manager is correctly set up
-            //noinspection unchecked
-            Frame frame = getFrameManager().getFrame(image,
-                    System.currentTimeMillis());
+            FrameManager manager = getFrameManager();
+            Frame frame;
+            if (manager instanceof DirectBufferFrameManager) {
+                // The image is copied and closed here.
+                frame = ((DirectBufferFrameManager) manager).getFrame(image,
+                        System.currentTimeMillis());
+            } else {
+                //noinspection unchecked
+                frame = manager.getFrame(image, System.currentTimeMillis());
+            }
             if (frame != null) {
-                LOG.v("onImageAvailable:", "Image acquired, dispatching.");
+                if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                    LOG.v("onImageAvailable:", "Image acquired, dispatching.");
+                }
                 getCallback().dispatchFrame(frame);
             } else {
                 LOG.i("onImageAvailable:", "Image acquired, but no free frames. DROPPING.");
@@ -1489,6 +1596,8 @@ public class Camera2Engine extends CameraBaseEngine implements
         } else {
             LOG.i("onImageAvailable:", "Image acquired in wrong state. Closing it now.");
             image.close();
+            FrameMetrics metrics = getFrameProcessingMetrics();
+            if (metrics != null) metrics.onFrameDropped(FrameMetrics.DROP_REASON_WRONG_STATE);
         }
     }
 
@@ -1550,7 +1659,7 @@ public class Camera2Engine extends CameraBaseEngine implements
         // This will only work when we have a preview, since it launches the preview
         // in the end. Even without this it would need the bind state at least,
         // since we need the preview size.
-        getOrchestrator().scheduleStateful("autofocus (" + gesture + ")",
+        getOrchestrator().scheduleStateful("autofocus (" + gesture + ")", "autofocus",
                 CameraState.PREVIEW,
                 new Runnable() {
             @Override
@@ -1,6 +1,7 @@
 package com.otaliastudios.cameraview.engine;
 
 import android.location.Location;
+import android.os.Build;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
@@ -23,12 +24,16 @@ import com.otaliastudios.cameraview.controls.PictureFormat;
 import com.otaliastudios.cameraview.controls.VideoCodec;
 import com.otaliastudios.cameraview.controls.WhiteBalance;
 import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.engine.offset.Axis;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
 import com.otaliastudios.cameraview.overlay.Overlay;
 import com.otaliastudios.cameraview.picture.PictureRecorder;
+import com.otaliastudios.cameraview.picture.SnapshotGlBurstRecorder;
 import com.otaliastudios.cameraview.preview.CameraPreview;
+import com.otaliastudios.cameraview.preview.RendererCameraPreview;
 import com.otaliastudios.cameraview.size.AspectRatio;
 import com.otaliastudios.cameraview.size.Size;
 import com.otaliastudios.cameraview.size.SizeSelector;
@@ -47,12 +52,10 @@ import java.util.List;
  */
 public abstract class CameraBaseEngine extends CameraEngine {
 
-    protected final static int ALLOWED_ZOOM_OPS = 20;
-    protected final static int ALLOWED_EV_OPS = 20;
-
     @SuppressWarnings("WeakerAccess") protected CameraPreview mPreview;
     @SuppressWarnings("WeakerAccess") protected CameraOptions mCameraOptions;
     @SuppressWarnings("WeakerAccess") protected PictureRecorder mPictureRecorder;
+    @SuppressWarnings("WeakerAccess") protected SnapshotGlBurstRecorder mPictureBurstRecorder;
     @SuppressWarnings("WeakerAccess") protected VideoRecorder mVideoRecorder;
     @SuppressWarnings("WeakerAccess") protected Size mCaptureSize;
     @SuppressWarnings("WeakerAccess") protected Size mPreviewStreamSize;
@@ -65,6 +68,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
     @SuppressWarnings("WeakerAccess") protected AudioCodec mAudioCodec;
     @SuppressWarnings("WeakerAccess") protected Hdr mHdr;
     @SuppressWarnings("WeakerAccess") protected PictureFormat mPictureFormat;
+    private PictureFormat mPictureSnapshotFormat = PictureFormat.JPEG;
     @SuppressWarnings("WeakerAccess") protected Location mLocation;
     @SuppressWarnings("WeakerAccess") protected float mZoomValue;
     @SuppressWarnings("WeakerAccess") protected float mExposureCorrectionValue;
@@ -92,6 +96,9 @@ public abstract class CameraBaseEngine extends CameraEngine {
     private int mFrameProcessingMaxWidth; // in REF_VIEW like SizeSelectors
     private int mFrameProcessingMaxHeight; // in REF_VIEW like SizeSelectors
     private int mFrameProcessingPoolSize;
+    private int mFrameProcessingMaxRetainedFrames;
+    private FrameMetrics mFrameProcessingMetrics;
+    private boolean mFrameProcessingDirectBuffers;
     private Overlay mOverlay;
 
     // Ops used for testing.
@@ -137,10 +144,24 @@ public abstract class CameraBaseEngine extends CameraEngine {
     public FrameManager getFrameManager() {
         if (mFrameManager == null) {
             mFrameManager = instantiateFrameManager(mFrameProcessingPoolSize);
+            mFrameManager.setMaxRetainedFrames(mFrameProcessingMaxRetainedFrames);
+            mFrameManager.setMetrics(mFrameProcessingMetrics);
         }
         return mFrameManager;
     }
 
+    /**
+     * Forgets the current frame manager, so that the next {@link #getFrameManager()} call
+     * creates a new one with the current options. Should be called after the
+     * manager was released.
+     */
+    protected final void clearFrameManager() {
+        if (mFrameManager != null) {
+            mFrameManager.setMetrics(null);
+            mFrameManager = null;
+        }
+    }
+
     @Nullable
     @Override
     public final CameraOptions getCameraOptions() {
@@ -321,6 +342,43 @@ public abstract class CameraBaseEngine extends CameraEngine {
         return mFrameProcessingPoolSize;
     }
 
+    @Override
+    public final void setFrameProcessingMaxRetainedFrames(int maxRetainedFrames) {
+        mFrameProcessingMaxRetainedFrames = maxRetainedFrames;
+        if (mFrameManager != null) {
+            mFrameManager.setMaxRetainedFrames(maxRetainedFrames);
+        }
+    }
+
+    @Override
+    public final int getFrameProcessingMaxRetainedFrames() {
+        return mFrameProcessingMaxRetainedFrames;
+    }
+
+    @Override
+    public final void setFrameProcessingMetrics(@Nullable FrameMetrics metrics) {
+        mFrameProcessingMetrics = metrics;
+        if (mFrameManager != null) {
+            mFrameManager.setMetrics(metrics);
+        }
+    }
+
+    @Nullable
+    @Override
+    public final FrameMetrics getFrameProcessingMetrics() {
+        return mFrameProcessingMetrics;
+    }
+
+    @Override
+    public final void setFrameProcessingDirectBuffers(boolean directBuffers) {
+        mFrameProcessingDirectBuffers = directBuffers;
+    }
+
+    @Override
+    public final boolean getFrameProcessingDirectBuffers() {
+        return mFrameProcessingDirectBuffers;
+    }
+
     @Override
     public final void setAutoFocusResetDelay(long delayMillis) {
         mAutoFocusResetDelayMillis = delayMillis;
@@ -350,7 +408,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
         final Facing old = mFacing;
         if (facing != old) {
             mFacing = facing;
-            getOrchestrator().scheduleStateful("facing", CameraState.ENGINE,
+            getOrchestrator().scheduleStateful("facing", "facing", CameraState.ENGINE,
                     new Runnable() {
                 @Override
                 public void run() {
@@ -399,7 +457,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
     public final void setMode(@NonNull Mode mode) {
         if (mode != mMode) {
             mMode = mode;
-            getOrchestrator().scheduleStateful("mode", CameraState.ENGINE,
+            getOrchestrator().scheduleStateful("mode", "mode", CameraState.ENGINE,
                     new Runnable() {
                 @Override
                 public void run() {
@@ -455,6 +513,21 @@ public abstract class CameraBaseEngine extends CameraEngine {
         return mPictureFormat;
     }
 
+    @Override
+    public final void setPictureSnapshotFormat(@NonNull PictureFormat pictureFormat) {
+        if (pictureFormat != PictureFormat.JPEG && pictureFormat != PictureFormat.RGBA) {
+            throw new IllegalArgumentException("Unsupported picture snapshot format: "
+                    + pictureFormat);
+        }
+        mPictureSnapshotFormat = pictureFormat;
+    }
+
+    @NonNull
+    @Override
+    public final PictureFormat getPictureSnapshotFormat() {
+        return mPictureSnapshotFormat;
+    }
+
     @Override
     public final void setPreviewFrameRateExact(boolean previewFrameRateExact) {
         mPreviewFrameRateExact = previewFrameRateExact;
@@ -499,7 +572,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
 
     @Override
     public final boolean isTakingPicture() {
-        return mPictureRecorder != null;
+        return mPictureRecorder != null || mPictureBurstRecorder != null;
     }
 
     @Override
@@ -542,7 +615,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
                 stub.location = mLocation;
                 stub.isSnapshot = true;
                 stub.facing = mFacing;
-                stub.format = PictureFormat.JPEG;
+                stub.format = mPictureSnapshotFormat;
                 // Leave the other parameters to subclasses.
                 //noinspection ConstantConditions
                 AspectRatio ratio = AspectRatio.of(getPreviewSurfaceSize(Reference.OUTPUT));
@@ -551,6 +624,92 @@ public abstract class CameraBaseEngine extends CameraEngine {
         });
     }
 
+    /**
+     * Like {@link #takePictureSnapshot(PictureResult.Stub)}, but takes many pictures,
+     * reusing the same GL objects. Only supported by {@link RendererCameraPreview}s.
+     * @param stub a picture stub
+     * @param count the number of pictures, or 0 to take pictures until stopped
+     * @param intervalMillis the min interval between two pictures
+     */
+    @Override
+    public final void takePictureSnapshotBurst(final @NonNull PictureResult.Stub stub,
+                                               final int count,
+                                               final long intervalMillis) {
+        getOrchestrator().scheduleStateful("take picture snapshot burst", CameraState.BIND,
+                new Runnable() {
+            @Override
+            public void run() {
+                LOG.i("takePictureSnapshotBurst:", "running. isTakingPicture:",
+                        isTakingPicture());
+                if (isTakingPicture()) return;
+                if (!(mPreview instanceof RendererCameraPreview)
+                        || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                    throw new IllegalStateException("takePictureSnapshotBurst is only " +
+                            "supported with Preview.GL_SURFACE");
+                }
+                stub.location = mLocation;
+                stub.isSnapshot = true;
+                stub.facing = mFacing;
+                stub.format = mPictureSnapshotFormat;
+                // Not the real size: it will be cropped to match the view ratio.
+                // The rotation is applied to the texture, so results will have 0.
+                stub.size = getUncroppedSnapshotSize(Reference.OUTPUT);
+                stub.rotation = getAngles().offset(Reference.VIEW, Reference.OUTPUT,
+                        Axis.ABSOLUTE);
+                //noinspection ConstantConditions
+                AspectRatio ratio = AspectRatio.of(getPreviewSurfaceSize(Reference.OUTPUT));
+                mPictureBurstRecorder = new SnapshotGlBurstRecorder(stub,
+                        CameraBaseEngine.this, (RendererCameraPreview) mPreview, ratio,
+                        getOverlay(), count, intervalMillis);
+                mPictureBurstRecorder.take();
+            }
+        });
+    }
+
+    @Override
+    public final void stopPictureSnapshotBurst() {
+        getOrchestrator().schedule("stop picture snapshot burst", true, new Runnable() {
+            @Override
+            public void run() {
+                onStopPictureSnapshotBurst();
+            }
+        });
+    }
+
+    /**
+     * Stops the current burst, if any. Engines also call this when stopping the preview.
+     */
+    @EngineThread
+    @SuppressWarnings("WeakerAccess")
+    protected void onStopPictureSnapshotBurst() {
+        if (mPictureBurstRecorder != null) {
+            LOG.i("stopPictureSnapshotBurst:", "stopping.");
+            mPictureBurstRecorder.stop();
+        }
+    }
+
+    @Override
+    public void onPictureBurstResult(@NonNull PictureResult.Stub result) {
+        getCallback().dispatchOnPictureTaken(result);
+    }
+
+    @Override
+    public void onPictureBurstEnd(@Nullable Exception error) {
+        // Called on the burst thread. The recorder is read on the engine thread, and while
+        // it is set no other burst can start, so it is safe to reset it there.
+        getOrchestrator().schedule("picture burst end", true, new Runnable() {
+            @Override
+            public void run() {
+                mPictureBurstRecorder = null;
+            }
+        });
+        if (error != null) {
+            LOG.e("onPictureBurstEnd", "burst failed.", error);
+            getCallback().dispatchError(new CameraException(error,
+                    CameraException.REASON_PICTURE_FAILED));
+        }
+    }
+
     @Override
     public void onPictureShutter(boolean didPlaySound) {
         getCallback().dispatchOnPictureShutter(!didPlaySound);
@@ -559,7 +718,7 @@ public abstract class CameraBaseEngine extends CameraEngine {
     @Override
     public void onPictureResult(@Nullable PictureResult.Stub result, @Nullable Exception error) {
         mPictureRecorder = null;
-        if (result != null && result.data != null) {
+        if (result != null && (result.data != null || result.file != null)) {
             getCallback().dispatchOnPictureTaken(result);
         } else {
             LOG.e("onPictureResult", "result or data is null: something went wrong.", error);
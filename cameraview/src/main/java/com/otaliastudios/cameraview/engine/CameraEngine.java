@@ -22,6 +22,7 @@ import com.otaliastudios.cameraview.controls.PictureFormat;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraOrchestrator;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraStateOrchestrator;
+import com.otaliastudios.cameraview.engine.orchestrator.JobTracer;
 import com.otaliastudios.cameraview.metering.MeteringRegions;
 import com.otaliastudios.cameraview.overlay.Overlay;
 import com.otaliastudios.cameraview.VideoResult;
@@ -29,8 +30,10 @@ import com.otaliastudios.cameraview.engine.offset.Angles;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.frame.Frame;
 import com.otaliastudios.cameraview.frame.FrameManager;
+import com.otaliastudios.cameraview.frame.FrameMetrics;
 import com.otaliastudios.cameraview.internal.WorkerHandler;
 import com.otaliastudios.cameraview.picture.PictureRecorder;
+import com.otaliastudios.cameraview.picture.SnapshotGlBurstRecorder;
 import com.otaliastudios.cameraview.preview.CameraPreview;
 import com.otaliastudios.cameraview.controls.Audio;
 import com.otaliastudios.cameraview.controls.Facing;
@@ -109,6 +112,7 @@ import java.util.concurrent.TimeUnit;
 public abstract class CameraEngine implements
         CameraPreview.SurfaceCallback,
         PictureRecorder.PictureResultListener,
+        SnapshotGlBurstRecorder.Listener,
         VideoRecorder.VideoResultListener {
 
     public interface Callback {
@@ -168,6 +172,23 @@ public abstract class CameraEngine implements
         return mOrchestrator;
     }
 
+    /**
+     * Sets a tracer for the jobs of this engine, or null to stop tracing.
+     * @param tracer a tracer or null
+     */
+    public final void setJobTracer(@Nullable JobTracer tracer) {
+        mOrchestrator.setTracer(tracer);
+    }
+
+    /**
+     * Returns the tracer for the jobs of this engine, if any.
+     * @return the tracer or null
+     */
+    @Nullable
+    public final JobTracer getJobTracer() {
+        return mOrchestrator.getTracer();
+    }
+
     //region Error handling
 
     /**
@@ -659,6 +680,15 @@ public abstract class CameraEngine implements
     public abstract void setFrameProcessingPoolSize(int poolSize);
     public abstract int getFrameProcessingPoolSize();
 
+    public abstract void setFrameProcessingMaxRetainedFrames(int maxRetainedFrames);
+    public abstract int getFrameProcessingMaxRetainedFrames();
+
+    public abstract void setFrameProcessingMetrics(@Nullable FrameMetrics metrics);
+    @Nullable public abstract FrameMetrics getFrameProcessingMetrics();
+
+    public abstract void setFrameProcessingDirectBuffers(boolean directBuffers);
+    public abstract boolean getFrameProcessingDirectBuffers();
+
     public abstract void setAutoFocusResetDelay(long delayMillis);
     public abstract long getAutoFocusResetDelay();
 
@@ -692,6 +722,8 @@ public abstract class CameraEngine implements
 
     public abstract void setPictureFormat(@NonNull PictureFormat pictureFormat);
     @NonNull public abstract PictureFormat getPictureFormat();
+    public abstract void setPictureSnapshotFormat(@NonNull PictureFormat pictureFormat);
+    @NonNull public abstract PictureFormat getPictureSnapshotFormat();
 
     public abstract void setPreviewFrameRateExact(boolean previewFrameRateExact);
     public abstract boolean getPreviewFrameRateExact();
@@ -716,6 +748,10 @@ public abstract class CameraEngine implements
     public abstract boolean isTakingPicture();
     public abstract void takePicture(@NonNull PictureResult.Stub stub);
     public abstract void takePictureSnapshot(final @NonNull PictureResult.Stub stub);
+    public abstract void takePictureSnapshotBurst(@NonNull PictureResult.Stub stub,
+                                                  int count,
+                                                  long intervalMillis);
+    public abstract void stopPictureSnapshotBurst();
 
     public abstract boolean isTakingVideo();
     public abstract void takeVideo(@NonNull VideoResult.Stub stub,
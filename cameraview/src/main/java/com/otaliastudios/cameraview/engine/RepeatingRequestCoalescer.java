@@ -0,0 +1,113 @@
+package com.otaliastudios.cameraview.engine;
+
+import android.os.SystemClock;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps the state that {@link Camera2Engine} uses to submit at most one repeating request
+ * per frame. After a request is submitted, changes to the builder only mark it as dirty,
+ * and the builder is submitted again when the next frame completes.
+ *
+ * If no frame completes within the max wait, for example because the preview stalled,
+ * the builder should be submitted anyway: {@link #invalidate()} checks this when the next
+ * change comes, and the engine also schedules a job that calls {@link #onTimeout()}.
+ *
+ * This class is not thread safe: it should only be used from the engine thread.
+ * The counters can be read from any thread.
+ */
+class RepeatingRequestCoalescer {
+
+    private final long mMaxWait;
+    private boolean mDirty;
+    private boolean mInFlight;
+    private long mSubmitTime;
+    private volatile long mSubmitted;
+    private volatile long mSaved;
+
+    RepeatingRequestCoalescer(long maxWait) {
+        mMaxWait = maxWait;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Marks the builder as changed.
+     * @return true if the builder should be submitted now
+     */
+    boolean invalidate() {
+        if (mDirty) mSaved++;
+        mDirty = true;
+        return !mInFlight || getRemainingWait() == 0;
+    }
+
+    /**
+     * Returns true if the builder was changed since it was last submitted.
+     * @return true if dirty
+     */
+    boolean isDirty() {
+        return mDirty;
+    }
+
+    /**
+     * Returns the time after which the builder should be submitted even if
+     * no frame was completed, or 0 if it should be submitted now.
+     * @return the remaining wait in milliseconds
+     */
+    long getRemainingWait() {
+        return Math.max(0, mMaxWait - (now() - mSubmitTime));
+    }
+
+    /**
+     * Called when the builder is applied. It is not dirty anymore, whether it was
+     * submitted now or it will be submitted when the preview starts.
+     */
+    void onApplied() {
+        mDirty = false;
+    }
+
+    /**
+     * Called when the builder was submitted to the session.
+     */
+    void onSubmitted() {
+        mInFlight = true;
+        mSubmitTime = now();
+        mSubmitted++;
+    }
+
+    /**
+     * Called when a frame is completed.
+     * @return true if the builder should be submitted now
+     */
+    boolean onFrameCompleted() {
+        mInFlight = false;
+        return mDirty;
+    }
+
+    /**
+     * Called by the job that is scheduled when the builder becomes dirty while waiting.
+     * @return true if the builder should be submitted now
+     */
+    boolean onTimeout() {
+        return mDirty && getRemainingWait() == 0;
+    }
+
+    /**
+     * Called when the preview is stopped.
+     */
+    void reset() {
+        mDirty = false;
+        mInFlight = false;
+    }
+
+    long getSubmitted() {
+        return mSubmitted;
+    }
+
+    long getSaved() {
+        return mSaved;
+    }
+}
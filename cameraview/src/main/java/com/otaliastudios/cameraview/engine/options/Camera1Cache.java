@@ -0,0 +1,112 @@
+package com.otaliastudios.cameraview.engine.options;
+
+import android.hardware.Camera;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of the {@link Camera.CameraInfo} and {@link Camera1Options},
+ * so that they are not queried and computed again each time that the engine is started,
+ * for example when switching facing.
+ *
+ * The old API has no availability callbacks, so the cache is only invalidated through
+ * {@link #invalidate()}, for example when a camera can not be opened.
+ */
+public class Camera1Cache {
+
+    private final static String TAG = Camera1Cache.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private static Camera1Cache sInstance;
+
+    /**
+     * Returns the process-wide cache.
+     * @return the cache
+     */
+    @NonNull
+    public static synchronized Camera1Cache get() {
+        if (sInstance == null) sInstance = new Camera1Cache();
+        return sInstance;
+    }
+
+    private Camera.CameraInfo[] mCameraInfos;
+    private final Map<String, Camera1Options> mOptions = new HashMap<>();
+
+    private Camera1Cache() {}
+
+    @NonNull
+    private Camera.CameraInfo[] getCameraInfos() {
+        if (mCameraInfos == null) {
+            Camera.CameraInfo[] infos = new Camera.CameraInfo[Camera.getNumberOfCameras()];
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = new Camera.CameraInfo();
+                Camera.getCameraInfo(i, infos[i]);
+            }
+            mCameraInfos = infos;
+        }
+        return mCameraInfos;
+    }
+
+    /**
+     * Returns the number of cameras, like {@link Camera#getNumberOfCameras()}.
+     * @return the number of cameras
+     */
+    public synchronized int getNumberOfCameras() {
+        return getCameraInfos().length;
+    }
+
+    /**
+     * Fills the given info with the info of the given camera, like
+     * {@link Camera#getCameraInfo(int, Camera.CameraInfo)}.
+     *
+     * @param cameraId the camera id
+     * @param info the info to be filled
+     */
+    public synchronized void getCameraInfo(int cameraId, @NonNull Camera.CameraInfo info) {
+        Camera.CameraInfo cached = getCameraInfos()[cameraId];
+        info.facing = cached.facing;
+        info.orientation = cached.orientation;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            info.canDisableShutterSound = cached.canDisableShutterSound;
+        }
+    }
+
+    /**
+     * Returns the options of the given camera, creating them from the given parameters
+     * if needed. The parameters should come from the camera that was just opened,
+     * before any change.
+     *
+     * @param params the camera parameters
+     * @param cameraId the camera id
+     * @param flipSizes whether sizes should be flipped
+     * @return the options
+     */
+    @NonNull
+    public synchronized Camera1Options getCameraOptions(@NonNull Camera.Parameters params,
+                                                        int cameraId,
+                                                        boolean flipSizes) {
+        String key = cameraId + "/" + flipSizes;
+        Camera1Options options = mOptions.get(key);
+        if (options == null) {
+            options = new Camera1Options(params, cameraId, flipSizes);
+            mOptions.put(key, options);
+        } else {
+            LOG.i("getCameraOptions:", "Using cached options for", key);
+        }
+        return options;
+    }
+
+    /**
+     * Drops everything that was cached.
+     */
+    public synchronized void invalidate() {
+        mCameraInfos = null;
+        mOptions.clear();
+    }
+}
@@ -26,9 +26,10 @@ public class Camera1Options extends CameraOptions {
         Camera1Mapper mapper = Camera1Mapper.get();
 
         // Facing
+        Camera1Cache cache = Camera1Cache.get();
         Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
+        for (int i = 0, count = cache.getNumberOfCameras(); i < count; i++) {
+            cache.getCameraInfo(i, cameraInfo);
             Facing value = mapper.unmapFacing(cameraInfo.facing);
             if (value != null) supportedFacing.add(value);
         }
@@ -0,0 +1,191 @@
+package com.otaliastudios.cameraview.engine.options;
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process-wide cache of the camera ids, {@link CameraCharacteristics} and
+ * {@link Camera2Options}, so that they are not queried and computed again
+ * each time that the engine is started, for example when switching facing.
+ *
+ * Characteristics do not change for a given camera id, so they are kept until the id
+ * disappears. The id list instead is checked again after an availability callback, which
+ * can mean that an external camera was connected or disconnected. When the list changes,
+ * all options are invalidated, since they include the supported facing values.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Cache {
+
+    private final static String TAG = Camera2Cache.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private static Camera2Cache sInstance;
+
+    /**
+     * Returns the process-wide cache.
+     * @return the cache
+     */
+    @NonNull
+    public static synchronized Camera2Cache get() {
+        if (sInstance == null) sInstance = new Camera2Cache();
+        return sInstance;
+    }
+
+    private String[] mCameraIds;
+    private volatile boolean mCameraIdsStale;
+    private boolean mRegistered;
+    private final Map<String, CameraCharacteristics> mCharacteristics = new HashMap<>();
+    private final Map<String, Camera2Options> mOptions = new HashMap<>();
+
+    private final CameraManager.AvailabilityCallback mCallback
+            = new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraAvailable(@NonNull String cameraId) {
+            onAvailabilityChanged(cameraId);
+        }
+
+        @Override
+        public void onCameraUnavailable(@NonNull String cameraId) {
+            onAvailabilityChanged(cameraId);
+        }
+    };
+
+    @VisibleForTesting
+    Camera2Cache() {}
+
+    @VisibleForTesting
+    void onAvailabilityChanged(@NonNull String cameraId) {
+        // This is also called when a camera is opened or closed, so we don't drop anything
+        // here. The list is queried again next time, which is a single call.
+        // Not synchronized, so that the main thread never waits for the camera service.
+        LOG.v("onAvailabilityChanged:", "cameraId:", cameraId);
+        mCameraIdsStale = true;
+    }
+
+    @VisibleForTesting
+    void register(@NonNull CameraManager manager) {
+        if (mRegistered) return;
+        mRegistered = true;
+        // This also calls the callback once for each camera, which is harmless.
+        manager.registerAvailabilityCallback(mCallback, new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Returns the camera ids, like {@link CameraManager#getCameraIdList()}.
+     * The returned array should not be modified.
+     *
+     * @param manager a manager
+     * @return the camera ids
+     * @throws CameraAccessException if the camera service fails
+     */
+    @NonNull
+    public synchronized String[] getCameraIdList(@NonNull CameraManager manager)
+            throws CameraAccessException {
+        register(manager);
+        if (mCameraIds == null || mCameraIdsStale) {
+            String[] cameraIds = manager.getCameraIdList();
+            mCameraIdsStale = false;
+            if (mCameraIds == null || !Arrays.equals(mCameraIds, cameraIds)) {
+                LOG.i("getCameraIdList:", "Camera ids changed:", Arrays.toString(cameraIds));
+                List<String> list = Arrays.asList(cameraIds);
+                Iterator<String> iterator = mCharacteristics.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (!list.contains(iterator.next())) iterator.remove();
+                }
+                mOptions.clear();
+                mCameraIds = cameraIds;
+            }
+        }
+        return mCameraIds;
+    }
+
+    /**
+     * Returns the characteristics of the given camera, like
+     * {@link CameraManager#getCameraCharacteristics(String)}.
+     *
+     * @param manager a manager
+     * @param cameraId the camera id
+     * @return the characteristics
+     * @throws CameraAccessException if the camera service fails
+     */
+    @NonNull
+    public synchronized CameraCharacteristics getCameraCharacteristics(
+            @NonNull CameraManager manager,
+            @NonNull String cameraId) throws CameraAccessException {
+        register(manager);
+        CameraCharacteristics characteristics = mCharacteristics.get(cameraId);
+        if (characteristics == null) {
+            characteristics = manager.getCameraCharacteristics(cameraId);
+            mCharacteristics.put(cameraId, characteristics);
+        }
+        return characteristics;
+    }
+
+    /**
+     * Returns the options of the given camera, creating them if needed.
+     *
+     * @param manager a manager
+     * @param cameraId the camera id
+     * @param flipSizes whether sizes should be flipped
+     * @param pictureFormat the picture format
+     * @return the options
+     * @throws CameraAccessException if the camera service fails
+     */
+    @NonNull
+    public synchronized Camera2Options getCameraOptions(@NonNull CameraManager manager,
+                                                        @NonNull String cameraId,
+                                                        boolean flipSizes,
+                                                        int pictureFormat)
+            throws CameraAccessException {
+        // Make sure that options are dropped if the ids changed.
+        getCameraIdList(manager);
+        String key = cameraId + "/" + flipSizes + "/" + pictureFormat;
+        Camera2Options options = mOptions.get(key);
+        if (options == null) {
+            options = createCameraOptions(manager, cameraId, flipSizes, pictureFormat);
+            mOptions.put(key, options);
+        } else {
+            LOG.i("getCameraOptions:", "Using cached options for", key);
+        }
+        return options;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    Camera2Options createCameraOptions(@NonNull CameraManager manager,
+                                       @NonNull String cameraId,
+                                       boolean flipSizes,
+                                       int pictureFormat) throws CameraAccessException {
+        return new Camera2Options(manager, cameraId, flipSizes, pictureFormat);
+    }
+
+    /**
+     * Drops everything that was cached for the given camera, for example because
+     * it could not be opened.
+     * @param cameraId the camera id
+     */
+    public synchronized void invalidate(@NonNull String cameraId) {
+        mCameraIdsStale = true;
+        mCharacteristics.remove(cameraId);
+        Iterator<String> iterator = mOptions.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(cameraId + "/")) iterator.remove();
+        }
+    }
+}
@@ -37,12 +37,14 @@ public class Camera2Options extends CameraOptions {
                           boolean flipSizes,
                           int pictureFormat) throws CameraAccessException {
         Camera2Mapper mapper = Camera2Mapper.get();
-        CameraCharacteristics cameraCharacteristics = manager.getCameraCharacteristics(cameraId);
+        Camera2Cache cache = Camera2Cache.get();
+        CameraCharacteristics cameraCharacteristics
+                = cache.getCameraCharacteristics(manager, cameraId);
 
         // Facing
-        for (String cameraId1 : manager.getCameraIdList()) {
-            CameraCharacteristics cameraCharacteristics1 = manager
-                    .getCameraCharacteristics(cameraId1);
+        for (String cameraId1 : cache.getCameraIdList(manager)) {
+            CameraCharacteristics cameraCharacteristics1 = cache
+                    .getCameraCharacteristics(manager, cameraId1);
             Integer cameraFacing = cameraCharacteristics1.get(LENS_FACING);
             if (cameraFacing != null) {
                 Facing value = mapper.unmapFacing(cameraFacing);
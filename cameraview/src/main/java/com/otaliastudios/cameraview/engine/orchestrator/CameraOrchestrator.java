@@ -3,6 +3,7 @@ package com.otaliastudios.cameraview.engine.orchestrator;
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
@@ -11,11 +12,15 @@ import com.google.android.gms.tasks.Tasks;
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.internal.WorkerHandler;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -29,6 +34,10 @@ import java.util.concurrent.CancellationException;
  * tear it down. Other actions might need a specific state to be executed.
  * And most importantly, some actions will finish asynchronously, so subsequent actions
  * should wait for the previous to finish, but without blocking the thread.
+ *
+ * Pending jobs are kept ordered by the time at which they can be executed, and jobs with
+ * the same time are executed in the order they were scheduled. Only one wakeup is posted
+ * at a time, for the first job in the queue.
  */
 @SuppressWarnings("WeakerAccess")
 public class CameraOrchestrator {
@@ -42,25 +51,105 @@ public class CameraOrchestrator {
         void handleJobException(@NonNull String job, @NonNull Exception exception);
     }
 
+    /**
+     * A job that applies a value. If the new value can not be applied, the job should
+     * restore the old one, which is the value before the first of the superseded jobs.
+     * @param <V> the value type
+     */
+    public interface ValueJob<V> {
+        void run(V oldValue);
+    }
+
+    private static class OldValue {
+        private Object value;
+
+        private OldValue(@Nullable Object value) {
+            this.value = value;
+        }
+    }
+
     protected static class Job<T> {
         public final String name;
+        public final String key;
+        private final OldValue oldValue;
         public final TaskCompletionSource<T> source = new TaskCompletionSource<>();
         public final Callable<Task<T>> scheduler;
         public final boolean dispatchExceptions;
+        public final long scheduleTime;
         public final long startTime;
+        public final long sequence;
+        long executionTime;
+        JobTracer tracer;
+        long traceScheduleTime;
+        long traceStartTime;
+        Thread traceThread;
 
-        private Job(@NonNull String name, @NonNull Callable<Task<T>> scheduler, boolean dispatchExceptions, long startTime) {
+        private Job(@NonNull String name,
+                    @Nullable String key,
+                    @Nullable OldValue oldValue,
+                    @NonNull Callable<Task<T>> scheduler,
+                    boolean dispatchExceptions,
+                    long scheduleTime,
+                    long startTime,
+                    long sequence) {
             this.name = name;
+            this.key = key;
+            this.oldValue = oldValue;
             this.scheduler = scheduler;
             this.dispatchExceptions = dispatchExceptions;
+            this.scheduleTime = scheduleTime;
             this.startTime = startTime;
+            this.sequence = sequence;
         }
     }
 
+    private static final Comparator<Job<?>> JOB_ORDER = new Comparator<Job<?>>() {
+        @Override
+        public int compare(Job<?> first, Job<?> second) {
+            if (first.startTime != second.startTime) {
+                return first.startTime < second.startTime ? -1 : 1;
+            }
+            return first.sequence < second.sequence ? -1 : 1;
+        }
+    };
+
     protected final Callback mCallback;
-    protected final ArrayDeque<Job<?>> mJobs = new ArrayDeque<>();
-    protected boolean mJobRunning = false;
+    protected final PriorityQueue<Job<?>> mJobs = new PriorityQueue<>(11, JOB_ORDER);
+    @GuardedBy("mJobsLock") protected Job<?> mRunningJob = null;
     protected final Object mJobsLock = new Object();
+    @GuardedBy("mJobsLock") private long mJobSequence = 0;
+    @GuardedBy("mJobsLock") private final Map<String, JobMetrics> mMetrics = new LinkedHashMap<>();
+    @GuardedBy("mJobsLock") private WorkerHandler mWakeupWorker = null;
+    @GuardedBy("mJobsLock") private long mWakeupTime;
+    private volatile JobTracer mTracer = null;
+
+    private final Runnable mWakeup = new Runnable() {
+        @Override
+        public void run() {
+            Job<?> job = null;
+            synchronized (mJobsLock) {
+                mWakeupWorker = null;
+                // If a job is running, the next one will be picked in executed().
+                if (mRunningJob == null) {
+                    long now = now();
+                    Job<?> next = mJobs.peek();
+                    if (next != null && next.startTime <= now) {
+                        mJobs.poll();
+                        mRunningJob = next;
+                        next.executionTime = now;
+                        JobMetrics metrics = getJobMetrics(next.name);
+                        metrics.mQueueDepth--;
+                        metrics.onStarted(now - next.startTime);
+                        job = next;
+                    } else {
+                        sync();
+                    }
+                }
+            }
+            // This must be out of mJobsLock! See comments in execute().
+            if (job != null) execute(job);
+        }
+    };
 
     public CameraOrchestrator(@NonNull Callback callback) {
         mCallback = callback;
@@ -73,12 +162,73 @@ public class CameraOrchestrator {
         return scheduleDelayed(name, dispatchExceptions, 0L, job);
     }
 
+    /**
+     * Schedules a job with the given key. Jobs with the same key that were scheduled before
+     * and did not start yet are superseded by this one: they are removed from the queue and
+     * their task fails with a {@link CancellationException}. This is meant for jobs that set
+     * a value, where only the last one matters.
+     *
+     * @param name the job name
+     * @param key the job key
+     * @param dispatchExceptions whether to dispatch exceptions to the callback
+     * @param job the job
+     * @return a task
+     */
+    @NonNull
+    public Task<Void> schedule(@NonNull String name,
+                               @NonNull String key,
+                               boolean dispatchExceptions,
+                               @NonNull final Runnable job) {
+        return scheduleInternal(name, key, null, dispatchExceptions, 0L,
+                new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                job.run();
+                return Tasks.forResult(null);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #schedule(String, String, boolean, Runnable)}, but for jobs that set a
+     * value and might need to restore the old one. When this job supersedes another,
+     * it receives the old value of the superseded job instead of the given one, since the
+     * given value was never applied.
+     *
+     * @param name the job name
+     * @param key the job key
+     * @param dispatchExceptions whether to dispatch exceptions to the callback
+     * @param oldValue the value before this job
+     * @param job the job
+     * @param <V> the value type
+     * @return a task
+     */
+    @NonNull
+    public <V> Task<Void> schedule(@NonNull String name,
+                                   @NonNull String key,
+                                   boolean dispatchExceptions,
+                                   @Nullable V oldValue,
+                                   @NonNull final ValueJob<V> job) {
+        final OldValue holder = new OldValue(oldValue);
+        return scheduleInternal(name, key, holder, dispatchExceptions, 0L,
+                new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                // Written under mJobsLock before the job started.
+                @SuppressWarnings("unchecked") V value = (V) holder.value;
+                job.run(value);
+                return Tasks.forResult(null);
+            }
+        });
+    }
+
     @NonNull
     public Task<Void> scheduleDelayed(@NonNull String name,
                                       boolean dispatchExceptions,
                                       long minDelay,
                                       @NonNull final Runnable job) {
-        return scheduleInternal(name, dispatchExceptions, minDelay, new Callable<Task<Void>>() {
+        return scheduleInternal(name, null, null, dispatchExceptions, minDelay,
+                new Callable<Task<Void>>() {
             @Override
             public Task<Void> call() {
                 job.run();
@@ -91,52 +241,88 @@ public class CameraOrchestrator {
     public <T> Task<T> schedule(@NonNull String name,
                                 boolean dispatchExceptions,
                                 @NonNull Callable<Task<T>> scheduler) {
-        return scheduleInternal(name, dispatchExceptions, 0L, scheduler);
+        return scheduleInternal(name, null, null, dispatchExceptions, 0L, scheduler);
     }
 
     @NonNull
     private <T> Task<T> scheduleInternal(@NonNull String name,
+                                         @Nullable String key,
+                                         @Nullable OldValue oldValue,
                                          boolean dispatchExceptions,
                                          long minDelay,
                                          @NonNull Callable<Task<T>> scheduler) {
         LOG.i(name.toUpperCase(), "- Scheduling.");
-        Job<T> job = new Job<>(name, scheduler, dispatchExceptions,
-                System.currentTimeMillis() + minDelay);
+        long now = now();
+        Job<T> job;
+        List<Job<?>> superseded = null;
         synchronized (mJobsLock) {
-            mJobs.addLast(job);
-            sync(minDelay);
+            if (key != null) {
+                // Jobs in the queue did not start yet: the running job is not there.
+                Iterator<Job<?>> iterator = mJobs.iterator();
+                while (iterator.hasNext()) {
+                    Job<?> candidate = iterator.next();
+                    if (key.equals(candidate.key)) {
+                        iterator.remove();
+                        JobMetrics metrics = getJobMetrics(candidate.name);
+                        metrics.mQueueDepth--;
+                        metrics.mSuperseded++;
+                        if (superseded == null) superseded = new ArrayList<>();
+                        superseded.add(candidate);
+                    }
+                }
+            }
+            // The oldest superseded job holds the last value that was actually applied.
+            if (oldValue != null && superseded != null) {
+                Job<?> oldest = null;
+                for (Job<?> candidate : superseded) {
+                    if (candidate.oldValue == null) continue;
+                    if (oldest == null || candidate.sequence < oldest.sequence) oldest = candidate;
+                }
+                if (oldest != null) oldValue.value = oldest.oldValue.value;
+            }
+            job = new Job<>(name, key, oldValue, scheduler, dispatchExceptions,
+                    now, now + minDelay, mJobSequence++);
+            JobTracer tracer = mTracer;
+            if (tracer != null) {
+                job.tracer = tracer;
+                job.traceScheduleTime = tracer.now();
+            }
+            mJobs.add(job);
+            JobMetrics metrics = getJobMetrics(name);
+            metrics.mScheduled++;
+            metrics.mQueueDepth++;
+            metrics.mMaxQueueDepth = Math.max(metrics.mMaxQueueDepth, metrics.mQueueDepth);
+            sync();
+        }
+        // Out of mJobsLock, since listeners might be called synchronously.
+        if (superseded != null) {
+            for (Job<?> candidate : superseded) {
+                LOG.i(candidate.name.toUpperCase(), "- Superseded by", name.toUpperCase());
+                trace(candidate, JobTracer.Outcome.SUPERSEDED);
+                candidate.source.trySetException(new CancellationException());
+            }
         }
         return job.source.getTask();
     }
 
+    /**
+     * Makes sure that a wakeup is posted for the first job in the queue, unless a job is
+     * running. An earlier wakeup is fine, since it will post a new one if needed, but a later
+     * one is removed and replaced.
+     */
     @GuardedBy("mJobsLock")
-    private void sync(long after) {
-        // Jumping on the message handler even if after = 0L should avoid StackOverflow errors.
-        mCallback.getJobWorker("_sync").post(after, new Runnable() {
-            @SuppressWarnings("StatementWithEmptyBody")
-            @Override
-            public void run() {
-                Job<?> job = null;
-                synchronized (mJobsLock) {
-                    if (mJobRunning) {
-                        // Do nothing, job will be picked in executed().
-                    } else {
-                        long now = System.currentTimeMillis();
-                        for (Job<?> candidate : mJobs) {
-                            if (candidate.startTime <= now) {
-                                job = candidate;
-                                break;
-                            }
-                        }
-                        if (job != null) {
-                            mJobRunning = true;
-                        }
-                    }
-                }
-                // This must be out of mJobsLock! See comments in execute().
-                if (job != null) execute(job);
-            }
-        });
+    private void sync() {
+        if (mRunningJob != null) return;
+        Job<?> next = mJobs.peek();
+        if (next == null) return;
+        // The worker might have been recreated, in which case we post again.
+        WorkerHandler worker = mCallback.getJobWorker("_sync");
+        if (worker == mWakeupWorker && mWakeupTime <= next.startTime) return;
+        if (mWakeupWorker != null) mWakeupWorker.remove(mWakeup);
+        mWakeupWorker = worker;
+        mWakeupTime = next.startTime;
+        // Jumping on the message handler even if delay = 0L should avoid StackOverflow errors.
+        worker.post(Math.max(0L, next.startTime - now()), mWakeup);
     }
 
     // Since we use WorkerHandler.run(), the job can end up being executed on the current thread.
@@ -149,6 +335,10 @@ public class CameraOrchestrator {
             public void run() {
                 try {
                     LOG.i(job.name.toUpperCase(), "- Executing.");
+                    if (job.tracer != null) {
+                        job.traceStartTime = job.tracer.now();
+                        job.traceThread = Thread.currentThread();
+                    }
                     Task<T> task = job.scheduler.call();
                     onComplete(task, worker, new OnCompleteListener<T>() {
                         @Override
@@ -156,15 +346,18 @@ public class CameraOrchestrator {
                             Exception e = task.getException();
                             if (e != null) {
                                 LOG.w(job.name.toUpperCase(), "- Finished with ERROR.", e);
+                                trace(job, JobTracer.Outcome.FAILED);
                                 if (job.dispatchExceptions) {
                                     mCallback.handleJobException(job.name, e);
                                 }
                                 job.source.trySetException(e);
                             } else if (task.isCanceled()) {
                                 LOG.i(job.name.toUpperCase(), "- Finished because ABORTED.");
+                                trace(job, JobTracer.Outcome.CANCELED);
                                 job.source.trySetException(new CancellationException());
                             } else {
                                 LOG.i(job.name.toUpperCase(), "- Finished.");
+                                trace(job, JobTracer.Outcome.SUCCEEDED);
                                 job.source.trySetResult(task.getResult());
                             }
                             synchronized (mJobsLock) {
@@ -174,6 +367,7 @@ public class CameraOrchestrator {
                     });
                 } catch (Exception e) {
                     LOG.i(job.name.toUpperCase(), "- Finished with ERROR.", e);
+                    trace(job, JobTracer.Outcome.FAILED);
                     if (job.dispatchExceptions) {
                         mCallback.handleJobException(job.name, e);
                     }
@@ -188,12 +382,13 @@ public class CameraOrchestrator {
 
     @GuardedBy("mJobsLock")
     private <T> void executed(Job<T> job) {
-        if (!mJobRunning) {
-            throw new IllegalStateException("mJobRunning was not true after completing job=" + job.name);
+        if (mRunningJob != job) {
+            throw new IllegalStateException("mRunningJob was not job=" + job.name
+                    + " after completing it.");
         }
-        mJobRunning = false;
-        mJobs.remove(job);
-        sync(0L);
+        mRunningJob = null;
+        getJobMetrics(job.name).onExecuted(now() - job.executionTime);
+        sync();
     }
 
     public void remove(@NonNull String name) {
@@ -208,17 +403,26 @@ public class CameraOrchestrator {
                     scheduled.add(job);
                 }
             }
+            // The queue is not iterated in order.
+            Collections.sort(scheduled, new Comparator<Job<?>>() {
+                @Override
+                public int compare(Job<?> first, Job<?> second) {
+                    return first.sequence < second.sequence ? -1 : 1;
+                }
+            });
             LOG.v("trim: name=", name, "scheduled=", scheduled.size(), "allowed=", allowed);
             int existing = Math.max(scheduled.size() - allowed, 0);
             if (existing > 0) {
                 // To remove the oldest ones first, we must reverse the list.
-                // Note that we will potentially remove a job that is being executed: we don't
-                // have a mechanism to cancel the ongoing execution, but it shouldn't be a problem.
+                // Note that the job that is being executed is not in the queue, so it's
+                // not affected: we don't have a mechanism to cancel the ongoing execution.
                 Collections.reverse(scheduled);
                 scheduled = scheduled.subList(0, existing);
                 for (Job<?> job : scheduled) {
                     mJobs.remove(job);
+                    trace(job, JobTracer.Outcome.REMOVED);
                 }
+                getJobMetrics(name).mQueueDepth -= scheduled.size();
             }
         }
     }
@@ -235,6 +439,75 @@ public class CameraOrchestrator {
         }
     }
 
+    /**
+     * Sets a tracer that records the timeline of the jobs scheduled from now on,
+     * or null to stop tracing.
+     * @param tracer a tracer or null
+     */
+    public void setTracer(@Nullable JobTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Returns the tracer set with {@link #setTracer(JobTracer)}, if any.
+     * @return the tracer or null
+     */
+    @Nullable
+    public JobTracer getTracer() {
+        return mTracer;
+    }
+
+    private static void trace(@NonNull Job<?> job, @NonNull JobTracer.Outcome outcome) {
+        JobTracer tracer = job.tracer;
+        if (tracer == null) return;
+        long now = tracer.now();
+        // Jobs that never started leave the queue now.
+        long start = job.traceThread == null ? now : job.traceStartTime;
+        tracer.traceJob(job.name, job.traceScheduleTime, start, now, job.traceThread, outcome);
+    }
+
+    /**
+     * Returns the number of jobs that are waiting to be executed.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        synchronized (mJobsLock) {
+            return mJobs.size();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the scheduling metrics, one for each job name
+     * that was scheduled so far, in scheduling order.
+     * @return the metrics
+     */
+    @NonNull
+    public Map<String, JobMetrics> getMetrics() {
+        synchronized (mJobsLock) {
+            Map<String, JobMetrics> metrics = new LinkedHashMap<>();
+            for (JobMetrics jobMetrics : mMetrics.values()) {
+                metrics.put(jobMetrics.getName(), jobMetrics.copy());
+            }
+            return metrics;
+        }
+    }
+
+    @GuardedBy("mJobsLock")
+    @NonNull
+    private JobMetrics getJobMetrics(@NonNull String name) {
+        JobMetrics metrics = mMetrics.get(name);
+        if (metrics == null) {
+            metrics = new JobMetrics(name);
+            mMetrics.put(name, metrics);
+        }
+        return metrics;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
     private static <T> void onComplete(@NonNull final Task<T> task,
                                        @NonNull WorkerHandler handler,
                                        @NonNull final OnCompleteListener<T> listener) {
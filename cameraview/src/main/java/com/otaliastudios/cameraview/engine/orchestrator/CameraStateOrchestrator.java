@@ -1,6 +1,7 @@
 package com.otaliastudios.cameraview.engine.orchestrator;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.OnCompleteListener;
@@ -36,16 +37,19 @@ public class CameraStateOrchestrator extends CameraOrchestrator {
 
     public boolean hasPendingStateChange() {
         synchronized (mJobsLock) {
+            if (mRunningJob != null && isPendingStateChange(mRunningJob)) return true;
             for (Job<?> job : mJobs) {
-                if ((job.name.contains(" >> ") || job.name.contains(" << "))
-                        && !job.source.getTask().isComplete()) {
-                    return true;
-                }
+                if (isPendingStateChange(job)) return true;
             }
             return false;
         }
     }
 
+    private static boolean isPendingStateChange(@NonNull Job<?> job) {
+        return (job.name.contains(" >> ") || job.name.contains(" << "))
+                && !job.source.getTask().isComplete();
+    }
+
     @NonNull
     public <T> Task<T> scheduleStateChange(@NonNull final CameraState fromState,
                                            @NonNull final CameraState toState,
@@ -72,6 +76,8 @@ public class CameraStateOrchestrator extends CameraOrchestrator {
                         public Task<T> then(@NonNull Task<T> task) {
                             if (task.isSuccessful() || isTearDown) {
                                 mCurrentState = toState;
+                                JobTracer tracer = getTracer();
+                                if (tracer != null) tracer.traceState(toState.name());
                             }
                             return task;
                         }
@@ -103,6 +109,64 @@ public class CameraStateOrchestrator extends CameraOrchestrator {
         });
     }
 
+    /**
+     * Like {@link #scheduleStateful(String, CameraState, Runnable)}, but pending jobs
+     * with the same key are superseded by this one, as in
+     * {@link #schedule(String, String, boolean, Runnable)}. Value setters should use this,
+     * so that a burst of calls does not turn into a queue of outdated jobs.
+     *
+     * @param name the job name
+     * @param key the job key
+     * @param atLeast the min state
+     * @param job the job
+     * @return a task
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    @NonNull
+    public Task<Void> scheduleStateful(@NonNull String name,
+                                       @NonNull String key,
+                                       @NonNull final CameraState atLeast,
+                                       @NonNull final Runnable job) {
+        return schedule(name, key, true, new Runnable() {
+            @Override
+            public void run() {
+                if (getCurrentState().isAtLeast(atLeast)) {
+                    job.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Like {@link #scheduleStateful(String, String, CameraState, Runnable)}, but for jobs
+     * that set a value, as in {@link #schedule(String, String, boolean, Object, ValueJob)}.
+     * If the new value can not be applied, the job should restore the old value it receives,
+     * which is the last value that was actually applied.
+     *
+     * @param name the job name
+     * @param key the job key
+     * @param atLeast the min state
+     * @param oldValue the value before this job
+     * @param job the job
+     * @param <V> the value type
+     * @return a task
+     */
+    @NonNull
+    public <V> Task<Void> scheduleStateful(@NonNull String name,
+                                           @NonNull String key,
+                                           @NonNull final CameraState atLeast,
+                                           @Nullable V oldValue,
+                                           @NonNull final ValueJob<V> job) {
+        return schedule(name, key, true, oldValue, new ValueJob<V>() {
+            @Override
+            public void run(V oldValue) {
+                if (getCurrentState().isAtLeast(atLeast)) {
+                    job.run(oldValue);
+                }
+            }
+        });
+    }
+
     public void scheduleStatefulDelayed(@NonNull String name,
                                         @NonNull final CameraState atLeast,
                                         long delay,
@@ -0,0 +1,151 @@
+package com.otaliastudios.cameraview.engine.orchestrator;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Scheduling metrics of the {@link CameraOrchestrator} jobs with a given name.
+ * Instances returned by {@link CameraOrchestrator#getMetrics()} are snapshots
+ * and are not updated afterwards. All times are in milliseconds.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JobMetrics {
+
+    private final String mName;
+    int mQueueDepth;
+    int mMaxQueueDepth;
+    long mScheduled;
+    long mSuperseded;
+    long mStarted;
+    long mExecuted;
+    long mTotalWaitTime;
+    long mMaxWaitTime;
+    long mTotalExecutionTime;
+    long mMaxExecutionTime;
+
+    JobMetrics(@NonNull String name) {
+        mName = name;
+    }
+
+    @NonNull
+    JobMetrics copy() {
+        JobMetrics copy = new JobMetrics(mName);
+        copy.mQueueDepth = mQueueDepth;
+        copy.mMaxQueueDepth = mMaxQueueDepth;
+        copy.mScheduled = mScheduled;
+        copy.mSuperseded = mSuperseded;
+        copy.mStarted = mStarted;
+        copy.mExecuted = mExecuted;
+        copy.mTotalWaitTime = mTotalWaitTime;
+        copy.mMaxWaitTime = mMaxWaitTime;
+        copy.mTotalExecutionTime = mTotalExecutionTime;
+        copy.mMaxExecutionTime = mMaxExecutionTime;
+        return copy;
+    }
+
+    void onStarted(long waitTime) {
+        mStarted++;
+        mTotalWaitTime += waitTime;
+        mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+    }
+
+    void onExecuted(long executionTime) {
+        mExecuted++;
+        mTotalExecutionTime += executionTime;
+        mMaxExecutionTime = Math.max(mMaxExecutionTime, executionTime);
+    }
+
+    /**
+     * Returns the job name.
+     * @return the name
+     */
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the number of jobs with this name that are waiting to be executed.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * Returns the highest value that {@link #getQueueDepth()} ever had.
+     * @return the max queue depth
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * Returns the number of jobs with this name that were scheduled.
+     * @return the scheduled count
+     */
+    public long getScheduledCount() {
+        return mScheduled;
+    }
+
+    /**
+     * Returns the number of jobs with this name that were superseded by a job
+     * with the same key before starting.
+     * @return the superseded count
+     */
+    public long getSupersededCount() {
+        return mSuperseded;
+    }
+
+    /**
+     * Returns the number of jobs with this name that were executed until completion.
+     * @return the executed count
+     */
+    public long getExecutedCount() {
+        return mExecuted;
+    }
+
+    /**
+     * Returns the average time that jobs spent in the queue after they were ready
+     * to be executed, because other jobs were running.
+     * @return the average wait time
+     */
+    public long getAverageWaitTime() {
+        return mStarted == 0 ? 0 : mTotalWaitTime / mStarted;
+    }
+
+    /**
+     * Returns the longest time that a job spent in the queue after it was ready.
+     * @return the max wait time
+     */
+    public long getMaxWaitTime() {
+        return mMaxWaitTime;
+    }
+
+    /**
+     * Returns the average execution time, including the time taken by the task
+     * returned by asynchronous jobs.
+     * @return the average execution time
+     */
+    public long getAverageExecutionTime() {
+        return mExecuted == 0 ? 0 : mTotalExecutionTime / mExecuted;
+    }
+
+    /**
+     * Returns the longest execution time.
+     * @return the max execution time
+     */
+    public long getMaxExecutionTime() {
+        return mMaxExecutionTime;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mName + ": queue=" + mQueueDepth + " (max " + mMaxQueueDepth + ")"
+                + " scheduled=" + mScheduled + " superseded=" + mSuperseded
+                + " executed=" + mExecuted
+                + " wait=" + getAverageWaitTime() + "ms (max " + mMaxWaitTime + "ms)"
+                + " execution=" + getAverageExecutionTime() + "ms"
+                + " (max " + mMaxExecutionTime + "ms)";
+    }
+}
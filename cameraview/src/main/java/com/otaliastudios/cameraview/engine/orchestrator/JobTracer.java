@@ -0,0 +1,296 @@
+package com.otaliastudios.cameraview.engine.orchestrator;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the timeline of the {@link CameraOrchestrator} jobs, which include the engine state
+ * changes: when each job was scheduled, when it started and ended, on which thread it ran
+ * and how it ended. Current state changes are also recorded. The timeline can be exported
+ * to the Chrome trace event format, which can be opened in chrome://tracing or Perfetto.
+ *
+ * Tracing is disabled until a tracer is passed to {@link CameraOrchestrator#setTracer(JobTracer)}.
+ * Only the most recent traces are kept. All times are in microseconds, and can only be
+ * compared with each other.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JobTracer {
+
+    /**
+     * How a job ended.
+     */
+    public enum Outcome {
+        /** The job completed successfully. */
+        SUCCEEDED,
+        /** The job threw an exception or returned a failed task. */
+        FAILED,
+        /** The job returned a canceled task. */
+        CANCELED,
+        /** The job was superseded by a job with the same key before starting. */
+        SUPERSEDED,
+        /** The job was removed before starting. */
+        REMOVED
+    }
+
+    /**
+     * A job or state change trace.
+     */
+    public static class Trace {
+        private final String mName;
+        private final boolean mStateChange;
+        private final long mScheduleTime;
+        private final long mStartTime;
+        private final long mEndTime;
+        private final long mThreadId;
+        private final String mThreadName;
+        private final Outcome mOutcome;
+
+        private Trace(@NonNull String name,
+                      boolean stateChange,
+                      long scheduleTime,
+                      long startTime,
+                      long endTime,
+                      @Nullable Thread thread,
+                      @Nullable Outcome outcome) {
+            mName = name;
+            mStateChange = stateChange;
+            mScheduleTime = scheduleTime;
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mThreadId = thread == null ? -1 : thread.getId();
+            mThreadName = thread == null ? null : thread.getName();
+            mOutcome = outcome;
+        }
+
+        /**
+         * Returns the job name, or the new state for state changes.
+         * @return the name
+         */
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns true if this is the change of the current state, rather than a job.
+         * @return true for state changes
+         */
+        public boolean isStateChange() {
+            return mStateChange;
+        }
+
+        /**
+         * Returns the time at which the job was scheduled.
+         * @return the schedule time
+         */
+        public long getScheduleTime() {
+            return mScheduleTime;
+        }
+
+        /**
+         * Returns the time at which the job started, or left the queue without starting.
+         * @return the start time
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /**
+         * Returns the time at which the job ended.
+         * @return the end time
+         */
+        public long getEndTime() {
+            return mEndTime;
+        }
+
+        /**
+         * Returns the id of the thread that started the job, or -1 if it never started.
+         * @return the thread id
+         */
+        public long getThreadId() {
+            return mThreadId;
+        }
+
+        /**
+         * Returns the name of the thread that started the job, or null if it never started.
+         * @return the thread name
+         */
+        @Nullable
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * Returns how the job ended, or null for state changes.
+         * @return the outcome
+         */
+        @Nullable
+        public Outcome getOutcome() {
+            return mOutcome;
+        }
+    }
+
+    private final static int DEFAULT_MAX_TRACES = 1000;
+    private final static int PID = 1;
+
+    private final int mMaxTraces;
+    private final LinkedList<Trace> mTraces = new LinkedList<>();
+
+    /**
+     * Creates a tracer that keeps the default number of traces.
+     */
+    public JobTracer() {
+        this(DEFAULT_MAX_TRACES);
+    }
+
+    /**
+     * Creates a tracer that keeps up to the given number of traces.
+     * @param maxTraces the max number of traces
+     */
+    public JobTracer(int maxTraces) {
+        if (maxTraces <= 0) {
+            throw new IllegalArgumentException("maxTraces should be > 0.");
+        }
+        mMaxTraces = maxTraces;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.nanoTime() / 1000L;
+    }
+
+    void traceJob(@NonNull String name,
+                  long scheduleTime,
+                  long startTime,
+                  long endTime,
+                  @Nullable Thread thread,
+                  @NonNull Outcome outcome) {
+        boolean stateChange = name.contains(" >> ") || name.contains(" << ");
+        add(new Trace(name, stateChange, scheduleTime, startTime, endTime, thread, outcome));
+    }
+
+    void traceState(@NonNull String state) {
+        long now = now();
+        add(new Trace(state, true, now, now, now, Thread.currentThread(), null));
+    }
+
+    private synchronized void add(@NonNull Trace trace) {
+        mTraces.addLast(trace);
+        if (mTraces.size() > mMaxTraces) mTraces.removeFirst();
+    }
+
+    /**
+     * Returns the traces recorded so far, in the order in which they ended.
+     * @return the traces
+     */
+    @NonNull
+    public synchronized List<Trace> getTraces() {
+        return new ArrayList<>(mTraces);
+    }
+
+    /**
+     * Clears the traces recorded so far.
+     */
+    public synchronized void clear() {
+        mTraces.clear();
+    }
+
+    /**
+     * Exports the traces to a string in the Chrome trace event format.
+     * @return the JSON string
+     */
+    @NonNull
+    public String toChromeTrace() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeChromeTrace(writer);
+        } catch (IOException e) {
+            // StringWriter does not throw.
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Exports the traces to the given writer in the Chrome trace event format.
+     * Jobs that started are complete events on their thread, and the time they spent
+     * in the queue is an async event. State changes are instant events.
+     *
+     * @param writer a writer
+     * @throws IOException if writing fails
+     */
+    public void writeChromeTrace(@NonNull Writer writer) throws IOException {
+        List<Trace> traces = getTraces();
+        Map<Long, String> threads = new HashMap<>();
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + PID
+                + ",\"args\":{\"name\":\"CameraView\"}}");
+        for (int i = 0; i < traces.size(); i++) {
+            Trace trace = traces.get(i);
+            String name = quote(trace.mName);
+            if (trace.mThreadName != null) threads.put(trace.mThreadId, trace.mThreadName);
+            if (trace.mOutcome == null) {
+                writer.write(",{\"name\":" + quote("STATE: " + trace.mName)
+                        + ",\"cat\":\"state\",\"ph\":\"i\",\"s\":\"p\",\"ts\":" + trace.mStartTime
+                        + ",\"pid\":" + PID + ",\"tid\":" + trace.mThreadId + "}");
+                continue;
+            }
+            String category = trace.mStateChange ? "state" : "job";
+            String args = "{\"outcome\":\"" + trace.mOutcome.name() + "\"}";
+            writer.write(",{\"name\":" + name + ",\"cat\":\"queue\",\"ph\":\"b\""
+                    + ",\"id\":" + i + ",\"ts\":" + trace.mScheduleTime
+                    + ",\"pid\":" + PID + ",\"tid\":0}");
+            writer.write(",{\"name\":" + name + ",\"cat\":\"queue\",\"ph\":\"e\""
+                    + ",\"id\":" + i + ",\"ts\":" + trace.mStartTime
+                    + ",\"pid\":" + PID + ",\"tid\":0,\"args\":" + args + "}");
+            if (trace.mThreadName != null) {
+                writer.write(",{\"name\":" + name + ",\"cat\":\"" + category + "\",\"ph\":\"X\""
+                        + ",\"ts\":" + trace.mStartTime
+                        + ",\"dur\":" + (trace.mEndTime - trace.mStartTime)
+                        + ",\"pid\":" + PID + ",\"tid\":" + trace.mThreadId
+                        + ",\"args\":" + args + "}");
+            }
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            writer.write(",{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + PID
+                    + ",\"tid\":" + thread.getKey()
+                    + ",\"args\":{\"name\":" + quote(thread.getValue()) + "}}");
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    @NonNull
+    private static String quote(@NonNull String string) {
+        StringBuilder builder = new StringBuilder(string.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+        return builder.toString();
+    }
+}
@@ -5,9 +5,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.internal.RingBuffer;
 import com.otaliastudios.cameraview.size.Size;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class manages the allocation of byte buffers and {@link Frame} objects.
@@ -32,6 +33,11 @@ import java.util.concurrent.LinkedBlockingQueue;
  *    {@link FrameManager#getFrame(Object, long)}, or, in case it was not filled, returned to
  *    the queue using {@link #onBufferUnused(byte[])}.
  *    This is used for Camera2.
+ *
+ * When frames are retained (see {@link FrameManager#setMaxRetainedFrames(int)}), in
+ * {@link #BUFFER_MODE_DISPATCH} we allocate one more buffer for each retained one, up to
+ * the max retained count, so that the callback is not left without buffers.
+ * These extra buffers are then recycled as usual, so the pool does not grow any further.
  */
 public class ByteBufferFrameManager extends FrameManager<byte[]> {
 
@@ -55,9 +61,10 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
      */
     private final static int BUFFER_MODE_ENQUEUE = 1;
 
-    private LinkedBlockingQueue<byte[]> mBufferQueue;
+    private RingBuffer<byte[]> mBufferQueue;
     private BufferCallback mBufferCallback;
     private final int mBufferMode;
+    private final AtomicInteger mExtraBuffers = new AtomicInteger(0);
 
     /**
      * Construct a new frame manager.
@@ -73,7 +80,7 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
             mBufferCallback = callback;
             mBufferMode = BUFFER_MODE_DISPATCH;
         } else {
-            mBufferQueue = new LinkedBlockingQueue<>(poolSize);
+            mBufferQueue = new RingBuffer<>(poolSize);
             mBufferMode = BUFFER_MODE_ENQUEUE;
         }
     }
@@ -82,6 +89,7 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
     @Override
     public void setUp(int format, @NonNull Size size, @NonNull Angles angles) {
         super.setUp(format, size, angles);
+        mExtraBuffers.set(0);
         int bytes = getFrameBytes();
         for (int i = 0; i < getPoolSize(); i++) {
             if (mBufferMode == BUFFER_MODE_DISPATCH) {
@@ -140,6 +148,18 @@ public class ByteBufferFrameManager extends FrameManager<byte[]> {
         }
     }
 
+    @Override
+    protected void onFrameDataRetained(@NonNull byte[] data) {
+        int bytes = getFrameBytes();
+        if (mBufferMode != BUFFER_MODE_DISPATCH || bytes <= 0) return;
+        if (mExtraBuffers.incrementAndGet() > getMaxRetainedFrames()) {
+            mExtraBuffers.decrementAndGet();
+            return;
+        }
+        LOG.i("onFrameDataRetained: allocating extra buffer. extra:", mExtraBuffers.get());
+        mBufferCallback.onBufferAvailable(new byte[bytes]);
+    }
+
     @NonNull
     @Override
     protected byte[] onCloneFrameData(@NonNull byte[] data) {
@@ -0,0 +1,242 @@
+package com.otaliastudios.cameraview.frame;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.engine.offset.Angles;
+import com.otaliastudios.cameraview.internal.RingBuffer;
+import com.otaliastudios.cameraview.size.Size;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link FrameManager} for {@link ImageFormat#YUV_420_888} images that copies
+ * each {@link Image} into a pooled, direct {@link ByteBuffer} and closes the image
+ * right away, so that it goes back to the {@link android.media.ImageReader}.
+ *
+ * The buffers hold {@link ImageFormat#NV21} data with no padding, just like Camera1 frames,
+ * and frames report this format. Buffers are allocated off-heap and recycled, so
+ * unlike Images, frames can be frozen: retained frames share the buffer, and copies are
+ * taken from the pool when possible.
+ *
+ * Images should be passed to {@link #getFrame(Image, long)}.
+ */
+@RequiresApi(Build.VERSION_CODES.KITKAT)
+public class DirectBufferFrameManager extends FrameManager<ByteBuffer> {
+
+    private volatile RingBuffer<ByteBuffer> mBufferQueue;
+    private final AtomicInteger mAllocatedBuffers = new AtomicInteger(0);
+    // Only used by getFrame(Image, long).
+    private byte[] mScratch;
+
+    /**
+     * Construct a new frame manager.
+     * The construction must be followed by an {@link FrameManager#setUp(int, Size, Angles)} call
+     * as soon as the parameters are known.
+     *
+     * @param poolSize the size of the backing pool.
+     */
+    public DirectBufferFrameManager(int poolSize) {
+        super(poolSize, ByteBuffer.class);
+    }
+
+    /**
+     * Sets up the manager. The format should be {@link ImageFormat#YUV_420_888},
+     * but frames will report {@link ImageFormat#NV21}.
+     *
+     * @param format the image format
+     * @param size the frame size
+     * @param angles angle object
+     */
+    @Override
+    public void setUp(int format, @NonNull Size size, @NonNull Angles angles) {
+        if (format != ImageFormat.YUV_420_888 && format != ImageFormat.NV21) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        super.setUp(ImageFormat.NV21, size, angles);
+        // Retained frames hold their buffer for a long time, so leave room for them.
+        RingBuffer<ByteBuffer> queue = new RingBuffer<>(getPoolSize() + getMaxRetainedFrames());
+        int bytes = getFrameBytes();
+        for (int i = 0; i < getPoolSize(); i++) {
+            queue.offer(ByteBuffer.allocateDirect(bytes));
+        }
+        mAllocatedBuffers.set(getPoolSize());
+        mBufferQueue = queue;
+    }
+
+    /**
+     * Copies the given image into a pooled buffer, closes the image and returns
+     * a frame for this buffer, or null if no buffer or frame is available.
+     * This must be called after {@link #setUp(int, Size, Angles)}, always from the same thread.
+     *
+     * @param image the image
+     * @param time timestamp
+     * @return a new frame
+     */
+    @Nullable
+    public Frame getFrame(@NonNull Image image, long time) {
+        ByteBuffer buffer = isSetUp() ? obtainBuffer() : null;
+        if (buffer != null) {
+            try {
+                Image.Plane[] planes = image.getPlanes();
+                int scratchSize = getScratchSize(image.getWidth(), planes[1].getPixelStride());
+                if (mScratch == null || mScratch.length < scratchSize) {
+                    mScratch = new byte[scratchSize];
+                }
+                copyToNV21(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(),
+                        planes[1].getRowStride(), planes[1].getPixelStride(),
+                        image.getWidth(), image.getHeight(), buffer, mScratch);
+            } catch (Exception e) {
+                LOG.e("getFrame:", "could not copy the image.", e);
+                onFrameDataReleased(buffer, true);
+                buffer = null;
+            }
+        }
+        try {
+            image.close();
+        } catch (Exception ignore) {}
+        if (buffer == null) {
+            if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+                LOG.i("getFrame for time:", time, "NO BUFFER AVAILABLE.");
+            }
+            FrameMetrics metrics = getMetrics();
+            if (metrics != null) metrics.onFrameDropped(FrameMetrics.DROP_REASON_NO_FREE_FRAME);
+            return null;
+        }
+        return getFrame(buffer, time);
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates a new one if the pool
+     * is empty and we have not reached its capacity.
+     * @return a buffer or null
+     */
+    @Nullable
+    private ByteBuffer obtainBuffer() {
+        RingBuffer<ByteBuffer> queue = mBufferQueue;
+        if (queue == null) return null;
+        ByteBuffer buffer = queue.poll();
+        if (buffer != null) return buffer;
+        while (true) {
+            int allocated = mAllocatedBuffers.get();
+            if (allocated >= queue.capacity()) return null;
+            if (mAllocatedBuffers.compareAndSet(allocated, allocated + 1)) break;
+        }
+        LOG.i("obtainBuffer:", "allocating extra buffer.");
+        return ByteBuffer.allocateDirect(getFrameBytes());
+    }
+
+    /**
+     * Returns the length of the chroma rows that {@link #copyToNV21} reads.
+     * The last pixel is not followed by padding, so the last row can be shorter.
+     */
+    private static int getChromaRowLength(int width, int uvPixelStride) {
+        int chromaWidth = width / 2;
+        return chromaWidth == 0 ? 0 : (chromaWidth - 1) * uvPixelStride + 1;
+    }
+
+    /**
+     * Returns the size of the scratch array needed by {@link #copyToNV21}.
+     */
+    @VisibleForTesting
+    static int getScratchSize(int width, int uvPixelStride) {
+        return 2 * getChromaRowLength(width, uvPixelStride) + 2 * (width / 2);
+    }
+
+    /**
+     * Copies the YUV_420_888 planes into the output buffer, with NV21 layout:
+     * the full Y plane followed by interleaved V and U samples, without padding.
+     * Input buffers are read from index 0 and their position and limit are changed.
+     * The output buffer is flipped, so it can be read from the start.
+     * Rows are copied with bulk operations, going through the scratch array for chroma,
+     * which should be at least {@link #getScratchSize(int, int)} long.
+     */
+    @VisibleForTesting
+    static void copyToNV21(@NonNull ByteBuffer y, int yRowStride,
+                           @NonNull ByteBuffer u, @NonNull ByteBuffer v,
+                           int uvRowStride, int uvPixelStride,
+                           int width, int height,
+                           @NonNull ByteBuffer output,
+                           @NonNull byte[] scratch) {
+        output.clear();
+        if (yRowStride == width) {
+            y.limit(width * height).position(0);
+            output.put(y);
+        } else {
+            for (int row = 0; row < height; row++) {
+                int start = row * yRowStride;
+                y.limit(y.capacity()).position(start);
+                y.limit(start + width);
+                output.put(y);
+            }
+        }
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int rowLength = getChromaRowLength(width, uvPixelStride);
+        // Scratch layout: V row, U row, interleaved output row.
+        int outputStart = 2 * rowLength;
+        v.limit(v.capacity());
+        u.limit(u.capacity());
+        for (int row = 0; row < chromaHeight; row++) {
+            int start = row * uvRowStride;
+            v.position(start);
+            v.get(scratch, 0, rowLength);
+            u.position(start);
+            u.get(scratch, rowLength, rowLength);
+            int index = outputStart;
+            for (int col = 0; col < rowLength; col += uvPixelStride) {
+                scratch[index++] = scratch[col];
+                scratch[index++] = scratch[rowLength + col];
+            }
+            output.put(scratch, outputStart, 2 * chromaWidth);
+        }
+        output.flip();
+    }
+
+    @Override
+    protected void onFrameDataReleased(@NonNull ByteBuffer data, boolean recycled) {
+        RingBuffer<ByteBuffer> queue = mBufferQueue;
+        // Buffers from an old setUp are left to the garbage collector.
+        if (queue != null && isSetUp() && data.capacity() == getFrameBytes()) {
+            data.clear();
+            queue.offer(data);
+        }
+    }
+
+    @NonNull
+    @Override
+    protected ByteBuffer onCloneFrameData(@NonNull ByteBuffer data) {
+        ByteBuffer clone = null;
+        if (isSetUp() && data.capacity() == getFrameBytes()) clone = obtainBuffer();
+        if (clone == null) clone = ByteBuffer.allocateDirect(data.capacity());
+        // Use a duplicate so that the source position is not changed.
+        ByteBuffer source = data.duplicate();
+        source.position(0);
+        clone.clear();
+        clone.put(source);
+        clone.flip();
+        return clone;
+    }
+
+    /**
+     * Releases all frames controlled by this manager and
+     * clears the pool, including the buffers.
+     */
+    @Override
+    public void release() {
+        super.release();
+        RingBuffer<ByteBuffer> queue = mBufferQueue;
+        mBufferQueue = null;
+        if (queue != null) queue.clear();
+        mAllocatedBuffers.set(0);
+    }
+}
@@ -1,6 +1,8 @@
 package com.otaliastudios.cameraview.frame;
 
 import android.annotation.SuppressLint;
+import android.graphics.ImageFormat;
+import android.media.Image;
 
 import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.controls.Engine;
@@ -8,6 +10,9 @@ import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A preview frame to be processed by {@link FrameProcessor}s.
  */
@@ -26,6 +31,14 @@ public class Frame {
     private int mViewRotation = 0;
     private Size mSize = null;
     private int mFormat = -1;
+    // When not null, mData is shared with other frames and this counts the holders.
+    // Guarded by this, since processing lanes can freeze the same frame concurrently.
+    private AtomicInteger mDataHolders = null;
+    // Used by FrameDispatcher to release the frame when all processing lanes are done,
+    // and to know which processors should receive it.
+    AtomicInteger mPendingLanes = null;
+    FrameDispatcher.Registration[] mDispatchRegistrations = null;
+    boolean[] mDispatchWanted = null;
 
     Frame(@NonNull FrameManager manager) {
         mManager = manager;
@@ -41,6 +54,7 @@ public class Frame {
         mViewRotation = viewRotation;
         mSize = size;
         mFormat = format;
+        mDataHolders = null;
     }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
@@ -69,6 +83,10 @@ public class Frame {
      * This can be kept or safely passed to other threads.
      * Using freeze without clearing with {@link #release()} can result in memory leaks.
      *
+     * If the manager allows retaining frames (see {@link FrameManager#setMaxRetainedFrames(int)}),
+     * the frozen frame will share the data with this frame instead of copying it. In this case
+     * the data only goes back to the manager when all frames holding it have been released.
+     *
      * @return a frozen Frame
      */
     @SuppressLint("NewApi")
@@ -76,9 +94,24 @@ public class Frame {
     public Frame freeze() {
         ensureHasContent();
         Frame other = new Frame(mManager);
-        //noinspection unchecked
-        Object data = mManager.cloneFrameData(getData());
-        other.setContent(data, mTime, mUserRotation, mViewRotation, mSize, mFormat);
+        AtomicInteger holders;
+        synchronized (this) {
+            holders = mDataHolders;
+            if (holders == null && mManager.retainFrameData(mData)) {
+                // We are the only holder of this data, so no one can release it while we do this.
+                holders = new AtomicInteger(1);
+                mDataHolders = holders;
+            }
+            if (holders != null) holders.incrementAndGet();
+        }
+        if (holders != null) {
+            other.setContent(mData, mTime, mUserRotation, mViewRotation, mSize, mFormat);
+            other.mDataHolders = holders;
+        } else {
+            //noinspection unchecked
+            Object data = mManager.cloneFrameData(getData());
+            other.setContent(data, mTime, mUserRotation, mViewRotation, mSize, mFormat);
+        }
         return other;
     }
 
@@ -88,9 +121,20 @@ public class Frame {
      */
     public void release() {
         if (!hasContent()) return;
-        LOG.v("Frame with time", mTime, "is being released.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+            LOG.v("Frame with time", mTime, "is being released.");
+        }
         Object data = mData;
+        AtomicInteger holders;
+        synchronized (this) {
+            holders = mDataHolders;
+            mDataHolders = null;
+        }
         mData = null;
+        // Keep the counter and mDispatchWanted instances, so that the dispatcher does not
+        // allocate them again.
+        if (mPendingLanes != null) mPendingLanes.set(0);
+        mDispatchRegistrations = null;
         mUserRotation = 0;
         mViewRotation = 0;
         mTime = -1;
@@ -99,8 +143,13 @@ public class Frame {
         // After the manager is notified, this frame instance can be taken by
         // someone else, possibly from another thread. So this should be the
         // last call in this method. If we null data after, we can have issues.
-        //noinspection unchecked
-        mManager.onFrameReleased(this, data);
+        if (holders == null) {
+            //noinspection unchecked
+            mManager.onFrameReleased(this, data);
+        } else {
+            //noinspection unchecked
+            mManager.onSharedFrameReleased(this, data, holders.decrementAndGet() == 0);
+        }
     }
 
     /**
@@ -118,7 +167,8 @@ public class Frame {
      * Returns the class returned by {@link #getData()}.
      * This class depends on the engine that produced this frame.
      * - {@link Engine#CAMERA1} will produce byte[] arrays
-     * - {@link Engine#CAMERA2} will produce {@link android.media.Image}s
+     * - {@link Engine#CAMERA2} will produce {@link android.media.Image}s, or
+     *   {@link java.nio.ByteBuffer}s if direct buffers are enabled
      * @return the data class
      */
     @NonNull
@@ -192,4 +242,110 @@ public class Frame {
         ensureHasContent();
         return mFormat;
     }
+
+    /**
+     * Returns a planar view of the frame data, which can be used regardless of the engine.
+     * For {@link ImageFormat#NV21} and {@link ImageFormat#YUV_420_888} frames, this returns
+     * the Y, U and V planes in this order, with the same meaning as
+     * {@link Image#getPlanes()}. For other formats, only Camera2 images have planes.
+     *
+     * No data is copied: the planes are backed by the frame data, so they can only be used
+     * while the frame is valid. Each call returns new buffer instances, so that processors
+     * running on different threads do not change each other's buffer positions.
+     *
+     * @return the planes
+     */
+    @NonNull
+    public Plane[] getPlanes() {
+        ensureHasContent();
+        if (mData instanceof byte[]) {
+            return getPlanes(ByteBuffer.wrap((byte[]) mData));
+        } else if (mData instanceof ByteBuffer) {
+            return getPlanes(((ByteBuffer) mData).duplicate());
+        } else {
+            return getImagePlanes();
+        }
+    }
+
+    @NonNull
+    private Plane[] getPlanes(@NonNull ByteBuffer buffer) {
+        if (mFormat != ImageFormat.NV21) {
+            throw new IllegalStateException("Planes are not available for format " + mFormat);
+        }
+        // NV21 has the Y plane followed by interleaved V and U samples.
+        int width = mSize.getWidth();
+        int height = mSize.getHeight();
+        int ySize = width * height;
+        int uvSize = ySize / 2;
+        buffer.clear();
+        buffer.limit(ySize);
+        ByteBuffer y = buffer.slice();
+        buffer.limit(ySize + uvSize).position(ySize);
+        ByteBuffer v = buffer.slice();
+        buffer.position(ySize + 1);
+        ByteBuffer u = buffer.slice();
+        return new Plane[]{
+                new Plane(y, width, 1),
+                new Plane(u, width, 2),
+                new Plane(v, width, 2)
+        };
+    }
+
+    @SuppressLint("NewApi")
+    @NonNull
+    private Plane[] getImagePlanes() {
+        if (!(mData instanceof Image)) {
+            throw new IllegalStateException("Planes are not available for " + mDataClass);
+        }
+        Image.Plane[] planes = ((Image) mData).getPlanes();
+        Plane[] result = new Plane[planes.length];
+        for (int i = 0; i < planes.length; i++) {
+            result[i] = new Plane(planes[i].getBuffer().duplicate(),
+                    planes[i].getRowStride(),
+                    planes[i].getPixelStride());
+        }
+        return result;
+    }
+
+    /**
+     * A single plane of the frame data.
+     * @see #getPlanes()
+     */
+    public static class Plane {
+
+        private final ByteBuffer mBuffer;
+        private final int mRowStride;
+        private final int mPixelStride;
+
+        Plane(@NonNull ByteBuffer buffer, int rowStride, int pixelStride) {
+            mBuffer = buffer;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+        }
+
+        /**
+         * Returns the plane data, starting at the first pixel of the plane.
+         * @return the buffer
+         */
+        @NonNull
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        /**
+         * Returns the distance in bytes between the start of two consecutive rows.
+         * @return the row stride
+         */
+        public int getRowStride() {
+            return mRowStride;
+        }
+
+        /**
+         * Returns the distance in bytes between two consecutive pixels of the same row.
+         * @return the pixel stride
+         */
+        public int getPixelStride() {
+            return mPixelStride;
+        }
+    }
 }
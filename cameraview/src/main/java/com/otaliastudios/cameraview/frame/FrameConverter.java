@@ -0,0 +1,482 @@
+package com.otaliastudios.cameraview.frame;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts YUV frames ({@link ImageFormat#NV21} or {@link ImageFormat#YUV_420_888})
+ * to ARGB_8888 pixels, {@link Bitmap}s or luma-only arrays.
+ *
+ * All conversions read the {@link Frame#getPlanes()}, so they work with both engines without
+ * copying the frame data. They write into buffers passed by the caller, which can be reused
+ * across frames, and can optionally downscale (by keeping one pixel every N in both directions)
+ * and rotate the output by {@link Frame#getRotationToUser()}.
+ *
+ * When the converter has more than one thread, large frames are split in row bands that are
+ * converted in parallel. The calling thread converts one of the bands and the methods return
+ * when all bands are done. A converter can be used by one thread at a time.
+ */
+public class FrameConverter {
+
+    // Below this number of output pixels, parallel conversion is not worth it.
+    private static final int PARALLEL_THRESHOLD = 320 * 240;
+
+    private final int mThreads;
+    private Executor mExecutor;
+    private final Band[] mBands;
+    private int[] mPixels;
+
+    /**
+     * Creates a converter that runs on the calling thread.
+     */
+    public FrameConverter() {
+        this(1);
+    }
+
+    /**
+     * Creates a converter that uses up to the given number of threads,
+     * including the calling thread.
+     *
+     * @param threads thread count
+     */
+    public FrameConverter(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread, got " + threads);
+        }
+        mThreads = threads;
+        mBands = new Band[threads];
+        for (int i = 0; i < threads; i++) {
+            mBands[i] = new Band();
+        }
+    }
+
+    /**
+     * Returns the output width for the given frame and options.
+     *
+     * @param frame the frame
+     * @param downscale the downscale factor, 1 for none
+     * @param rotate whether the output is rotated by {@link Frame#getRotationToUser()}
+     * @return the output width
+     */
+    public static int getOutputWidth(@NonNull Frame frame, int downscale, boolean rotate) {
+        int width = frame.getSize().getWidth() / downscale;
+        int height = frame.getSize().getHeight() / downscale;
+        return rotate && frame.getRotationToUser() % 180 != 0 ? height : width;
+    }
+
+    /**
+     * Returns the output height for the given frame and options.
+     *
+     * @param frame the frame
+     * @param downscale the downscale factor, 1 for none
+     * @param rotate whether the output is rotated by {@link Frame#getRotationToUser()}
+     * @return the output height
+     */
+    public static int getOutputHeight(@NonNull Frame frame, int downscale, boolean rotate) {
+        int width = frame.getSize().getWidth() / downscale;
+        int height = frame.getSize().getHeight() / downscale;
+        return rotate && frame.getRotationToUser() % 180 != 0 ? width : height;
+    }
+
+    /**
+     * Converts the frame to ARGB_8888 pixels, with no downscale or rotation.
+     * The output should hold at least width * height values.
+     *
+     * @param frame the frame
+     * @param output the output pixels
+     */
+    public void toArgb(@NonNull Frame frame, @NonNull int[] output) {
+        toArgb(frame, output, 1, false);
+    }
+
+    /**
+     * Converts the frame to ARGB_8888 pixels. The output should hold at least
+     * {@link #getOutputWidth(Frame, int, boolean)} * {@link #getOutputHeight(Frame, int, boolean)}
+     * values, and rows are {@link #getOutputWidth(Frame, int, boolean)} pixels long.
+     *
+     * @param frame the frame
+     * @param output the output pixels
+     * @param downscale the downscale factor, 1 for none
+     * @param rotate whether to rotate by {@link Frame#getRotationToUser()}
+     */
+    public void toArgb(@NonNull Frame frame, @NonNull int[] output, int downscale, boolean rotate) {
+        convert(frame, output, null, downscale, rotate);
+    }
+
+    /**
+     * Converts the frame to a {@link Bitmap}. If the given bitmap is mutable and has the
+     * right size and config, it is reused, otherwise a new one is created.
+     *
+     * @param frame the frame
+     * @param reuse a bitmap to be reused, or null
+     * @param downscale the downscale factor, 1 for none
+     * @param rotate whether to rotate by {@link Frame#getRotationToUser()}
+     * @return a bitmap
+     */
+    @NonNull
+    public Bitmap toBitmap(@NonNull Frame frame, @Nullable Bitmap reuse,
+                           int downscale, boolean rotate) {
+        int width = getOutputWidth(frame, downscale, rotate);
+        int height = getOutputHeight(frame, downscale, rotate);
+        if (mPixels == null || mPixels.length < width * height) {
+            mPixels = new int[width * height];
+        }
+        toArgb(frame, mPixels, downscale, rotate);
+        Bitmap bitmap = reuse;
+        if (bitmap == null
+                || !bitmap.isMutable()
+                || bitmap.getWidth() != width
+                || bitmap.getHeight() != height
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.setPixels(mPixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * Copies the luma (Y) plane of the frame. The output should hold at least
+     * {@link #getOutputWidth(Frame, int, boolean)} * {@link #getOutputHeight(Frame, int, boolean)}
+     * values, and rows are {@link #getOutputWidth(Frame, int, boolean)} pixels long.
+     *
+     * @param frame the frame
+     * @param output the output luma values
+     * @param downscale the downscale factor, 1 for none
+     * @param rotate whether to rotate by {@link Frame#getRotationToUser()}
+     */
+    public void toLuma(@NonNull Frame frame, @NonNull byte[] output, int downscale, boolean rotate) {
+        convert(frame, null, output, downscale, rotate);
+    }
+
+    /**
+     * Converts a region of a {@link ImageFormat#NV21} array to RGBA bytes, 4 per pixel,
+     * with rows from top to bottom. This is for arrays that are not wrapped in a {@link Frame},
+     * like Camera1 picture snapshots. The output should hold at least width * height * 4 values.
+     *
+     * @param nv21 the input
+     * @param frameWidth the input width
+     * @param frameHeight the input height
+     * @param left the region left
+     * @param top the region top
+     * @param width the region width
+     * @param height the region height
+     * @param output the output bytes
+     */
+    public static void nv21ToRgba(@NonNull byte[] nv21, int frameWidth, int frameHeight,
+                                  int left, int top, int width, int height,
+                                  @NonNull byte[] output) {
+        if (left < 0 || top < 0 || left + width > frameWidth || top + height > frameHeight) {
+            throw new IllegalArgumentException("Region is out of bounds.");
+        }
+        if (output.length < width * height * 4) {
+            throw new IllegalArgumentException("Output is too small: " + output.length
+                    + ", need " + (width * height * 4));
+        }
+        int uvStart = frameWidth * frameHeight;
+        int index = 0;
+        for (int row = top; row < top + height; row++) {
+            int yIndex = row * frameWidth + left;
+            int uvRow = uvStart + (row >> 1) * frameWidth;
+            int lastUvIndex = -1;
+            int r = 0, g = 0, b = 0;
+            for (int col = left; col < left + width; col++) {
+                // V and U are interleaved, in this order, and shared by 2x2 pixels.
+                int uvIndex = uvRow + (col & ~1);
+                if (uvIndex != lastUvIndex) {
+                    int vValue = (nv21[uvIndex] & 0xFF) - 128;
+                    int uValue = (nv21[uvIndex + 1] & 0xFF) - 128;
+                    r = 1634 * vValue;
+                    g = -833 * vValue - 400 * uValue;
+                    b = 2066 * uValue;
+                    lastUvIndex = uvIndex;
+                }
+                int argb = toArgb(nv21[yIndex++], r, g, b);
+                output[index++] = (byte) (argb >> 16);
+                output[index++] = (byte) (argb >> 8);
+                output[index++] = (byte) argb;
+                output[index++] = (byte) 0xFF;
+            }
+        }
+    }
+
+    private void convert(@NonNull Frame frame,
+                         @Nullable int[] argb,
+                         @Nullable byte[] luma,
+                         int downscale,
+                         boolean rotate) {
+        int format = frame.getFormat();
+        if (format != ImageFormat.NV21 && format != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        if (downscale < 1) {
+            throw new IllegalArgumentException("Downscale should be >= 1: " + downscale);
+        }
+        int width = frame.getSize().getWidth() / downscale;
+        int height = frame.getSize().getHeight() / downscale;
+        int length = argb != null ? argb.length : luma.length;
+        if (length < width * height) {
+            throw new IllegalArgumentException("Output is too small: " + length
+                    + ", need " + (width * height));
+        }
+        int rotation = rotate ? frame.getRotationToUser() : 0;
+        Frame.Plane[] planes = frame.getPlanes();
+        int bands = mThreads;
+        if (width * height < PARALLEL_THRESHOLD) bands = 1;
+        if (bands > height) bands = height;
+        int rowsPerBand = height / bands;
+        for (int i = 0; i < bands; i++) {
+            Band band = mBands[i];
+            band.mPlanes = planes;
+            band.mArgb = argb;
+            band.mLuma = luma;
+            band.mWidth = width;
+            band.mHeight = height;
+            band.mDownscale = downscale;
+            band.mRotation = rotation;
+            band.mStartRow = i * rowsPerBand;
+            band.mEndRow = i == bands - 1 ? height : (i + 1) * rowsPerBand;
+        }
+        if (bands == 1) {
+            mBands[0].run();
+        } else {
+            CountDownLatch latch = new CountDownLatch(bands - 1);
+            Executor executor = getExecutor();
+            for (int i = 1; i < bands; i++) {
+                mBands[i].mLatch = latch;
+                executor.execute(mBands[i]);
+            }
+            mBands[0].run();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = 0; i < bands; i++) {
+            mBands[i].clear();
+        }
+    }
+
+    @NonNull
+    private Executor getExecutor() {
+        if (mExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    mThreads - 1,
+                    mThreads - 1,
+                    4,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+                        @Override
+                        public Thread newThread(@NonNull Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "FrameConverter #" + mCount.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+            );
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Converts the rows in [mStartRow, mEndRow) of the output, before rotation.
+     */
+    private static class Band implements Runnable {
+
+        private Frame.Plane[] mPlanes;
+        private int[] mArgb;
+        private byte[] mLuma;
+        private int mWidth;
+        private int mHeight;
+        private int mDownscale;
+        private int mRotation;
+        private int mStartRow;
+        private int mEndRow;
+        private CountDownLatch mLatch;
+
+        @Override
+        public void run() {
+            try {
+                if (mArgb != null) {
+                    convertArgb();
+                } else {
+                    convertLuma();
+                }
+            } finally {
+                if (mLatch != null) mLatch.countDown();
+            }
+        }
+
+        private void clear() {
+            mPlanes = null;
+            mArgb = null;
+            mLuma = null;
+            mLatch = null;
+        }
+
+        // Index of the first output pixel of the given row, and step between pixels.
+        private int rowStart(int row) {
+            switch (mRotation) {
+                case 90: return mHeight - 1 - row;
+                case 180: return (mHeight - 1 - row) * mWidth + mWidth - 1;
+                case 270: return (mWidth - 1) * mHeight + row;
+                default: return row * mWidth;
+            }
+        }
+
+        private int step() {
+            switch (mRotation) {
+                case 90: return mHeight;
+                case 180: return -1;
+                case 270: return -mHeight;
+                default: return 1;
+            }
+        }
+
+        private void convertLuma() {
+            ByteBuffer y = mPlanes[0].getBuffer();
+            int yRowStride = mPlanes[0].getRowStride();
+            int yPixelStride = mPlanes[0].getPixelStride() * mDownscale;
+            int step = step();
+            byte[] output = mLuma;
+            boolean hasArray = y.hasArray();
+            byte[] yArray = hasArray ? y.array() : null;
+            int yOffset = hasArray ? y.arrayOffset() : 0;
+            for (int row = mStartRow; row < mEndRow; row++) {
+                int input = row * mDownscale * yRowStride;
+                int index = rowStart(row);
+                if (hasArray) {
+                    input += yOffset;
+                    for (int col = 0; col < mWidth; col++) {
+                        output[index] = yArray[input];
+                        input += yPixelStride;
+                        index += step;
+                    }
+                } else {
+                    for (int col = 0; col < mWidth; col++) {
+                        output[index] = y.get(input);
+                        input += yPixelStride;
+                        index += step;
+                    }
+                }
+            }
+        }
+
+        private void convertArgb() {
+            ByteBuffer y = mPlanes[0].getBuffer();
+            ByteBuffer u = mPlanes[1].getBuffer();
+            ByteBuffer v = mPlanes[2].getBuffer();
+            if (y.hasArray() && u.hasArray() && v.hasArray()) {
+                convertArgb(y.array(), y.arrayOffset(),
+                        u.array(), u.arrayOffset(),
+                        v.array(), v.arrayOffset());
+                return;
+            }
+            int yRowStride = mPlanes[0].getRowStride();
+            int yPixelStride = mPlanes[0].getPixelStride() * mDownscale;
+            int uvRowStride = mPlanes[1].getRowStride();
+            int uvPixelStride = mPlanes[1].getPixelStride();
+            int downscale = mDownscale;
+            int step = step();
+            int[] output = mArgb;
+            for (int row = mStartRow; row < mEndRow; row++) {
+                int inputRow = row * downscale;
+                int yIndex = inputRow * yRowStride;
+                int uvRow = (inputRow >> 1) * uvRowStride;
+                int index = rowStart(row);
+                int lastUvIndex = -1;
+                int r = 0, g = 0, b = 0;
+                for (int col = 0; col < mWidth; col++) {
+                    int uvIndex = uvRow + ((col * downscale) >> 1) * uvPixelStride;
+                    if (uvIndex != lastUvIndex) {
+                        // Chroma is shared by 2x2 pixels, so only compute it when it changes.
+                        int uValue = (u.get(uvIndex) & 0xFF) - 128;
+                        int vValue = (v.get(uvIndex) & 0xFF) - 128;
+                        r = 1634 * vValue;
+                        g = -833 * vValue - 400 * uValue;
+                        b = 2066 * uValue;
+                        lastUvIndex = uvIndex;
+                    }
+                    output[index] = toArgb(y.get(yIndex), r, g, b);
+                    yIndex += yPixelStride;
+                    index += step;
+                }
+            }
+        }
+
+        // Same as above, but reads arrays directly, which is much faster than ByteBuffer.get().
+        private void convertArgb(@NonNull byte[] y, int yOffset,
+                                 @NonNull byte[] u, int uOffset,
+                                 @NonNull byte[] v, int vOffset) {
+            int yRowStride = mPlanes[0].getRowStride();
+            int yPixelStride = mPlanes[0].getPixelStride() * mDownscale;
+            int uvRowStride = mPlanes[1].getRowStride();
+            int uvPixelStride = mPlanes[1].getPixelStride();
+            int downscale = mDownscale;
+            int step = step();
+            int[] output = mArgb;
+            for (int row = mStartRow; row < mEndRow; row++) {
+                int inputRow = row * downscale;
+                int yIndex = yOffset + inputRow * yRowStride;
+                int uvRow = (inputRow >> 1) * uvRowStride;
+                int index = rowStart(row);
+                int lastUvIndex = -1;
+                int r = 0, g = 0, b = 0;
+                for (int col = 0; col < mWidth; col++) {
+                    int uvIndex = uvRow + ((col * downscale) >> 1) * uvPixelStride;
+                    if (uvIndex != lastUvIndex) {
+                        int uValue = (u[uOffset + uvIndex] & 0xFF) - 128;
+                        int vValue = (v[vOffset + uvIndex] & 0xFF) - 128;
+                        r = 1634 * vValue;
+                        g = -833 * vValue - 400 * uValue;
+                        b = 2066 * uValue;
+                        lastUvIndex = uvIndex;
+                    }
+                    output[index] = toArgb(y[yIndex], r, g, b);
+                    yIndex += yPixelStride;
+                    index += step;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a single pixel using the BT.601 coefficients, in fixed point.
+     */
+    static int yuvToArgb(byte yValue, byte uValue, byte vValue) {
+        int u = (uValue & 0xFF) - 128;
+        int v = (vValue & 0xFF) - 128;
+        return toArgb(yValue, 1634 * v, -833 * v - 400 * u, 2066 * u);
+    }
+
+    // Takes the chroma contributions for each channel, so they can be reused across pixels.
+    private static int toArgb(byte yValue, int rChroma, int gChroma, int bChroma) {
+        int y = (yValue & 0xFF) - 16;
+        if (y < 0) y = 0;
+        int y1192 = 1192 * y;
+        int r = y1192 + rChroma;
+        int g = y1192 + gChroma;
+        int b = y1192 + bChroma;
+        if (r < 0) r = 0; else if (r > 262143) r = 262143;
+        if (g < 0) g = 0; else if (g > 262143) g = 262143;
+        if (b < 0) b = 0; else if (b > 262143) b = 262143;
+        return 0xFF000000 | ((r << 6) & 0xFF0000) | ((g >> 2) & 0xFF00) | ((b >> 10) & 0xFF);
+    }
+}
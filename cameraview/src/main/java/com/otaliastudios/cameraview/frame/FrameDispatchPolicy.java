@@ -0,0 +1,39 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+/**
+ * Defines what happens to incoming frames when the frame processing queue is full,
+ * which means that processors are slower than the camera stream.
+ * The queue size is set through {@link CameraView#setFrameProcessingQueueSize(int)}.
+ *
+ * @see CameraView#setFrameProcessingPolicy(FrameDispatchPolicy)
+ */
+public enum FrameDispatchPolicy {
+
+    /**
+     * The incoming frame is dropped, so pending frames are processed in order.
+     * This is the default policy.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest pending frame is dropped in favor of the incoming one.
+     * Processors will see fresher frames, at the cost of skipping some.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Only one frame is kept pending at a time, regardless of the queue size:
+     * any incoming frame replaces the pending one. Processors always receive
+     * the freshest frame, which is usually what real-time processing needs.
+     */
+    KEEP_LATEST,
+
+    /**
+     * The camera thread waits until there is room in the queue.
+     * No frame is dropped here, but this will slow down the camera stream
+     * if processors are slow.
+     */
+    BLOCK
+}
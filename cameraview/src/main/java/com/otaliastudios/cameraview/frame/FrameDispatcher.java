@@ -0,0 +1,604 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches {@link Frame}s coming from the engine to the {@link FrameProcessor}s.
+ *
+ * Frames are kept in a pending queue and processed by a number of worker threads.
+ * When processors are slower than the camera stream, the queue can be bounded through
+ * {@link #setQueueSize(int)} and the {@link FrameDispatchPolicy} decides which frames
+ * are dropped. Dropped frames are released immediately, so they go back to the pool.
+ *
+ * By default, all processors run one after the other in the same lane. When
+ * {@link #setParallel(boolean)} is enabled, each processor gets its own lane, with its own
+ * queue and threads, so that a slow processor does not delay the others. In this case,
+ * the frame is released when all lanes are done with it.
+ *
+ * Each processor can also have {@link FrameProcessorOptions} that limit the frames it receives.
+ * These are evaluated in {@link #dispatch(Frame)}, and frames that no processor wants
+ * are released without reaching the executors.
+ */
+public class FrameDispatcher {
+
+    private static final String TAG = FrameDispatcher.class.getSimpleName();
+    private static final CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final List<FrameProcessor> mProcessors;
+    private final Object mLock = new Object();
+    private final Lane mSequentialLane = new Lane(null);
+    private final Map<FrameProcessor, FrameProcessorOptions> mOptions = new IdentityHashMap<>();
+    private volatile Registration[] mRegistrations = new Registration[0];
+    private volatile boolean mParallel = false;
+    private Executor mTestExecutor;
+    private int mExecutors;
+    private volatile FrameDispatchPolicy mPolicy = FrameDispatchPolicy.DROP_NEWEST;
+    private volatile int mQueueSize = 0;
+    private final FrameMetrics mMetrics;
+
+    /**
+     * Creates a new dispatcher for the given processors.
+     * The list is not copied, so changes will be reflected in the dispatcher.
+     * It should be a thread-safe list, and {@link #onProcessorsChanged()} should
+     * be called when it changes.
+     *
+     * @param processors the processors
+     */
+    public FrameDispatcher(@NonNull List<FrameProcessor> processors) {
+        this(processors, new FrameMetrics());
+    }
+
+    /**
+     * Creates a new dispatcher for the given processors, that will record
+     * its metrics in the given object.
+     *
+     * @param processors the processors
+     * @param metrics the metrics
+     */
+    public FrameDispatcher(@NonNull List<FrameProcessor> processors,
+                           @NonNull FrameMetrics metrics) {
+        mProcessors = processors;
+        mMetrics = metrics;
+        onProcessorsChanged();
+    }
+
+    /**
+     * Returns the metrics recorded by this dispatcher.
+     * @return the metrics
+     */
+    @NonNull
+    public FrameMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Sets the number of threads that will process frames.
+     * In parallel mode, this is the number of threads for each processor.
+     * @param executors thread count
+     */
+    public void setExecutors(int executors) {
+        if (executors < 1) {
+            throw new IllegalArgumentException("Need at least 1 executor, got " + executors);
+        }
+        synchronized (mLock) {
+            mExecutors = executors;
+            resetExecutors();
+        }
+    }
+
+    /**
+     * Stops the threads that process frames, once they are done with the pending ones.
+     * The dispatcher can still be used after this, and will start new threads if needed.
+     */
+    public void release() {
+        synchronized (mLock) {
+            resetExecutors();
+        }
+    }
+
+    // Called with mLock held.
+    private void resetExecutors() {
+        int executors = Math.max(1, mExecutors);
+        shutdown(mSequentialLane.setExecutor(createExecutor(mSequentialLane), executors));
+        for (Registration registration : mRegistrations) {
+            Lane lane = registration.mLane;
+            if (lane != null) shutdown(lane.setExecutor(createExecutor(lane), executors));
+        }
+    }
+
+    // Called with mLock held.
+    private void shutdown(@Nullable Executor executor) {
+        // Already submitted workers still run, so pending frames are not lost.
+        if (executor instanceof ExecutorService && executor != mTestExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    @VisibleForTesting
+    void setExecutor(@NonNull Executor executor, int executors) {
+        synchronized (mLock) {
+            mTestExecutor = executor;
+            mExecutors = executors;
+            mSequentialLane.setExecutor(executor, executors);
+            for (Registration registration : mRegistrations) {
+                Lane lane = registration.mLane;
+                if (lane != null) lane.setExecutor(executor, executors);
+            }
+        }
+    }
+
+    @NonNull
+    private Executor createExecutor(@NonNull Lane lane) {
+        if (mTestExecutor != null) return mTestExecutor;
+        final String name = lane.mRegistration == null ? "FrameExecutor" : "FrameExecutor ("
+                + lane.mRegistration.mProcessor.getClass().getSimpleName() + ")";
+        int threads = Math.max(1, mExecutors);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                4,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        return new Thread(r, name + " #" + mCount.getAndIncrement());
+                    }
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the number of threads that process frames.
+     * @return thread count
+     */
+    public int getExecutors() {
+        synchronized (mLock) {
+            return mExecutors;
+        }
+    }
+
+    /**
+     * Sets whether each processor should run in its own lane, with its own queue and
+     * threads. This lets independent processors use separate cores.
+     * @param parallel whether to run processors in parallel
+     */
+    public void setParallel(boolean parallel) {
+        mParallel = parallel;
+        onProcessorsChanged();
+    }
+
+    /**
+     * Returns whether each processor runs in its own lane.
+     * @return whether processors run in parallel
+     */
+    public boolean isParallel() {
+        return mParallel;
+    }
+
+    /**
+     * Sets the options for the given processor. Should be called before the processor
+     * is added to the list, or {@link #onProcessorsChanged()} should be called after this.
+     * @param processor the processor
+     * @param options the options, or null to remove them
+     */
+    public void setOptions(@NonNull FrameProcessor processor,
+                           @Nullable FrameProcessorOptions options) {
+        synchronized (mLock) {
+            if (options == null) {
+                mOptions.remove(processor);
+            } else {
+                mOptions.put(processor, options);
+            }
+        }
+    }
+
+    /**
+     * Should be called when the processors list changes, so that lanes can
+     * be created or released.
+     */
+    public void onProcessorsChanged() {
+        synchronized (mLock) {
+            Map<FrameProcessor, Registration> old = new IdentityHashMap<>();
+            for (Registration registration : mRegistrations) {
+                old.put(registration.mProcessor, registration);
+            }
+            Registration[] registrations = new Registration[mProcessors.size()];
+            int count = 0;
+            for (FrameProcessor processor : mProcessors) {
+                if (count == registrations.length) break;
+                FrameProcessorOptions options = mOptions.get(processor);
+                Registration registration = old.get(processor);
+                if (registration == null || registration.mOptions != options) {
+                    registration = new Registration(processor, options,
+                            mMetrics.obtainProcessingTime(processor));
+                } else {
+                    old.remove(processor);
+                }
+                if (mParallel && registration.mLane == null) {
+                    Lane lane = new Lane(registration);
+                    lane.setExecutor(createExecutor(lane), Math.max(1, mExecutors));
+                    registration.mLane = lane;
+                } else if (!mParallel && registration.mLane != null) {
+                    // Lanes will process their pending frames and then stop.
+                    registration.mLane.stop();
+                    registration.mLane = null;
+                }
+                registrations[count++] = registration;
+            }
+            // Stop the lanes of registrations that were removed or replaced.
+            for (Registration registration : old.values()) {
+                Lane lane = registration.mLane;
+                if (lane != null) lane.stop();
+            }
+            if (count < registrations.length) {
+                Registration[] trimmed = new Registration[count];
+                System.arraycopy(registrations, 0, trimmed, 0, count);
+                registrations = trimmed;
+            }
+            // Forget the options of processors that were removed.
+            mOptions.keySet().retainAll(mProcessors);
+            mMetrics.retainProcessingTimes(mProcessors);
+            mRegistrations = registrations;
+        }
+    }
+
+    /**
+     * Sets the policy used when the pending queue is full.
+     * @param policy the policy
+     */
+    public void setPolicy(@NonNull FrameDispatchPolicy policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * Returns the policy used when the pending queue is full.
+     * @return the policy
+     */
+    @NonNull
+    public FrameDispatchPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Sets the max number of frames waiting to be processed.
+     * In parallel mode, this applies to each processor.
+     * A value of 0 or less means that the queue is not bounded.
+     * @param queueSize the queue size
+     */
+    public void setQueueSize(int queueSize) {
+        mQueueSize = queueSize;
+    }
+
+    /**
+     * Returns the max number of frames waiting to be processed.
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        return mQueueSize;
+    }
+
+    /**
+     * Returns the number of frames that were passed to processors.
+     * In parallel mode, a frame is counted once for each processor.
+     * @return processed frames
+     */
+    public long getProcessedFrames() {
+        return mMetrics.getProcessedFrames();
+    }
+
+    /**
+     * Returns the number of frames that were dropped because of the queue policy.
+     * In parallel mode, a frame is counted once for each processor that dropped it.
+     * @return dropped frames
+     */
+    public long getDroppedFrames() {
+        return mMetrics.getDroppedFrames(FrameMetrics.DROP_REASON_POLICY);
+    }
+
+    /**
+     * Returns the number of frames that were released without processing, because
+     * no processor wanted them according to their {@link FrameProcessorOptions}.
+     * @return skipped frames
+     */
+    public long getSkippedFrames() {
+        return mMetrics.getSkippedFrames();
+    }
+
+    /**
+     * Returns the number of frames currently waiting to be processed.
+     * In parallel mode, a frame is counted once for each processor.
+     * @return pending frames
+     */
+    public int getPendingFrames() {
+        int pending = mSequentialLane.getPendingFrames();
+        for (Registration registration : mRegistrations) {
+            Lane lane = registration.mLane;
+            if (lane != null) pending += lane.getPendingFrames();
+        }
+        return pending;
+    }
+
+    @VisibleForTesting
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private int getMaxPending() {
+        if (mPolicy == FrameDispatchPolicy.KEEP_LATEST) return 1;
+        int queueSize = mQueueSize;
+        if (queueSize <= 0) return Integer.MAX_VALUE;
+        return queueSize;
+    }
+
+    /**
+     * Dispatches the given frame to processors, or releases it
+     * if no processor wants it or the policy drops it.
+     * @param frame the frame
+     */
+    public void dispatch(@NonNull Frame frame) {
+        Registration[] registrations = mRegistrations;
+        long time = frame.getTime();
+        // Pooled frames keep this array, so this only allocates when processors are added.
+        boolean[] wantedBy = frame.mDispatchWanted;
+        if (wantedBy == null || wantedBy.length < registrations.length) {
+            wantedBy = new boolean[registrations.length];
+            frame.mDispatchWanted = wantedBy;
+        }
+        int wanted = 0;
+        for (int i = 0; i < registrations.length; i++) {
+            wantedBy[i] = registrations[i].wants(time);
+            if (wantedBy[i]) wanted++;
+        }
+        if (wanted == 0) {
+            // Mark as released. This instance will be reused.
+            if (registrations.length > 0) mMetrics.onFrameSkipped();
+            frame.release();
+            return;
+        }
+        // Pooled frames keep their counter, so this only allocates the first time.
+        if (frame.mPendingLanes == null) frame.mPendingLanes = new AtomicInteger();
+        frame.mDispatchRegistrations = registrations;
+        if (!mParallel) {
+            frame.mPendingLanes.set(1);
+            mSequentialLane.offer(frame);
+            return;
+        }
+        // Set the count before offering, since lanes might finish immediately.
+        frame.mPendingLanes.set(wanted);
+        for (int i = 0; i < registrations.length; i++) {
+            if (isWanted(frame, i)) {
+                Lane lane = registrations[i].mLane;
+                if (lane != null) {
+                    lane.offer(frame);
+                } else {
+                    // Parallel mode was turned off in the meanwhile.
+                    onLaneDone(frame);
+                }
+            }
+        }
+    }
+
+    private static boolean isWanted(@NonNull Frame frame, int index) {
+        // The same decision that was used to count the lanes in dispatch().
+        return frame.mDispatchWanted[index];
+    }
+
+    private void onLaneDone(@NonNull Frame frame) {
+        if (frame.mPendingLanes.decrementAndGet() == 0) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Holds a processor, its options and the state needed to evaluate them.
+     */
+    static class Registration {
+
+        private final FrameProcessor mProcessor;
+        private final long mMinInterval;
+        private final int mFrameInterval;
+        private final long mTimeBudget;
+        private volatile Lane mLane;
+
+        // Only accessed by the dispatching thread.
+        private long mFrames = 0;
+        private long mNextTime = -1;
+        private long mWindowStart = -1;
+        // Written by processing threads.
+        private final AtomicLong mWindowSpent = new AtomicLong(0);
+        private final FrameProcessorOptions mOptions;
+        private final FrameMetrics.Histogram mProcessingTime;
+
+        private Registration(@NonNull FrameProcessor processor,
+                             @Nullable FrameProcessorOptions options,
+                             @NonNull FrameMetrics.Histogram processingTime) {
+            mProcessor = processor;
+            mOptions = options;
+            mProcessingTime = processingTime;
+            float maxFrameRate = options == null ? 0 : options.getMaxFrameRate();
+            mMinInterval = maxFrameRate > 0 ? (long) (1000F / maxFrameRate) : 0;
+            mFrameInterval = options == null ? 1 : options.getFrameInterval();
+            mTimeBudget = options == null ? 0 : options.getTimeBudget();
+        }
+
+        private boolean wants(long time) {
+            // Evaluate all gates before changing any state, so that a frame that is
+            // rejected by one gate does not count for the others.
+            if (mMinInterval > 0 && time < mNextTime) return false;
+            boolean newWindow = mWindowStart < 0 || time - mWindowStart >= 1000;
+            if (mTimeBudget > 0 && !newWindow && mWindowSpent.get() >= mTimeBudget) {
+                return false;
+            }
+            if (mFrameInterval > 1 && (mFrames++ % mFrameInterval) != 0) {
+                return false;
+            }
+            if (mMinInterval > 0) {
+                // If we are far behind, do not try to catch up.
+                if (mNextTime < 0 || time - mNextTime > mMinInterval) mNextTime = time;
+                mNextTime += mMinInterval;
+            }
+            if (mTimeBudget > 0 && newWindow) {
+                mWindowStart = time;
+                mWindowSpent.set(0);
+            }
+            return true;
+        }
+
+        private void onProcessed(long elapsedNanos) {
+            mProcessingTime.record(elapsedNanos / 1000L);
+            if (mTimeBudget > 0) {
+                mWindowSpent.addAndGet(elapsedNanos / 1000000L);
+            }
+        }
+    }
+
+    /**
+     * A lane has its own pending queue and executor. It runs a single processor,
+     * or all of them if registration is null.
+     */
+    private class Lane {
+
+        private final Registration mRegistration;
+        private final ArrayDeque<Frame> mPending = new ArrayDeque<>();
+        private Executor mExecutor;
+        private int mExecutors;
+        private int mActiveWorkers;
+        private boolean mStopped;
+
+        private Lane(@Nullable Registration registration) {
+            mRegistration = registration;
+        }
+
+        @Nullable
+        private synchronized Executor setExecutor(@NonNull Executor executor, int executors) {
+            Executor old = mExecutor;
+            mExecutor = executor;
+            mExecutors = executors;
+            return old;
+        }
+
+        // Called with mLock held. Pending frames are still processed.
+        private synchronized void stop() {
+            mStopped = true;
+            shutdown(mExecutor);
+            notifyAll();
+        }
+
+        private synchronized int getPendingFrames() {
+            return mPending.size();
+        }
+
+        private void offer(@NonNull Frame frame) {
+            Frame dropped = null;
+            boolean stopped;
+            synchronized (this) {
+                if (!mStopped && mPending.size() >= getMaxPending()) {
+                    switch (mPolicy) {
+                        case DROP_NEWEST:
+                            dropped = frame;
+                            break;
+                        case DROP_OLDEST:
+                        case KEEP_LATEST:
+                            dropped = mPending.pollFirst();
+                            break;
+                        case BLOCK:
+                            try {
+                                while (!mStopped && mPending.size() >= getMaxPending()) wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                dropped = frame;
+                            }
+                            break;
+                    }
+                }
+                stopped = mStopped;
+                if (!stopped && dropped != frame) mPending.addLast(frame);
+                if (!stopped && mActiveWorkers < mExecutors && !mPending.isEmpty()) {
+                    mActiveWorkers++;
+                    // Execute while holding the lock, so that the executor can not be
+                    // shut down by setExecutor() in the meanwhile.
+                    mExecutor.execute(mWorker);
+                }
+            }
+            if (stopped && dropped == null) {
+                // Parallel mode was turned off or the processor was removed in the meanwhile.
+                onLaneDone(frame);
+            }
+            if (dropped != null) {
+                mMetrics.onFrameDropped(FrameMetrics.DROP_REASON_POLICY);
+                if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                    LOG.v("dispatch: dropping frame because of policy", mPolicy);
+                }
+                onLaneDone(dropped);
+            }
+        }
+
+        // The same instance can run on several threads at once.
+        private final Runnable mWorker = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Frame frame;
+                    synchronized (Lane.this) {
+                        frame = mPending.pollFirst();
+                        if (frame == null) {
+                            mActiveWorkers--;
+                            return;
+                        }
+                        Lane.this.notifyAll();
+                    }
+                    process(frame);
+                }
+            }
+        };
+
+        private void process(@NonNull Frame frame) {
+            if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("process: passing", frame.getTime(), "to processors.");
+            }
+            long latency = System.currentTimeMillis() - frame.getTime();
+            mMetrics.getDispatchLatency().record(latency * 1000L);
+            if (mRegistration != null) {
+                process(mRegistration, frame);
+            } else {
+                Registration[] registrations = frame.mDispatchRegistrations;
+                for (int i = 0; i < registrations.length; i++) {
+                    if (isWanted(frame, i)) process(registrations[i], frame);
+                }
+            }
+            mMetrics.onFrameProcessed();
+            onLaneDone(frame);
+        }
+
+        private void process(@NonNull Registration registration, @NonNull Frame frame) {
+            long start = nanoTime();
+            try {
+                registration.mProcessor.process(frame);
+            } catch (Exception e) {
+                LOG.w("Frame processor crashed:", e);
+            }
+            registration.onProcessed(nanoTime() - start);
+        }
+    }
+}
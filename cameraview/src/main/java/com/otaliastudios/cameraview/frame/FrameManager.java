@@ -7,12 +7,13 @@ import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.engine.offset.Angles;
 import com.otaliastudios.cameraview.engine.offset.Axis;
 import com.otaliastudios.cameraview.engine.offset.Reference;
+import com.otaliastudios.cameraview.internal.RingBuffer;
 import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class manages the allocation of {@link Frame} objects.
@@ -25,6 +26,11 @@ import java.util.concurrent.LinkedBlockingQueue;
  *
  * For frames to get back to the FrameManager pool, all you have to do
  * is call {@link Frame#release()} when done.
+ *
+ * If {@link #setMaxRetainedFrames(int)} is used, {@link Frame#freeze()} will not copy the
+ * frame data but rather retain it, up to the given number of data objects.
+ * Retained data is passed to {@link #onFrameDataReleased(Object, boolean)} once all the
+ * frames holding it have been released.
  */
 public abstract class FrameManager<T> {
 
@@ -36,8 +42,11 @@ public abstract class FrameManager<T> {
     private Size mFrameSize = null;
     private int mFrameFormat = -1;
     private final Class<T> mFrameDataClass;
-    private LinkedBlockingQueue<Frame> mFrameQueue;
+    private final RingBuffer<Frame> mFrameQueue;
     private Angles mAngles;
+    private volatile int mMaxRetainedFrames = 0;
+    private final AtomicInteger mRetainedFrames = new AtomicInteger(0);
+    private volatile FrameMetrics mMetrics;
 
 
     /**
@@ -50,7 +59,7 @@ public abstract class FrameManager<T> {
     protected FrameManager(int poolSize, @NonNull Class<T> dataClass) {
         mPoolSize = poolSize;
         mFrameDataClass = dataClass;
-        mFrameQueue = new LinkedBlockingQueue<>(mPoolSize);
+        mFrameQueue = new RingBuffer<>(mPoolSize);
     }
 
     /**
@@ -62,6 +71,65 @@ public abstract class FrameManager<T> {
         return mPoolSize;
     }
 
+    /**
+     * Sets the max number of frame data objects that can be retained by frozen frames
+     * at any given time. When this is 0 (the default), {@link Frame#freeze()} always
+     * copies the data. When it is bigger, {@link Frame#freeze()} retains the data
+     * without copying, and falls back to copying only when the limit is reached.
+     *
+     * Subclasses can use {@link #onFrameDataRetained(Object)} to grow their pool
+     * while data is retained.
+     *
+     * @param maxRetainedFrames max retained frames
+     */
+    public void setMaxRetainedFrames(int maxRetainedFrames) {
+        mMaxRetainedFrames = maxRetainedFrames;
+    }
+
+    /**
+     * Returns the max number of frame data objects that can be retained.
+     * @see #setMaxRetainedFrames(int)
+     * @return max retained frames
+     */
+    public final int getMaxRetainedFrames() {
+        return mMaxRetainedFrames;
+    }
+
+    /**
+     * Returns the number of frame data objects that are currently retained
+     * by frozen frames.
+     * @return retained frames
+     */
+    public final int getRetainedFrames() {
+        return mRetainedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames of the pool that are currently in use,
+     * or 0 if this manager is not set up.
+     * @return frames in use
+     */
+    public final int getFramesInUse() {
+        if (!isSetUp()) return 0;
+        return Math.max(0, mPoolSize - mFrameQueue.size());
+    }
+
+    /**
+     * Sets the metrics object that should be notified about dropped frames.
+     * The metrics will also report this manager's pool occupancy.
+     * @param metrics the metrics, or null
+     */
+    public void setMetrics(@Nullable FrameMetrics metrics) {
+        if (mMetrics != null) mMetrics.setFrameManager(null);
+        mMetrics = metrics;
+        if (metrics != null) metrics.setFrameManager(this);
+    }
+
+    @Nullable
+    FrameMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /**
      * Returns the frame size in bytes.
      * @return frame size in bytes
@@ -132,7 +200,9 @@ public abstract class FrameManager<T> {
 
         Frame frame = mFrameQueue.poll();
         if (frame != null) {
-            LOG.v("getFrame for time:", time, "RECYCLING.");
+            if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("getFrame for time:", time, "RECYCLING.");
+            }
             int userRotation = mAngles.offset(Reference.SENSOR, Reference.OUTPUT,
                     Axis.RELATIVE_TO_SENSOR);
             int viewRotation = mAngles.offset(Reference.SENSOR, Reference.VIEW,
@@ -140,7 +210,10 @@ public abstract class FrameManager<T> {
             frame.setContent(data, time, userRotation, viewRotation, mFrameSize, mFrameFormat);
             return frame;
         } else {
-            LOG.i("getFrame for time:", time, "NOT AVAILABLE.");
+            if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+                LOG.i("getFrame for time:", time, "NOT AVAILABLE.");
+            }
+            if (mMetrics != null) mMetrics.onFrameDropped(FrameMetrics.DROP_REASON_NO_FREE_FRAME);
             onFrameDataReleased(data, false);
             return null;
         }
@@ -158,6 +231,46 @@ public abstract class FrameManager<T> {
         onFrameDataReleased(data, recycled);
     }
 
+    /**
+     * Called by child frames that share their data with other frames, when they are released.
+     * @param frame the released frame
+     * @param data the shared data
+     * @param lastHolder whether no other frame is holding this data anymore
+     */
+    void onSharedFrameReleased(@NonNull Frame frame, @NonNull T data, boolean lastHolder) {
+        if (lastHolder) mRetainedFrames.decrementAndGet();
+        if (!isSetUp()) return;
+        mFrameQueue.offer(frame);
+        // The data was retained, so it should go back to the pool even if the frame did not.
+        if (lastHolder) onFrameDataReleased(data, true);
+    }
+
+    /**
+     * Called by child frames when they are frozen. Returns true if the data
+     * can be retained instead of cloned.
+     * @param data the data
+     * @return true if retained
+     */
+    boolean retainFrameData(@NonNull T data) {
+        while (true) {
+            int retained = mRetainedFrames.get();
+            if (retained >= mMaxRetainedFrames) return false;
+            if (mRetainedFrames.compareAndSet(retained, retained + 1)) break;
+        }
+        onFrameDataRetained(data);
+        return true;
+    }
+
+    /**
+     * Called when a frame data object is retained by a frozen frame, which means
+     * that it will not come back to the pool as soon as usual.
+     * Subclasses might want to allocate more data to compensate.
+     * @param data the retained data
+     */
+    protected void onFrameDataRetained(@NonNull T data) {
+        // Do nothing.
+    }
+
     /**
      * Called when a Frame was released and its data is now available.
      * This might be called from old Frames that belong to an old 'setUp'
@@ -0,0 +1,289 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects metrics about the frame processing pipeline, so that apps can see where
+ * frames are being lost or delayed. Can be retrieved through
+ * {@link CameraView#getFrameProcessingMetrics()}.
+ *
+ * Recording only updates a few atomic counters and never allocates or locks,
+ * so metrics are always collected and can be left on in production.
+ * All values are live and can be read from any thread; use {@link #reset()} to start over.
+ */
+public class FrameMetrics {
+
+    /**
+     * The frame was dropped because all frames in the pool were in use.
+     * This usually means that frames are released too late, or that the pool
+     * size is too small.
+     * @see CameraView#setFrameProcessingPoolSize(int)
+     */
+    public static final int DROP_REASON_NO_FREE_FRAME = 0;
+
+    /**
+     * The frame was dropped because the camera was not in the preview state,
+     * for example because it was being stopped or restarted.
+     */
+    public static final int DROP_REASON_WRONG_STATE = 1;
+
+    /**
+     * The frame was dropped by the {@link FrameDispatchPolicy}, because processors
+     * could not keep up with the camera stream.
+     * @see CameraView#setFrameProcessingPolicy(FrameDispatchPolicy)
+     */
+    public static final int DROP_REASON_POLICY = 2;
+
+    private static final int DROP_REASONS = 3;
+
+    private final AtomicLongArray mDroppedFrames = new AtomicLongArray(DROP_REASONS);
+    private final AtomicLong mProcessedFrames = new AtomicLong(0);
+    private final AtomicLong mSkippedFrames = new AtomicLong(0);
+    private final Histogram mDispatchLatency = new Histogram();
+    private final Map<FrameProcessor, Histogram> mProcessingTimes = new IdentityHashMap<>();
+    private volatile FrameManager<?> mFrameManager;
+
+    /**
+     * Returns the number of frames that were dropped for the given reason.
+     * In parallel mode, frames dropped by the policy are counted once for each
+     * processor that dropped them.
+     *
+     * @param reason one of the DROP_REASON constants
+     * @return dropped frames
+     */
+    public long getDroppedFrames(int reason) {
+        return mDroppedFrames.get(reason);
+    }
+
+    /**
+     * Returns the number of frames that were dropped for any reason.
+     * @return dropped frames
+     */
+    public long getDroppedFrames() {
+        long dropped = 0;
+        for (int i = 0; i < DROP_REASONS; i++) {
+            dropped += mDroppedFrames.get(i);
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns the number of frames that were passed to processors.
+     * In parallel mode, a frame is counted once for each processor.
+     * @return processed frames
+     */
+    public long getProcessedFrames() {
+        return mProcessedFrames.get();
+    }
+
+    /**
+     * Returns the number of frames that were released without processing, because
+     * no processor wanted them according to their {@link FrameProcessorOptions}.
+     * @return skipped frames
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
+    /**
+     * Returns the time between the moment the frame was received from the camera
+     * and the moment it was passed to processors, in microseconds.
+     * This includes the time spent waiting in the queue.
+     * @return the latency histogram
+     */
+    @NonNull
+    public Histogram getDispatchLatency() {
+        return mDispatchLatency;
+    }
+
+    /**
+     * Returns the time spent by the given processor in {@link FrameProcessor#process(Frame)},
+     * in microseconds, or null if the processor is not registered.
+     *
+     * @param processor a processor
+     * @return the processing time histogram
+     */
+    @Nullable
+    public Histogram getProcessingTime(@NonNull FrameProcessor processor) {
+        synchronized (mProcessingTimes) {
+            return mProcessingTimes.get(processor);
+        }
+    }
+
+    /**
+     * Returns the number of frames of the current pool that are in use,
+     * which means that they were given to the pipeline and not released yet.
+     * This is 0 when the camera is not open.
+     * @return frames in use
+     */
+    public int getFramesInUse() {
+        FrameManager<?> manager = mFrameManager;
+        return manager == null ? 0 : manager.getFramesInUse();
+    }
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public void reset() {
+        for (int i = 0; i < DROP_REASONS; i++) {
+            mDroppedFrames.set(i, 0);
+        }
+        mProcessedFrames.set(0);
+        mSkippedFrames.set(0);
+        mDispatchLatency.reset();
+        synchronized (mProcessingTimes) {
+            for (Histogram histogram : mProcessingTimes.values()) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * Records a frame that was dropped for the given reason.
+     * This is called by the engine and should not be called by apps.
+     * @param reason one of the DROP_REASON constants
+     */
+    public void onFrameDropped(int reason) {
+        mDroppedFrames.incrementAndGet(reason);
+    }
+
+    void onFrameSkipped() {
+        mSkippedFrames.incrementAndGet();
+    }
+
+    void onFrameProcessed() {
+        mProcessedFrames.incrementAndGet();
+    }
+
+    void setFrameManager(@Nullable FrameManager<?> manager) {
+        mFrameManager = manager;
+    }
+
+    @NonNull
+    Histogram obtainProcessingTime(@NonNull FrameProcessor processor) {
+        synchronized (mProcessingTimes) {
+            Histogram histogram = mProcessingTimes.get(processor);
+            if (histogram == null) {
+                histogram = new Histogram();
+                mProcessingTimes.put(processor, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    void retainProcessingTimes(@NonNull Collection<FrameProcessor> processors) {
+        synchronized (mProcessingTimes) {
+            mProcessingTimes.keySet().retainAll(processors);
+        }
+    }
+
+    /**
+     * A lock-free histogram of durations, in microseconds.
+     * Values are stored in buckets whose bounds are powers of two, so percentiles
+     * are approximate but recording a value is very cheap.
+     */
+    public static class Histogram {
+
+        // Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i). The last one holds anything bigger.
+        private static final int BUCKETS = 26;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong(0);
+        private final AtomicLong mSum = new AtomicLong(0);
+        private final AtomicLong mMax = new AtomicLong(0);
+
+        void record(long micros) {
+            if (micros < 0) micros = 0;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(micros);
+            long max = mMax.get();
+            while (micros > max && !mMax.compareAndSet(max, micros)) {
+                max = mMax.get();
+            }
+        }
+
+        /**
+         * Returns the number of recorded values.
+         * @return the count
+         */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * Returns the average of recorded values, or 0 if there are none.
+         * @return the average in microseconds
+         */
+        public long getAverage() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * Returns the biggest recorded value, or 0 if there are none.
+         * @return the max in microseconds
+         */
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * Returns an upper bound for the given percentile, for example 0.5F for the median
+         * or 0.99F for the 99th percentile. The value is rounded up to the bucket bound,
+         * so it can be up to twice the exact value, but never bigger than {@link #getMax()}.
+         *
+         * @param percentile a value between 0 and 1
+         * @return the percentile in microseconds
+         */
+        public long getPercentile(float percentile) {
+            long count = mCount.get();
+            if (count == 0) return 0;
+            long target = (long) Math.ceil(count * Math.max(0F, Math.min(1F, percentile)));
+            if (target == 0) target = 1;
+            long seen = 0;
+            long max = mMax.get();
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= target) {
+                    if (i == BUCKETS - 1) return max;
+                    long bound = (1L << i) - 1;
+                    return Math.min(bound, max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Clears all recorded values.
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "count:" + getCount()
+                    + " avg:" + getAverage()
+                    + " p50:" + getPercentile(0.5F)
+                    + " p99:" + getPercentile(0.99F)
+                    + " max:" + getMax();
+        }
+    }
+}
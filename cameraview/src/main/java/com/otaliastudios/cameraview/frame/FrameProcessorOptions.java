@@ -0,0 +1,95 @@
+package com.otaliastudios.cameraview.frame;
+
+import com.otaliastudios.cameraview.CameraView;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Options that control which frames are passed to a {@link FrameProcessor}.
+ * Can be passed to {@link CameraView#addFrameProcessor(FrameProcessor, FrameProcessorOptions)}.
+ *
+ * Options are evaluated before the frame is handed to the processing threads, so frames that
+ * a processor does not want have no cost. When no processor wants a frame, it is released
+ * immediately. Options are read when the processor is added, so changing them later has
+ * no effect.
+ *
+ * Setters return the same instance, so that calls can be chained.
+ */
+public class FrameProcessorOptions {
+
+    private float mMaxFrameRate = 0;
+    private int mFrameInterval = 1;
+    private long mTimeBudget = 0;
+
+    /**
+     * Sets the max number of frames per second that the processor should receive.
+     * Frames are skipped so that they are evenly spaced in time.
+     * A value of 0 or less means no limit, which is the default.
+     *
+     * @param maxFrameRate max frames per second
+     * @return this instance
+     */
+    @NonNull
+    public FrameProcessorOptions setMaxFrameRate(float maxFrameRate) {
+        mMaxFrameRate = maxFrameRate;
+        return this;
+    }
+
+    /**
+     * Returns the max number of frames per second.
+     * @see #setMaxFrameRate(float)
+     * @return max frames per second
+     */
+    public float getMaxFrameRate() {
+        return mMaxFrameRate;
+    }
+
+    /**
+     * Sets the frame interval, so that the processor only receives one frame every N.
+     * Defaults to 1, which means that all frames are received. Frames that are skipped
+     * because of the other options are not counted.
+     *
+     * @param frameInterval the frame interval
+     * @return this instance
+     */
+    @NonNull
+    public FrameProcessorOptions setFrameInterval(int frameInterval) {
+        if (frameInterval < 1) {
+            throw new IllegalArgumentException("Frame interval should be >= 1: " + frameInterval);
+        }
+        mFrameInterval = frameInterval;
+        return this;
+    }
+
+    /**
+     * Returns the frame interval.
+     * @see #setFrameInterval(int)
+     * @return the frame interval
+     */
+    public int getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    /**
+     * Sets the processing time budget, in milliseconds per second. Once the processor has
+     * spent this much time processing frames within a one-second window, it will not receive
+     * other frames until the window ends. A value of 0 or less means no limit, the default.
+     *
+     * @param millisPerSecond the time budget
+     * @return this instance
+     */
+    @NonNull
+    public FrameProcessorOptions setTimeBudget(long millisPerSecond) {
+        mTimeBudget = millisPerSecond;
+        return this;
+    }
+
+    /**
+     * Returns the processing time budget, in milliseconds per second.
+     * @see #setTimeBudget(long)
+     * @return the time budget
+     */
+    public long getTimeBudget() {
+        return mTimeBudget;
+    }
+}
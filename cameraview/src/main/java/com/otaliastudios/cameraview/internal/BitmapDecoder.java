@@ -0,0 +1,423 @@
+package com.otaliastudios.cameraview.internal;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.size.Size;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes pictures into bitmaps that are ready to be displayed, allocating as little as
+ * possible:
+ *
+ * - The EXIF orientation is read with {@link ExifHelper#readOrientation(byte[])}, which only
+ *   scans the header, instead of a full {@link ExifInterface}
+ * - Crops are decoded with {@link BitmapRegionDecoder}, so pixels outside of the crop
+ *   are never decoded
+ * - The decoder downsamples by the largest power of two that keeps the image larger than
+ *   the target, and the exact scale is applied when drawing the result
+ * - Rotation, mirroring and exact scale are applied in a single draw into the result.
+ *   The decoded bitmap then goes back to a {@link BitmapPool}, so the next decode can reuse
+ *   it as {@link BitmapFactory.Options#inBitmap}
+ */
+public class BitmapDecoder {
+
+    private final static String TAG = BitmapDecoder.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static long POOL_MAX_BYTES = Math.min(32 * 1024 * 1024,
+            Runtime.getRuntime().maxMemory() / 16);
+    private final static BitmapPool sPool = new BitmapPool(POOL_MAX_BYTES);
+
+    /**
+     * Recycles the bitmaps that are kept for the next decodes, so that they do not take
+     * memory when no decoding is expected. Bitmaps in use are not affected.
+     */
+    public static void clearPool() {
+        sPool.clear();
+    }
+
+    /**
+     * Decodes the given picture. Options are used for decoding, but inSampleSize is
+     * computed here. If the source is not a JPEG, or the region decoder does not support it,
+     * the crop is applied after decoding the whole image.
+     *
+     * @param source the compressed picture
+     * @param crop a crop in the coordinates of the rotated picture, or null
+     * @param maxWidth the max allowed width, or -1
+     * @param maxHeight the max allowed height, or -1
+     * @param options the options to be passed to the decoder
+     * @param rotation the clockwise rotation, or -1 to read it from the EXIF header
+     * @return the bitmap or null if error is encountered
+     */
+    @Nullable
+    @WorkerThread
+    public static Bitmap decode(@NonNull byte[] source,
+                                @Nullable Rect crop,
+                                int maxWidth,
+                                int maxHeight,
+                                @NonNull BitmapFactory.Options options,
+                                int rotation) {
+        boolean flip = false;
+        if (rotation == -1) {
+            int exifOrientation = readExifOrientation(source);
+            rotation = ExifHelper.getOrientation(exifOrientation);
+            flip = exifOrientation == ExifInterface.ORIENTATION_FLIP_HORIZONTAL ||
+                    exifOrientation == ExifInterface.ORIENTATION_FLIP_VERTICAL ||
+                    exifOrientation == ExifInterface.ORIENTATION_TRANSPOSE ||
+                    exifOrientation == ExifInterface.ORIENTATION_TRANSVERSE;
+            LOG.i("decode:", "got orientation from EXIF.", rotation, "flip:", flip);
+        }
+
+        Bitmap.Config requestedConfig = options.inPreferredConfig;
+        Bitmap requestedBitmap = options.inBitmap;
+        boolean requestedMutable = options.inMutable;
+        // Hardware bitmaps can't be drawn into, so we decode in software and copy at the end.
+        boolean hardware = Build.VERSION.SDK_INT >= 26
+                && requestedConfig == Bitmap.Config.HARDWARE;
+        if (hardware || requestedConfig == null) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+        try {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(source, 0, source.length, options);
+            options.inJustDecodeBounds = false;
+            int width = options.outWidth;
+            int height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                LOG.e("decode:", "could not read bounds.");
+                return null;
+            }
+
+            Rect region = new Rect(0, 0, width, height);
+            if (crop != null) {
+                int[] rect = new int[]{crop.left, crop.top, crop.right, crop.bottom};
+                mapRect(rect, width, height, rotation, flip);
+                if (!region.intersect(rect[0], rect[1], rect[2], rect[3])) {
+                    LOG.e("decode:", "crop is outside of the picture.", crop);
+                    return null;
+                }
+            }
+            Size target = computeTargetSize(region.width(), region.height(),
+                    maxWidth, maxHeight, rotation);
+            options.inSampleSize = computeSampleSize(region.width(), region.height(),
+                    target.getWidth(), target.getHeight());
+            if (requestedBitmap == null) {
+                options.inMutable = true;
+                options.inBitmap = sPool.get(
+                        divideRoundingUp(region.width(), options.inSampleSize),
+                        divideRoundingUp(region.height(), options.inSampleSize),
+                        options.inPreferredConfig);
+            }
+
+            boolean pooled = requestedBitmap == null;
+            Bitmap decoded = null;
+            boolean regionDecoded = false;
+            if (crop != null && (region.width() < width || region.height() < height)) {
+                decoded = decodeRegion(source, region, options, pooled);
+                regionDecoded = decoded != null;
+            }
+            if (decoded == null) decoded = decodeFull(source, options, pooled);
+            if (pooled && options.inBitmap != null && options.inBitmap != decoded) {
+                sPool.put(options.inBitmap);
+            }
+            if (decoded == null) return null;
+            LOG.i("decode:", "source:", width, "x", height, "region:", region,
+                    "sample:", options.inSampleSize, "target:", target);
+
+            Rect src;
+            if (regionDecoded) {
+                src = new Rect(0, 0, decoded.getWidth(), decoded.getHeight());
+            } else {
+                float scaleX = (float) decoded.getWidth() / width;
+                float scaleY = (float) decoded.getHeight() / height;
+                src = new Rect(Math.round(region.left * scaleX),
+                        Math.round(region.top * scaleY),
+                        Math.round(region.right * scaleX),
+                        Math.round(region.bottom * scaleY));
+            }
+            Bitmap result = draw(decoded, src, target, rotation, flip, pooled);
+            if (hardware && Build.VERSION.SDK_INT >= 26) {
+                Bitmap temp = result;
+                result = temp.copy(Bitmap.Config.HARDWARE, false);
+                if (temp != requestedBitmap) sPool.put(temp);
+            }
+            return result;
+        } catch (OutOfMemoryError e) {
+            return null;
+        } finally {
+            options.inPreferredConfig = requestedConfig;
+            options.inBitmap = requestedBitmap;
+            options.inMutable = requestedMutable;
+        }
+    }
+
+    /**
+     * Creates a bitmap out of uncompressed RGBA pixels. When there is a crop or the pixels
+     * must be scaled down, they are copied into a pooled bitmap first, and then drawn into
+     * the result.
+     *
+     * @param rgba the pixels, 4 bytes each, rows from top to bottom
+     * @param width the width
+     * @param height the height
+     * @param crop a crop, or null
+     * @param maxWidth the max allowed width, or -1
+     * @param maxHeight the max allowed height, or -1
+     * @return the bitmap or null if error is encountered
+     */
+    @Nullable
+    @WorkerThread
+    @SuppressLint("NewApi")
+    public static Bitmap fromRgba(@NonNull byte[] rgba,
+                                  int width,
+                                  int height,
+                                  @Nullable Rect crop,
+                                  int maxWidth,
+                                  int maxHeight) {
+        try {
+            Rect region = new Rect(0, 0, width, height);
+            if (crop != null && !region.intersect(crop)) {
+                LOG.e("fromRgba:", "crop is outside of the picture.", crop);
+                return null;
+            }
+            Size target = computeTargetSize(region.width(), region.height(),
+                    maxWidth, maxHeight, 0);
+            Bitmap pixels = null;
+            boolean full = region.width() == width && region.height() == height;
+            boolean exact = full && target.getWidth() == width && target.getHeight() == height;
+            if (!exact) pixels = sPool.get(width, height, Bitmap.Config.ARGB_8888);
+            if (pixels != null) {
+                pixels.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            } else {
+                pixels = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            // ARGB_8888 bitmaps store pixels in RGBA byte order.
+            pixels.copyPixelsFromBuffer(ByteBuffer.wrap(rgba));
+            if (exact) return pixels;
+            return draw(pixels, region, target, 0, false, true);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+
+    // Draws the src part of the input into a new bitmap, rotated and flipped.
+    // Target is the scaled size before rotation. Input might be returned as is,
+    // otherwise it goes back to the pool if release is true.
+    @NonNull
+    private static Bitmap draw(@NonNull Bitmap input,
+                               @NonNull Rect src,
+                               @NonNull Size target,
+                               int rotation,
+                               boolean flip,
+                               boolean release) {
+        if (rotation == 0 && !flip
+                && src.left == 0 && src.top == 0
+                && src.width() == input.getWidth() && src.height() == input.getHeight()
+                && target.getWidth() == input.getWidth()
+                && target.getHeight() == input.getHeight()) {
+            return input;
+        }
+        Bitmap.Config config = input.getConfig();
+        if (config == null) config = Bitmap.Config.ARGB_8888;
+        Size output = rotation % 180 != 0 ? target.flip() : target;
+        Bitmap result = Bitmap.createBitmap(output.getWidth(), output.getHeight(), config);
+        Canvas canvas = new Canvas(result);
+        canvas.concat(computeMatrix(target, rotation, flip));
+        RectF dst = new RectF(0, 0, target.getWidth(), target.getHeight());
+        canvas.drawBitmap(input, src, dst, new Paint(Paint.FILTER_BITMAP_FLAG));
+        if (release) sPool.put(input);
+        return result;
+    }
+
+    @Nullable
+    private static Bitmap decodeFull(@NonNull byte[] source,
+                                     @NonNull BitmapFactory.Options options,
+                                     boolean pooled) {
+        try {
+            return BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        } catch (IllegalArgumentException e) {
+            if (!pooled || !dropReusedBitmap(options, e)) throw e;
+            return BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        }
+    }
+
+    // Returns null if the format is not supported by the region decoder.
+    @Nullable
+    private static Bitmap decodeRegion(@NonNull byte[] source,
+                                       @NonNull Rect region,
+                                       @NonNull BitmapFactory.Options options,
+                                       boolean pooled) {
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(source, 0, source.length, false);
+            try {
+                return decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (!pooled || !dropReusedBitmap(options, e)) throw e;
+                return decoder.decodeRegion(region, options);
+            }
+        } catch (IOException e) {
+            LOG.w("decodeRegion:", "region decoding not supported.", e);
+            return null;
+        } finally {
+            if (decoder != null) decoder.recycle();
+        }
+    }
+
+    // The pool checks the allocation size, but the decoder might still refuse the bitmap.
+    // Only called for pooled bitmaps: a bitmap passed by the caller is never recycled.
+    private static boolean dropReusedBitmap(@NonNull BitmapFactory.Options options,
+                                            @NonNull IllegalArgumentException e) {
+        if (options.inBitmap == null) return false;
+        LOG.w("decode:", "could not reuse bitmap. Retrying.", e);
+        options.inBitmap.recycle();
+        options.inBitmap = null;
+        return true;
+    }
+
+    private static int readExifOrientation(@NonNull byte[] source) {
+        int orientation = ExifHelper.readOrientation(source);
+        if (orientation != -1) return orientation;
+        // Not a JPEG. Let ExifInterface try other formats.
+        try {
+            ExifInterface exif = new ExifInterface(new ByteArrayInputStream(source));
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            LOG.e("decode:", "could not get orientation from EXIF.", e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    // Maps target coordinates into the output, rotated and flipped.
+    @NonNull
+    private static Matrix computeMatrix(@NonNull Size target, int rotation, boolean flip) {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        Matrix matrix = new Matrix();
+        matrix.setRotate(rotation);
+        switch (rotation) {
+            case 90: matrix.postTranslate(height, 0); break;
+            case 180: matrix.postTranslate(width, height); break;
+            case 270: matrix.postTranslate(0, width); break;
+        }
+        if (flip) {
+            matrix.postScale(-1, 1);
+            matrix.postTranslate(rotation % 180 != 0 ? height : width, 0);
+        }
+        return matrix;
+    }
+
+    /**
+     * Maps a rect from the coordinates of the output, which is rotated clockwise and then
+     * flipped horizontally, to the coordinates of the source.
+     *
+     * @param rect left, top, right and bottom, changed in place
+     * @param width the source width
+     * @param height the source height
+     * @param rotation the clockwise rotation
+     * @param flip whether the output is flipped
+     */
+    static void mapRect(@NonNull int[] rect, int width, int height, int rotation, boolean flip) {
+        int outputWidth = rotation % 180 != 0 ? height : width;
+        int left = rect[0], top = rect[1], right = rect[2], bottom = rect[3];
+        if (flip) {
+            int temp = left;
+            left = outputWidth - right;
+            right = outputWidth - temp;
+        }
+        switch (rotation) {
+            case 90:
+                rect[0] = top;
+                rect[1] = height - right;
+                rect[2] = bottom;
+                rect[3] = height - left;
+                break;
+            case 180:
+                rect[0] = width - right;
+                rect[1] = height - bottom;
+                rect[2] = width - left;
+                rect[3] = height - top;
+                break;
+            case 270:
+                rect[0] = width - bottom;
+                rect[1] = left;
+                rect[2] = width - top;
+                rect[3] = right;
+                break;
+            default:
+                rect[0] = left;
+                rect[1] = top;
+                rect[2] = right;
+                rect[3] = bottom;
+        }
+    }
+
+    /**
+     * Computes the size of the output before rotation, so that after rotation it fits
+     * the given bounds. Images are scaled down, never up.
+     *
+     * @param width the source width
+     * @param height the source height
+     * @param maxWidth the max output width, or -1
+     * @param maxHeight the max output height, or -1
+     * @param rotation the clockwise rotation
+     * @return the target size in the source orientation
+     */
+    @NonNull
+    static Size computeTargetSize(int width, int height, int maxWidth, int maxHeight,
+                                  int rotation) {
+        if (maxWidth <= 0) maxWidth = Integer.MAX_VALUE;
+        if (maxHeight <= 0) maxHeight = Integer.MAX_VALUE;
+        if (rotation % 180 != 0) {
+            int temp = maxWidth;
+            //noinspection SuspiciousNameCombination
+            maxWidth = maxHeight;
+            maxHeight = temp;
+        }
+        if (width <= maxWidth && height <= maxHeight) return new Size(width, height);
+        double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        return new Size(Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)));
+    }
+
+    /**
+     * Computes the largest power of two sample size that keeps the decoded image
+     * at least as large as the target.
+     *
+     * @param width the source width
+     * @param height the source height
+     * @param targetWidth the target width
+     * @param targetHeight the target height
+     * @return the sample size
+     */
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth
+                && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
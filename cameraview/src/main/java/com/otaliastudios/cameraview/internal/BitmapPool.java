@@ -0,0 +1,120 @@
+package com.otaliastudios.cameraview.internal;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A small pool of mutable bitmaps that can be reused as
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}, or reconfigured to hold
+ * other pixels, instead of allocating a new bitmap for each decode.
+ *
+ * Bitmaps are matched by allocation size, which is only possible starting from KitKat.
+ * Before that, {@link #get(int, int, Bitmap.Config)} returns null and bitmaps that are
+ * given back are simply recycled. The pool never holds more than the given amount of bytes:
+ * when it is full, the least recently returned bitmaps are recycled.
+ */
+public class BitmapPool {
+
+    private final static String TAG = BitmapPool.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final long mMaxBytes;
+    private long mBytes;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+
+    /**
+     * Creates a new pool.
+     * @param maxBytes the maximum size of the pool, in bytes
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the smallest bitmap that can hold the given pixels, removing it from the pool,
+     * or null if there is none. The bitmap has the right config, but not the right size:
+     * callers should either pass it to a decoder, or reconfigure it.
+     *
+     * @param width the width
+     * @param height the height
+     * @param config the config
+     * @return a bitmap or null
+     */
+    @Nullable
+    public synchronized Bitmap get(int width, int height, @NonNull Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < 19) return null;
+        long bytes = (long) width * height * getBytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            if (bitmap.getConfig() != config) continue;
+            int allocation = bitmap.getAllocationByteCount();
+            if (allocation < bytes) continue;
+            if (best == null || allocation < best.getAllocationByteCount()) best = bitmap;
+        }
+        if (best != null) {
+            mBitmaps.remove(best);
+            mBytes -= best.getAllocationByteCount();
+        }
+        LOG.v("get:", "width:", width, "height:", height, "hit:", best != null);
+        return best;
+    }
+
+    /**
+     * Gives a bitmap back to the pool. The caller should not use it anymore.
+     * @param bitmap the bitmap
+     */
+    @SuppressLint("NewApi")
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled()) return;
+        if (Build.VERSION.SDK_INT < 19
+                || !bitmap.isMutable()
+                || bitmap.getAllocationByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        if (mBitmaps.contains(bitmap)) return;
+        mBitmaps.addFirst(bitmap);
+        mBytes += bitmap.getAllocationByteCount();
+        while (mBytes > mMaxBytes) {
+            Bitmap last = mBitmaps.removeLast();
+            mBytes -= last.getAllocationByteCount();
+            last.recycle();
+        }
+    }
+
+    /**
+     * Recycles all bitmaps in the pool.
+     */
+    public synchronized void clear() {
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            iterator.next().recycle();
+            iterator.remove();
+        }
+        mBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes that each pixel takes for the given config.
+     * @param config a config
+     * @return bytes per pixel
+     */
+    public static int getBytesPerPixel(@NonNull Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8: return 1;
+            case RGB_565:
+            case ARGB_4444: return 2;
+            case ARGB_8888: return 4;
+            default: return 8; // RGBA_F16 and newer configs
+        }
+    }
+}
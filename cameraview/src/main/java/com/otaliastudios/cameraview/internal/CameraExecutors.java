@@ -0,0 +1,199 @@
+package com.otaliastudios.cameraview.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide executors for the background work that follows a capture, so that it does
+ * not go through the single {@link WorkerHandler#get()} fallback thread:
+ *
+ * - The I/O executor, for file writes. It has few threads because storage does not scale
+ *   with them, but enough that a slow write does not block the next one.
+ * - The CPU executor, for compression and decoding, sized from the number of cores.
+ *
+ * Both can be replaced, for example to share threads with the rest of the app. All actions
+ * go through a {@link Tracked} wrapper that counts queued, running and completed actions.
+ * Default threads are daemon threads that time out when idle.
+ *
+ * Default executors have an unbounded queue. Actions never run on the thread that
+ * submitted them, which is often the UI thread, and are never dropped. If the work can't
+ * keep up, the queue grows: this can be watched through {@link Tracked#getMaxQueueDepth()}.
+ */
+public class CameraExecutors {
+
+    private final static String TAG = CameraExecutors.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static int CORES = Runtime.getRuntime().availableProcessors();
+    final static int IO_THREADS = 2;
+    final static int CPU_THREADS = Math.max(2, Math.min(CORES - 1, 4));
+    private final static long KEEP_ALIVE_SECONDS = 30;
+
+    private final static Tracked sIo = new Tracked("CameraViewIo", IO_THREADS);
+    private final static Tracked sCpu = new Tracked("CameraViewCpu", CPU_THREADS);
+
+    /**
+     * Returns the I/O executor.
+     * @return the I/O executor
+     */
+    @NonNull
+    public static Tracked io() {
+        return sIo;
+    }
+
+    /**
+     * Returns the CPU executor.
+     * @return the CPU executor
+     */
+    @NonNull
+    public static Tracked cpu() {
+        return sCpu;
+    }
+
+    /**
+     * Replaces the I/O executor. Actions that were already submitted will run on the old one.
+     * @param executor the new executor, or null to restore the default one
+     */
+    public static void setIo(@Nullable Executor executor) {
+        sIo.setDelegate(executor);
+    }
+
+    /**
+     * Replaces the CPU executor. Actions that were already submitted will run on the old one.
+     * @param executor the new executor, or null to restore the default one
+     */
+    public static void setCpu(@Nullable Executor executor) {
+        sCpu.setDelegate(executor);
+    }
+
+    @NonNull
+    @VisibleForTesting
+    static Executor createDefault(@NonNull final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, name + " #" + mCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * An executor that forwards actions to a replaceable delegate and keeps track of them.
+     */
+    public static class Tracked implements Executor {
+
+        private final String mName;
+        private final int mThreads;
+        private volatile Executor mDelegate;
+        private Executor mDefault;
+        private final AtomicInteger mQueued = new AtomicInteger(0);
+        private final AtomicInteger mRunning = new AtomicInteger(0);
+        private final AtomicInteger mMaxQueued = new AtomicInteger(0);
+        private final AtomicLong mCompleted = new AtomicLong(0);
+
+        Tracked(@NonNull String name, int threads) {
+            mName = name;
+            mThreads = threads;
+        }
+
+        synchronized void setDelegate(@Nullable Executor delegate) {
+            LOG.i("setDelegate:", mName, delegate);
+            mDelegate = delegate;
+        }
+
+        @NonNull
+        private Executor getDelegate() {
+            Executor delegate = mDelegate;
+            if (delegate != null) return delegate;
+            synchronized (this) {
+                if (mDelegate != null) return mDelegate;
+                if (mDefault == null) mDefault = createDefault(mName, mThreads);
+                return mDefault;
+            }
+        }
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            int queued = mQueued.incrementAndGet();
+            int max = mMaxQueued.get();
+            while (queued > max && !mMaxQueued.compareAndSet(max, queued)) {
+                max = mMaxQueued.get();
+            }
+            try {
+                getDelegate().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mQueued.decrementAndGet();
+                        mRunning.incrementAndGet();
+                        try {
+                            command.run();
+                        } finally {
+                            mRunning.decrementAndGet();
+                            mCompleted.incrementAndGet();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Rejected. The action will never run.
+                mQueued.decrementAndGet();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the number of actions that were submitted but did not start yet.
+         * @return the queue depth
+         */
+        public int getQueueDepth() {
+            return mQueued.get();
+        }
+
+        /**
+         * Returns the highest {@link #getQueueDepth()} observed so far. A value that keeps
+         * growing means that the executor can't keep up with the work.
+         * @return the max queue depth
+         */
+        public int getMaxQueueDepth() {
+            return mMaxQueued.get();
+        }
+
+        /**
+         * Returns the number of actions that are running right now.
+         * @return the running actions
+         */
+        public int getRunning() {
+            return mRunning.get();
+        }
+
+        /**
+         * Returns the number of actions that have completed, successfully or not.
+         * @return the completed actions
+         */
+        public long getCompleted() {
+            return mCompleted.get();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.otaliastudios.cameraview.internal;
 
+import androidx.annotation.NonNull;
 import androidx.exifinterface.media.ExifInterface;
 
 /**
@@ -7,6 +8,8 @@ import androidx.exifinterface.media.ExifInterface;
  */
 public class ExifHelper {
 
+    private final static int TAG_ORIENTATION = 0x0112;
+
     /**
      * Maps an {@link ExifInterface} orientation value
      * to the actual degrees.
@@ -47,5 +50,92 @@ public class ExifHelper {
             default: throw new IllegalArgumentException("Invalid orientation: " + orientation);
         }
     }
+
+    /**
+     * Reads the {@link ExifInterface} orientation value of a JPEG image, by scanning the
+     * markers that come before the image data. Unlike {@link ExifInterface}, this does not
+     * parse the other tags nor copy the input.
+     *
+     * @param jpeg the JPEG data
+     * @return the orientation, {@link ExifInterface#ORIENTATION_UNDEFINED} if there is none,
+     *         or -1 if the data is not a JPEG image
+     */
+    public static int readOrientation(@NonNull byte[] jpeg) {
+        int length = jpeg.length;
+        if (length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) return -1;
+        int position = 2;
+        while (position + 4 <= length) {
+            if ((jpeg[position] & 0xFF) != 0xFF) break;
+            int marker = jpeg[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte.
+                position++;
+                continue;
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                // Markers with no length.
+                position += 2;
+                continue;
+            }
+            // Start of scan or end of image: there is no more metadata.
+            if (marker == 0xDA || marker == 0xD9) break;
+            int segmentLength = readShort(jpeg, position + 2, false);
+            if (segmentLength < 2) break;
+            int segmentEnd = Math.min(length, position + 2 + segmentLength);
+            if (marker == 0xE1 && isExifSegment(jpeg, position + 4, segmentEnd)) {
+                return readTiffOrientation(jpeg, position + 10, segmentEnd);
+            }
+            position = segmentEnd;
+        }
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    private static boolean isExifSegment(@NonNull byte[] data, int start, int end) {
+        if (start + 6 > end) return false;
+        return data[start] == 'E' && data[start + 1] == 'x' && data[start + 2] == 'i'
+                && data[start + 3] == 'f' && data[start + 4] == 0 && data[start + 5] == 0;
+    }
+
+    private static int readTiffOrientation(@NonNull byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) return ExifInterface.ORIENTATION_UNDEFINED;
+        boolean littleEndian;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        if (readShort(data, tiff + 2, littleEndian) != 42) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        long offset = readInt(data, tiff + 4, littleEndian) & 0xFFFFFFFFL;
+        if (offset < 8 || tiff + offset + 2 > end) return ExifInterface.ORIENTATION_UNDEFINED;
+        int directory = tiff + (int) offset;
+        int entries = readShort(data, directory, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = directory + 2 + 12 * i;
+            if (entry + 12 > end) break;
+            if (readShort(data, entry, littleEndian) == TAG_ORIENTATION) {
+                int orientation = readShort(data, entry + 8, littleEndian);
+                boolean valid = orientation >= ExifInterface.ORIENTATION_NORMAL
+                        && orientation <= ExifInterface.ORIENTATION_ROTATE_270;
+                return valid ? orientation : ExifInterface.ORIENTATION_UNDEFINED;
+            }
+        }
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    private static int readShort(@NonNull byte[] data, int position, boolean littleEndian) {
+        int first = data[position] & 0xFF;
+        int second = data[position + 1] & 0xFF;
+        return littleEndian ? (second << 8) | first : (first << 8) | second;
+    }
+
+    private static int readInt(@NonNull byte[] data, int position, boolean littleEndian) {
+        int first = readShort(data, position, littleEndian);
+        int second = readShort(data, position + 2, littleEndian);
+        return littleEndian ? (second << 16) | first : (first << 16) | second;
+    }
 }
 
@@ -0,0 +1,97 @@
+package com.otaliastudios.cameraview.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.otaliastudios.cameraview.CameraLogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes buffers to file through a {@link FileChannel}, with no intermediate copies:
+ * all buffers are passed to a single gathering write, which the channel repeats
+ * only if the OS accepted part of the data.
+ *
+ * - When atomic, data is written to a temporary file in the same directory, which is then
+ *   renamed to the target, so readers never see a partially written file. The temporary
+ *   name is unique, so concurrent writes to the same target do not collide
+ * - When synced, {@link FileChannel#force(boolean)} is called before closing, so the data
+ *   is on storage when this returns. This is slower, and only needed for data that must
+ *   survive a crash
+ *
+ * Throughput is logged at the info level.
+ */
+public class FileChannelWriter {
+
+    private final static String TAG = FileChannelWriter.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static String TEMP_SUFFIX = ".tmp";
+
+    private final boolean mAtomic;
+    private final boolean mSync;
+
+    /**
+     * Creates a new writer.
+     * @param atomic whether to write to a temporary file first
+     * @param sync whether to force data to storage before returning
+     */
+    public FileChannelWriter(boolean atomic, boolean sync) {
+        mAtomic = atomic;
+        mSync = sync;
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers to the file, replacing any content.
+     * Buffer positions are moved to their limit.
+     *
+     * @param file the target file
+     * @param buffers the data
+     * @return the number of bytes written
+     * @throws IOException if something goes wrong. The target file is untouched if atomic
+     */
+    @WorkerThread
+    public long write(@NonNull File file, @NonNull ByteBuffer... buffers) throws IOException {
+        long start = System.nanoTime();
+        long total = 0;
+        for (ByteBuffer buffer : buffers) total += buffer.remaining();
+        File output = mAtomic ? getTempFile(file) : file;
+        try {
+            FileChannel channel = new FileOutputStream(output).getChannel();
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                long written = 0;
+                while (written < total) {
+                    written += channel.write(buffers);
+                }
+                if (mSync) channel.force(false);
+            } finally {
+                channel.close();
+            }
+            if (mAtomic && !output.renameTo(file)) {
+                throw new IOException("Could not rename " + output + " to " + file);
+            }
+        } catch (IOException e) {
+            if (mAtomic) //noinspection ResultOfMethodCallIgnored
+                output.delete();
+            throw e;
+        }
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+            LOG.i("write:", "bytes:", total, "micros:", micros,
+                    "MB/s:", (double) total / micros, "atomic:", mAtomic, "sync:", mSync);
+        }
+        return total;
+    }
+
+    @NonNull
+    private static File getTempFile(@NonNull File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        // The prefix must be at least three characters long.
+        return File.createTempFile("." + file.getName() + "-", TEMP_SUFFIX, directory);
+    }
+}
@@ -0,0 +1,326 @@
+package com.otaliastudios.cameraview.internal;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.opengl.core.Egloo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the RGBA pixels of the current EGL surface.
+ *
+ * When the context supports GLES 3, pixels are read into a pixel buffer object:
+ * glReadPixels returns immediately, and the buffer is mapped later, once a fence tells us
+ * that the GPU is done, so the thread is free to do other work in the meanwhile.
+ * Otherwise, or if mapping the buffer ever fails, this falls back to a synchronous
+ * glReadPixels into a direct buffer.
+ *
+ * In both cases, the buffer is reused across reads and is only valid inside the
+ * {@link Callback}. All methods must be called on the {@link WorkerHandler} thread
+ * that owns the EGL context, with that context current.
+ */
+public class GlPixelReader {
+
+    private final static String TAG = GlPixelReader.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static long POLL_DELAY_MILLIS = 1;
+
+    /**
+     * Receives the pixels.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the worker thread with the surface pixels, in RGBA order, starting from
+         * the bottom-left corner as glReadPixels does. The buffer is released after this
+         * returns, so it should not be kept.
+         *
+         * @param rgba the pixels
+         * @param width the width
+         * @param height the height
+         */
+        @WorkerThread
+        void onPixels(@NonNull ByteBuffer rgba, int width, int height);
+
+        /**
+         * Called on the worker thread if the pixels could not be read. By then, the
+         * surface might show something else, so the read is not attempted again.
+         *
+         * @param error the error
+         */
+        @WorkerThread
+        void onError(@NonNull Exception error);
+    }
+
+    private final WorkerHandler mWorker;
+    private boolean mUsePixelBuffer;
+    private ByteBuffer mBuffer;
+    private int mPixelBuffer = -1;
+    private int mPixelBufferSize = 0;
+    private Pending mPending;
+
+    /**
+     * Creates a new reader. Should be called with the EGL context current, so that
+     * we can check for GLES 3 support.
+     *
+     * @param worker the worker that owns the context
+     */
+    @WorkerThread
+    public GlPixelReader(@NonNull WorkerHandler worker) {
+        this(worker, isPixelBufferSupported());
+    }
+
+    @VisibleForTesting
+    GlPixelReader(@NonNull WorkerHandler worker, boolean usePixelBuffer) {
+        mWorker = worker;
+        mUsePixelBuffer = usePixelBuffer;
+        LOG.i("GlPixelReader:", "usePixelBuffer:", mUsePixelBuffer);
+    }
+
+    /**
+     * Whether the current context supports pixel buffer objects, which were introduced
+     * in GLES 3.
+     * @return true if supported
+     */
+    @WorkerThread
+    public static boolean isPixelBufferSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) return false;
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    /**
+     * Reads the pixels of the current surface, and passes them to the callback.
+     * This might happen synchronously or later on the worker thread.
+     *
+     * @param width the surface width
+     * @param height the surface height
+     * @param callback the callback
+     */
+    @WorkerThread
+    public void read(int width, int height, @NonNull Callback callback) {
+        if (mUsePixelBuffer) {
+            readAsync(width, height, callback);
+        } else {
+            readSync(width, height, callback);
+        }
+    }
+
+    @WorkerThread
+    private void readSync(int width, int height, @NonNull Callback callback) {
+        int size = width * height * 4;
+        if (mBuffer == null || mBuffer.capacity() != size) {
+            mBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        mBuffer.clear();
+        readPixels(width, height, mBuffer);
+        mBuffer.rewind();
+        callback.onPixels(mBuffer, width, height);
+    }
+
+    @WorkerThread
+    private void readAsync(int width, int height, @NonNull Callback callback) {
+        // There is a single pixel buffer, so the previous read must be completed first.
+        if (mPending != null) {
+            LOG.w("readAsync:", "previous read is still pending. Waiting.");
+            mWorker.remove(mPending);
+            mPending.complete(true);
+        }
+        // Completing the previous read might have disabled pixel buffers.
+        if (!mUsePixelBuffer) {
+            readSync(width, height, callback);
+            return;
+        }
+        long fence = readPixelsIntoPixelBuffer(width, height);
+        mPending = new Pending(fence, width, height, callback);
+        mWorker.post(mPending);
+    }
+
+    /**
+     * Completes any pending read and releases the GL objects.
+     * Should be called with the context current.
+     */
+    @WorkerThread
+    public void release() {
+        if (mPending != null) {
+            mWorker.remove(mPending);
+            mPending.complete(true);
+        }
+        releasePixelBuffer();
+        mBuffer = null;
+    }
+
+    /**
+     * Reads the current surface into the given buffer, waiting for the GPU.
+     *
+     * @param width the width
+     * @param height the height
+     * @param buffer the output buffer
+     */
+    @VisibleForTesting
+    @WorkerThread
+    void readPixels(int width, int height, @NonNull ByteBuffer buffer) {
+        GLES20.glReadPixels(0, 0, width, height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
+        Egloo.checkGlError("glReadPixels");
+    }
+
+    /**
+     * Reads the current surface into the pixel buffer, creating it if needed,
+     * without waiting for the GPU.
+     *
+     * @param width the width
+     * @param height the height
+     * @return a fence that is signaled when the pixels are in the buffer
+     */
+    @VisibleForTesting
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    long readPixelsIntoPixelBuffer(int width, int height) {
+        int size = width * height * 4;
+        if (mPixelBuffer == -1 || mPixelBufferSize != size) {
+            releasePixelBuffer();
+            int[] handles = new int[1];
+            GLES30.glGenBuffers(1, handles, 0);
+            mPixelBuffer = handles[0];
+            mPixelBufferSize = size;
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null,
+                    GLES30.GL_STREAM_READ);
+        } else {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+        }
+        // With a pack buffer bound, the last argument is an offset into the buffer
+        // and this call does not wait for the GPU.
+        GLES30.glReadPixels(0, 0, width, height,
+                GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        Egloo.checkGlError("glReadPixels");
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES20.glFlush();
+        return fence;
+    }
+
+    /**
+     * Checks the given fence, and deletes it if it was signaled.
+     *
+     * @param fence the fence
+     * @param wait whether to wait until it is signaled
+     * @return true if signaled
+     */
+    @VisibleForTesting
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    boolean checkFence(long fence, boolean wait) {
+        int status = wait
+                ? GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT,
+                        GLES30.GL_TIMEOUT_IGNORED)
+                : GLES30.glClientWaitSync(fence, 0, 0);
+        if (status == GLES30.GL_TIMEOUT_EXPIRED) return false;
+        GLES30.glDeleteSync(fence);
+        return true;
+    }
+
+    /**
+     * Maps the pixel buffer for reading.
+     *
+     * @param size the buffer size
+     * @return the mapped buffer, or null if it could not be mapped
+     */
+    @VisibleForTesting
+    @Nullable
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    ByteBuffer mapPixelBuffer(int size) {
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+        if (mapped == null) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        return mapped;
+    }
+
+    /**
+     * Unmaps the buffer that was returned by {@link #mapPixelBuffer(int)}.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    void unmapPixelBuffer() {
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    /**
+     * Deletes the pixel buffer, if any.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    void releasePixelBuffer() {
+        if (mPixelBuffer == -1) return;
+        GLES20.glDeleteBuffers(1, new int[]{mPixelBuffer}, 0);
+        mPixelBuffer = -1;
+        mPixelBufferSize = 0;
+    }
+
+    private class Pending implements Runnable {
+
+        private final long mFence;
+        private final int mWidth;
+        private final int mHeight;
+        private final Callback mCallback;
+
+        private Pending(long fence, int width, int height, @NonNull Callback callback) {
+            mFence = fence;
+            mWidth = width;
+            mHeight = height;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (checkFence(mFence, false)) {
+                complete(false);
+            } else {
+                // Not ready: let other actions run, then check again.
+                mWorker.post(POLL_DELAY_MILLIS, this);
+            }
+        }
+
+        @WorkerThread
+        private void complete(boolean wait) {
+            if (wait) checkFence(mFence, true);
+            mPending = null;
+            ByteBuffer mapped = mapPixelBuffer(mWidth * mHeight * 4);
+            if (mapped == null) {
+                // Should not happen. We can't read again, because the surface was drawn
+                // for this read and now it might show something else. Report the failure
+                // and read synchronously from now on.
+                LOG.e("complete:", "could not map the pixel buffer. Disabling pixel buffers.");
+                mUsePixelBuffer = false;
+                releasePixelBuffer();
+                mCallback.onError(new RuntimeException("Could not map the pixel buffer."));
+                return;
+            }
+            try {
+                mapped.order(ByteOrder.nativeOrder());
+                mCallback.onPixels(mapped, mWidth, mHeight);
+            } finally {
+                unmapPixelBuffer();
+            }
+        }
+    }
+}
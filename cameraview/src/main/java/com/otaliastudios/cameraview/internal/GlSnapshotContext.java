@@ -0,0 +1,185 @@
+package com.otaliastudios.cameraview.internal;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.size.Size;
+import com.otaliastudios.opengl.core.EglCore;
+import com.otaliastudios.opengl.surface.EglSurface;
+import com.otaliastudios.opengl.surface.EglWindowSurface;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the GL objects needed by picture snapshots, so that they are not created and
+ * released for each snapshot:
+ *
+ * - The {@link EglCore}, shared with the renderer context. Recreated if this context changes
+ * - The {@link EglSurface}, on a fake {@link SurfaceTexture}. Recreated if the size changes
+ * - The {@link GlTextureDrawer}, whose program is recreated only if the filter shaders change
+ * - The {@link GlPixelReader}, which keeps its buffers across reads
+ *
+ * EGL objects are bound to the thread that uses them, so all operations, including
+ * snapshots, should run through {@link #post(Runnable)}. Each context has its own thread:
+ * the pixel reader posts actions that expect this context to be current, so the thread
+ * can not be shared with other previews. The cache lives as long as the preview and
+ * should be released when the preview is destroyed.
+ */
+public class GlSnapshotContext {
+
+    private final static String TAG = GlSnapshotContext.class.getSimpleName();
+    private final static CameraLogger LOG = CameraLogger.create(TAG);
+
+    private final static AtomicInteger sCount = new AtomicInteger(0);
+
+    private final WorkerHandler mWorker
+            = WorkerHandler.get("CameraViewSnapshot" + sCount.incrementAndGet());
+    private EGLContext mSharedContext;
+    private EglCore mEglCore;
+    private SurfaceTexture mFakeOutputSurface;
+    private EglSurface mEglSurface;
+    private Size mSize;
+    private GlTextureDrawer mTextureDrawer;
+    private int mTextureId = -1;
+    private GlPixelReader mPixelReader;
+
+    /**
+     * Runs the given action on the snapshot thread.
+     * @param action the action
+     */
+    public void post(@NonNull Runnable action) {
+        mWorker.post(action);
+    }
+
+    /**
+     * Makes the snapshot surface current, creating or recreating the EGL objects if needed.
+     *
+     * @param sharedContext the renderer context
+     * @param size the output size
+     */
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void makeCurrent(@NonNull EGLContext sharedContext, @NonNull Size size) {
+        if (mEglCore != null && !sharedContext.equals(mSharedContext)) {
+            LOG.i("makeCurrent:", "renderer context has changed. Recreating.");
+            releaseNow();
+        }
+        if (mEglSurface != null && !size.equals(mSize)) {
+            LOG.i("makeCurrent:", "size has changed. Recreating surface.", mSize, size);
+            mEglSurface.release();
+            mEglSurface = null;
+            mFakeOutputSurface.release();
+            mFakeOutputSurface = null;
+        }
+        if (mEglCore == null) {
+            // Try GLES 3 so that the pixel reader can use pixel buffer objects.
+            // The core falls back to GLES 2 if this is not possible.
+            mEglCore = new EglCore(sharedContext,
+                    EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3);
+            mSharedContext = sharedContext;
+        }
+        if (mEglSurface == null) {
+            // See SnapshotGlPictureRecorder for why we use a fake output surface.
+            final int fakeOutputTextureId = 9999;
+            mFakeOutputSurface = new SurfaceTexture(fakeOutputTextureId);
+            mFakeOutputSurface.setDefaultBufferSize(size.getWidth(), size.getHeight());
+            mEglSurface = new EglWindowSurface(mEglCore, mFakeOutputSurface);
+            mSize = size;
+        }
+        mEglSurface.makeCurrent();
+        // The viewport is not changed when a surface of a different size becomes current.
+        GLES20.glViewport(0, 0, size.getWidth(), size.getHeight());
+    }
+
+    /**
+     * Returns the current surface. Should be called after {@link #makeCurrent(EGLContext, Size)}.
+     * @return the surface
+     */
+    @NonNull
+    @WorkerThread
+    public EglSurface getSurface() {
+        return mEglSurface;
+    }
+
+    /**
+     * Returns a drawer for the given texture. Callers can set the filter: if its shaders are
+     * the same as the previous one, the program will be reused.
+     *
+     * @param textureId the renderer texture
+     * @return a drawer
+     */
+    @NonNull
+    @WorkerThread
+    public GlTextureDrawer getTextureDrawer(int textureId) {
+        if (mTextureDrawer != null && mTextureId != textureId) {
+            mTextureDrawer.release();
+            mTextureDrawer = null;
+        }
+        if (mTextureDrawer == null) {
+            mTextureDrawer = new GlTextureDrawer(textureId);
+            mTextureId = textureId;
+        }
+        return mTextureDrawer;
+    }
+
+    /**
+     * Returns a reader for the pixels of the current surface. Should be called after
+     * {@link #makeCurrent(EGLContext, Size)}.
+     * @return the reader
+     */
+    @NonNull
+    @WorkerThread
+    public GlPixelReader getPixelReader() {
+        if (mPixelReader == null) {
+            mPixelReader = new GlPixelReader(mWorker);
+        }
+        return mPixelReader;
+    }
+
+    /**
+     * Releases all the GL objects on the snapshot thread, then stops the thread.
+     * The context can not be used after this.
+     */
+    public void release() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                releaseNow();
+                mWorker.destroy();
+            }
+        });
+    }
+
+    @WorkerThread
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void releaseNow() {
+        if (mEglCore == null) return;
+        LOG.i("release:", "releasing GL objects.");
+        // The program and the buffers must be deleted while the context is current.
+        if (mEglSurface != null) {
+            mEglSurface.makeCurrent();
+            if (mPixelReader != null) mPixelReader.release();
+            if (mTextureDrawer != null) mTextureDrawer.release();
+        }
+        mPixelReader = null;
+        mTextureDrawer = null;
+        mTextureId = -1;
+        if (mEglSurface != null) {
+            mEglSurface.release();
+            mEglSurface = null;
+            mFakeOutputSurface.release();
+            mFakeOutputSurface = null;
+        }
+        mEglCore.release();
+        mEglCore = null;
+        mSharedContext = null;
+        mSize = null;
+    }
+}
@@ -65,10 +65,19 @@ public class GlTextureDrawer {
 
     public void draw(final long timestampUs) {
         if (mPendingFilter != null) {
-            release();
-            mFilter = mPendingFilter;
+            Filter filter = mPendingFilter;
             mPendingFilter = null;
-
+            if (mProgramHandle != -1
+                    && filter.getVertexShader().equals(mFilter.getVertexShader())
+                    && filter.getFragmentShader().equals(mFilter.getFragmentShader())) {
+                // Same shaders, so keep the program: compiling is the expensive part.
+                mFilter.onDestroy();
+                mFilter = filter;
+                mFilter.onCreate(mProgramHandle);
+            } else {
+                release();
+                mFilter = filter;
+            }
         }
 
         if (mProgramHandle == -1) {
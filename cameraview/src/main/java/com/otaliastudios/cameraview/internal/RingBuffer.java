@@ -0,0 +1,147 @@
+package com.otaliastudios.cameraview.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, array-backed, lock-free queue that can be used by multiple producers
+ * and multiple consumers at the same time.
+ *
+ * Unlike {@link java.util.concurrent.LinkedBlockingQueue}, this class allocates all of its
+ * storage in the constructor, so {@link #offer(Object)} and {@link #poll()} never allocate
+ * and never take a lock. This makes it a good fit for pools on hot paths, like the frame
+ * and buffer pools used by the frame managers.
+ *
+ * Each slot holds a sequence number that tells producers and consumers whether
+ * the slot is ready for them. See the bounded MPMC queue design by Dmitry Vyukov.
+ *
+ * @param <T> the item type
+ */
+public class RingBuffer<T> {
+
+    private final int mCapacity;
+    private final AtomicReferenceArray<T> mItems;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mHead = new AtomicLong(0); // next position to poll
+    private final AtomicLong mTail = new AtomicLong(0); // next position to offer
+
+    /**
+     * Creates a new buffer that can hold at most the given number of items.
+     * @param capacity the capacity
+     */
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mItems = new AtomicReferenceArray<>(capacity);
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Returns the maximum number of items that this buffer can hold.
+     * @return the capacity
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Inserts the given item, if there is room for it.
+     *
+     * @param item the item
+     * @return true if inserted, false if the buffer is full
+     */
+    public boolean offer(@NonNull T item) {
+        //noinspection ConstantConditions
+        if (item == null) throw new NullPointerException("Item can not be null.");
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) (tail % mCapacity);
+            long sequence = mSequences.get(index);
+            long diff = sequence - tail;
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mItems.set(index, item);
+                    mSequences.set(index, tail + 1);
+                    return true;
+                }
+            } else if (diff < 0 && tail - mHead.get() >= mCapacity) {
+                // The consumer has not freed this slot yet: we are full.
+                return false;
+            }
+            // Otherwise another producer took this slot, or a consumer is
+            // about to free it. Try again.
+        }
+    }
+
+    /**
+     * Removes and returns the oldest item, if any.
+     *
+     * @return an item or null if the buffer is empty
+     */
+    @Nullable
+    public T poll() {
+        while (true) {
+            long head = mHead.get();
+            int index = (int) (head % mCapacity);
+            long sequence = mSequences.get(index);
+            long diff = sequence - (head + 1);
+            if (diff == 0) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    T item = mItems.get(index);
+                    mItems.set(index, null);
+                    mSequences.set(index, head + mCapacity);
+                    return item;
+                }
+            } else if (diff < 0 && mTail.get() == head) {
+                // The producer has not filled this slot yet: we are empty.
+                return null;
+            }
+            // Otherwise another consumer took this slot, or a producer is
+            // about to fill it. Try again.
+        }
+    }
+
+    /**
+     * Returns an estimate of the number of items in the buffer.
+     * This is exact when no other thread is using the buffer.
+     *
+     * @return the item count
+     */
+    public int size() {
+        long size = mTail.get() - mHead.get();
+        if (size < 0) return 0;
+        if (size > mCapacity) return mCapacity;
+        return (int) size;
+    }
+
+    /**
+     * Whether the buffer currently holds no items.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all items from the buffer.
+     */
+    public void clear() {
+        //noinspection StatementWithEmptyBody
+        while (poll() != null) {}
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " - capacity:" + mCapacity + ", size:" + size();
+    }
+}
@@ -4,60 +4,277 @@ import com.otaliastudios.cameraview.size.Size;
 
 import androidx.annotation.NonNull;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * This will only be used on low APIs or when GL surface is not available.
- * This risks OOMs and was never a good tool.
+ * Rotates and mirrors NV21 images. This is used when GL surface is not available.
+ *
+ * The Y plane and the interleaved VU plane are rotated separately, tile by tile, so that
+ * both reads and writes stay in cache even for 90 and 270 degrees. The output is written
+ * into a buffer passed by the caller, which should come from a pool, and work can be split
+ * across more than one thread.
  */
-@SuppressWarnings("DeprecatedIsStillUsed")
-@Deprecated
 public class RotationHelper {
 
+    // Side of the square tiles, in pixels. 32x32 bytes fits the L1 cache of any device,
+    // together with the 32 output rows that are written.
+    private static final int TILE = 32;
+
+    private static Executor sExecutor;
+
     /**
      * Rotates the given yuv image into another yuv array, by the given angle.
      * @param yuv image
      * @param size image size
      * @param rotation desired angle
      * @return a new yuv array
+     * @deprecated this allocates a new array for each call. Use
+     * {@link #rotate(byte[], Size, int, boolean, byte[])} with a reusable buffer instead.
      */
+    @Deprecated
     public static byte[] rotate(@NonNull final byte[] yuv,
                                 @NonNull final Size size,
                                 final int rotation) {
+        checkRotation(rotation);
         if (rotation == 0) return yuv;
-        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
-            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        return rotate(yuv, size, rotation, false, new byte[yuv.length], 1);
+    }
+
+    /**
+     * Rotates the given yuv image by the given angle, clockwise, and optionally mirrors it
+     * horizontally after the rotation. The result is written into output, which should hold
+     * at least width * height * 3 / 2 bytes. Width and height should be even.
+     *
+     * Output can be the input array itself, but only when rotation is 0 or 180, since images
+     * can't be rotated by 90 or 270 degrees in place.
+     *
+     * @param yuv the NV21 image
+     * @param size image size
+     * @param rotation desired angle
+     * @param mirror whether to mirror the output horizontally
+     * @param output the output array
+     * @return output
+     */
+    @NonNull
+    public static byte[] rotate(@NonNull byte[] yuv,
+                                @NonNull Size size,
+                                int rotation,
+                                boolean mirror,
+                                @NonNull byte[] output) {
+        return rotate(yuv, size, rotation, mirror, output, 1);
+    }
+
+    /**
+     * Same as {@link #rotate(byte[], Size, int, boolean, byte[])}, but splits the work
+     * across the given number of threads, including the calling thread.
+     * In-place rotations are always performed on the calling thread.
+     *
+     * @param yuv the NV21 image
+     * @param size image size
+     * @param rotation desired angle
+     * @param mirror whether to mirror the output horizontally
+     * @param output the output array
+     * @param threads the thread count
+     * @return output
+     */
+    @NonNull
+    public static byte[] rotate(@NonNull final byte[] yuv,
+                                @NonNull final Size size,
+                                final int rotation,
+                                final boolean mirror,
+                                @NonNull final byte[] output,
+                                int threads) {
+        checkRotation(rotation);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread, got " + threads);
         }
         final int width = size.getWidth();
         final int height = size.getHeight();
-        final byte[] output = new byte[yuv.length];
         final int frameSize = width * height;
-        final boolean swap = rotation % 180 != 0;
-        final boolean xflip = rotation % 270 != 0;
-        final boolean yflip = rotation >= 180;
-
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                final int yIn = j * width + i;
-                final int uIn = frameSize + (j >> 1) * width + (i & ~1);
-                final int vIn = uIn + 1;
-
-                final int wOut = swap ? height : width;
-                final int hOut = swap ? width : height;
-                final int iSwapped = swap ? j : i;
-                final int jSwapped = swap ? i : j;
-                final int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
-                final int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
-
-                final int yOut = jOut * wOut + iOut;
-                final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
-                final int vOut = uOut + 1;
-
-                output[yOut] = (byte) (0xff & yuv[yIn]);
-                output[uOut] = (byte) (0xff & yuv[uIn]);
-                output[vOut] = (byte) (0xff & yuv[vIn]);
+        final int length = frameSize + 2 * (width / 2) * (height / 2);
+        if (yuv.length < length || output.length < length) {
+            throw new IllegalArgumentException("Arrays are too small: input " + yuv.length
+                    + ", output " + output.length + ", need " + length);
+        }
+        if (yuv == output) {
+            if (rotation % 180 != 0) {
+                throw new IllegalArgumentException("Can't rotate by " + rotation + " in place.");
             }
+            rotateInPlace(yuv, width, height, 1, 0, rotation, mirror);
+            rotateInPlace(yuv, width / 2, height / 2, 2, frameSize, rotation, mirror);
+            return output;
+        }
+        if (rotation == 0 && !mirror) {
+            System.arraycopy(yuv, 0, output, 0, length);
+            return output;
         }
 
+        // Split the rows in bands made of whole tiles, one for each thread.
+        final int tileRows = (height + TILE - 1) / TILE;
+        final int bands = Math.min(threads, tileRows);
+        if (bands == 1) {
+            rotateBand(yuv, output, width, height, rotation, mirror, 0, height);
+            return output;
+        }
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        final int tilesPerBand = (tileRows + bands - 1) / bands;
+        Executor executor = getExecutor();
+        for (int i = 1; i < bands; i++) {
+            final int start = Math.min(height, i * tilesPerBand * TILE);
+            final int end = Math.min(height, (i + 1) * tilesPerBand * TILE);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rotateBand(yuv, output, width, height, rotation, mirror, start, end);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        rotateBand(yuv, output, width, height, rotation, mirror,
+                0, Math.min(height, tilesPerBand * TILE));
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         return output;
     }
-}
 
+    private static void checkRotation(int rotation) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
+            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        }
+    }
+
+    @NonNull
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    threads,
+                    threads,
+                    4,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger(1);
+                        @Override
+                        public Thread newThread(@NonNull Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "RotationHelper #" + mCount.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }
+            );
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Rotates the input rows in [start, end) of both planes. Start and end should be even.
+     */
+    private static void rotateBand(@NonNull byte[] input, @NonNull byte[] output,
+                                   int width, int height, int rotation, boolean mirror,
+                                   int start, int end) {
+        int frameSize = width * height;
+        rotatePlane(input, output, width, height, 1, 0, rotation, mirror, start, end);
+        rotatePlane(input, output, width / 2, height / 2, 2, frameSize, rotation, mirror,
+                start / 2, end / 2);
+    }
+
+    /**
+     * Rotates a plane of width x height elements, each one made of pixelBytes bytes,
+     * starting at the given offset in both arrays. Only input rows in [start, end) are read.
+     */
+    private static void rotatePlane(@NonNull byte[] input, @NonNull byte[] output,
+                                    int width, int height, int pixelBytes, int offset,
+                                    int rotation, boolean mirror, int start, int end) {
+        // The output index is linear in the input coordinates: origin + x * dx + y * dy.
+        int origin = outputIndex(0, 0, width, height, rotation, mirror);
+        int dx = outputIndex(1, 0, width, height, rotation, mirror) - origin;
+        int dy = outputIndex(0, 1, width, height, rotation, mirror) - origin;
+        origin = offset + origin * pixelBytes;
+        dx *= pixelBytes;
+        dy *= pixelBytes;
+        int rowBytes = width * pixelBytes;
+        for (int tileY = start; tileY < end; tileY += TILE) {
+            int tileEndY = Math.min(end, tileY + TILE);
+            for (int tileX = 0; tileX < width; tileX += TILE) {
+                int tileEndX = Math.min(width, tileX + TILE);
+                for (int y = tileY; y < tileEndY; y++) {
+                    int in = offset + y * rowBytes + tileX * pixelBytes;
+                    int out = origin + tileX * dx + y * dy;
+                    if (pixelBytes == 1) {
+                        for (int x = tileX; x < tileEndX; x++) {
+                            output[out] = input[in];
+                            in++;
+                            out += dx;
+                        }
+                    } else {
+                        for (int x = tileX; x < tileEndX; x++) {
+                            output[out] = input[in];
+                            output[out + 1] = input[in + 1];
+                            in += 2;
+                            out += dx;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates a plane into itself. This works because rotating by 0 or 180 degrees, with or
+     * without mirroring, maps each element to one that maps back to it, so it's enough to
+     * swap each pair once.
+     */
+    private static void rotateInPlace(@NonNull byte[] data,
+                                      int width, int height, int pixelBytes, int offset,
+                                      int rotation, boolean mirror) {
+        if (rotation == 0 && !mirror) return;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int from = y * width + x;
+                int to = outputIndex(x, y, width, height, rotation, mirror);
+                if (to <= from) continue;
+                from = offset + from * pixelBytes;
+                to = offset + to * pixelBytes;
+                for (int i = 0; i < pixelBytes; i++) {
+                    byte temp = data[from + i];
+                    data[from + i] = data[to + i];
+                    data[to + i] = temp;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the input element at (x, y) in the rotated plane.
+     */
+    private static int outputIndex(int x, int y, int width, int height,
+                                   int rotation, boolean mirror) {
+        boolean swap = rotation % 180 != 0;
+        boolean xflip = rotation % 270 != 0;
+        boolean yflip = rotation >= 180;
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        int outX = swap ? y : x;
+        int outY = swap ? x : y;
+        if (xflip) outX = outWidth - outX - 1;
+        if (yflip) outY = outHeight - outY - 1;
+        if (mirror) outX = outWidth - outX - 1;
+        return outY * outWidth + outX;
+    }
+}
@@ -7,14 +7,17 @@ import androidx.annotation.NonNull;
 import androidx.exifinterface.media.ExifInterface;
 
 import com.otaliastudios.cameraview.CameraException;
+import com.otaliastudios.cameraview.CameraUtils;
 import com.otaliastudios.cameraview.PictureResult;
 import com.otaliastudios.cameraview.engine.Camera1Engine;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.engine.orchestrator.CameraState;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
 import com.otaliastudios.cameraview.internal.ExifHelper;
 import com.otaliastudios.cameraview.size.Size;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -93,7 +96,11 @@ public class Full1PictureRecorder extends FullPictureRecorder {
                                 );
                                 camera.startPreview();
                             }
-                            dispatchResult();
+                            if (mResult.file != null) {
+                                writeData();
+                            } else {
+                                dispatchResult();
+                            }
                         }
                     }
             );
@@ -104,6 +111,26 @@ public class Full1PictureRecorder extends FullPictureRecorder {
         }
     }
 
+    /**
+     * Camera1 already gives us a byte array, but we can still avoid holding it in the result
+     * and write it on the I/O executor rather than on the camera thread.
+     */
+    private void writeData() {
+        final byte[] data = mResult.data;
+        mResult.data = null;
+        CameraExecutors.io().execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = CameraUtils.writeToFile(data, mResult.file);
+                if (file == null) {
+                    mError = new IOException("Could not write file: " + mResult.file);
+                    mResult = null;
+                }
+                dispatchResult();
+            }
+        });
+    }
+
     @Override
     protected void dispatchResult() {
         LOG.i("dispatching result. Thread:", Thread.currentThread());
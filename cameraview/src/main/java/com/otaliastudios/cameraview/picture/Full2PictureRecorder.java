@@ -16,17 +16,23 @@ import com.otaliastudios.cameraview.engine.Camera2Engine;
 import com.otaliastudios.cameraview.engine.action.Action;
 import com.otaliastudios.cameraview.engine.action.ActionHolder;
 import com.otaliastudios.cameraview.engine.action.BaseAction;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
 import com.otaliastudios.cameraview.internal.ExifHelper;
+import com.otaliastudios.cameraview.internal.FileChannelWriter;
 import com.otaliastudios.cameraview.internal.WorkerHandler;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
 import androidx.exifinterface.media.ExifInterface;
 
 /**
@@ -117,6 +123,18 @@ public class Full2PictureRecorder extends FullPictureRecorder
         //noinspection TryFinallyCanBeTryWithResources
         try {
             image = reader.acquireNextImage();
+            if (mResult.file != null) {
+                // Write on the I/O executor. It owns the image from now on.
+                final Image fileImage = image;
+                image = null;
+                CameraExecutors.io().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeImage(fileImage);
+                    }
+                });
+                return;
+            }
             switch (mResult.format) {
                 case JPEG: readJpegImage(image); break;
                 case DNG: readRawImage(image); break;
@@ -170,4 +188,61 @@ public class Full2PictureRecorder extends FullPictureRecorder
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Writes the image straight to {@link PictureResult.Stub#file}, so that the picture
+     * is never copied to a byte array. JPEG planes are written to the file channel as they
+     * are, DNG data is streamed by the {@link DngCreator}.
+     * Closes the image and dispatches the result.
+     */
+    @WorkerThread
+    private void writeImage(@NonNull Image image) {
+        File file = mResult.file;
+        try {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not delete existing file: " + file);
+            }
+            switch (mResult.format) {
+                case JPEG: writeJpegImage(image, file); break;
+                case DNG: writeRawImage(image, file); break;
+                default: throw new IllegalStateException("Unknown format: " + mResult.format);
+            }
+        } catch (Exception e) {
+            LOG.e("writeImage:", "could not write file.", e);
+            mResult = null;
+            mError = e;
+        } finally {
+            image.close();
+        }
+        LOG.i("writeImage ended.");
+        dispatchResult();
+    }
+
+    private void writeJpegImage(@NonNull Image image, @NonNull File file) throws IOException {
+        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+        new FileChannelWriter(false, false).write(file, buffer);
+
+        // Same as readJpegImage, but only the EXIF header is read back from file.
+        mResult.rotation = 0;
+        try {
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+            mResult.rotation = ExifHelper.getOrientation(exifOrientation);
+        } catch (IOException ignore) {
+            // Should not happen
+        }
+    }
+
+    private void writeRawImage(@NonNull Image image, @NonNull File file) throws IOException {
+        // DngCreator does many small writes, so buffer them.
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            mDngCreator.writeImage(stream, image);
+            stream.flush();
+        } finally {
+            mDngCreator.close();
+            stream.close();
+        }
+    }
 }
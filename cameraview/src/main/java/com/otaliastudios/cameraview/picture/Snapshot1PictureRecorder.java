@@ -1,15 +1,19 @@
 package com.otaliastudios.cameraview.picture;
 
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.hardware.Camera;
 
+import com.otaliastudios.cameraview.CameraLogger;
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.controls.PictureFormat;
 import com.otaliastudios.cameraview.engine.Camera1Engine;
 import com.otaliastudios.cameraview.engine.offset.Reference;
+import com.otaliastudios.cameraview.frame.FrameConverter;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
 import com.otaliastudios.cameraview.internal.CropHelper;
 import com.otaliastudios.cameraview.internal.RotationHelper;
-import com.otaliastudios.cameraview.internal.WorkerHandler;
 import com.otaliastudios.cameraview.size.AspectRatio;
 import com.otaliastudios.cameraview.size.Size;
 
@@ -41,7 +45,9 @@ public class Snapshot1PictureRecorder extends SnapshotPictureRecorder {
 
     @Override
     public void take() {
-        mCamera.setOneShotPreviewCallback(new Camera.PreviewCallback() {
+        // Don't use Camera.setOneShotPreviewCallback: it clears the callback buffers,
+        // which would then have to be allocated again for the frame manager.
+        mEngine1.setOneShotPreviewCallback(new Camera.PreviewCallback() {
             @Override
             public void onPreviewFrame(@NonNull final byte[] yuv, Camera camera) {
                 dispatchOnShutter(false);
@@ -53,39 +59,79 @@ public class Snapshot1PictureRecorder extends SnapshotPictureRecorder {
                 final Size outputSize = mResult.size;
                 final Size previewStreamSize = mEngine1.getPreviewStreamSize(Reference.SENSOR);
                 if (previewStreamSize == null) {
+                    recyclePreviewBuffer(yuv);
                     throw new IllegalStateException("Preview stream size " +
                             "should never be null here.");
                 }
-                WorkerHandler.execute(new Runnable() {
+                final long frameTime = System.currentTimeMillis();
+                CameraExecutors.cpu().execute(new Runnable() {
                     @Override
                     public void run() {
                         // Rotate the picture, because no one will write EXIF data,
-                        // then crop if needed. In both cases, transform yuv to jpeg.
-                        //noinspection deprecation
-                        byte[] data = RotationHelper.rotate(yuv, previewStreamSize, sensorToOutput);
-                        YuvImage yuv = new YuvImage(data, mFormat, outputSize.getWidth(),
-                                outputSize.getHeight(), null);
+                        // then crop if needed. In both cases, transform yuv to jpeg or rgba.
+                        SnapshotBufferPool pool = mEngine1.getSnapshotBufferPool();
+                        long start = System.currentTimeMillis();
+                        byte[] data = yuv;
+                        if (sensorToOutput != 0) {
+                            data = RotationHelper.rotate(yuv, previewStreamSize, sensorToOutput,
+                                    false, pool.obtainBuffer(yuv.length));
+                            // The preview buffer is not needed anymore.
+                            recyclePreviewBuffer(yuv);
+                        }
+                        long rotated = System.currentTimeMillis();
 
-                        ByteArrayOutputStream stream = new ByteArrayOutputStream();
                         Rect outputRect = CropHelper.computeCrop(outputSize, mOutputRatio);
-                        yuv.compressToJpeg(outputRect, 90, stream);
-                        data = stream.toByteArray();
+                        if (mResult.format == PictureFormat.RGBA
+                                && mFormat != ImageFormat.NV21) {
+                            LOG.w("take:", "RGBA needs NV21 previews. Using JPEG.", mFormat);
+                            mResult.format = PictureFormat.JPEG;
+                        }
+                        if (mResult.format == PictureFormat.RGBA) {
+                            // Skip compression, the caller wants pixels anyway.
+                            byte[] rgba = new byte[outputRect.width()
+                                    * outputRect.height() * 4];
+                            FrameConverter.nv21ToRgba(data, outputSize.getWidth(),
+                                    outputSize.getHeight(), outputRect.left, outputRect.top,
+                                    outputRect.width(), outputRect.height(), rgba);
+                            mResult.data = rgba;
+                        } else {
+                            YuvImage image = new YuvImage(data, mFormat, outputSize.getWidth(),
+                                    outputSize.getHeight(), null);
+                            ByteArrayOutputStream stream = pool.obtainStream();
+                            image.compressToJpeg(outputRect, 90, stream);
+                            mResult.data = stream.toByteArray();
+                            pool.recycleStream(stream);
+                        }
+                        if (data == yuv) {
+                            recyclePreviewBuffer(yuv);
+                        } else {
+                            pool.recycleBuffer(data);
+                        }
+                        long converted = System.currentTimeMillis();
 
-                        mResult.data = data;
                         mResult.size = new Size(outputRect.width(), outputRect.height());
                         mResult.rotation = 0;
+                        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+                            long end = System.currentTimeMillis();
+                            LOG.i("take:", "wait:", start - frameTime,
+                                    "rotate:", rotated - start,
+                                    "convert:", converted - rotated,
+                                    "total:", end - frameTime);
+                        }
                         dispatchResult();
                     }
                 });
-
-                // It seems that the buffers are already cleared here, so we need to allocate again.
-                camera.setPreviewCallbackWithBuffer(null); // Release anything left
-                camera.setPreviewCallbackWithBuffer(mEngine1); // Add ourselves
-                mEngine1.getFrameManager().setUp(mFormat, previewStreamSize, mEngine1.getAngles());
             }
         });
     }
 
+    private void recyclePreviewBuffer(@NonNull byte[] buffer) {
+        // If the preview was restarted with a different size, let it go.
+        if (buffer.length == mEngine1.getFrameManager().getFrameBytes()) {
+            mEngine1.onBufferAvailable(buffer);
+        }
+    }
+
     @Override
     protected void dispatchResult() {
         mEngine1 = null;
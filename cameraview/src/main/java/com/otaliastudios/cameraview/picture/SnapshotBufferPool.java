@@ -0,0 +1,81 @@
+package com.otaliastudios.cameraview.picture;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.internal.RingBuffer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Holds the scratch buffers used by snapshots, so that taking pictures one after the other
+ * does not allocate a new frame-sized array and a new output stream each time.
+ *
+ * Streams are reset when obtained but keep their internal buffer, so after the first
+ * snapshot they do not need to grow anymore. This class is thread-safe.
+ */
+public class SnapshotBufferPool {
+
+    private final RingBuffer<byte[]> mBuffers;
+    private final RingBuffer<ByteArrayOutputStream> mStreams;
+
+    /**
+     * Creates a new pool.
+     * @param maxSize the max number of buffers and streams that are kept
+     */
+    public SnapshotBufferPool(int maxSize) {
+        mBuffers = new RingBuffer<>(maxSize);
+        mStreams = new RingBuffer<>(maxSize);
+    }
+
+    /**
+     * Returns a buffer with exactly the given length, from the pool if possible.
+     * Buffers with a different length are dropped.
+     *
+     * @param length the buffer length
+     * @return a buffer
+     */
+    @NonNull
+    public byte[] obtainBuffer(int length) {
+        byte[] buffer;
+        while ((buffer = mBuffers.poll()) != null) {
+            if (buffer.length == length) return buffer;
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer a buffer
+     */
+    public void recycleBuffer(@NonNull byte[] buffer) {
+        mBuffers.offer(buffer);
+    }
+
+    /**
+     * Returns an empty stream, from the pool if possible.
+     * @return a stream
+     */
+    @NonNull
+    public ByteArrayOutputStream obtainStream() {
+        ByteArrayOutputStream stream = mStreams.poll();
+        if (stream == null) return new ByteArrayOutputStream();
+        stream.reset();
+        return stream;
+    }
+
+    /**
+     * Returns a stream to the pool.
+     * @param stream a stream
+     */
+    public void recycleStream(@NonNull ByteArrayOutputStream stream) {
+        mStreams.offer(stream);
+    }
+
+    /**
+     * Drops all buffers and streams.
+     */
+    public void clear() {
+        mBuffers.clear();
+        mStreams.clear();
+    }
+}
@@ -0,0 +1,399 @@
+package com.otaliastudios.cameraview.picture;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.otaliastudios.cameraview.CameraLogger;
+import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.controls.PictureFormat;
+import com.otaliastudios.cameraview.filter.Filter;
+import com.otaliastudios.cameraview.internal.CropHelper;
+import com.otaliastudios.cameraview.internal.GlTextureDrawer;
+import com.otaliastudios.cameraview.internal.RingBuffer;
+import com.otaliastudios.cameraview.internal.WorkerHandler;
+import com.otaliastudios.cameraview.overlay.Overlay;
+import com.otaliastudios.cameraview.overlay.OverlayDrawer;
+import com.otaliastudios.cameraview.preview.RendererCameraPreview;
+import com.otaliastudios.cameraview.preview.RendererFrameCallback;
+import com.otaliastudios.cameraview.preview.RendererThread;
+import com.otaliastudios.cameraview.size.AspectRatio;
+import com.otaliastudios.cameraview.size.Size;
+import com.otaliastudios.opengl.core.EglCore;
+import com.otaliastudios.opengl.core.Egloo;
+import com.otaliastudios.opengl.surface.EglSurface;
+import com.otaliastudios.opengl.surface.EglWindowSurface;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Takes many picture snapshots from the {@link RendererCameraPreview}, one after the other.
+ * Frames are drawn like {@link SnapshotGlPictureRecorder} does, but:
+ *
+ * - The frame callback stays registered for the whole burst and frames are picked on the
+ *   {@link RendererThread} based on the target interval
+ * - The EGL core, the EGL surface and the filter program are created once, on a readback
+ *   thread, and released when the burst ends
+ * - The readback thread only draws the frame and reads its pixels into one of a few
+ *   direct buffers. JPEG compression (or the copy, for {@link PictureFormat#RGBA}) happens on
+ *   a separate encode thread, so that the next frame can be read while the previous one is
+ *   being compressed
+ * - Filter changes are passed to the readback thread, which owns the texture drawer
+ *
+ * If all buffers are busy when a frame is available, the frame is skipped.
+ * The burst ends after the given number of frames, or when {@link #stop()} is called.
+ */
+@RequiresApi(Build.VERSION_CODES.KITKAT)
+public class SnapshotGlBurstRecorder {
+
+    private static final String TAG = SnapshotGlBurstRecorder.class.getSimpleName();
+    private static final CameraLogger LOG = CameraLogger.create(TAG);
+
+    // Enough to keep both the readback and the encode thread busy.
+    private static final int READBACK_BUFFERS = 3;
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Receives burst results.
+     */
+    public interface Listener {
+
+        /**
+         * A picture of the burst is ready. Called on a background thread.
+         * @param result the result
+         */
+        void onPictureBurstResult(@NonNull PictureResult.Stub result);
+
+        /**
+         * The burst has ended, and no more results will be dispatched.
+         * @param error the error or null if there wasn't any
+         */
+        void onPictureBurstEnd(@Nullable Exception error);
+    }
+
+    private final PictureResult.Stub mStub;
+    private final Listener mListener;
+    private final RendererCameraPreview mPreview;
+    private final AspectRatio mOutputRatio;
+    private final Overlay mOverlay;
+    private final boolean mHasOverlay;
+    private final int mMaxFrames;
+    private final long mIntervalMillis;
+    private final WorkerHandler mReadbackWorker = WorkerHandler.get("CameraViewBurstReadback");
+    private final WorkerHandler mEncodeWorker = WorkerHandler.get("CameraViewBurstEncode");
+    private final RingBuffer<ByteBuffer> mBuffers = new RingBuffer<>(READBACK_BUFFERS);
+    private final AtomicBoolean mEnded = new AtomicBoolean(false);
+    private RendererFrameCallback mCallback;
+    private volatile Exception mError;
+    // Only written on the renderer thread, but read by end() on any thread.
+    private volatile int mCapturedFrames;
+
+    // Renderer thread
+    private Size mSize;
+    private GlTextureDrawer mTextureDrawer;
+    private OverlayDrawer mOverlayDrawer;
+    private EGLContext mEglContext;
+    private long mLastFrameTime;
+
+    // Readback thread
+    private EglCore mEglCore;
+    private EglSurface mEglSurface;
+    private SurfaceTexture mFakeOutputSurface;
+    private boolean mReleased;
+
+    // Encode thread
+    private Bitmap mBitmap;
+    private ByteArrayOutputStream mStream;
+
+    /**
+     * Creates a new burst recorder.
+     *
+     * @param stub a stub with the values shared by all pictures
+     * @param listener a listener
+     * @param preview the preview
+     * @param outputRatio the output ratio
+     * @param overlay an overlay, or null
+     * @param maxFrames the number of pictures, or 0 to take pictures until stopped
+     * @param intervalMillis the min interval between two pictures
+     */
+    public SnapshotGlBurstRecorder(@NonNull PictureResult.Stub stub,
+                                   @NonNull Listener listener,
+                                   @NonNull RendererCameraPreview preview,
+                                   @NonNull AspectRatio outputRatio,
+                                   @Nullable Overlay overlay,
+                                   int maxFrames,
+                                   long intervalMillis) {
+        mStub = stub;
+        mListener = listener;
+        mPreview = preview;
+        mOutputRatio = outputRatio;
+        mOverlay = overlay;
+        mHasOverlay = overlay != null && overlay.drawsOn(Overlay.Target.PICTURE_SNAPSHOT);
+        mMaxFrames = maxFrames;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts the burst.
+     */
+    public void take() {
+        mCallback = new RendererFrameCallback() {
+
+            @RendererThread
+            public void onRendererTextureCreated(int textureId) {
+                SnapshotGlBurstRecorder.this.onRendererTextureCreated(textureId);
+            }
+
+            @RendererThread
+            @Override
+            public void onRendererFilterChanged(@NonNull Filter filter) {
+                SnapshotGlBurstRecorder.this.onRendererFilterChanged(filter);
+            }
+
+            @RendererThread
+            @Override
+            public void onRendererFrame(@NonNull SurfaceTexture surfaceTexture,
+                                        int rotation, float scaleX, float scaleY) {
+                SnapshotGlBurstRecorder.this.onRendererFrame(surfaceTexture,
+                        rotation, scaleX, scaleY);
+            }
+        };
+        mPreview.addRendererFrameCallback(mCallback);
+    }
+
+    /**
+     * Stops the burst. Pictures that were already captured are still dispatched.
+     * This can be called from any thread.
+     */
+    public void stop() {
+        end(null);
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    @NonNull
+    GlTextureDrawer createTextureDrawer(int textureId) {
+        return new GlTextureDrawer(textureId);
+    }
+
+    @RendererThread
+    private void onRendererTextureCreated(int textureId) {
+        mTextureDrawer = createTextureDrawer(textureId);
+        // Need to crop the size.
+        Rect crop = CropHelper.computeCrop(mStub.size, mOutputRatio);
+        mSize = new Size(crop.width(), crop.height());
+        if (mHasOverlay) {
+            mOverlayDrawer = new OverlayDrawer(mOverlay, mSize);
+        }
+        int bytes = mSize.getWidth() * mSize.getHeight() * 4;
+        for (int i = 0; i < READBACK_BUFFERS; i++) {
+            mBuffers.offer(ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()));
+        }
+    }
+
+    @RendererThread
+    private void onRendererFilterChanged(@NonNull Filter filter) {
+        // The readback thread draws with the texture drawer, so the filter must be set there,
+        // between two frames. The copy is created here, while the renderer owns the filter.
+        final Filter copy = filter.copy();
+        mReadbackWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReleased) mTextureDrawer.setFilter(copy);
+            }
+        });
+    }
+
+    @RendererThread
+    private void onRendererFrame(@NonNull SurfaceTexture surfaceTexture,
+                                 final int rotation,
+                                 final float scaleX,
+                                 final float scaleY) {
+        if (mEnded.get()) return;
+        long now = now();
+        if (mCapturedFrames > 0 && now - mLastFrameTime < mIntervalMillis) return;
+        final ByteBuffer buffer = mBuffers.poll();
+        if (buffer == null) {
+            if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("onRendererFrame:", "all buffers are busy, skipping frame.");
+            }
+            return;
+        }
+        mLastFrameTime = now;
+        mCapturedFrames++;
+        // Get egl context from the RendererThread, like SnapshotGlPictureRecorder does.
+        if (mEglContext == null) mEglContext = EGL14.eglGetCurrentContext();
+        final EGLContext eglContext = mEglContext;
+        // Read these now, the surface texture will change before the readback thread runs.
+        final float[] transform = new float[16];
+        surfaceTexture.getTransformMatrix(transform);
+        final long timestampUs = surfaceTexture.getTimestamp() / 1000L;
+        mReadbackWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readFrame(eglContext, transform, rotation, scaleX, scaleY,
+                            timestampUs, buffer);
+                } catch (Exception e) {
+                    LOG.e("readFrame:", "failed.", e);
+                    end(e);
+                }
+            }
+        });
+        if (mMaxFrames > 0 && mCapturedFrames >= mMaxFrames) {
+            end(null);
+        }
+    }
+
+    @WorkerThread
+    private void readFrame(@NonNull EGLContext eglContext,
+                           @NonNull float[] frameTransform,
+                           int rotation,
+                           float scaleX,
+                           float scaleY,
+                           long timestampUs,
+                           @NonNull final ByteBuffer buffer) {
+        if (mReleased) return;
+        drawFrame(eglContext, frameTransform, rotation, scaleX, scaleY, timestampUs, buffer);
+        final int width = mSize.getWidth();
+        final int height = mSize.getHeight();
+        mEncodeWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                encodeFrame(buffer, width, height);
+            }
+        });
+    }
+
+    /**
+     * Draws the frame on our EGL surface, which is created on the first call,
+     * and reads its pixels into the buffer. See {@link SnapshotGlPictureRecorder} for
+     * details about the surface and the transformations.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    void drawFrame(@NonNull EGLContext eglContext,
+                   @NonNull float[] frameTransform,
+                   int rotation,
+                   float scaleX,
+                   float scaleY,
+                   long timestampUs,
+                   @NonNull ByteBuffer buffer) {
+        int width = mSize.getWidth();
+        int height = mSize.getHeight();
+        if (mEglCore == null) {
+            final int fakeOutputTextureId = 9999;
+            mFakeOutputSurface = new SurfaceTexture(fakeOutputTextureId);
+            mFakeOutputSurface.setDefaultBufferSize(width, height);
+            mEglCore = new EglCore(eglContext, EglCore.FLAG_RECORDABLE);
+            mEglSurface = new EglWindowSurface(mEglCore, mFakeOutputSurface);
+            mEglSurface.makeCurrent();
+        }
+
+        // Apply preview transformations, rotation and flip.
+        float[] transform = mTextureDrawer.getTextureTransform();
+        System.arraycopy(frameTransform, 0, transform, 0, transform.length);
+        float scaleTranslX = (1F - scaleX) / 2F;
+        float scaleTranslY = (1F - scaleY) / 2F;
+        Matrix.translateM(transform, 0, scaleTranslX, scaleTranslY, 0);
+        Matrix.scaleM(transform, 0, scaleX, scaleY, 1);
+        Matrix.translateM(transform, 0, 0.5F, 0.5F, 0);
+        Matrix.rotateM(transform, 0, rotation + mStub.rotation, 0, 0, 1);
+        Matrix.scaleM(transform, 0, 1, -1, 1);
+        Matrix.translateM(transform, 0, -0.5F, -0.5F, 0);
+        if (mHasOverlay) {
+            mOverlayDrawer.draw(Overlay.Target.PICTURE_SNAPSHOT);
+            Matrix.translateM(mOverlayDrawer.getTransform(), 0, 0.5F, 0.5F, 0);
+            Matrix.rotateM(mOverlayDrawer.getTransform(), 0, mStub.rotation, 0, 0, 1);
+            Matrix.scaleM(mOverlayDrawer.getTransform(), 0, 1, -1, 1);
+            Matrix.translateM(mOverlayDrawer.getTransform(), 0, -0.5F, -0.5F, 0);
+        }
+
+        // Draw and read.
+        mTextureDrawer.draw(timestampUs);
+        if (mHasOverlay) mOverlayDrawer.render(timestampUs);
+        buffer.clear();
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                buffer);
+        Egloo.checkGlError("glReadPixels");
+    }
+
+    @WorkerThread
+    private void encodeFrame(@NonNull ByteBuffer buffer, int width, int height) {
+        PictureResult.Stub result = mStub.copy();
+        result.size = mSize;
+        result.rotation = 0;
+        if (mStub.format == PictureFormat.RGBA) {
+            buffer.rewind();
+            result.data = new byte[buffer.remaining()];
+            buffer.get(result.data);
+            mBuffers.offer(buffer);
+            mListener.onPictureBurstResult(result);
+            return;
+        }
+        if (mBitmap == null) {
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mStream = new ByteArrayOutputStream();
+        }
+        buffer.rewind();
+        mBitmap.copyPixelsFromBuffer(buffer);
+        // Pixels were copied, so the readback thread can use this buffer again.
+        mBuffers.offer(buffer);
+        mStream.reset();
+        mBitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, mStream);
+        result.data = mStream.toByteArray();
+        mListener.onPictureBurstResult(result);
+    }
+
+    /**
+     * Ends the burst. The readback thread releases the GL objects after the frames it has
+     * already received, then the encode thread dispatches the end after the last picture.
+     */
+    private void end(@Nullable Exception error) {
+        if (!mEnded.compareAndSet(false, true)) return;
+        LOG.i("end:", "captured frames:", mCapturedFrames, "error:", error);
+        mError = error;
+        if (mCallback != null) mPreview.removeRendererFrameCallback(mCallback);
+        mReadbackWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mReleased = true;
+                if (mEglCore != null) {
+                    mEglSurface.release();
+                    if (mTextureDrawer != null) mTextureDrawer.release();
+                    mFakeOutputSurface.release();
+                    mEglCore.release();
+                }
+                if (mOverlayDrawer != null) mOverlayDrawer.release();
+                mEncodeWorker.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mBitmap != null) mBitmap.recycle();
+                        mBitmap = null;
+                        mStream = null;
+                        mBuffers.clear();
+                        mListener.onPictureBurstEnd(mError);
+                    }
+                });
+            }
+        });
+    }
+}
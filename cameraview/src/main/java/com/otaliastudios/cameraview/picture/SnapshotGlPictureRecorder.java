@@ -10,11 +10,14 @@ import android.opengl.Matrix;
 import android.os.Build;
 
 import com.otaliastudios.cameraview.PictureResult;
+import com.otaliastudios.cameraview.controls.PictureFormat;
+import com.otaliastudios.cameraview.internal.CameraExecutors;
+import com.otaliastudios.cameraview.internal.GlPixelReader;
+import com.otaliastudios.cameraview.internal.GlSnapshotContext;
 import com.otaliastudios.cameraview.internal.GlTextureDrawer;
 import com.otaliastudios.cameraview.overlay.Overlay;
 import com.otaliastudios.cameraview.engine.offset.Reference;
 import com.otaliastudios.cameraview.internal.CropHelper;
-import com.otaliastudios.cameraview.internal.WorkerHandler;
 import com.otaliastudios.cameraview.overlay.OverlayDrawer;
 import com.otaliastudios.cameraview.preview.RendererCameraPreview;
 import com.otaliastudios.cameraview.preview.RendererFrameCallback;
@@ -22,9 +25,6 @@ import com.otaliastudios.cameraview.preview.RendererThread;
 import com.otaliastudios.cameraview.filter.Filter;
 import com.otaliastudios.cameraview.size.AspectRatio;
 import com.otaliastudios.cameraview.size.Size;
-import com.otaliastudios.opengl.core.EglCore;
-import com.otaliastudios.opengl.surface.EglSurface;
-import com.otaliastudios.opengl.surface.EglWindowSurface;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -32,6 +32,9 @@ import androidx.annotation.WorkerThread;
 
 import android.view.Surface;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
 /**
  * API 19.
  * Records a picture snapshots from the {@link RendererCameraPreview}. It works as follows:
@@ -40,11 +43,14 @@ import android.view.Surface;
  * - We get the textureId and the frame callback on the {@link RendererThread}
  * - [Optional: we construct another textureId for overlays]
  * - We take a handle of the EGL context from the {@link RendererThread}
- * - We move to another thread, and create a new EGL surface for that EGL context.
- * - We make this new surface current, and re-draw the textureId on it
+ * - We move to the {@link GlSnapshotContext} thread, and get an EGL surface for that EGL context.
+ *   The surface and the program are cached, so this is only expensive for the first snapshot.
+ * - We make this surface current, and re-draw the textureId on it
  * - [Optional: fill the overlayTextureId and draw it on the same surface]
- * - We use glReadPixels (through {@link EglSurface#toByteArray(Bitmap.CompressFormat)})
- *   and save to file.
+ * - We use glReadPixels (through {@link GlPixelReader}) and compress the RGBA buffer on
+ *   {@link CameraExecutors#cpu()}, or copy it as is for {@link PictureFormat#RGBA}.
+ *   With GLES 3, pixels go to a pixel buffer object that is mapped later, when the GPU is
+ *   done, so that the snapshot thread is not blocked by the readback.
  *
  * We create a new EGL surface and redraw the frame because:
  * 1. We want to go off the renderer thread as soon as possible
@@ -59,7 +65,8 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
     private Overlay mOverlay;
     private boolean mHasOverlay;
     private OverlayDrawer mOverlayDrawer;
-    private GlTextureDrawer mTextureDrawer;
+    private int mTextureId;
+    private Filter mFilter;
 
     public SnapshotGlPictureRecorder(
             @NonNull PictureResult.Stub stub,
@@ -106,7 +113,7 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
     @RendererThread
     @TargetApi(Build.VERSION_CODES.KITKAT)
     protected void onRendererTextureCreated(int textureId) {
-        mTextureDrawer = new GlTextureDrawer(textureId);
+        mTextureId = textureId;
         // Need to crop the size.
         Rect crop = CropHelper.computeCrop(mResult.size, mOutputRatio);
         mResult.size = new Size(crop.width(), crop.height());
@@ -119,7 +126,7 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
     @RendererThread
     @TargetApi(Build.VERSION_CODES.KITKAT)
     protected void onRendererFilterChanged(@NonNull Filter filter) {
-        mTextureDrawer.setFilter(filter.copy());
+        mFilter = filter.copy();
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -133,7 +140,7 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
         // the textureId and the overlayTextureId, managed by the GlSurfaceView.
         // Next operations can then be performed on different threads using this handle.
         final EGLContext eglContext = EGL14.eglGetCurrentContext();
-        WorkerHandler.execute(new Runnable() {
+        mPreview.getSnapshotContext().post(new Runnable() {
             @Override
             public void run() {
                 takeFrame(surfaceTexture, rotation, scaleX, scaleY, eglContext);
@@ -174,17 +181,15 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
                              float scaleY,
                              @NonNull EGLContext eglContext) {
 
-        // 0. EGL window will need an output.
-        // We create a fake one as explained in javadocs.
-        final int fakeOutputTextureId = 9999;
-        SurfaceTexture fakeOutputSurface = new SurfaceTexture(fakeOutputTextureId);
-        fakeOutputSurface.setDefaultBufferSize(mResult.size.getWidth(), mResult.size.getHeight());
-
-        // 1. Create an EGL surface
-        final EglCore core = new EglCore(eglContext, EglCore.FLAG_RECORDABLE);
-        final EglSurface eglSurface = new EglWindowSurface(core, fakeOutputSurface);
-        eglSurface.makeCurrent();
-        final float[] transform = mTextureDrawer.getTextureTransform();
+        // 1. Get the EGL surface, which uses a fake output as explained in javadocs, and the
+        // drawer. They are cached by the preview and only created the first time, or when
+        // the size or the context change.
+        GlSnapshotContext context = mPreview.getSnapshotContext();
+        context.makeCurrent(eglContext, mResult.size);
+        final GlTextureDrawer textureDrawer = context.getTextureDrawer(mTextureId);
+        // If the shaders did not change, this does not compile the program again.
+        if (mFilter != null) textureDrawer.setFilter(mFilter);
+        final float[] transform = textureDrawer.getTextureTransform();
 
         // 2. Apply preview transformations
         surfaceTexture.getTransformMatrix(transform);
@@ -216,17 +221,49 @@ public class SnapshotGlPictureRecorder extends SnapshotPictureRecorder {
         // 5. Draw and save
         long timestampUs = surfaceTexture.getTimestamp() / 1000L;
         LOG.i("takeFrame:", "timestampUs:", timestampUs);
-        mTextureDrawer.draw(timestampUs);
+        textureDrawer.draw(timestampUs);
         if (mHasOverlay) mOverlayDrawer.render(timestampUs);
-        mResult.data = eglSurface.toByteArray(Bitmap.CompressFormat.JPEG);
+        context.getPixelReader().read(mResult.size.getWidth(), mResult.size.getHeight(),
+                new GlPixelReader.Callback() {
+            @WorkerThread
+            @Override
+            public void onPixels(@NonNull ByteBuffer rgba, int width, int height) {
+                if (mResult.format == PictureFormat.RGBA) {
+                    // The vertical flip means that rows are already top to bottom.
+                    mResult.data = new byte[rgba.remaining()];
+                    rgba.get(mResult.data);
+                    dispatchResult();
+                } else {
+                    // Copy to a bitmap here, since the buffer is only valid in this callback,
+                    // but compress on the CPU executor so the snapshot thread is free.
+                    final Bitmap bitmap = Bitmap.createBitmap(width, height,
+                            Bitmap.Config.ARGB_8888);
+                    bitmap.copyPixelsFromBuffer(rgba);
+                    CameraExecutors.cpu().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, stream);
+                            bitmap.recycle();
+                            mResult.data = stream.toByteArray();
+                            dispatchResult();
+                        }
+                    });
+                }
+            }
+
+            @WorkerThread
+            @Override
+            public void onError(@NonNull Exception error) {
+                mResult = null;
+                mError = error;
+                dispatchResult();
+            }
+        });
 
-        // 6. Cleanup
-        eglSurface.release();
-        mTextureDrawer.release();
-        fakeOutputSurface.release();
+        // 6. Cleanup. The read was already issued, so the overlay can go. The EGL objects,
+        // the drawer and the reader buffers are kept by the snapshot context.
         if (mHasOverlay) mOverlayDrawer.release();
-        core.release();
-        dispatchResult();
     }
 
     @Override
@@ -14,6 +14,7 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.otaliastudios.cameraview.R;
+import com.otaliastudios.cameraview.internal.GlSnapshotContext;
 import com.otaliastudios.cameraview.internal.GlTextureDrawer;
 import com.otaliastudios.cameraview.filter.Filter;
 import com.otaliastudios.cameraview.filter.NoFilter;
@@ -73,6 +74,7 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
     @VisibleForTesting float mCropScaleY = 1F;
     private View mRootView;
     private Filter mCurrentFilter;
+    private GlSnapshotContext mSnapshotContext;
 
     public GlCameraPreview(@NonNull Context context, @NonNull ViewGroup parent) {
         super(context, parent);
@@ -132,6 +134,12 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
         super.onDestroy();
         // View is gone, so EGL context is gone: callbacks make no sense anymore.
         mRendererFrameCallbacks.clear();
+        synchronized (this) {
+            if (mSnapshotContext != null) {
+                mSnapshotContext.release();
+                mSnapshotContext = null;
+            }
+        }
     }
 
     /**
@@ -310,6 +318,15 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
         mRendererFrameCallbacks.remove(callback);
     }
 
+    @NonNull
+    @Override
+    public synchronized GlSnapshotContext getSnapshotContext() {
+        if (mSnapshotContext == null) {
+            mSnapshotContext = new GlSnapshotContext();
+        }
+        return mSnapshotContext;
+    }
+
     /**
      * Returns the output GL texture id.
      * @return the output GL texture id
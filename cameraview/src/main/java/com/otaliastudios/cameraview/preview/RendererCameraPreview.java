@@ -2,6 +2,8 @@ package com.otaliastudios.cameraview.preview;
 
 import androidx.annotation.NonNull;
 
+import com.otaliastudios.cameraview.internal.GlSnapshotContext;
+
 /**
  * Base interface for previews that support renderer frame callbacks,
  * see {@link RendererFrameCallback}.
@@ -20,4 +22,12 @@ public interface RendererCameraPreview {
      * @param callback a callback
      */
     void removeRendererFrameCallback(@NonNull final RendererFrameCallback callback);
+
+    /**
+     * Returns the GL objects used by picture snapshots, which are cached
+     * until this preview is destroyed.
+     * @return the snapshot context
+     */
+    @NonNull
+    GlSnapshotContext getSnapshotContext();
 }
@@ -397,7 +397,9 @@ public abstract class MediaEncoder {
     @SuppressLint("LogNotTimber")
     @SuppressWarnings("WeakerAccess")
     protected final void drainOutput(boolean drainAll) {
-        LOG.i(mName, "DRAINING - EOS:", drainAll);
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            LOG.i(mName, "DRAINING - EOS:", drainAll);
+        }
         if (mMediaCodec == null) {
             LOG.e("drain() was called before prepare() or after releasing.");
             return;
@@ -407,7 +409,9 @@ public abstract class MediaEncoder {
         }
         while (true) {
             int encoderStatus = mMediaCodec.dequeueOutputBuffer(mBufferInfo, OUTPUT_TIMEOUT_US);
-            LOG.i(mName, "DRAINING - Got status:", encoderStatus);
+            if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+                LOG.i(mName, "DRAINING - Got status:", encoderStatus);
+            }
             if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
                 // no output available yet
                 if (!drainAll) break; // out of while
@@ -462,8 +466,10 @@ public abstract class MediaEncoder {
                             + mLastTimeUs - mFirstTimeUs;
 
                     // Write.
-                    LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:",
-                            mBufferInfo.presentationTimeUs);
+                    if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                        LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:",
+                                mBufferInfo.presentationTimeUs);
+                    }
                     OutputBuffer buffer = mOutputBufferPool.get();
                     //noinspection ConstantConditions
                     buffer.info = mBufferInfo;
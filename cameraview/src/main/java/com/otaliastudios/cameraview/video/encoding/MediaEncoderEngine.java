@@ -354,7 +354,7 @@ public class MediaEncoderEngine {
                         "readable:", calendar.get(Calendar.SECOND) + ":"
                                 + calendar.get(Calendar.MILLISECOND),
                         "count:", count);
-            } else {
+            } else if (LOG.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
                 LOG.v("write:", "Writing into muxer -",
                         "track:", buffer.trackIndex,
                         "presentation:", buffer.info.presentationTimeUs);
@@ -178,21 +178,25 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
         }
 
         // First, drain any previous data.
-        LOG.i("onEvent -",
-                "frameNumber:", mFrameNumber,
-                "timestampUs:", frame.timestampUs(),
-                "hasReachedMaxLength:", hasReachedMaxLength(),
-                "thread:", Thread.currentThread(),
-                "- draining.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            LOG.i("onEvent -",
+                    "frameNumber:", mFrameNumber,
+                    "timestampUs:", frame.timestampUs(),
+                    "hasReachedMaxLength:", hasReachedMaxLength(),
+                    "thread:", Thread.currentThread(),
+                    "- draining.");
+        }
         drainOutput(false);
 
         // Then draw on the surface.
-        LOG.i("onEvent -",
-                "frameNumber:", mFrameNumber,
-                "timestampUs:", frame.timestampUs(),
-                "hasReachedMaxLength:", hasReachedMaxLength(),
-                "thread:", Thread.currentThread(),
-                "- drawing.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            LOG.i("onEvent -",
+                    "frameNumber:", mFrameNumber,
+                    "timestampUs:", frame.timestampUs(),
+                    "hasReachedMaxLength:", hasReachedMaxLength(),
+                    "thread:", Thread.currentThread(),
+                    "- drawing.");
+        }
 
         // 1. We must scale this matrix like GlCameraPreview does, because it might have some
         // cropping. Scaling takes place with respect to the (0, 0, 0) point, so we must apply
@@ -223,12 +227,14 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
             Matrix.translateM(mConfig.overlayDrawer.getTransform(),
                     0, -0.5F, -0.5F, 0);
         }
-        LOG.i("onEvent -",
-                "frameNumber:", mFrameNumber,
-                "timestampUs:", frame.timestampUs(),
-                "hasReachedMaxLength:", hasReachedMaxLength(),
-                "thread:", Thread.currentThread(),
-                "- gl rendering.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            LOG.i("onEvent -",
+                    "frameNumber:", mFrameNumber,
+                    "timestampUs:", frame.timestampUs(),
+                    "hasReachedMaxLength:", hasReachedMaxLength(),
+                    "thread:", Thread.currentThread(),
+                    "- gl rendering.");
+        }
         mDrawer.setTextureTransform(transform);
         mDrawer.draw(frame.timestampUs());
         if (mConfig.hasOverlay()) {
@@ -237,12 +243,14 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
         mWindow.setPresentationTime(frame.timestampNanos);
         mWindow.swapBuffers();
         mFramePool.recycle(frame);
-        LOG.i("onEvent -",
-                "frameNumber:", mFrameNumber,
-                "timestampUs:", frame.timestampUs(),
-                "hasReachedMaxLength:", hasReachedMaxLength(),
-                "thread:", Thread.currentThread(),
-                "- gl rendered.");
+        if (LOG.isLoggable(CameraLogger.LEVEL_INFO)) {
+            LOG.i("onEvent -",
+                    "frameNumber:", mFrameNumber,
+                    "timestampUs:", frame.timestampUs(),
+                    "hasReachedMaxLength:", hasReachedMaxLength(),
+                    "thread:", Thread.currentThread(),
+                    "- gl rendered.");
+        }
     }
 
     @Override
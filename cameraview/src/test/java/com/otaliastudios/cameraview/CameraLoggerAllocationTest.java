@@ -0,0 +1,53 @@
+package com.otaliastudios.cameraview;
+
+
+import com.otaliastudios.cameraview.tools.Allocations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that guarded log calls do not allocate when logging is disabled.
+ * Hot paths that use them are checked next to their own tests, see FrameTest.
+ */
+public class CameraLoggerAllocationTest {
+
+    private CameraLogger logger;
+
+    @Before
+    public void setUp() {
+        CameraLogger.setLogLevel(CameraLogger.LEVEL_ERROR);
+        logger = CameraLogger.create("CameraLoggerAllocationTest");
+    }
+
+    @After
+    public void tearDown() {
+        CameraLogger.setLogLevel(CameraLogger.LEVEL_ERROR);
+        logger = null;
+    }
+
+    @Test
+    public void testIsLoggable() {
+        assertFalse(logger.isLoggable(CameraLogger.LEVEL_VERBOSE));
+        assertFalse(logger.isLoggable(CameraLogger.LEVEL_WARNING));
+        assertTrue(logger.isLoggable(CameraLogger.LEVEL_ERROR));
+        CameraLogger.setLogLevel(CameraLogger.LEVEL_VERBOSE);
+        assertTrue(logger.isLoggable(CameraLogger.LEVEL_VERBOSE));
+    }
+
+    @Test
+    public void testGuardedLog() {
+        Allocations.assertNoAllocations(new Allocations.Block() {
+            @Override
+            public void run(int iteration) {
+                if (logger.isLoggable(CameraLogger.LEVEL_VERBOSE)) {
+                    logger.v("iteration:", iteration, "time:", System.nanoTime());
+                }
+            }
+        });
+    }
+}
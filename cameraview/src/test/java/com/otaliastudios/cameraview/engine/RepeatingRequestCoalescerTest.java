@@ -0,0 +1,107 @@
+package com.otaliastudios.cameraview.engine;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepeatingRequestCoalescerTest {
+
+    private final static long MAX_WAIT = 200;
+
+    private RepeatingRequestCoalescer coalescer;
+    private long now;
+
+    @Before
+    public void setUp() {
+        now = 1000;
+        coalescer = new RepeatingRequestCoalescer(MAX_WAIT) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    private void submit() {
+        coalescer.onApplied();
+        coalescer.onSubmitted();
+    }
+
+    @Test
+    public void testInvalidate_notInFlight() {
+        assertTrue(coalescer.invalidate());
+        assertTrue(coalescer.isDirty());
+    }
+
+    @Test
+    public void testInvalidate_inFlight() {
+        submit();
+        now += 10;
+        assertFalse(coalescer.invalidate());
+        assertFalse(coalescer.invalidate());
+        assertEquals(1, coalescer.getSaved());
+        assertTrue(coalescer.onFrameCompleted());
+        submit();
+        assertFalse(coalescer.isDirty());
+        assertEquals(2, coalescer.getSubmitted());
+    }
+
+    @Test
+    public void testInvalidate_afterMaxWait() {
+        submit();
+        now += MAX_WAIT;
+        assertTrue(coalescer.invalidate());
+    }
+
+    @Test
+    public void testTimeout() {
+        submit();
+        now += 50;
+        assertFalse(coalescer.invalidate());
+        assertEquals(MAX_WAIT - 50, coalescer.getRemainingWait());
+        // No frame completes and no other change comes.
+        now += 100;
+        assertFalse(coalescer.onTimeout());
+        now += MAX_WAIT - 150;
+        assertTrue(coalescer.onTimeout());
+    }
+
+    @Test
+    public void testTimeout_afterFrameCompleted() {
+        submit();
+        assertFalse(coalescer.invalidate());
+        assertTrue(coalescer.onFrameCompleted());
+        submit();
+        now += MAX_WAIT;
+        assertFalse(coalescer.onTimeout());
+    }
+
+    @Test
+    public void testTimeout_newerSubmit() {
+        submit();
+        assertFalse(coalescer.invalidate());
+        now += 100;
+        assertTrue(coalescer.onFrameCompleted());
+        submit();
+        assertFalse(coalescer.invalidate());
+        // The first timeout comes, but the current request was submitted 100ms ago.
+        now += 100;
+        assertFalse(coalescer.onTimeout());
+        now += 100;
+        assertTrue(coalescer.onTimeout());
+    }
+
+    @Test
+    public void testReset() {
+        submit();
+        assertFalse(coalescer.invalidate());
+        coalescer.reset();
+        assertFalse(coalescer.isDirty());
+        assertFalse(coalescer.onTimeout());
+        assertTrue(coalescer.invalidate());
+    }
+}
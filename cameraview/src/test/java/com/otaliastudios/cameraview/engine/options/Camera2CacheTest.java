@@ -0,0 +1,132 @@
+package com.otaliastudios.cameraview.engine.options;
+
+
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class Camera2CacheTest {
+
+    private CameraManager manager;
+    private Camera2Cache cache;
+    private int registered;
+
+    @Before
+    public void setUp() throws CameraAccessException {
+        manager = mock(CameraManager.class);
+        when(manager.getCameraIdList()).thenReturn(new String[]{"0", "1"});
+        when(manager.getCameraCharacteristics("0")).thenReturn(mock(CameraCharacteristics.class));
+        when(manager.getCameraCharacteristics("1")).thenReturn(mock(CameraCharacteristics.class));
+        cache = new Camera2Cache() {
+            @Override
+            void register(@NonNull CameraManager manager) {
+                registered++;
+            }
+
+            @NonNull
+            @Override
+            Camera2Options createCameraOptions(@NonNull CameraManager manager,
+                                               @NonNull String cameraId,
+                                               boolean flipSizes,
+                                               int pictureFormat) {
+                return mock(Camera2Options.class);
+            }
+        };
+    }
+
+    @Test
+    public void testGetCameraIdList() throws CameraAccessException {
+        String[] ids = cache.getCameraIdList(manager);
+        assertArrayEquals(new String[]{"0", "1"}, ids);
+        assertSame(ids, cache.getCameraIdList(manager));
+        verify(manager, times(1)).getCameraIdList();
+        assertTrue(registered > 0);
+    }
+
+    @Test
+    public void testGetCameraIdList_stale() throws CameraAccessException {
+        String[] ids = cache.getCameraIdList(manager);
+        Camera2Options options = cache.getCameraOptions(manager, "0", false, 0);
+        // The list is queried again, but nothing is dropped if it did not change.
+        cache.onAvailabilityChanged("0");
+        assertSame(ids, cache.getCameraIdList(manager));
+        verify(manager, times(2)).getCameraIdList();
+        assertSame(options, cache.getCameraOptions(manager, "0", false, 0));
+        verify(manager, times(2)).getCameraIdList();
+    }
+
+    @Test
+    public void testGetCameraIdList_changed() throws CameraAccessException {
+        CameraCharacteristics first = cache.getCameraCharacteristics(manager, "0");
+        cache.getCameraCharacteristics(manager, "1");
+        Camera2Options options = cache.getCameraOptions(manager, "0", false, 0);
+        // An external camera was connected and camera 1 is gone.
+        when(manager.getCameraIdList()).thenReturn(new String[]{"0", "2"});
+        cache.onAvailabilityChanged("2");
+        assertArrayEquals(new String[]{"0", "2"}, cache.getCameraIdList(manager));
+        // Characteristics are kept for the ids that are still there, options are dropped.
+        assertSame(first, cache.getCameraCharacteristics(manager, "0"));
+        verify(manager, times(1)).getCameraCharacteristics("0");
+        assertNotSame(options, cache.getCameraOptions(manager, "0", false, 0));
+        cache.getCameraCharacteristics(manager, "1");
+        verify(manager, times(2)).getCameraCharacteristics("1");
+    }
+
+    @Test
+    public void testGetCameraCharacteristics() throws CameraAccessException {
+        CameraCharacteristics characteristics = cache.getCameraCharacteristics(manager, "0");
+        assertSame(characteristics, cache.getCameraCharacteristics(manager, "0"));
+        verify(manager, times(1)).getCameraCharacteristics("0");
+    }
+
+    @Test
+    public void testGetCameraOptions() throws CameraAccessException {
+        Camera2Options options = cache.getCameraOptions(manager, "0", false, 0);
+        assertSame(options, cache.getCameraOptions(manager, "0", false, 0));
+        assertNotSame(options, cache.getCameraOptions(manager, "0", true, 0));
+        assertNotSame(options, cache.getCameraOptions(manager, "0", false, 1));
+        assertNotSame(options, cache.getCameraOptions(manager, "1", false, 0));
+    }
+
+    @Test
+    public void testInvalidate() throws CameraAccessException {
+        cache.getCameraIdList(manager);
+        cache.getCameraCharacteristics(manager, "0");
+        CameraCharacteristics characteristics1 = cache.getCameraCharacteristics(manager, "1");
+        Camera2Options options0 = cache.getCameraOptions(manager, "0", false, 0);
+        Camera2Options options1 = cache.getCameraOptions(manager, "1", false, 0);
+        cache.invalidate("0");
+        // The ids are queried again.
+        cache.getCameraIdList(manager);
+        verify(manager, times(2)).getCameraIdList();
+        // Only camera 0 is dropped.
+        cache.getCameraCharacteristics(manager, "0");
+        verify(manager, times(2)).getCameraCharacteristics("0");
+        assertNotSame(options0, cache.getCameraOptions(manager, "0", false, 0));
+        assertSame(characteristics1, cache.getCameraCharacteristics(manager, "1"));
+        assertSame(options1, cache.getCameraOptions(manager, "1", false, 0));
+    }
+
+    @Test
+    public void testInvalidate_prefix() throws CameraAccessException {
+        // Invalidating "1" should not drop "10".
+        when(manager.getCameraIdList()).thenReturn(new String[]{"1", "10"});
+        Camera2Options options = cache.getCameraOptions(manager, "10", false, 0);
+        cache.invalidate("1");
+        assertSame(options, cache.getCameraOptions(manager, "10", false, 0));
+    }
+}
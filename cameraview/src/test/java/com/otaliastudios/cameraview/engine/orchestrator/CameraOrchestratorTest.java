@@ -0,0 +1,410 @@
+package com.otaliastudios.cameraview.engine.orchestrator;
+
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.otaliastudios.cameraview.internal.WorkerHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class CameraOrchestratorTest {
+
+    private static class Posted {
+        private final Runnable runnable;
+        private final long delay;
+        private final long time;
+
+        private Posted(@NonNull Runnable runnable, long delay, long time) {
+            this.runnable = runnable;
+            this.delay = delay;
+            this.time = time;
+        }
+    }
+
+    private CameraOrchestrator orchestrator;
+    private List<Posted> posted;
+    private List<String> executed;
+    private long now;
+
+    @Before
+    public void setUp() {
+        posted = new ArrayList<>();
+        executed = new ArrayList<>();
+        now = 1000L;
+        // A worker that runs actions synchronously, and queues posted actions
+        // until drain() is called. Time only moves with advance().
+        final WorkerHandler worker = mock(WorkerHandler.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                long delay = invocation.getArgument(0);
+                Runnable runnable = invocation.getArgument(1);
+                posted.add(new Posted(runnable, delay, now + delay));
+                return null;
+            }
+        }).when(worker).post(anyLong(), any(Runnable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Runnable runnable = invocation.getArgument(0);
+                Iterator<Posted> iterator = posted.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().runnable == runnable) iterator.remove();
+                }
+                return null;
+            }
+        }).when(worker).remove(any(Runnable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArgument(0)).run();
+                return null;
+            }
+        }).when(worker).run(any(Runnable.class));
+        doReturn(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        }).when(worker).getExecutor();
+        orchestrator = new CameraOrchestrator(new CameraOrchestrator.Callback() {
+            @NonNull
+            @Override
+            public WorkerHandler getJobWorker(@NonNull String job) {
+                return worker;
+            }
+
+            @Override
+            public void handleJobException(@NonNull String job, @NonNull Exception exception) {
+            }
+        }) {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+    }
+
+    private void drain() {
+        while (true) {
+            Posted next = null;
+            for (Posted candidate : posted) {
+                if (candidate.time <= now && (next == null || candidate.time < next.time)) {
+                    next = candidate;
+                }
+            }
+            if (next == null) return;
+            posted.remove(next);
+            next.runnable.run();
+        }
+    }
+
+    private void advance(long time) {
+        now += time;
+        drain();
+    }
+
+    @NonNull
+    private Runnable job(@NonNull final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                executed.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testSchedule() {
+        Task<Void> first = orchestrator.schedule("first", false, job("first"));
+        Task<Void> second = orchestrator.schedule("second", false, job("second"));
+        assertTrue(executed.isEmpty());
+        drain();
+        assertEquals(2, executed.size());
+        assertEquals("first", executed.get(0));
+        assertEquals("second", executed.get(1));
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+    }
+
+    @Test
+    public void testSchedule_supersede() {
+        Task<Void> first = orchestrator.schedule("zoom 1", "zoom", false, job("zoom 1"));
+        orchestrator.schedule("other", false, job("other"));
+        Task<Void> second = orchestrator.schedule("zoom 2", "zoom", false, job("zoom 2"));
+        assertTrue(first.isComplete());
+        assertTrue(first.getException() instanceof CancellationException);
+        drain();
+        assertEquals(2, executed.size());
+        assertEquals("other", executed.get(0));
+        assertEquals("zoom 2", executed.get(1));
+        assertTrue(second.isSuccessful());
+    }
+
+    private String value;
+
+    // Mirrors the engine setters: the value changes right away, the job applies it
+    // or restores the old one if it is not supported.
+    @NonNull
+    private Task<Void> setValue(@NonNull final String newValue) {
+        String old = value;
+        value = newValue;
+        return orchestrator.schedule("value (" + newValue + ")", "value", false, old,
+                new CameraOrchestrator.ValueJob<String>() {
+            @Override
+            public void run(String oldValue) {
+                if (value.equals("unsupported")) {
+                    value = oldValue;
+                } else {
+                    executed.add(value);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testSchedule_supersedeRestoresOldValue() {
+        value = "A";
+        setValue("B");
+        setValue("unsupported");
+        drain();
+        // B was never applied, so we should go back to A.
+        assertEquals("A", value);
+        assertTrue(executed.isEmpty());
+    }
+
+    @Test
+    public void testSchedule_supersedeRestoresOldValue_chain() {
+        value = "A";
+        setValue("B");
+        drain();
+        assertEquals("B", value);
+        setValue("C");
+        setValue("D");
+        setValue("unsupported");
+        drain();
+        assertEquals("B", value);
+        assertEquals(1, executed.size());
+    }
+
+    @Test
+    public void testSchedule_supersedeDifferentKeys() {
+        orchestrator.schedule("zoom", "zoom", false, job("zoom"));
+        orchestrator.schedule("flash", "flash", false, job("flash"));
+        orchestrator.schedule("no key", false, job("no key"));
+        orchestrator.schedule("no key", false, job("no key"));
+        drain();
+        assertEquals(4, executed.size());
+    }
+
+    @Test
+    public void testSchedule_supersedeKeepsStartedJob() {
+        final Task<?>[] second = new Task<?>[1];
+        Task<Void> first = orchestrator.schedule("first", "key", false, new Runnable() {
+            @Override
+            public void run() {
+                executed.add("first");
+                // first is running, so it should not be superseded.
+                second[0] = orchestrator.schedule("second", "key", false, job("second"));
+            }
+        });
+        drain();
+        assertTrue(first.isSuccessful());
+        assertTrue(second[0].isSuccessful());
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void testSchedule_supersedeWhileBlocked() {
+        final TaskCompletionSource<Void> running = new TaskCompletionSource<>();
+        final String key = "key";
+        Task<Void> first = orchestrator.schedule("first", key, false, job("first"));
+        // Block the queue so that the next jobs stay pending.
+        orchestrator.schedule("blocker", false, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                executed.add("blocker");
+                return running.getTask();
+            }
+        });
+        drain();
+        assertEquals(2, executed.size());
+        assertTrue(first.isSuccessful());
+        Task<Void> second = orchestrator.schedule("second", key, false, job("second"));
+        Task<Void> third = orchestrator.schedule("third", key, false, job("third"));
+        drain();
+        assertTrue(second.getException() instanceof CancellationException);
+        assertFalse(third.isComplete());
+        running.setResult(null);
+        drain();
+        assertTrue(third.isSuccessful());
+        assertEquals(3, executed.size());
+        assertEquals("third", executed.get(2));
+    }
+
+    @Test
+    public void testRemove() {
+        orchestrator.schedule("first", false, job("first"));
+        orchestrator.schedule("second", false, job("second"));
+        orchestrator.remove("first");
+        drain();
+        assertEquals(1, executed.size());
+        assertEquals("second", executed.get(0));
+    }
+
+    @Test
+    public void testResult() {
+        Task<String> task = orchestrator.schedule("result", false, new Callable<Task<String>>() {
+            @Override
+            public Task<String> call() {
+                return Tasks.forResult("value");
+            }
+        });
+        drain();
+        assertEquals("value", task.getResult());
+    }
+
+    @Test
+    public void testSchedule_singleWakeup() {
+        orchestrator.schedule("first", false, job("first"));
+        orchestrator.schedule("second", false, job("second"));
+        orchestrator.schedule("third", false, job("third"));
+        assertEquals(1, posted.size());
+        drain();
+        assertEquals(3, executed.size());
+    }
+
+    @Test
+    public void testScheduleDelayed() {
+        orchestrator.scheduleDelayed("late", false, 100, job("late"));
+        orchestrator.schedule("early", false, job("early"));
+        // The early job replaced the wakeup for the late one.
+        assertEquals(1, posted.size());
+        assertEquals(0L, posted.get(0).delay);
+        drain();
+        assertEquals(1, executed.size());
+        assertEquals("early", executed.get(0));
+        assertEquals(1, posted.size());
+        assertEquals(100L, posted.get(0).delay);
+        advance(99);
+        assertEquals(1, executed.size());
+        advance(1);
+        assertEquals(2, executed.size());
+        assertEquals("late", executed.get(1));
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void testScheduleDelayed_earlierWakeup() {
+        orchestrator.scheduleDelayed("first", false, 200, job("first"));
+        orchestrator.scheduleDelayed("second", false, 50, job("second"));
+        assertEquals(1, posted.size());
+        assertEquals(50L, posted.get(0).delay);
+        // A later job does not need a new wakeup.
+        orchestrator.scheduleDelayed("third", false, 300, job("third"));
+        assertEquals(1, posted.size());
+        advance(300);
+        assertEquals(3, executed.size());
+        assertEquals("second", executed.get(0));
+        assertEquals("first", executed.get(1));
+        assertEquals("third", executed.get(2));
+    }
+
+    @Test
+    public void testScheduleDelayed_fifo() {
+        for (int i = 0; i < 20; i++) {
+            orchestrator.scheduleDelayed("job " + i, false, 100, job("job " + i));
+        }
+        orchestrator.scheduleDelayed("sooner", false, 50, job("sooner"));
+        advance(100);
+        assertEquals(21, executed.size());
+        assertEquals("sooner", executed.get(0));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("job " + i, executed.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testScheduleDelayed_whileRunning() {
+        final TaskCompletionSource<Void> running = new TaskCompletionSource<>();
+        orchestrator.schedule("blocker", false, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return running.getTask();
+            }
+        });
+        drain();
+        // No wakeups while a job is running.
+        orchestrator.scheduleDelayed("delayed", false, 100, job("delayed"));
+        assertTrue(posted.isEmpty());
+        now += 200;
+        running.setResult(null);
+        assertEquals(1, posted.size());
+        assertEquals(0L, posted.get(0).delay);
+        drain();
+        assertEquals(1, executed.size());
+    }
+
+    @Test
+    public void testMetrics() {
+        final TaskCompletionSource<Void> running = new TaskCompletionSource<>();
+        orchestrator.schedule("async", false, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return running.getTask();
+            }
+        });
+        orchestrator.schedule("sync", false, job("sync"));
+        orchestrator.schedule("sync", false, job("sync"));
+        orchestrator.schedule("key", "key", false, job("key"));
+        orchestrator.schedule("key", "key", false, job("key"));
+        assertEquals(4, orchestrator.getQueueDepth());
+        Map<String, JobMetrics> metrics = orchestrator.getMetrics();
+        assertEquals(3, metrics.size());
+        assertEquals(2, metrics.get("sync").getQueueDepth());
+        assertEquals(1, metrics.get("key").getQueueDepth());
+        assertEquals(1, metrics.get("key").getSupersededCount());
+        assertEquals(2, metrics.get("key").getScheduledCount());
+
+        drain();
+        advance(30);
+        running.setResult(null);
+        drain();
+        metrics = orchestrator.getMetrics();
+        assertEquals(0, orchestrator.getQueueDepth());
+        JobMetrics async = metrics.get("async");
+        assertEquals(1, async.getExecutedCount());
+        assertEquals(0, async.getAverageWaitTime());
+        assertEquals(30, async.getMaxExecutionTime());
+        JobMetrics sync = metrics.get("sync");
+        assertEquals(0, sync.getQueueDepth());
+        assertEquals(2, sync.getMaxQueueDepth());
+        assertEquals(2, sync.getExecutedCount());
+        assertEquals(30, sync.getMaxWaitTime());
+        assertEquals(0, sync.getMaxExecutionTime());
+        assertEquals(1, metrics.get("key").getExecutedCount());
+    }
+}
@@ -0,0 +1,212 @@
+package com.otaliastudios.cameraview.engine.orchestrator;
+
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.otaliastudios.cameraview.internal.WorkerHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class JobTracerTest {
+
+    private CameraStateOrchestrator orchestrator;
+    private JobTracer tracer;
+    private List<Runnable> posted;
+    private long now;
+
+    @Before
+    public void setUp() {
+        posted = new ArrayList<>();
+        now = 0L;
+        final WorkerHandler worker = mock(WorkerHandler.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                posted.add((Runnable) invocation.getArgument(1));
+                return null;
+            }
+        }).when(worker).post(anyLong(), any(Runnable.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArgument(0)).run();
+                return null;
+            }
+        }).when(worker).run(any(Runnable.class));
+        doReturn(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        }).when(worker).getExecutor();
+        orchestrator = new CameraStateOrchestrator(new CameraOrchestrator.Callback() {
+            @NonNull
+            @Override
+            public WorkerHandler getJobWorker(@NonNull String job) {
+                return worker;
+            }
+
+            @Override
+            public void handleJobException(@NonNull String job, @NonNull Exception exception) {
+            }
+        });
+        tracer = new JobTracer() {
+            @Override
+            long now() {
+                return now;
+            }
+        };
+        orchestrator.setTracer(tracer);
+    }
+
+    private void drain() {
+        while (!posted.isEmpty()) {
+            now += 10;
+            posted.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testTrace() {
+        orchestrator.schedule("job", false, new Runnable() {
+            @Override
+            public void run() {
+                now += 5;
+            }
+        });
+        drain();
+        List<JobTracer.Trace> traces = tracer.getTraces();
+        assertEquals(1, traces.size());
+        JobTracer.Trace trace = traces.get(0);
+        assertEquals("job", trace.getName());
+        assertFalse(trace.isStateChange());
+        assertEquals(0, trace.getScheduleTime());
+        assertEquals(10, trace.getStartTime());
+        assertEquals(15, trace.getEndTime());
+        assertEquals(Thread.currentThread().getName(), trace.getThreadName());
+        assertEquals(JobTracer.Outcome.SUCCEEDED, trace.getOutcome());
+    }
+
+    @Test
+    public void testTrace_outcomes() {
+        orchestrator.schedule("failed", false, new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException();
+            }
+        });
+        orchestrator.schedule("canceled", false, new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return Tasks.forCanceled();
+            }
+        });
+        orchestrator.schedule("superseded", "key", false, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        orchestrator.schedule("key", "key", false, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        orchestrator.schedule("removed", false, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        orchestrator.remove("removed");
+        drain();
+        List<JobTracer.Trace> traces = tracer.getTraces();
+        assertEquals(5, traces.size());
+        assertEquals("superseded", traces.get(0).getName());
+        assertEquals(JobTracer.Outcome.SUPERSEDED, traces.get(0).getOutcome());
+        assertNull(traces.get(0).getThreadName());
+        assertEquals(JobTracer.Outcome.REMOVED, traces.get(1).getOutcome());
+        assertEquals(JobTracer.Outcome.FAILED, traces.get(2).getOutcome());
+        assertEquals(JobTracer.Outcome.CANCELED, traces.get(3).getOutcome());
+        assertEquals(JobTracer.Outcome.SUCCEEDED, traces.get(4).getOutcome());
+    }
+
+    @Test
+    public void testTrace_stateChange() {
+        orchestrator.scheduleStateChange(CameraState.OFF, CameraState.ENGINE, false,
+                new Callable<Task<Void>>() {
+            @Override
+            public Task<Void> call() {
+                return Tasks.forResult(null);
+            }
+        });
+        drain();
+        List<JobTracer.Trace> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        assertEquals("ENGINE", traces.get(0).getName());
+        assertTrue(traces.get(0).isStateChange());
+        assertNull(traces.get(0).getOutcome());
+        assertEquals("OFF >> ENGINE", traces.get(1).getName());
+        assertTrue(traces.get(1).isStateChange());
+        assertEquals(JobTracer.Outcome.SUCCEEDED, traces.get(1).getOutcome());
+    }
+
+    @Test
+    public void testMaxTraces() {
+        tracer = new JobTracer(2);
+        orchestrator.setTracer(tracer);
+        for (int i = 0; i < 5; i++) {
+            orchestrator.schedule("job " + i, false, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        drain();
+        List<JobTracer.Trace> traces = tracer.getTraces();
+        assertEquals(2, traces.size());
+        assertEquals("job 3", traces.get(0).getName());
+        assertEquals("job 4", traces.get(1).getName());
+        tracer.clear();
+        assertTrue(tracer.getTraces().isEmpty());
+    }
+
+    @Test
+    public void testChromeTrace() {
+        orchestrator.schedule("a \"job\"", false, new Runnable() {
+            @Override
+            public void run() {
+                now += 5;
+            }
+        });
+        drain();
+        String json = tracer.toChromeTrace();
+        long tid = Thread.currentThread().getId();
+        assertTrue(json.startsWith("{"));
+        assertTrue(json.endsWith("]}"));
+        assertTrue(json.contains("{\"name\":\"a \\\"job\\\"\",\"cat\":\"job\",\"ph\":\"X\","
+                + "\"ts\":10,\"dur\":5,\"pid\":1,\"tid\":" + tid
+                + ",\"args\":{\"outcome\":\"SUCCEEDED\"}}"));
+        assertTrue(json.contains("\"ph\":\"b\",\"id\":0,\"ts\":0"));
+        assertTrue(json.contains("\"ph\":\"e\",\"id\":0,\"ts\":10"));
+        assertTrue(json.contains("\"name\":\"thread_name\""));
+    }
+}
@@ -0,0 +1,64 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class DirectBufferFrameManagerCopyTest {
+
+    private final static int WIDTH = 4;
+    private final static int HEIGHT = 2;
+
+    @Test
+    public void testCopyToNV21() {
+        // Y plane has padding at the end of each row.
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{
+                1, 2, 3, 4, 0, 0,
+                5, 6, 7, 8});
+        // Chroma planes with pixel stride 2, like semi-planar images.
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{ 10, 0, 11 });
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{ 20, 0, 21 });
+        ByteBuffer output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 / 2);
+        DirectBufferFrameManager.copyToNV21(y, 6, u, v, 4, 2, WIDTH, HEIGHT, output,
+                new byte[DirectBufferFrameManager.getScratchSize(WIDTH, 2)]);
+        assertEquals(0, output.position());
+        assertEquals(12, output.limit());
+        byte[] expected = new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], output.get(i));
+        }
+    }
+
+    @Test
+    public void testCopyToNV21_planar() {
+        ByteBuffer y = ByteBuffer.wrap(new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8 });
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{ 10, 11 });
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{ 20, 21 });
+        ByteBuffer output = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 / 2);
+        DirectBufferFrameManager.copyToNV21(y, 4, u, v, 2, 1, WIDTH, HEIGHT, output,
+                new byte[DirectBufferFrameManager.getScratchSize(WIDTH, 1)]);
+        byte[] expected = new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], output.get(i));
+        }
+    }
+
+    @Test
+    public void testCopyToNV21_chromaRowStride() {
+        ByteBuffer y = ByteBuffer.wrap(new byte[16]);
+        // Two chroma rows with padding, the last row is not padded.
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{ 10, 0, 11, 0, 0, 0, 12, 0, 13 });
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{ 20, 0, 21, 0, 0, 0, 22, 0, 23 });
+        ByteBuffer output = ByteBuffer.allocateDirect(4 * 4 * 3 / 2);
+        DirectBufferFrameManager.copyToNV21(y, 4, u, v, 6, 2, 4, 4, output,
+                new byte[DirectBufferFrameManager.getScratchSize(4, 2)]);
+        assertEquals(24, output.limit());
+        byte[] expected = new byte[]{ 20, 10, 21, 11, 22, 12, 23, 13 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], output.get(16 + i));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import android.graphics.ImageFormat;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameConverterTest {
+
+    private FrameManager<String> manager;
+
+    @Before
+    public void setUp() {
+        manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+    }
+
+    @NonNull
+    private static byte[] randomNV21(int width, int height) {
+        byte[] data = new byte[width * height * 3 / 2];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    @NonNull
+    private Frame frame(@NonNull byte[] data, int width, int height, int rotation) {
+        Frame frame = new Frame(manager);
+        frame.setContent(data, 1000, rotation, 0, new Size(width, height), ImageFormat.NV21);
+        return frame;
+    }
+
+    /**
+     * The kind of loop that consumers usually write.
+     */
+    private static void naiveToArgb(@NonNull byte[] nv21, int width, int height,
+                                    @NonNull int[] output) {
+        int frameSize = width * height;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int uvIndex = frameSize + (j / 2) * width + (i / 2) * 2;
+                output[j * width + i] = FrameConverter.yuvToArgb(nv21[j * width + i],
+                        nv21[uvIndex + 1], nv21[uvIndex]);
+            }
+        }
+    }
+
+    @Test
+    public void testYuvToArgb() {
+        // Black, white and pure gray.
+        assertEquals(0xFF000000, FrameConverter.yuvToArgb((byte) 16, (byte) 128, (byte) 128));
+        assertEquals(0xFFFFFFFF, FrameConverter.yuvToArgb((byte) 255, (byte) 128, (byte) 128));
+        int gray = FrameConverter.yuvToArgb((byte) 126, (byte) 128, (byte) 128);
+        assertEquals((gray >> 16) & 0xFF, gray & 0xFF);
+        assertEquals((gray >> 8) & 0xFF, gray & 0xFF);
+    }
+
+    @Test
+    public void testToArgb() {
+        int width = 16, height = 8;
+        byte[] data = randomNV21(width, height);
+        int[] expected = new int[width * height];
+        naiveToArgb(data, width, height, expected);
+        int[] output = new int[width * height];
+        new FrameConverter().toArgb(frame(data, width, height, 0), output);
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void testToArgb_parallel() {
+        int width = 640, height = 480;
+        byte[] data = randomNV21(width, height);
+        int[] expected = new int[width * height];
+        naiveToArgb(data, width, height, expected);
+        int[] output = new int[width * height];
+        new FrameConverter(4).toArgb(frame(data, width, height, 0), output);
+        assertArrayEquals(expected, output);
+    }
+
+    @Test
+    public void testToArgb_rotation() {
+        int width = 4, height = 2;
+        byte[] data = randomNV21(width, height);
+        int[] plain = new int[width * height];
+        naiveToArgb(data, width, height, plain);
+        FrameConverter converter = new FrameConverter();
+        int[] output = new int[width * height];
+
+        // 90 degrees clockwise: the first column, bottom to top, becomes the first row.
+        Frame frame = frame(data, width, height, 90);
+        assertEquals(height, FrameConverter.getOutputWidth(frame, 1, true));
+        assertEquals(width, FrameConverter.getOutputHeight(frame, 1, true));
+        converter.toArgb(frame, output, 1, true);
+        assertEquals(plain[width], output[0]);
+        assertEquals(plain[0], output[1]);
+        assertEquals(plain[width + 1], output[2]);
+
+        // 180 degrees: reversed.
+        converter.toArgb(frame(data, width, height, 180), output, 1, true);
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(plain[plain.length - 1 - i], output[i]);
+        }
+
+        // 270 degrees: the last column, top to bottom, becomes the first row.
+        converter.toArgb(frame(data, width, height, 270), output, 1, true);
+        assertEquals(plain[width - 1], output[0]);
+        assertEquals(plain[2 * width - 1], output[1]);
+    }
+
+    @Test
+    public void testToLuma_downscale() {
+        int width = 8, height = 4;
+        byte[] data = randomNV21(width, height);
+        Frame frame = frame(data, width, height, 0);
+        assertEquals(4, FrameConverter.getOutputWidth(frame, 2, false));
+        assertEquals(2, FrameConverter.getOutputHeight(frame, 2, false));
+        byte[] output = new byte[8];
+        new FrameConverter().toLuma(frame, output, 2, false);
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 4; col++) {
+                assertEquals(data[row * 2 * width + col * 2], output[row * 4 + col]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testToLuma_outputTooSmall() {
+        new FrameConverter().toLuma(frame(randomNV21(4, 2), 4, 2, 0), new byte[4], 1, false);
+    }
+
+    @Test
+    public void testNv21ToRgba() {
+        int width = 16, height = 8;
+        byte[] data = randomNV21(width, height);
+        int[] expected = new int[width * height];
+        naiveToArgb(data, width, height, expected);
+        // Odd offsets, to check that chroma is picked from the right block.
+        int left = 3, top = 1, regionWidth = 9, regionHeight = 5;
+        byte[] output = new byte[regionWidth * regionHeight * 4];
+        FrameConverter.nv21ToRgba(data, width, height,
+                left, top, regionWidth, regionHeight, output);
+        for (int j = 0; j < regionHeight; j++) {
+            for (int i = 0; i < regionWidth; i++) {
+                int argb = expected[(top + j) * width + left + i];
+                int index = (j * regionWidth + i) * 4;
+                assertEquals((argb >> 16) & 0xFF, output[index] & 0xFF);
+                assertEquals((argb >> 8) & 0xFF, output[index + 1] & 0xFF);
+                assertEquals(argb & 0xFF, output[index + 2] & 0xFF);
+                assertEquals(0xFF, output[index + 3] & 0xFF);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNv21ToRgba_outOfBounds() {
+        FrameConverter.nv21ToRgba(randomNV21(4, 2), 4, 2, 2, 0, 4, 2, new byte[32]);
+    }
+}
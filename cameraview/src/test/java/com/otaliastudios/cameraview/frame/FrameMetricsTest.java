@@ -0,0 +1,60 @@
+package com.otaliastudios.cameraview.frame;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMetricsTest {
+
+    @Test
+    public void testHistogram_empty() {
+        FrameMetrics.Histogram histogram = new FrameMetrics.Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getAverage());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5F));
+    }
+
+    @Test
+    public void testHistogram() {
+        FrameMetrics.Histogram histogram = new FrameMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getAverage());
+        assertEquals(100, histogram.getMax());
+        // Percentiles are rounded up to the bucket bound, but never more than 2x.
+        long median = histogram.getPercentile(0.5F);
+        assertTrue(median >= 50 && median <= 100);
+        assertEquals(100, histogram.getPercentile(1F));
+        assertEquals(1, histogram.getPercentile(0F));
+    }
+
+    @Test
+    public void testHistogram_reset() {
+        FrameMetrics.Histogram histogram = new FrameMetrics.Histogram();
+        histogram.record(10);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(1F));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testDroppedFrames() {
+        FrameMetrics metrics = new FrameMetrics();
+        metrics.onFrameDropped(FrameMetrics.DROP_REASON_WRONG_STATE);
+        metrics.onFrameDropped(FrameMetrics.DROP_REASON_POLICY);
+        metrics.onFrameDropped(FrameMetrics.DROP_REASON_POLICY);
+        assertEquals(0, metrics.getDroppedFrames(FrameMetrics.DROP_REASON_NO_FREE_FRAME));
+        assertEquals(1, metrics.getDroppedFrames(FrameMetrics.DROP_REASON_WRONG_STATE));
+        assertEquals(2, metrics.getDroppedFrames(FrameMetrics.DROP_REASON_POLICY));
+        assertEquals(3, metrics.getDroppedFrames());
+        metrics.reset();
+        assertEquals(0, metrics.getDroppedFrames());
+    }
+}
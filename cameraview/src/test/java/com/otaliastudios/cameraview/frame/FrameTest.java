@@ -6,13 +6,17 @@ import android.graphics.ImageFormat;
 import androidx.annotation.NonNull;
 
 import com.otaliastudios.cameraview.size.Size;
+import com.otaliastudios.cameraview.tools.Allocations;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -69,6 +73,83 @@ public class FrameTest {
         assertThrows(new Runnable() { public void run() { frame.getSize(); }});
     }
 
+    private void assertNV21Planes(@NonNull Frame.Plane[] planes) {
+        assertEquals(3, planes.length);
+        // Y
+        assertEquals(4, planes[0].getRowStride());
+        assertEquals(1, planes[0].getPixelStride());
+        assertEquals(8, planes[0].getBuffer().remaining());
+        assertEquals(1, planes[0].getBuffer().get(0));
+        assertEquals(8, planes[0].getBuffer().get(7));
+        // U
+        assertEquals(4, planes[1].getRowStride());
+        assertEquals(2, planes[1].getPixelStride());
+        assertEquals(10, planes[1].getBuffer().get(0));
+        assertEquals(11, planes[1].getBuffer().get(2));
+        // V
+        assertEquals(4, planes[2].getRowStride());
+        assertEquals(2, planes[2].getPixelStride());
+        assertEquals(20, planes[2].getBuffer().get(0));
+        assertEquals(21, planes[2].getBuffer().get(2));
+    }
+
+    @Test
+    public void testGetPlanes_byteArray() {
+        byte[] data = new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11 };
+        Frame frame = new Frame(manager);
+        frame.setContent(data, 1000, 0, 0, new Size(4, 2), ImageFormat.NV21);
+        assertNV21Planes(frame.getPlanes());
+        // Planes are views, not copies.
+        data[0] = 100;
+        assertEquals(100, frame.getPlanes()[0].getBuffer().get(0));
+    }
+
+    @Test
+    public void testGetPlanes_byteBuffer() {
+        ByteBuffer data = ByteBuffer.allocateDirect(12);
+        data.put(new byte[]{ 1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11 });
+        Frame frame = new Frame(manager);
+        frame.setContent(data, 1000, 0, 0, new Size(4, 2), ImageFormat.NV21);
+        assertNV21Planes(frame.getPlanes());
+        // The frame buffer should not be changed.
+        assertEquals(12, data.position());
+    }
+
+    @Test
+    public void testGetPlanes_unsupported() {
+        final Frame frame = new Frame(manager);
+        frame.setContent("foo", 1000, 0, 0, new Size(4, 2), ImageFormat.NV21);
+        assertFails(new Runnable() { public void run() { frame.getPlanes(); }});
+        frame.setContent(new byte[16], 1000, 0, 0, new Size(4, 2), ImageFormat.NV16);
+        assertFails(new Runnable() { public void run() { frame.getPlanes(); }});
+    }
+
+    @Test
+    public void testRelease_noAllocations() {
+        // A manager that is not set up does not recycle frames, so this checks only
+        // the frame side. The manager side needs ImageFormat and is not tested here.
+        FrameManager<String> manager = new FrameManager<String>(1, String.class) {
+            @Override
+            protected void onFrameDataReleased(@NonNull String data, boolean recycled) { }
+
+            @NonNull
+            @Override
+            protected String onCloneFrameData(@NonNull String data) {
+                return data;
+            }
+        };
+        final Frame frame = new Frame(manager);
+        final String data = "data";
+        final Size size = new Size(10, 10);
+        Allocations.assertNoAllocations(new Allocations.Block() {
+            @Override
+            public void run(int iteration) {
+                frame.setContent(data, 100000L + iteration, 0, 0, size, ImageFormat.NV21);
+                frame.release();
+            }
+        });
+    }
+
     private void assertThrows(Runnable runnable) {
         try {
             runnable.run();
@@ -78,6 +159,16 @@ public class FrameTest {
         }
     }
 
+    private void assertFails(Runnable runnable) {
+        boolean thrown = false;
+        try {
+            runnable.run();
+        } catch (Exception e) {
+            thrown = true;
+        }
+        assertTrue("Expected an exception but found none.", thrown);
+    }
+
     @Test
     public void testFreeze() {
         Frame frame = new Frame(manager);
@@ -105,5 +196,4 @@ public class FrameTest {
         assertEquals(size, frozen.getSize());
         assertEquals(format, frozen.getFormat());
     }
-
 }
@@ -0,0 +1,72 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import com.otaliastudios.cameraview.size.Size;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BitmapDecoderTest {
+
+    private static int[] mapRect(int left, int top, int right, int bottom,
+                                 int rotation, boolean flip) {
+        // Source is 4x2.
+        int[] rect = new int[]{left, top, right, bottom};
+        BitmapDecoder.mapRect(rect, 4, 2, rotation, flip);
+        return rect;
+    }
+
+    @Test
+    public void testMapRect() {
+        // The top left pixel of the source, as seen in the output.
+        int[] topLeft = new int[]{0, 0, 1, 1};
+        assertArrayEquals(topLeft, mapRect(0, 0, 1, 1, 0, false));
+        assertArrayEquals(topLeft, mapRect(1, 0, 2, 1, 90, false));
+        assertArrayEquals(topLeft, mapRect(3, 1, 4, 2, 180, false));
+        assertArrayEquals(topLeft, mapRect(0, 3, 1, 4, 270, false));
+    }
+
+    @Test
+    public void testMapRect_flip() {
+        int[] topLeft = new int[]{0, 0, 1, 1};
+        assertArrayEquals(topLeft, mapRect(3, 0, 4, 1, 0, true));
+        assertArrayEquals(topLeft, mapRect(0, 0, 1, 1, 90, true));
+        assertArrayEquals(topLeft, mapRect(0, 1, 1, 2, 180, true));
+        assertArrayEquals(topLeft, mapRect(1, 3, 2, 4, 270, true));
+    }
+
+    @Test
+    public void testMapRect_full() {
+        assertArrayEquals(new int[]{0, 0, 4, 2}, mapRect(0, 0, 2, 4, 90, false));
+        assertArrayEquals(new int[]{0, 0, 4, 2}, mapRect(0, 0, 4, 2, 180, true));
+        assertArrayEquals(new int[]{0, 0, 4, 2}, mapRect(0, 0, 2, 4, 270, true));
+    }
+
+    @Test
+    public void testComputeTargetSize() {
+        assertEquals(new Size(4000, 3000),
+                BitmapDecoder.computeTargetSize(4000, 3000, -1, -1, 0));
+        assertEquals(new Size(4000, 3000),
+                BitmapDecoder.computeTargetSize(4000, 3000, 6000, 6000, 90));
+        assertEquals(new Size(1000, 750),
+                BitmapDecoder.computeTargetSize(4000, 3000, 1000, 1000, 0));
+        // Output is 3000x4000, which is scaled to fit 1000x500.
+        assertEquals(new Size(500, 375),
+                BitmapDecoder.computeTargetSize(4000, 3000, 1000, 500, 90));
+        // Never less than 1 pixel.
+        assertEquals(new Size(100, 1),
+                BitmapDecoder.computeTargetSize(4000, 10, 100, 100, 0));
+    }
+
+    @Test
+    public void testComputeSampleSize() {
+        assertEquals(1, BitmapDecoder.computeSampleSize(100, 100, 100, 100));
+        assertEquals(1, BitmapDecoder.computeSampleSize(100, 100, 51, 51));
+        assertEquals(2, BitmapDecoder.computeSampleSize(100, 100, 50, 50));
+        assertEquals(8, BitmapDecoder.computeSampleSize(4000, 3000, 500, 375));
+        assertEquals(4, BitmapDecoder.computeSampleSize(4000, 3000, 501, 375));
+        assertEquals(4, BitmapDecoder.computeSampleSize(4000, 3000, 500, 376));
+    }
+}
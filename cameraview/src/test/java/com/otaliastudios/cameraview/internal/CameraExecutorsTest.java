@@ -0,0 +1,150 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CameraExecutorsTest {
+
+    private CameraExecutors.Tracked executor;
+    private List<Runnable> queue;
+
+    @Before
+    public void setUp() {
+        executor = new CameraExecutors.Tracked("Test", 2);
+        queue = new ArrayList<>();
+        executor.setDelegate(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                queue.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void testMetrics() {
+        final int[] running = new int[1];
+        Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                running[0] = executor.getRunning();
+            }
+        };
+        executor.execute(action);
+        executor.execute(action);
+        assertEquals(2, executor.getQueueDepth());
+        assertEquals(2, executor.getMaxQueueDepth());
+
+        queue.remove(0).run();
+        assertEquals(1, running[0]);
+        assertEquals(1, executor.getQueueDepth());
+        assertEquals(0, executor.getRunning());
+        assertEquals(1, executor.getCompleted());
+
+        queue.remove(0).run();
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(2, executor.getMaxQueueDepth());
+        assertEquals(2, executor.getCompleted());
+    }
+
+    @Test
+    public void testMetrics_failure() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException();
+            }
+        });
+        try {
+            queue.remove(0).run();
+        } catch (RuntimeException ignore) {}
+        assertEquals(0, executor.getQueueDepth());
+        assertEquals(0, executor.getRunning());
+        assertEquals(1, executor.getCompleted());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejected() {
+        executor.setDelegate(new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() { }
+            });
+        } finally {
+            assertEquals(0, executor.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void testDefault() throws InterruptedException {
+        executor.setDelegate(null);
+        final CountDownLatch latch = new CountDownLatch(2);
+        final String[] names = new String[2];
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    names[index] = Thread.currentThread().getName();
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(names[0].startsWith("Test #"));
+        assertTrue(names[1].startsWith("Test #"));
+    }
+
+    @Test
+    public void testDefault_neverOnCaller() throws InterruptedException {
+        Executor executor = CameraExecutors.createDefault("Test", 1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException ignore) {}
+            }
+        };
+        // One running and many queued.
+        int count = 100;
+        for (int i = 0; i < count; i++) {
+            executor.execute(blocked);
+        }
+        // The queue grows instead of running this on the current thread.
+        final Thread[] thread = new Thread[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread[0] = Thread.currentThread();
+                done.countDown();
+            }
+        });
+        assertNull(thread[0]);
+        blocker.countDown();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), thread[0]);
+    }
+}
@@ -7,6 +7,8 @@ import com.otaliastudios.cameraview.internal.ExifHelper;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+
 import static junit.framework.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -35,4 +37,86 @@ public class ExifHelperTest {
         assertEquals(0, ExifHelper.getOrientation(Integer.MAX_VALUE));
     }
 
+    // A JPEG header with an APP0 segment, then an APP1 segment with the given orientation.
+    private static byte[] jpeg(int orientation, boolean littleEndian) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF); out.write(0xD8);
+        // APP0, 4 bytes of payload.
+        out.write(0xFF); out.write(0xE0); out.write(0); out.write(6);
+        out.write(1); out.write(2); out.write(3); out.write(4);
+        // APP1: Exif header (6), TIFF header (8), IFD0 with two entries (2 + 24 + 4).
+        int length = 2 + 6 + 8 + 2 + 24 + 4;
+        out.write(0xFF); out.write(0xE1); out.write(0); out.write(length);
+        out.write('E'); out.write('x'); out.write('i'); out.write('f'); out.write(0); out.write(0);
+        out.write(littleEndian ? 'I' : 'M'); out.write(littleEndian ? 'I' : 'M');
+        writeShort(out, 42, littleEndian);
+        writeInt(out, 8, littleEndian); // IFD0 offset
+        writeShort(out, 2, littleEndian);
+        // ImageWidth
+        writeShort(out, 0x0100, littleEndian); writeShort(out, 3, littleEndian);
+        writeShort(out, 0, littleEndian); writeShort(out, 1, littleEndian);
+        writeShort(out, 640, littleEndian); writeShort(out, 0, littleEndian);
+        // Orientation
+        writeShort(out, 0x0112, littleEndian); writeShort(out, 3, littleEndian);
+        writeShort(out, 0, littleEndian); writeShort(out, 1, littleEndian);
+        writeShort(out, orientation, littleEndian); writeShort(out, 0, littleEndian);
+        // Next IFD
+        writeInt(out, 0, littleEndian);
+        // Start of scan.
+        out.write(0xFF); out.write(0xDA);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        } else {
+            out.write((value >> 8) & 0xFF);
+            out.write(value & 0xFF);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            writeShort(out, value & 0xFFFF, true);
+            writeShort(out, (value >> 16) & 0xFFFF, true);
+        } else {
+            writeShort(out, (value >> 16) & 0xFFFF, false);
+            writeShort(out, value & 0xFFFF, false);
+        }
+    }
+
+    @Test
+    public void testReadOrientation() {
+        int first = ExifInterface.ORIENTATION_NORMAL;
+        int last = ExifInterface.ORIENTATION_ROTATE_270;
+        for (int i = first; i <= last; i++) {
+            assertEquals(i, ExifHelper.readOrientation(jpeg(i, false)));
+            assertEquals(i, ExifHelper.readOrientation(jpeg(i, true)));
+        }
+    }
+
+    @Test
+    public void testReadOrientation_invalid() {
+        assertEquals(ExifInterface.ORIENTATION_UNDEFINED,
+                ExifHelper.readOrientation(jpeg(9, false)));
+    }
+
+    @Test
+    public void testReadOrientation_missing() {
+        byte[] data = new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 0};
+        assertEquals(ExifInterface.ORIENTATION_UNDEFINED, ExifHelper.readOrientation(data));
+        // Truncated in the middle of the Exif segment.
+        byte[] full = jpeg(ExifInterface.ORIENTATION_ROTATE_90, false);
+        byte[] truncated = new byte[24];
+        System.arraycopy(full, 0, truncated, 0, truncated.length);
+        assertEquals(ExifInterface.ORIENTATION_UNDEFINED, ExifHelper.readOrientation(truncated));
+    }
+
+    @Test
+    public void testReadOrientation_notJpeg() {
+        assertEquals(-1, ExifHelper.readOrientation(new byte[]{'I', 'I', 42, 0, 8, 0, 0, 0}));
+        assertEquals(-1, ExifHelper.readOrientation(new byte[0]));
+    }
 }
@@ -0,0 +1,145 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FileChannelWriterTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("FileChannelWriterTest", "");
+        assertTrue(folder.delete());
+        assertTrue(folder.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(folder);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        }
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        File file = new File(folder, "file");
+        byte[] data = new byte[]{1, 2, 3, 4, 5};
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        assertEquals(5, new FileChannelWriter(false, false).write(file, buffer));
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void testWrite_gathering() throws IOException {
+        File file = new File(folder, "file");
+        ByteBuffer first = ByteBuffer.wrap(new byte[]{1, 2});
+        ByteBuffer second = ByteBuffer.allocateDirect(3);
+        second.put(new byte[]{3, 4, 5}).flip();
+        assertEquals(5, new FileChannelWriter(false, true).write(file, first, second));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, read(file));
+    }
+
+    @Test
+    public void testWrite_replaces() throws IOException {
+        File file = new File(folder, "file");
+        new FileChannelWriter(false, false).write(file, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        new FileChannelWriter(false, false).write(file, ByteBuffer.wrap(new byte[]{4}));
+        assertArrayEquals(new byte[]{4}, read(file));
+        new FileChannelWriter(true, false).write(file, ByteBuffer.wrap(new byte[]{5, 6}));
+        assertArrayEquals(new byte[]{5, 6}, read(file));
+    }
+
+    @Test
+    public void testWrite_atomic() throws IOException {
+        File file = new File(folder, "file");
+        new FileChannelWriter(true, true).write(file, ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertArrayEquals(new byte[]{1, 2, 3}, read(file));
+        // No leftovers.
+        String[] files = folder.list();
+        assertEquals(1, files.length);
+        assertEquals("file", files[0]);
+    }
+
+    @Test
+    public void testWrite_atomicConcurrent() throws Exception {
+        final File file = new File(folder, "file");
+        final int count = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final byte[] data = new byte[64 * 1024];
+            Arrays.fill(data, (byte) i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        new FileChannelWriter(true, false).write(file, ByteBuffer.wrap(data));
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        // The file holds one of the writes, not a mix of them.
+        byte[] data = read(file);
+        assertEquals(64 * 1024, data.length);
+        for (byte b : data) assertEquals(data[0], b);
+        assertEquals(1, folder.list().length);
+    }
+
+    @Test
+    public void testWrite_atomicFailure() throws IOException {
+        // The target is a non-empty directory, so it can't be replaced.
+        File file = new File(folder, "file");
+        assertTrue(file.mkdir());
+        assertTrue(new File(file, "child").createNewFile());
+        try {
+            new FileChannelWriter(true, false).write(file, ByteBuffer.wrap(new byte[]{1}));
+            fail();
+        } catch (IOException ignore) {}
+        assertTrue(file.isDirectory());
+        assertEquals(1, folder.list().length);
+    }
+}
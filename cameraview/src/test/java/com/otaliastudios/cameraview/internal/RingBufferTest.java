@@ -0,0 +1,145 @@
+package com.otaliastudios.cameraview.internal;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest {
+
+    private final static int CAPACITY = 5;
+
+    private RingBuffer<Integer> buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new RingBuffer<>(CAPACITY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_invalidCapacity() {
+        new RingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.size());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testOffer_whenFull() {
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertEquals(CAPACITY, buffer.size());
+        assertFalse(buffer.offer(100));
+    }
+
+    @Test
+    public void testFifo() {
+        // Cycle a few times through the array to test wrap-around.
+        for (int i = 0; i < CAPACITY * 10; i++) {
+            assertTrue(buffer.offer(i));
+            assertTrue(buffer.offer(i + 1));
+            assertEquals(i, (int) buffer.poll());
+            assertEquals(i + 1, (int) buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+        // Ensure it is still usable.
+        assertTrue(buffer.offer(3));
+        assertEquals(3, (int) buffer.poll());
+    }
+
+    @Test
+    public void testSameInstance() {
+        RingBuffer<byte[]> bytes = new RingBuffer<>(1);
+        byte[] array = new byte[10];
+        bytes.offer(array);
+        assertSame(array, bytes.poll());
+    }
+
+    @Test
+    public void testMatchesLinkedBlockingQueue() {
+        // Random sequence of operations should give the same results as
+        // the LinkedBlockingQueue that the frame managers used to have.
+        Queue<Integer> queue = new LinkedBlockingQueue<>(CAPACITY);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            if (random.nextBoolean()) {
+                assertEquals(queue.offer(i), buffer.offer(i));
+            } else {
+                assertEquals(queue.poll(), buffer.poll());
+            }
+            assertEquals(queue.size(), buffer.size());
+        }
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        // Simulate a pool: items are taken and given back from many threads.
+        // No item should ever be lost or duplicated.
+        final int threads = 4;
+        final int iterations = 20000;
+        final RingBuffer<Integer> pool = new RingBuffer<>(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) pool.offer(i);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger(0);
+        List<Thread> list = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            list.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < iterations; i++) {
+                            Integer item = pool.poll();
+                            if (item != null && !pool.offer(item)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ignore) {
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : list) thread.start();
+        start.countDown();
+        end.await();
+        assertEquals(0, failures.get());
+        assertEquals(CAPACITY, pool.size());
+        boolean[] seen = new boolean[CAPACITY];
+        Integer item;
+        while ((item = pool.poll()) != null) {
+            assertFalse(seen[item]);
+            seen[item] = true;
+        }
+        for (boolean s : seen) assertTrue(s);
+    }
+}
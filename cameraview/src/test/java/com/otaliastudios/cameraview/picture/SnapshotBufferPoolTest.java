@@ -0,0 +1,61 @@
+package com.otaliastudios.cameraview.picture;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SnapshotBufferPoolTest {
+
+    private SnapshotBufferPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new SnapshotBufferPool(2);
+    }
+
+    @Test
+    public void testBuffer() {
+        byte[] buffer = pool.obtainBuffer(10);
+        assertEquals(10, buffer.length);
+        pool.recycleBuffer(buffer);
+        assertSame(buffer, pool.obtainBuffer(10));
+    }
+
+    @Test
+    public void testBuffer_differentLength() {
+        byte[] buffer = pool.obtainBuffer(10);
+        pool.recycleBuffer(buffer);
+        byte[] other = pool.obtainBuffer(20);
+        assertEquals(20, other.length);
+        // The old one was dropped.
+        pool.recycleBuffer(other);
+        assertNotSame(buffer, pool.obtainBuffer(10));
+    }
+
+    @Test
+    public void testStream() {
+        ByteArrayOutputStream stream = pool.obtainStream();
+        stream.write(1);
+        pool.recycleStream(stream);
+        ByteArrayOutputStream reused = pool.obtainStream();
+        assertSame(stream, reused);
+        assertEquals(0, reused.size());
+    }
+
+    @Test
+    public void testClear() {
+        byte[] buffer = pool.obtainBuffer(10);
+        ByteArrayOutputStream stream = pool.obtainStream();
+        pool.recycleBuffer(buffer);
+        pool.recycleStream(stream);
+        pool.clear();
+        assertNotSame(buffer, pool.obtainBuffer(10));
+        assertNotSame(stream, pool.obtainStream());
+    }
+}
@@ -0,0 +1,54 @@
+package com.otaliastudios.cameraview.tools;
+
+import androidx.annotation.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the memory allocated by the current thread, to check that
+ * hot paths do not allocate.
+ */
+public class Allocations {
+
+    public static final int ITERATIONS = 10000;
+
+    public interface Block {
+        void run(int iteration);
+    }
+
+    private Allocations() { }
+
+    /**
+     * Returns the bytes allocated by the current thread while running the block
+     * {@link #ITERATIONS} times, after a warm up, or -1 if the JVM can not measure it.
+     */
+    public static long measure(@NonNull Block block) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) return -1;
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < ITERATIONS; i++) block.run(i);
+        long before = sunBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ITERATIONS; i++) block.run(i);
+        long after = sunBean.getThreadAllocatedBytes(thread);
+        return after - before;
+    }
+
+    /**
+     * Checks that the block does not allocate, or skips the test if
+     * the JVM can not measure it.
+     */
+    public static void assertNoAllocations(@NonNull Block block) {
+        long bytes = measure(block);
+        assumeTrue(bytes >= 0);
+        // Allow for some noise from the measurement itself. Allocating
+        // anything in each iteration would take way more than this.
+        assertTrue("Allocated " + bytes + " bytes.", bytes < ITERATIONS);
+    }
+}